@@ -0,0 +1,103 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobKey;
+
+import java.util.*;
+
+/**
+ * A {@link MisfirePolicy} for overloaded schedulers, which avoids the burst of recovery fires after an outage.
+ * <ul>
+ * <li>A trigger whose misfire instruction doesn't fire now, e.g. {@code MISFIRE_INSTRUCTION_DO_NOTHING}, keeps its
+ * misfire instruction.</li>
+ * <li>All the missed fires of one trigger are coalesced into one recovery fire, and if coalescing per job, all the
+ * misfired triggers of one job are coalesced into one recovery fire of the highest priority trigger, and the other
+ * triggers skip to their next regular fire time.</li>
+ * <li>The recovery fires are spread evenly over the recovery window, in trigger priority order,
+ * then missed fire time order, so the most important jobs recover first.</li>
+ * <li>A trigger whose next regular fire time is before its recovery slot skips to its regular fire time,
+ * which is the recovery.</li>
+ * </ul>
+ * Configure on {@link TimingWheelJobStore} by
+ * <pre>
+ * org.quartz.jobStore.misfirePolicyClass = com.yejianfengblue.spring.boot.quartz.AdaptiveMisfirePolicy
+ * </pre>
+ * with the default 30 seconds recovery window and coalescing per job,
+ * or {@link TimingWheelJobStore#setMisfirePolicy(MisfirePolicy)}.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class AdaptiveMisfirePolicy implements MisfirePolicy {
+
+    public static final long DEFAULT_RECOVERY_WINDOW = 30_000L;
+
+    private static final Comparator<Misfire> RECOVERY_ORDER =
+            Comparator.comparingInt(Misfire::getPriority).reversed()
+                      .thenComparing(Misfire::getNextFireTime)
+                      .thenComparing(Misfire::getTriggerKey);
+
+    private final long recoveryWindow;
+
+    private final boolean coalescePerJob;
+
+    public AdaptiveMisfirePolicy() {
+        this(DEFAULT_RECOVERY_WINDOW, true);
+    }
+
+    /**
+     * @param recoveryWindow milliseconds to spread the recovery fires over, 0 to recover all at once
+     * @param coalescePerJob true to recover one fire per job instead of one fire per trigger
+     */
+    public AdaptiveMisfirePolicy(long recoveryWindow, boolean coalescePerJob) {
+
+        if (recoveryWindow < 0) {
+            throw new IllegalArgumentException("Recovery window must not be negative");
+        }
+        this.recoveryWindow = recoveryWindow;
+        this.coalescePerJob = coalescePerJob;
+    }
+
+    @Override
+    public void handle(List<Misfire> misfires, long now) {
+
+        List<Misfire> ordered = new ArrayList<>(misfires);
+        ordered.sort(RECOVERY_ORDER);
+
+        List<Misfire> recoveries = new ArrayList<>();
+        Set<JobKey> recoveredJobs = new HashSet<>();
+        int coalesced = 0;
+        for (Misfire misfire : ordered) {
+            Date misfireInstructionFireTime = misfire.getMisfireInstructionFireTime();
+            Date regularFireTime = misfire.getRegularFireTimeAfter(now);
+            // the instruction doesn't fire now but at a regular fire time, so it doesn't add to the burst; compared
+            // with the regular fire time after now, as Quartz computes a fire now instruction by its own clock
+            if (null == misfireInstructionFireTime ||
+                (null != regularFireTime && misfireInstructionFireTime.getTime() >= regularFireTime.getTime())) {
+                misfire.applyMisfireInstruction();
+            } else if (coalescePerJob && !recoveredJobs.add(misfire.getJobKey())) {
+                misfire.skip();
+                coalesced++;
+            } else {
+                recoveries.add(misfire);
+            }
+        }
+
+        int slots = recoveries.size();
+        for (int slot = 0; slot < slots; slot++) {
+            Misfire misfire = recoveries.get(slot);
+            long recoverAt = now + recoveryWindow * slot / slots;
+            Date regularFireTime = misfire.getRegularFireTimeAfter(now);
+            if (null != regularFireTime && regularFireTime.getTime() <= recoverAt) {
+                misfire.skip();
+            } else {
+                misfire.recoverAt(recoverAt);
+            }
+        }
+
+        if (misfires.size() > 1) {
+            log.info("{} misfired triggers: {} recovery fires over {}ms, {} coalesced",
+                    misfires.size(), slots, recoveryWindow, coalesced);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.DirectSchedulerFactory;
+import org.quartz.simpl.SimpleThreadPool;
+import org.quartz.spi.OperableTrigger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author yejianfengblue
+ */
+@Slf4j
+class AdaptiveMisfirePolicyTest {
+
+    Scheduler scheduler;
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        if (null != scheduler) {
+            scheduler.shutdown(true);
+        }
+    }
+
+    @Value
+    static class Fire {
+
+        long time;
+
+        JobKey jobKey;
+
+        int priority;
+    }
+
+    static final Queue<Fire> fires = new ConcurrentLinkedQueue<>();
+
+    static CountDownLatch firedLatch;
+
+    public static class RecordingJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) {
+
+            fires.add(new Fire(System.currentTimeMillis(), context.getJobDetail().getKey(),
+                    context.getTrigger().getPriority()));
+            firedLatch.countDown();
+        }
+    }
+
+    @SneakyThrows
+    Scheduler startScheduler(String name, MisfirePolicy misfirePolicy) {
+
+        TimingWheelJobStore jobStore = new TimingWheelJobStore();
+        jobStore.setMisfireThreshold(1_000);
+        jobStore.setMisfirePolicy(misfirePolicy);
+        DirectSchedulerFactory.getInstance().createScheduler(name, name,
+                new SimpleThreadPool(10, Thread.NORM_PRIORITY), jobStore);
+        Scheduler scheduler = DirectSchedulerFactory.getInstance().getScheduler(name);
+        scheduler.start();
+        log.info("Test start");
+        return scheduler;
+    }
+
+    /**
+     * Schedule 50 jobs, each with 3 one-shot triggers, while the scheduler is in standby longer than the misfire
+     * threshold, then start the scheduler
+     *
+     * @return the fires after the scheduler is started
+     */
+    @SneakyThrows
+    private List<Fire> pauseAndRecover(int expectedFires) {
+
+        fires.clear();
+        firedLatch = new CountDownLatch(expectedFires);
+        scheduler.standby();
+        Date missedFireTime = new Date(System.currentTimeMillis() + 500);
+        for (int i = 0; i < 50; i++) {
+            JobDetail jobDetail = JobBuilder.newJob(RecordingJob.class)
+                                            .withIdentity("job-" + i, "misfire")
+                                            .build();
+            // the first 10 jobs are important
+            int priority = (i < 10) ? 10 : 5;
+            Set<Trigger> triggers = new HashSet<>();
+            for (int j = 0; j < 3; j++) {
+                triggers.add(TriggerBuilder.newTrigger()
+                                           .forJob(jobDetail)
+                                           .startAt(missedFireTime)
+                                           .withPriority(priority)
+                                           .build());
+            }
+            scheduler.scheduleJob(jobDetail, triggers, false);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(2_500);
+        scheduler.start();
+        assertThat(firedLatch.await(30, TimeUnit.SECONDS)).isTrue();
+        // no more fire expected
+        TimeUnit.MILLISECONDS.sleep(500);
+        List<Fire> recovered = new ArrayList<>(fires);
+        recovered.sort(Comparator.comparingLong(Fire::getTime));
+        return recovered;
+    }
+
+    /**
+     * @return the max number of fires within any 500ms
+     */
+    private static int burstOf(List<Fire> fires) {
+
+        int burst = 0;
+        int from = 0;
+        for (int to = 0; to < fires.size(); to++) {
+            while (fires.get(to).getTime() - fires.get(from).getTime() >= 500) {
+                from++;
+            }
+            burst = Math.max(burst, to - from + 1);
+        }
+        return burst;
+    }
+
+    @Test
+    @DisplayName("Given scheduler standby longer than misfire threshold, when start with misfire instruction policy " +
+                 "and then with adaptive policy, then adaptive policy coalesces per job, spreads the recovery " +
+                 "and recovers high priority jobs first")
+    @SneakyThrows
+    void givenSchedulerStandby_whenStartWithAdaptivePolicy_thenRecoveryCoalescedSpreadAndPrioritised() {
+
+        scheduler = startScheduler("misfire-instruction", MisfirePolicy.MISFIRE_INSTRUCTION);
+        List<Fire> instructionFires = pauseAndRecover(150);
+        scheduler.shutdown(true);
+
+        scheduler = startScheduler("adaptive-misfire", new AdaptiveMisfirePolicy(3_000, true));
+        List<Fire> adaptiveFires = pauseAndRecover(50);
+
+        int instructionBurst = burstOf(instructionFires);
+        int adaptiveBurst = burstOf(adaptiveFires);
+        log.info("Recovery of 150 misfired triggers of 50 jobs: misfire instruction = {} fires with burst {} " +
+                 "per 500ms, adaptive = {} fires with burst {} per 500ms",
+                instructionFires.size(), instructionBurst, adaptiveFires.size(), adaptiveBurst);
+
+        // every trigger fires once now
+        assertThat(instructionFires).hasSize(150);
+        assertThat(instructionBurst).isGreaterThan(100);
+
+        // one fire per job, over 3 seconds
+        assertThat(adaptiveFires).hasSize(50);
+        assertThat(adaptiveFires.stream().map(Fire::getJobKey).collect(Collectors.toSet())).hasSize(50);
+        assertThat(adaptiveBurst).isLessThanOrEqualTo(15);
+        assertThat(adaptiveFires.get(adaptiveFires.size() - 1).getTime() - adaptiveFires.get(0).getTime())
+                .isGreaterThan(2_000);
+        assertThat(adaptiveFires.subList(0, 10)).extracting(Fire::getPriority).containsOnly(10);
+    }
+
+    @Test
+    @DisplayName("Given misfires of different jobs, priorities and instructions, when adaptive policy handles, " +
+                 "then decide by priority, coalesce per job and keep instructions which don't fire now")
+    void givenMisfires_whenAdaptivePolicyHandles_thenDecideByPriorityAndCoalesce() {
+
+        long now = System.currentTimeMillis();
+        Date missed = new Date(now - 60_000);
+        MisfirePolicy.Misfire jobATrigger1 = misfire("a1", "job-a", 1,
+                TriggerBuilder.newTrigger().startAt(missed));
+        MisfirePolicy.Misfire jobATrigger2 = misfire("a2", "job-a", 5,
+                TriggerBuilder.newTrigger().startAt(missed));
+        MisfirePolicy.Misfire jobBTrigger = misfire("b", "job-b", 10,
+                TriggerBuilder.newTrigger().startAt(missed));
+        // every hour at minute 0, don't fire for the missed fire
+        MisfirePolicy.Misfire jobCTrigger = misfire("c", "job-c", 10,
+                TriggerBuilder.newTrigger().startAt(missed)
+                              .withSchedule(CronScheduleBuilder.cronSchedule("0 0 * * * ?")
+                                                               .withMisfireHandlingInstructionDoNothing()));
+        // every 10 seconds
+        MisfirePolicy.Misfire jobDTrigger = misfire("d", "job-d", 1,
+                TriggerBuilder.newTrigger().startAt(missed)
+                              .withSchedule(SimpleScheduleBuilder.repeatSecondlyForever(10)
+                                                                 .withMisfireHandlingInstructionFireNow()));
+
+        new AdaptiveMisfirePolicy(9_000, true)
+                .handle(List.of(jobATrigger1, jobATrigger2, jobBTrigger, jobCTrigger, jobDTrigger), now);
+
+        // recovery order b, a2, d in 3 slots of 3 seconds
+        assertThat(jobBTrigger.getAction()).isEqualTo(MisfirePolicy.Misfire.Action.RECOVER);
+        assertThat(jobBTrigger.getRecoverAt()).isEqualTo(now);
+        assertThat(jobATrigger2.getAction()).isEqualTo(MisfirePolicy.Misfire.Action.RECOVER);
+        assertThat(jobATrigger2.getRecoverAt()).isEqualTo(now + 3_000);
+        assertThat(jobATrigger1.getAction()).isEqualTo(MisfirePolicy.Misfire.Action.SKIP);
+        assertThat(jobCTrigger.getAction()).isEqualTo(MisfirePolicy.Misfire.Action.MISFIRE_INSTRUCTION);
+        // regular fire at now + 10s is after its recovery slot
+        assertThat(jobDTrigger.getRegularFireTimeAfter(now)).isEqualTo(new Date(now + 10_000));
+        assertThat(jobDTrigger.getAction()).isEqualTo(MisfirePolicy.Misfire.Action.RECOVER);
+        assertThat(jobDTrigger.getRecoverAt()).isEqualTo(now + 6_000);
+    }
+
+    private static MisfirePolicy.Misfire misfire(String triggerName, String jobName, int priority,
+                                                 TriggerBuilder<? extends Trigger> triggerBuilder) {
+
+        OperableTrigger trigger = (OperableTrigger) triggerBuilder.withIdentity(triggerName, "misfire")
+                                                                  .forJob(jobName, "misfire")
+                                                                  .withPriority(priority)
+                                                                  .build();
+        trigger.computeFirstFireTime(null);
+        return new MisfirePolicy.Misfire(trigger, null, false);
+    }
+}
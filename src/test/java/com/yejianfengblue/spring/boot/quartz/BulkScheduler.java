@@ -0,0 +1,497 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.*;
+import org.quartz.Calendar;
+import org.quartz.core.QuartzScheduler;
+import org.quartz.impl.StdScheduler;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.jdbcjobstore.Constants;
+import org.quartz.impl.jdbcjobstore.DriverDelegate;
+import org.quartz.impl.jdbcjobstore.LockException;
+import org.quartz.impl.jdbcjobstore.StdJDBCDelegate;
+import org.quartz.impl.jdbcjobstore.StdRowLockSemaphore;
+import org.quartz.simpl.CascadingClassLoadHelper;
+import org.quartz.spi.ClassLoadHelper;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk scheduling of many {@link JobDetail} and {@link Trigger} pairs on a Quartz JDBC job store.
+ * <p>
+ * {@code Scheduler.scheduleJob()} is one transaction and 3 or more statements per pair, and
+ * {@code Scheduler.scheduleJobs()} fails as a whole on the first existing key. This splits the pairs into
+ * chunks, and per chunk, in one transaction, takes the {@code TRIGGER_ACCESS} lock, checks the existing keys by
+ * one query per table and then inserts the pairs.
+ * <p>
+ * The rows are written by the {@link DriverDelegate} configured by the Quartz properties, i.e.
+ * {@code org.quartz.jobStore.driverDelegateClass}, {@code tablePrefix}, {@code useProperties} and
+ * {@code driverDelegateInitString}, so the job data and the vendor blob handling are the same as the scheduler's.
+ * The delegate inserts one row per statement, on a connection which adds the inserts to a JDBC batch per table,
+ * so a chunk is a few batch inserts.
+ * <p>
+ * The {@code TRIGGER_ACCESS} row lock is the lock a JDBC job store with DB locks, i.e. clustered or Spring's
+ * {@code LocalDataSourceJobStore}, takes to pause triggers and to acquire triggers, so a trigger group can't be
+ * paused between the paused group check and the inserts.
+ * <p>
+ * A pair which can't be scheduled is reported in {@link Result#getFailures()} and doesn't fail its chunk,
+ * e.g. {@link ObjectAlreadyExistsException} if the job or trigger already exists, or exists earlier in the same
+ * call. If an insert still fails, e.g. by a key inserted concurrently, the chunk is rolled back and its pairs are
+ * scheduled one by one by the scheduler.
+ * <p>
+ * The local scheduler thread is signalled once after all chunks, by the scheduler's {@link SchedulerSignaler},
+ * so no listener is notified as by the scheduler API. Other nodes of a cluster pick the new triggers on their
+ * next acquisition.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class BulkScheduler {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final String ALL_GROUPS_PAUSED = "_$_ALL_GROUPS_PAUSED_$_";
+
+    private static final String LOCK_TRIGGER_ACCESS = "TRIGGER_ACCESS";
+
+    private final Scheduler scheduler;
+
+    private final String schedulerName;
+
+    /**
+     * null if the scheduler is not a local {@link StdScheduler}
+     */
+    private final SchedulerSignaler signaler;
+
+    private final DataSource dataSource;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final DriverDelegate delegate;
+
+    private final StdRowLockSemaphore lockHandler;
+
+    private final String tablePrefix;
+
+    private final int chunkSize;
+
+    /**
+     * @param quartzProperties the Quartz properties of the scheduler, for its job store settings
+     */
+    public BulkScheduler(Scheduler scheduler,
+                         DataSource dataSource,
+                         PlatformTransactionManager transactionManager,
+                         Properties quartzProperties,
+                         int chunkSize) throws SchedulerException {
+
+        this.scheduler = scheduler;
+        this.schedulerName = scheduler.getSchedulerName();
+        this.signaler = schedulerSignalerOf(scheduler);
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tablePrefix = jobStoreProperty(quartzProperties, "tablePrefix", "QRTZ_");
+        this.chunkSize = chunkSize;
+
+        // like JobStoreSupport.getDelegate()
+        ClassLoadHelper classLoadHelper = new CascadingClassLoadHelper();
+        classLoadHelper.initialize();
+        String delegateClassName = jobStoreProperty(quartzProperties, "driverDelegateClass",
+                StdJDBCDelegate.class.getName());
+        try {
+            this.delegate = classLoadHelper.loadClass(delegateClassName, DriverDelegate.class)
+                                           .getDeclaredConstructor()
+                                           .newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new SchedulerConfigException("Couldn't create delegate " + delegateClassName, e);
+        }
+        this.delegate.initialize(log, tablePrefix, schedulerName, scheduler.getSchedulerInstanceId(),
+                classLoadHelper, Boolean.parseBoolean(jobStoreProperty(quartzProperties, "useProperties", "false")),
+                jobStoreProperty(quartzProperties, "driverDelegateInitString", null));
+        this.lockHandler = new StdRowLockSemaphore(tablePrefix, schedulerName,
+                jobStoreProperty(quartzProperties, "selectWithLockSQL", null));
+    }
+
+    private static String jobStoreProperty(Properties quartzProperties, String name, String defaultValue) {
+        return quartzProperties.getProperty(StdSchedulerFactory.PROP_JOB_STORE_PREFIX + "." + name, defaultValue);
+    }
+
+    /**
+     * The scheduler has no public API to wake up its scheduler thread without notifying the listeners, so get
+     * the signaler of its {@link QuartzScheduler}
+     */
+    private static SchedulerSignaler schedulerSignalerOf(Scheduler scheduler) {
+
+        if (!(scheduler instanceof StdScheduler)) {
+            return null;
+        }
+        try {
+            Field field = StdScheduler.class.getDeclaredField("sched");
+            field.setAccessible(true);
+            return ((QuartzScheduler) field.get(scheduler)).getSchedulerSignaler();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Fail to get the signaler of scheduler, new triggers are acquired after its idle wait", e);
+            return null;
+        }
+    }
+
+    @Value
+    public static class Item {
+
+        JobDetail jobDetail;
+
+        Trigger trigger;
+    }
+
+    @Value
+    public static class Failure {
+
+        /**
+         * Index in the given items
+         */
+        int index;
+
+        Item item;
+
+        SchedulerException exception;
+    }
+
+    @Value
+    public static class Result {
+
+        int scheduledCount;
+
+        List<Failure> failures;
+    }
+
+    /**
+     * Prepared pair, with the trigger's first fire time computed
+     */
+    @Value
+    private static class Pending {
+
+        int index;
+
+        Item item;
+
+        OperableTrigger trigger;
+    }
+
+    public Result scheduleJobs(List<Item> items) throws SchedulerException {
+
+        List<Failure> failures = new ArrayList<>();
+        int scheduledCount = 0;
+        long earliestNextFireTime = Long.MAX_VALUE;
+        Set<JobKey> seenJobKeys = new HashSet<>();
+        Set<TriggerKey> seenTriggerKeys = new HashSet<>();
+        Map<String, Calendar> calendars = new HashMap<>();
+
+        for (int chunkStart = 0; chunkStart < items.size(); chunkStart += chunkSize) {
+
+            List<Pending> chunk = new ArrayList<>(chunkSize);
+            for (int index = chunkStart; index < Math.min(items.size(), chunkStart + chunkSize); index++) {
+                Item item = items.get(index);
+                try {
+                    OperableTrigger trigger = prepare(item, calendars);
+                    if (!seenJobKeys.add(item.getJobDetail().getKey())) {
+                        throw new ObjectAlreadyExistsException(item.getJobDetail());
+                    }
+                    if (!seenTriggerKeys.add(trigger.getKey())) {
+                        throw new ObjectAlreadyExistsException(trigger);
+                    }
+                    chunk.add(new Pending(index, item, trigger));
+                    earliestNextFireTime = Math.min(earliestNextFireTime, trigger.getNextFireTime().getTime());
+                } catch (SchedulerException e) {
+                    failures.add(new Failure(index, item, e));
+                }
+            }
+
+            List<Pending> oneByOne = Collections.emptyList();
+            try {
+                List<Failure> chunkFailures = new ArrayList<>();
+                Integer inserted = transactionTemplate.execute(status -> insertChunk(chunk, chunkFailures));
+                failures.addAll(chunkFailures);
+                scheduledCount += (null != inserted) ? inserted : 0;
+            } catch (DataAccessException e) {
+                log.warn("Batch insert of items {} to {} failed, schedule them one by one",
+                        chunkStart, Math.min(items.size(), chunkStart + chunkSize) - 1, e);
+                oneByOne = chunk;
+            } finally {
+                // the row lock is released by the commit or rollback, this clears the lock handler's owner
+                lockHandler.releaseLock(LOCK_TRIGGER_ACCESS);
+            }
+
+            for (Pending pending : oneByOne) {
+                try {
+                    scheduler.scheduleJob(pending.getItem().getJobDetail(), pending.getItem().getTrigger());
+                    scheduledCount++;
+                } catch (SchedulerException e) {
+                    failures.add(new Failure(pending.getIndex(), pending.getItem(), e));
+                }
+            }
+        }
+
+        if (scheduledCount > 0 && scheduler.isStarted() && null != signaler) {
+            signaler.signalSchedulingChange(earliestNextFireTime);
+        }
+        failures.sort(Comparator.comparingInt(Failure::getIndex));
+        log.info("Bulk scheduled {} of {} items, {} failures", scheduledCount, items.size(), failures.size());
+        return new Result(scheduledCount, failures);
+    }
+
+    /**
+     * Validate and compute the first fire time, like {@code QuartzScheduler.scheduleJob()}
+     */
+    private OperableTrigger prepare(Item item, Map<String, Calendar> calendars) throws SchedulerException {
+
+        JobDetail jobDetail = item.getJobDetail();
+        if (null == jobDetail || null == item.getTrigger()) {
+            throw new SchedulerException("JobDetail and Trigger cannot be null");
+        }
+        if (null == jobDetail.getKey()) {
+            throw new SchedulerException("Job's key cannot be null");
+        }
+        if (null == jobDetail.getJobClass()) {
+            throw new SchedulerException("Job's class cannot be null");
+        }
+
+        OperableTrigger trigger = (OperableTrigger) ((OperableTrigger) item.getTrigger()).clone();
+        if (null == trigger.getJobKey()) {
+            trigger.setJobKey(jobDetail.getKey());
+        } else if (!trigger.getJobKey().equals(jobDetail.getKey())) {
+            throw new SchedulerException("Trigger does not reference given job!");
+        }
+        trigger.validate();
+
+        Calendar calendar = null;
+        if (null != trigger.getCalendarName()) {
+            calendar = calendars.computeIfAbsent(trigger.getCalendarName(), this::getCalendar);
+            if (null == calendar) {
+                throw new SchedulerException("Calendar not found: " + trigger.getCalendarName());
+            }
+        }
+        if (null == trigger.computeFirstFireTime(calendar)) {
+            throw new SchedulerException("Based on configured schedule, the given trigger '" + trigger.getKey() +
+                                         "' will never fire.");
+        }
+        return trigger;
+    }
+
+    private Calendar getCalendar(String calendarName) {
+
+        try {
+            return scheduler.getCalendar(calendarName);
+        } catch (SchedulerException e) {
+            log.warn("Fail to get calendar {}", calendarName, e);
+            return null;
+        }
+    }
+
+    /**
+     * In a transaction, lock, filter out the existing keys and insert the others by the delegate
+     *
+     * @return inserted count
+     */
+    private int insertChunk(List<Pending> chunk, List<Failure> failures) {
+
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        BatchingConnection batchingConnection = new BatchingConnection(connection);
+        try {
+            lockHandler.obtainLock(connection, LOCK_TRIGGER_ACCESS);
+            Set<JobKey> existingJobKeys = selectExistingJobKeys(chunk);
+            Set<TriggerKey> existingTriggerKeys = selectExistingTriggerKeys(chunk);
+            Set<String> pausedTriggerGroups = delegate.selectPausedTriggerGroups(connection);
+            boolean allGroupsPaused = pausedTriggerGroups.contains(ALL_GROUPS_PAUSED);
+
+            int inserted = 0;
+            for (Pending pending : chunk) {
+
+                JobDetail jobDetail = pending.getItem().getJobDetail();
+                OperableTrigger trigger = pending.getTrigger();
+                if (existingJobKeys.contains(jobDetail.getKey())) {
+                    failures.add(new Failure(pending.getIndex(), pending.getItem(),
+                            new ObjectAlreadyExistsException(jobDetail)));
+                    continue;
+                }
+                if (existingTriggerKeys.contains(trigger.getKey())) {
+                    failures.add(new Failure(pending.getIndex(), pending.getItem(),
+                            new ObjectAlreadyExistsException(trigger)));
+                    continue;
+                }
+
+                String state = (allGroupsPaused || pausedTriggerGroups.contains(trigger.getKey().getGroup()))
+                               ? Constants.STATE_PAUSED
+                               : Constants.STATE_WAITING;
+                delegate.insertJobDetail(batchingConnection.getConnection(), jobDetail);
+                delegate.insertTrigger(batchingConnection.getConnection(), trigger, state, jobDetail);
+                inserted++;
+            }
+            batchingConnection.executeBatches();
+            return inserted;
+        } catch (SQLException e) {
+            throw jdbcTemplate.getExceptionTranslator().translate("Bulk schedule", null, e);
+        } catch (IOException e) {
+            throw new InvalidDataAccessApiUsageException("Couldn't serialize job data: " + e.getMessage(), e);
+        } catch (LockException e) {
+            throw new CannotAcquireLockException(e.getMessage(), e);
+        } finally {
+            batchingConnection.close();
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private Set<JobKey> selectExistingJobKeys(List<Pending> chunk) {
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("schedulerName", schedulerName)
+                .addValue("names", chunk.stream()
+                                        .map(pending -> pending.getItem().getJobDetail().getKey().getName())
+                                        .collect(Collectors.toSet()));
+        // names are usually unique, so filter the group in memory rather than by a multi-column IN
+        return new HashSet<>(namedParameterJdbcTemplate.query(
+                "SELECT JOB_NAME, JOB_GROUP FROM " + tablePrefix + "JOB_DETAILS " +
+                "WHERE SCHED_NAME = :schedulerName AND JOB_NAME IN (:names)",
+                parameters,
+                (rs, rowNum) -> JobKey.jobKey(rs.getString("JOB_NAME"), rs.getString("JOB_GROUP"))));
+    }
+
+    private Set<TriggerKey> selectExistingTriggerKeys(List<Pending> chunk) {
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("schedulerName", schedulerName)
+                .addValue("names", chunk.stream()
+                                        .map(pending -> pending.getTrigger().getKey().getName())
+                                        .collect(Collectors.toSet()));
+        return new HashSet<>(namedParameterJdbcTemplate.query(
+                "SELECT TRIGGER_NAME, TRIGGER_GROUP FROM " + tablePrefix + "TRIGGERS " +
+                "WHERE SCHED_NAME = :schedulerName AND TRIGGER_NAME IN (:names)",
+                parameters,
+                (rs, rowNum) -> TriggerKey.triggerKey(rs.getString("TRIGGER_NAME"),
+                        rs.getString("TRIGGER_GROUP"))));
+    }
+
+    /**
+     * A connection whose prepared INSERT statements add to a JDBC batch per SQL instead of executing, so the
+     * delegate's single row inserts of a chunk go to the database as one batch per table.
+     * The batches are executed in the order their SQL is first prepared, which is parent table first, and before
+     * any other use of the connection, so the delegate still reads its own inserts.
+     */
+    private static final class BatchingConnection implements InvocationHandler {
+
+        private final Connection target;
+
+        private final Connection connection;
+
+        private final Map<String, PreparedStatement> batches = new LinkedHashMap<>();
+
+        BatchingConnection(Connection target) {
+
+            this.target = target;
+            this.connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            if ("prepareStatement".equals(method.getName()) && 1 == args.length &&
+                ((String) args[0]).trim().regionMatches(true, 0, "INSERT", 0, 6)) {
+                PreparedStatement statement = batches.get(args[0]);
+                if (null == statement) {
+                    statement = target.prepareStatement((String) args[0]);
+                    batches.put((String) args[0], statement);
+                }
+                return batching(statement);
+            }
+            executeBatches();
+            return invokeTarget(target, method, args);
+        }
+
+        private static PreparedStatement batching(PreparedStatement statement) {
+
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "executeUpdate":
+                                if (null == args) {
+                                    statement.addBatch();
+                                    return 1;
+                                }
+                                break;
+                            case "close":
+                                // closed after its batch is executed
+                                return null;
+                            default:
+                        }
+                        return invokeTarget(statement, method, args);
+                    });
+        }
+
+        private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        void executeBatches() throws SQLException {
+
+            try {
+                for (PreparedStatement statement : batches.values()) {
+                    statement.executeBatch();
+                }
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+
+            for (PreparedStatement statement : batches.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    log.debug("Fail to close statement", e);
+                }
+            }
+            batches.clear();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.asserts.ProxyTestDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.SchedulerListenerSupport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.quartz.QuartzProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bulk scheduling on an in-memory H2 JDBC job store
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.quartz.job-store-type = jdbc",
+        "spring.quartz.jdbc.initialize-schema = always",
+        // the bulk inserts go through the configured delegate, so the scheduler reads the compact job data
+        "spring.quartz.properties.org.quartz.jobStore.driverDelegateClass = " +
+        "com.yejianfengblue.spring.boot.quartz.CompactJobDataDelegate",
+        // thousands of statements logged at INFO would dominate the test time
+        "logging.level.net.ttddyy.dsproxy = WARN"
+})
+@Import(ProxyTestDataSourceConfig.class)
+@EnableAutoConfiguration
+@Slf4j
+class BulkSchedulerTest {
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    ProxyTestDataSource proxyTestDataSource;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    QuartzProperties quartzProperties;
+
+    @Configuration
+    static class Config {}
+
+    @SneakyThrows
+    BulkScheduler bulkScheduler() {
+
+        Properties properties = new Properties();
+        properties.putAll(quartzProperties.getProperties());
+        return new BulkScheduler(scheduler, proxyTestDataSource, transactionManager, properties,
+                BulkScheduler.DEFAULT_CHUNK_SIZE);
+    }
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        scheduler.clear();
+    }
+
+    static CountDownLatch firedLatch;
+
+    public static class LatchJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) {
+            firedLatch.countDown();
+        }
+    }
+
+    private static BulkScheduler.Item reminder(String name, Date startAt) {
+
+        JobDetail jobDetail = JobBuilder.newJob(LatchJob.class)
+                                        .withIdentity(name, "reminder")
+                                        .usingJobData("user", name)
+                                        .build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+                                        .withIdentity(name, "reminder")
+                                        .forJob(jobDetail)
+                                        .startAt(startAt)
+                                        .build();
+        return new BulkScheduler.Item(jobDetail, trigger);
+    }
+
+    private static BulkScheduler.Item cronReminder(String name, Date startAt, CronScheduleBuilder schedule) {
+
+        JobDetail jobDetail = JobBuilder.newJob(LatchJob.class)
+                                        .withIdentity(name, "reminder")
+                                        .build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+                                        .withIdentity(name, "reminder")
+                                        .forJob(jobDetail)
+                                        .startAt(startAt)
+                                        .withSchedule(schedule)
+                                        .build();
+        return new BulkScheduler.Item(jobDetail, trigger);
+    }
+
+    @Test
+    @DisplayName("Given 10k items with an existing job, a duplicate in batch and an invalid trigger, " +
+                 "when bulk schedule, then the others are scheduled and 3 failures are reported by index")
+    @SneakyThrows
+    void given10kItemsWithFailures_whenBulkSchedule_thenOthersScheduledAndFailuresReported() {
+
+        Date later = new Date(System.currentTimeMillis() + 3_600_000);
+        BulkScheduler.Item existing = reminder("reminder-7", later);
+        scheduler.scheduleJob(existing.getJobDetail(), existing.getTrigger());
+
+        List<BulkScheduler.Item> items = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            items.add((i % 10 == 0)
+                      ? cronReminder("reminder-" + i, later, CronScheduleBuilder.dailyAtHourAndMinute(12, 0))
+                      : reminder("reminder-" + i, later));
+        }
+        // duplicate in the same call
+        items.add(reminder("reminder-42", later));
+        // never fires
+        items.add(cronReminder("reminder-invalid", later, CronScheduleBuilder.cronSchedule("0 0 0 1 1 ? 2000")));
+
+        proxyTestDataSource.reset();
+        long start = System.currentTimeMillis();
+        BulkScheduler.Result result = bulkScheduler().scheduleJobs(items);
+        log.info("Bulk schedule {} items took {}ms, {} statement executions",
+                items.size(), System.currentTimeMillis() - start, proxyTestDataSource.getQueryExecutions().size());
+
+        assertThat(result.getScheduledCount()).isEqualTo(9_999);
+        assertThat(result.getFailures()).extracting(BulkScheduler.Failure::getIndex)
+                                        .containsExactly(7, 10_000, 10_001);
+        assertThat(result.getFailures().get(0).getException()).isInstanceOf(ObjectAlreadyExistsException.class);
+        assertThat(result.getFailures().get(1).getException()).isInstanceOf(ObjectAlreadyExistsException.class);
+        assertThat(result.getFailures().get(2).getException()).hasMessageContaining("will never fire");
+
+        // 20 chunks of 500, each with 1 lock query, 2 existence queries, 1 paused group query and 4 batch inserts
+        assertThat(proxyTestDataSource.getQueryExecutions().size()).isLessThan(200);
+
+        JobDetail jobDetail = scheduler.getJobDetail(JobKey.jobKey("reminder-9999", "reminder"));
+        assertThat(jobDetail.getJobDataMap().getString("user")).isEqualTo("reminder-9999");
+        assertThat(scheduler.getTrigger(TriggerKey.triggerKey("reminder-9999", "reminder")).getNextFireTime())
+                .isEqualTo(later);
+        assertThat(scheduler.getTriggerState(TriggerKey.triggerKey("reminder-9999", "reminder")))
+                .isEqualTo(Trigger.TriggerState.NORMAL);
+        assertThat(scheduler.getTrigger(TriggerKey.triggerKey("reminder-9990", "reminder")))
+                .isInstanceOf(CronTrigger.class);
+    }
+
+    @Test
+    @DisplayName("Given 1k items, when bulk schedule versus scheduleJob one by one, then compare duration")
+    @SneakyThrows
+    void given1kItems_whenBulkScheduleVersusOneByOne_thenCompareDuration() {
+
+        Date later = new Date(System.currentTimeMillis() + 3_600_000);
+        List<BulkScheduler.Item> items = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            items.add(reminder("one-by-one-" + i, later));
+        }
+        long start = System.currentTimeMillis();
+        for (BulkScheduler.Item item : items) {
+            scheduler.scheduleJob(item.getJobDetail(), item.getTrigger());
+        }
+        long oneByOneMillis = System.currentTimeMillis() - start;
+
+        items.clear();
+        for (int i = 0; i < 1_000; i++) {
+            items.add(reminder("bulk-" + i, later));
+        }
+        start = System.currentTimeMillis();
+        assertThat(bulkScheduler().scheduleJobs(items).getFailures()).isEmpty();
+        long bulkMillis = System.currentTimeMillis() - start;
+
+        log.info("Schedule 1000 items: one by one = {}ms, bulk = {}ms", oneByOneMillis, bulkMillis);
+    }
+
+    @Test
+    @DisplayName("Given bulk scheduled triggers due soon, when due, then all fire")
+    @SneakyThrows
+    void givenBulkScheduledTriggersDueSoon_whenDue_thenAllFire() {
+
+        firedLatch = new CountDownLatch(100);
+        Date soon = new Date(System.currentTimeMillis() + 1_000);
+        List<BulkScheduler.Item> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(reminder("soon-" + i, soon));
+        }
+
+        assertThat(bulkScheduler().scheduleJobs(items).getScheduledCount()).isEqualTo(100);
+        assertThat(firedLatch.await(30, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given paused trigger group, when bulk schedule, then triggers are paused " +
+                 "and no trigger listener or scheduler listener event is notified")
+    @SneakyThrows
+    void givenPausedTriggerGroup_whenBulkSchedule_thenPausedAndNoListenerEvent() {
+
+        AtomicInteger events = new AtomicInteger(0);
+        SchedulerListener countingListener = new SchedulerListenerSupport() {
+            @Override
+            public void triggersResumed(String triggerGroup) {
+                events.incrementAndGet();
+            }
+
+            @Override
+            public void jobScheduled(Trigger trigger) {
+                events.incrementAndGet();
+            }
+        };
+        scheduler.pauseTriggers(GroupMatcher.triggerGroupEquals("reminder"));
+        scheduler.getListenerManager().addSchedulerListener(countingListener);
+        try {
+            Date later = new Date(System.currentTimeMillis() + 3_600_000);
+            List<BulkScheduler.Item> items = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                items.add(reminder("paused-" + i, later));
+            }
+
+            assertThat(bulkScheduler().scheduleJobs(items).getScheduledCount()).isEqualTo(10);
+            assertThat(scheduler.getTriggerState(TriggerKey.triggerKey("paused-9", "reminder")))
+                    .isEqualTo(Trigger.TriggerState.PAUSED);
+            assertThat(events.get()).isZero();
+        } finally {
+            scheduler.getListenerManager().removeSchedulerListener(countingListener);
+            scheduler.resumeTriggers(GroupMatcher.triggerGroupEquals("reminder"));
+        }
+    }
+}
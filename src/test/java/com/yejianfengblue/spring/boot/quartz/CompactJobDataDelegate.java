@@ -0,0 +1,290 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.impl.jdbcjobstore.StdJDBCDelegate;
+import org.quartz.spi.ClassLoadHelper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link StdJDBCDelegate} which stores {@link JobDataMap} in a compact binary format instead of Java
+ * serialization, and skips {@code UPDATE QRTZ_JOB_DETAILS} when a {@code @PersistJobDataAfterExecution} job
+ * leaves its data unchanged.
+ * <p>
+ * Java serialization of a {@code JobDataMap} writes the class descriptors of the map and its super classes,
+ * about 1 KB before the first entry. The compact format is a magic header, then the entries sorted by key,
+ * each entry is the key, a type tag and the value. String, Integer, Long, Double, Float, Boolean and Date values
+ * are written natively, other values by Java serialization. Sorting makes the bytes deterministic, so equal maps
+ * have equal digests. Blobs without the magic header are read by Java serialization, so existing rows still load.
+ * <p>
+ * {@code JobStoreSupport} updates the job data whenever the map is dirty, and {@code JobDataMap.put()} marks it
+ * dirty even if the value is the same. This delegate keeps the digest of the job data last read or written
+ * per job, which is refreshed when the job is loaded to fire, and skips the update if the digest is unchanged.
+ * <p>
+ * Configure by
+ * <pre>
+ * org.quartz.jobStore.driverDelegateClass = com.yejianfengblue.spring.boot.quartz.CompactJobDataDelegate
+ * </pre>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class CompactJobDataDelegate extends StdJDBCDelegate {
+
+    private static final byte[] MAGIC = {'Q', 'J', 'D', 1};
+
+    private static final byte TYPE_NULL = 0;
+
+    private static final byte TYPE_STRING = 1;
+
+    private static final byte TYPE_INTEGER = 2;
+
+    private static final byte TYPE_LONG = 3;
+
+    private static final byte TYPE_DOUBLE = 4;
+
+    private static final byte TYPE_FLOAT = 5;
+
+    private static final byte TYPE_BOOLEAN = 6;
+
+    private static final byte TYPE_DATE = 7;
+
+    private static final byte TYPE_SERIALIZED = 8;
+
+    private final Map<JobKey, byte[]> jobDataDigests = new ConcurrentHashMap<>();
+
+    // ------------------------------------------------------------------------------------------------------------
+    // serialization
+
+    @Override
+    protected ByteArrayOutputStream serializeJobData(JobDataMap data) throws IOException {
+
+        if (canUseProperties()) {
+            return super.serializeJobData(data);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        Map<String, Object> sorted = (null != data) ? new TreeMap<>(data.getWrappedMap()) : Collections.emptyMap();
+        out.writeInt(sorted.size());
+        for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+        return bytes;
+    }
+
+    private static void writeValue(DataOutputStream out, String key, Object value) throws IOException {
+
+        if (null == value) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(serialized)) {
+                objectOut.writeObject(value);
+            } catch (NotSerializableException e) {
+                throw new NotSerializableException("Unable to serialize JobDataMap for insertion into " +
+                                                   "database because the value of property '" + key +
+                                                   "' is not serializable: " + e.getMessage());
+            }
+            out.writeByte(TYPE_SERIALIZED);
+            out.writeInt(serialized.size());
+            serialized.writeTo(out);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    protected Object getObjectFromBlob(ResultSet rs, String colName)
+            throws ClassNotFoundException, IOException, SQLException {
+
+        // also used for the calendar blobs, which are Java serialized, and for the trigger blobs, which are Java
+        // serialized except the trigger job data written by serializeJobData, so the magic header check is required
+        Blob blob = rs.getBlob(colName);
+        if (null == blob || blob.length() == 0) {
+            return null;
+        }
+        byte[] bytes = blob.getBytes(1, (int) blob.length());
+        if (!hasMagic(bytes)) {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return in.readObject();
+            }
+        }
+        return deserializeJobData(bytes);
+    }
+
+    private static boolean hasMagic(byte[] bytes) {
+
+        if (bytes.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Map<String, Object> deserializeJobData(byte[] bytes) throws IOException, ClassNotFoundException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, MAGIC.length,
+                bytes.length - MAGIC.length));
+        int size = in.readInt();
+        Map<String, Object> map = new HashMap<>(Math.max(4, size * 2));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_SERIALIZED:
+                byte[] serialized = new byte[in.readInt()];
+                in.readFully(serialized);
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+                    return objectIn.readObject();
+                }
+            default:
+                throw new StreamCorruptedException("Unknown job data type " + type);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // change detection
+
+    private byte[] digestOf(JobDataMap data) throws IOException {
+
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(serializeJobData(data).toByteArray());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int updateJobData(Connection conn, JobDetail job) throws IOException, SQLException {
+
+        byte[] digest = digestOf(job.getJobDataMap());
+        if (Arrays.equals(digest, jobDataDigests.get(job.getKey()))) {
+            log.trace("Job data of {} is unchanged, skip update", job.getKey());
+            return 1;
+        }
+        int updated = super.updateJobData(conn, job);
+        if (updated > 0) {
+            jobDataDigests.put(job.getKey(), digest);
+        }
+        return updated;
+    }
+
+    @Override
+    public JobDetail selectJobDetail(Connection conn, JobKey jobKey, ClassLoadHelper loadHelper)
+            throws ClassNotFoundException, IOException, SQLException {
+
+        JobDetail job = super.selectJobDetail(conn, jobKey, loadHelper);
+        if (null != job) {
+            jobDataDigests.put(jobKey, digestOf(job.getJobDataMap()));
+        } else {
+            jobDataDigests.remove(jobKey);
+        }
+        return job;
+    }
+
+    @Override
+    public int insertJobDetail(Connection conn, JobDetail job) throws IOException, SQLException {
+
+        // forget the digest first, so a failed insert can't leave a stale one
+        jobDataDigests.remove(job.getKey());
+        int inserted = super.insertJobDetail(conn, job);
+        if (inserted > 0) {
+            jobDataDigests.put(job.getKey(), digestOf(job.getJobDataMap()));
+        }
+        return inserted;
+    }
+
+    @Override
+    public int updateJobDetail(Connection conn, JobDetail job) throws IOException, SQLException {
+
+        jobDataDigests.remove(job.getKey());
+        int updated = super.updateJobDetail(conn, job);
+        if (updated > 0) {
+            jobDataDigests.put(job.getKey(), digestOf(job.getJobDataMap()));
+        }
+        return updated;
+    }
+
+    @Override
+    public int deleteJobDetail(Connection conn, JobKey jobKey) throws SQLException {
+
+        jobDataDigests.remove(jobKey);
+        return super.deleteJobDetail(conn, jobKey);
+    }
+}
@@ -0,0 +1,167 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.asserts.ProxyTestDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.jdbcjobstore.StdJDBCDelegate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.quartz.SchedulerFactoryBean;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compact job data and change detection on an in-memory H2 JDBC job store
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.quartz.job-store-type = jdbc",
+        "spring.quartz.jdbc.initialize-schema = always",
+        "spring.quartz.properties.org.quartz.jobStore.driverDelegateClass = " +
+        "com.yejianfengblue.spring.boot.quartz.CompactJobDataDelegate",
+        // 10k executions logged at INFO would dominate the test time
+        "logging.level.net.ttddyy.dsproxy = WARN"
+})
+@Import(ProxyTestDataSourceConfig.class)
+@EnableAutoConfiguration
+@Slf4j
+class CompactJobDataDelegateTest {
+
+    private static final int EXECUTION_COUNT = 10_000;
+
+    /**
+     * The job data changes once per this number of executions
+     */
+    private static final int CHANGE_EVERY = 100;
+
+    @Autowired
+    SchedulerFactoryBean schedulerFactoryBean;
+
+    @Autowired
+    ProxyTestDataSource proxyTestDataSource;
+
+    @Configuration
+    static class Config {}
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        schedulerFactoryBean.getScheduler().clear();
+    }
+
+    static CountDownLatch executedLatch;
+
+    static AtomicInteger executions = new AtomicInteger(0);
+
+    /**
+     * Like SchedulerTest.NonConcurrentDataSleepJob, but most executions re-put unchanged data
+     */
+    @PersistJobDataAfterExecution
+    @DisallowConcurrentExecution
+    public static class StatefulJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+
+            JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
+            int execution = executions.incrementAndGet();
+            // put() marks the map dirty even though the value is the same
+            jobDataMap.put("status", "OK");
+            if (execution % CHANGE_EVERY == 0) {
+                jobDataMap.put("checkpoint", execution);
+            }
+            executedLatch.countDown();
+        }
+    }
+
+    private static JobDataMap sampleJobData() {
+
+        JobDataMap jobDataMap = new JobDataMap();
+        jobDataMap.put("checkpoint", 0);
+        jobDataMap.put("status", "OK");
+        jobDataMap.put("tenant", "tenant-1");
+        jobDataMap.put("retryable", true);
+        jobDataMap.put("createdAt", new Date(0));
+        return jobDataMap;
+    }
+
+    @Test
+    @DisplayName("When serialize job data by compact delegate, then much smaller than Java serialization, " +
+                 "and deserialize to equal map")
+    @SneakyThrows
+    void whenSerializeJobDataByCompactDelegate_thenSmallerAndRoundTrip() {
+
+        JobDataMap jobDataMap = sampleJobData();
+
+        int javaSerializedSize = new StdJDBCDelegate() {
+
+            int serializedSize(JobDataMap data) throws IOException {
+                return serializeJobData(data).size();
+            }
+        }.serializedSize(jobDataMap);
+        byte[] compact = new CompactJobDataDelegate().serializeJobData(jobDataMap).toByteArray();
+        log.info("Job data serialized size: Java serialization = {} bytes, compact = {} bytes",
+                javaSerializedSize, compact.length);
+
+        assertThat(compact.length).isLessThan(javaSerializedSize / 4);
+        assertThat(CompactJobDataDelegate.deserializeJobData(compact)).isEqualTo(jobDataMap.getWrappedMap());
+    }
+
+    @Test
+    @DisplayName("Given @PersistJobDataAfterExecution job whose data changes every 100 executions, " +
+                 "when execute 10k times, then job data is updated about 100 times instead of 10k")
+    @SneakyThrows
+    void givenStatefulJobDataChangesEvery100Executions_whenExecute10kTimes_thenAbout100Updates() {
+
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        executedLatch = new CountDownLatch(EXECUTION_COUNT);
+        executions.set(0);
+
+        JobDetail jobDetail = JobBuilder.newJob(StatefulJob.class)
+                                        .withIdentity("stateful-job")
+                                        .storeDurably()
+                                        .usingJobData(sampleJobData())
+                                        .build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+                                        .forJob(jobDetail)
+                                        .startNow()
+                                        .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                                                                           .withIntervalInMilliseconds(1)
+                                                                           .withRepeatCount(EXECUTION_COUNT - 1))
+                                        .build();
+        proxyTestDataSource.reset();
+        scheduler.scheduleJob(jobDetail, trigger);
+
+        assertThat(executedLatch.await(120, TimeUnit.SECONDS)).isTrue();
+        // the job data of the last execution is written after the latch
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        long jobDataUpdates = proxyTestDataSource.getPrepareds().stream()
+                                                 .filter(prepared -> prepared.getQuery().startsWith("UPDATE") &&
+                                                                     prepared.getQuery().contains("JOB_DATA = ?") &&
+                                                                     prepared.getQuery().contains("JOB_DETAILS"))
+                                                 .count();
+        log.info("{} executions, {} job data updates, {} statements in total",
+                EXECUTION_COUNT, jobDataUpdates, proxyTestDataSource.getQueryExecutions().size());
+
+        // the default StdJDBCDelegate updates on every execution, because the map is always dirty
+        assertThat(jobDataUpdates).isLessThanOrEqualTo(EXECUTION_COUNT / CHANGE_EVERY);
+        assertThat(schedulerFactoryBean.getScheduler().getJobDetail(jobDetail.getKey()).getJobDataMap()
+                                       .getInt("checkpoint")).isEqualTo(EXECUTION_COUNT);
+    }
+}
@@ -0,0 +1,223 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.SchedulerConfigException;
+import org.quartz.spi.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Quartz {@link ThreadPool} for jobs which mostly sleep or wait on I/O.
+ * <p>
+ * Instead of pinning a fixed number of OS threads like {@code SimpleThreadPool}, concurrency is bounded by a
+ * {@link Semaphore} of {@code maxConcurrency} permits, and {@link #blockForAvailableThreads()} reports permits.
+ * Jobs run on virtual threads when the JDK supports them (JDK 21+) and {@code useVirtualThreads} is true,
+ * otherwise on an elastic executor which creates threads on demand and retires them after {@code keepAliveSeconds}
+ * idle.
+ * <p>
+ * Configure by
+ * <pre>
+ * org.quartz.threadPool.class = com.yejianfengblue.spring.boot.quartz.ElasticThreadPool
+ * org.quartz.threadPool.maxConcurrency = 1000
+ * </pre>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class ElasticThreadPool implements ThreadPool {
+
+    private int maxConcurrency = 1000;
+
+    private boolean useVirtualThreads = true;
+
+    private long keepAliveSeconds = 60;
+
+    private boolean makeThreadsDaemons = false;
+
+    private String instanceName = "QuartzScheduler";
+
+    private Semaphore permits;
+
+    private ExecutorService executor;
+
+    private boolean virtual;
+
+    private volatile boolean shutdown = false;
+
+    private final Object permitReleased = new Object();
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Ignored, size the pool by {@link #setMaxConcurrency(int)}.
+     * Only for {@code SchedulerFactoryBean} which always passes {@code org.quartz.threadPool.threadCount}.
+     */
+    public void setThreadCount(int threadCount) {
+        log.debug("threadCount {} is ignored, use maxConcurrency", threadCount);
+    }
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public void setKeepAliveSeconds(long keepAliveSeconds) {
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    public void setMakeThreadsDaemons(boolean makeThreadsDaemons) {
+        this.makeThreadsDaemons = makeThreadsDaemons;
+    }
+
+    /**
+     * @return true if jobs run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void initialize() throws SchedulerConfigException {
+
+        if (maxConcurrency <= 0) {
+            throw new SchedulerConfigException("maxConcurrency must be > 0");
+        }
+        permits = new Semaphore(maxConcurrency);
+
+        executor = useVirtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+        virtual = (null != executor);
+        if (!virtual) {
+            AtomicInteger threadNumber = new AtomicInteger(0);
+            // no core threads, unbounded max threads, the semaphore bounds the concurrency
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    keepAliveSeconds, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable,
+                                instanceName + "_Worker-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(makeThreadsDaemons);
+                        return thread;
+                    });
+        }
+        log.info("Initialized {} with maxConcurrency = {}, on {} threads",
+                getClass().getSimpleName(), maxConcurrency, virtual ? "virtual" : "elastic platform");
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() if present, resolved by reflection to keep Java 11 compatible
+     *
+     * @return null if the JDK doesn't support virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            log.warn("Fail to create virtual thread executor, fallback to elastic platform threads", e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean runInThread(Runnable runnable) {
+
+        if (null == runnable || shutdown) {
+            return false;
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    releasePermit();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            releasePermit();
+            log.error("Job rejected by executor", e);
+            return false;
+        }
+    }
+
+    private void releasePermit() {
+
+        permits.release();
+        synchronized (permitReleased) {
+            permitReleased.notifyAll();
+        }
+    }
+
+    @Override
+    public int blockForAvailableThreads() {
+
+        synchronized (permitReleased) {
+            while (permits.availablePermits() < 1 && !shutdown) {
+                try {
+                    permitReleased.wait(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void shutdown(boolean waitForJobsToComplete) {
+
+        shutdown = true;
+        synchronized (permitReleased) {
+            permitReleased.notifyAll();
+        }
+        if (null == executor) {
+            return;
+        }
+
+        if (waitForJobsToComplete) {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    log.debug("Waiting for {} running jobs to complete", maxConcurrency - permits.availablePermits());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public int getPoolSize() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public void setInstanceId(String schedInstId) {
+    }
+
+    @Override
+    public void setInstanceName(String schedName) {
+        this.instanceName = schedName;
+    }
+}
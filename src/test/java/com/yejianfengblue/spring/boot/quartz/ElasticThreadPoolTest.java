@@ -0,0 +1,125 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.StdSchedulerFactory;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author yejianfengblue
+ */
+@Slf4j
+class ElasticThreadPoolTest {
+
+    Scheduler scheduler;
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        if (null != scheduler) {
+            scheduler.shutdown(true);
+        }
+    }
+
+    @SneakyThrows
+    Scheduler startScheduler(String name, int maxConcurrency) {
+
+        Properties properties = new Properties();
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, name);
+        properties.setProperty(StdSchedulerFactory.PROP_THREAD_POOL_CLASS, ElasticThreadPool.class.getName());
+        properties.setProperty(StdSchedulerFactory.PROP_THREAD_POOL_PREFIX + ".maxConcurrency",
+                String.valueOf(maxConcurrency));
+        properties.setProperty("org.quartz.scheduler.batchTriggerAcquisitionMaxCount", "100");
+        properties.setProperty("org.quartz.jobStore.class", "org.quartz.simpl.RAMJobStore");
+
+        Scheduler scheduler = new StdSchedulerFactory(properties).getScheduler();
+        scheduler.start();
+        log.info("Test start");
+        return scheduler;
+    }
+
+    static CountDownLatch completedLatch;
+
+    static AtomicInteger running = new AtomicInteger(0);
+
+    static AtomicInteger maxRunning = new AtomicInteger(0);
+
+    /**
+     * Like SchedulerTest.NonConcurrentSleepJob but concurrent, simulate job waiting on I/O
+     */
+    public static class SleepJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1_000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                running.decrementAndGet();
+                completedLatch.countDown();
+            }
+        }
+    }
+
+    @SneakyThrows
+    void scheduleSleepJobs(int count) {
+
+        completedLatch = new CountDownLatch(count);
+        running.set(0);
+        maxRunning.set(0);
+        for (int i = 0; i < count; i++) {
+            JobDetail jobDetail = JobBuilder.newJob(SleepJob.class)
+                                            .build();
+            Trigger trigger = TriggerBuilder.newTrigger()
+                                            .forJob(jobDetail)
+                                            .startNow()
+                                            .build();
+            scheduler.scheduleJob(jobDetail, trigger);
+        }
+    }
+
+    @Test
+    @DisplayName("Given maxConcurrency 1000, when 500 sleep jobs fire, then they run concurrently far beyond 10 threads")
+    @SneakyThrows
+    void givenMaxConcurrency1000_when500SleepJobsFire_thenRunConcurrently() {
+
+        scheduler = startScheduler("elastic-thread-pool-test-1000", 1000);
+        assertThat(scheduler.getMetaData().getThreadPoolClass()).isEqualTo(ElasticThreadPool.class);
+        assertThat(scheduler.getMetaData().getThreadPoolSize()).isEqualTo(1000);
+
+        long start = System.currentTimeMillis();
+        scheduleSleepJobs(500);
+
+        // with SimpleThreadPool of 10 threads, 500 x 1s jobs take 50s
+        assertThat(completedLatch.await(20, TimeUnit.SECONDS)).isTrue();
+        log.info("500 sleep jobs completed in {}ms, max running = {}",
+                System.currentTimeMillis() - start, maxRunning.get());
+        assertThat(maxRunning.get()).isGreaterThan(10);
+    }
+
+    @Test
+    @DisplayName("Given maxConcurrency 2, when 6 sleep jobs fire, then at most 2 run at a time")
+    @SneakyThrows
+    void givenMaxConcurrency2_when6SleepJobsFire_thenAtMost2RunAtATime() {
+
+        scheduler = startScheduler("elastic-thread-pool-test-2", 2);
+        scheduleSleepJobs(6);
+
+        assertThat(completedLatch.await(20, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,33 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Reported by {@link JobWorker} to the completion queue after a {@link JobWorkMessage} is executed
+ *
+ * @author yejianfengblue
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobCompletion {
+
+    private String fireInstanceId;
+
+    private String jobGroup;
+
+    private String jobName;
+
+    private boolean success;
+
+    /**
+     * The exception class and message if not success
+     */
+    private String error;
+
+    private String worker;
+
+    private long durationMillis;
+}
@@ -0,0 +1,32 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.context.ApplicationEventPublisher;
+
+/**
+ * Consume {@link JobCompletion} on the scheduler side and publish it as application event,
+ * so {@code @EventListener(JobCompletion.class)} methods see the results of the dispatched jobs
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class JobCompletionReceiver {
+
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    @RabbitListener(queues = "${quartz.dispatch.completion-queue:" + RabbitDispatchConfig.DEFAULT_COMPLETION_QUEUE + "}")
+    public void receive(JobCompletion completion) {
+
+        if (completion.isSuccess()) {
+            log.debug("Job {}.{} fire {} completed by {} in {}ms", completion.getJobGroup(), completion.getJobName(),
+                    completion.getFireInstanceId(), completion.getWorker(), completion.getDurationMillis());
+        } else {
+            log.warn("Job {}.{} fire {} failed on {}: {}", completion.getJobGroup(), completion.getJobName(),
+                    completion.getFireInstanceId(), completion.getWorker(), completion.getError());
+        }
+        applicationEventPublisher.publishEvent(completion);
+    }
+}
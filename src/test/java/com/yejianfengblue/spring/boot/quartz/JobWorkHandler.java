@@ -0,0 +1,13 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+/**
+ * The real work of a dispatched job, registered as a bean and referred by bean name in the
+ * {@link RabbitDispatchJob#HANDLER} job data
+ *
+ * @author yejianfengblue
+ */
+@FunctionalInterface
+public interface JobWorkHandler {
+
+    void execute(JobWorkMessage message) throws Exception;
+}
@@ -0,0 +1,42 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * The payload of one fire of a {@link RabbitDispatchJob}, published to the work queue and executed by
+ * {@link JobWorker}
+ *
+ * @author yejianfengblue
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobWorkMessage {
+
+    /**
+     * {@link org.quartz.JobExecutionContext#getFireInstanceId()}, unique per fire, used as the correlation id
+     */
+    private String fireInstanceId;
+
+    private String jobGroup;
+
+    private String jobName;
+
+    /**
+     * Bean name of the {@link JobWorkHandler} which does the real work
+     */
+    private String handler;
+
+    private long scheduledFireTime;
+
+    private long fireTime;
+
+    /**
+     * The merged job data map, without the dispatch settings
+     */
+    private Map<String, Object> data;
+}
@@ -0,0 +1,63 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.Map;
+
+/**
+ * Consume {@link JobWorkMessage} from the work queue, execute it by the {@link JobWorkHandler} bean named by
+ * {@link JobWorkMessage#getHandler()}, and report a {@link JobCompletion} to the completion queue.
+ * <p>
+ * A failed or unknown handler is reported as not success, and the message is rejected without requeue, so it goes
+ * to the dead letter queue of the work queue instead of being redelivered forever.
+ * The number of concurrent workers is the listener container concurrency,
+ * e.g. {@code spring.rabbitmq.listener.simple.concurrency}.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class JobWorker {
+
+    private final Map<String, JobWorkHandler> handlers;
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final String completionQueue;
+
+    private final String workerName;
+
+    @RabbitListener(queues = "${quartz.dispatch.work-queue:" + RabbitDispatchConfig.DEFAULT_WORK_QUEUE + "}")
+    public void work(JobWorkMessage message) {
+
+        long start = System.nanoTime();
+        Exception failure = null;
+        JobWorkHandler handler = handlers.get(message.getHandler());
+        if (null == handler) {
+            failure = new IllegalArgumentException("No job work handler '" + message.getHandler() + "'");
+        } else {
+            try {
+                handler.execute(message);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+
+        rabbitTemplate.convertAndSend("", completionQueue, new JobCompletion(message.getFireInstanceId(),
+                message.getJobGroup(), message.getJobName(), null == failure,
+                (null == failure) ? null : failure.toString(), workerName, durationMillis));
+
+        if (null != failure) {
+            log.error("Fail to work {}.{} fire {}", message.getJobGroup(), message.getJobName(),
+                    message.getFireInstanceId(), failure);
+            throw new AmqpRejectAndDontRequeueException("Job work failed", failure);
+        }
+        log.debug("Work {}.{} fire {} in {}ms", message.getJobGroup(), message.getJobName(),
+                message.getFireInstanceId(), durationMillis);
+    }
+}
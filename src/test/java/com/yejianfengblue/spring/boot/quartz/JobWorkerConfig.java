@@ -0,0 +1,29 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.Map;
+
+/**
+ * {@link JobWorker} executing with all the {@link JobWorkHandler} beans by bean name.
+ * A worker application imports this and {@link RabbitDispatchConfig}, and doesn't need a scheduler.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class JobWorkerConfig {
+
+    @Bean
+    JobWorker jobWorker(Map<String, JobWorkHandler> handlers,
+                        RabbitTemplate rabbitTemplate,
+                        @Value("${quartz.dispatch.completion-queue:" + RabbitDispatchConfig.DEFAULT_COMPLETION_QUEUE + "}")
+                                String completionQueue,
+                        @Value("${quartz.dispatch.worker-name:${spring.application.name:job-worker}}")
+                                String workerName) {
+
+        return new JobWorker(handlers, rabbitTemplate, completionQueue, workerName);
+    }
+}
@@ -0,0 +1,149 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import org.quartz.Calendar;
+import org.quartz.JobKey;
+import org.quartz.TriggerKey;
+import org.quartz.spi.OperableTrigger;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Decide how {@link TimingWheelJobStore} recovers misfired triggers.
+ * <p>
+ * The store collects all the triggers misfired at one acquisition, e.g. all the triggers missed while the scheduler
+ * was in standby, or all the piled up triggers of a {@code @DisallowConcurrentExecution} job when its long execution
+ * ends, and passes them in one call, so a policy can decide the recovery of all of them together instead of each
+ * trigger deciding alone by its misfire instruction.
+ * A policy calls one of the actions on each {@link Misfire}. A misfire without action applies the misfire
+ * instruction of the trigger.
+ * <p>
+ * The call is made under the store locks, so a policy must not call the scheduler.
+ *
+ * @author yejianfengblue
+ */
+@FunctionalInterface
+public interface MisfirePolicy {
+
+    /**
+     * Each trigger decides alone by its misfire instruction, same as {@code RAMJobStore}
+     */
+    MisfirePolicy MISFIRE_INSTRUCTION = (misfires, now) -> misfires.forEach(Misfire::applyMisfireInstruction);
+
+    /**
+     * @param misfires the misfired triggers of one acquisition, in next fire time order
+     * @param now      the time the misfires are detected
+     */
+    void handle(List<Misfire> misfires, long now);
+
+    /**
+     * A misfired trigger and the action decided for it
+     */
+    final class Misfire {
+
+        enum Action {MISFIRE_INSTRUCTION, SKIP, RECOVER}
+
+        private final OperableTrigger trigger;
+
+        private final Calendar calendar;
+
+        private final boolean concurrentExecutionDisallowed;
+
+        private Action action = Action.MISFIRE_INSTRUCTION;
+
+        private long recoverAt;
+
+        Misfire(OperableTrigger trigger, Calendar calendar, boolean concurrentExecutionDisallowed) {
+
+            this.trigger = trigger;
+            this.calendar = calendar;
+            this.concurrentExecutionDisallowed = concurrentExecutionDisallowed;
+        }
+
+        public TriggerKey getTriggerKey() {
+            return trigger.getKey();
+        }
+
+        public JobKey getJobKey() {
+            return trigger.getJobKey();
+        }
+
+        public int getPriority() {
+            return trigger.getPriority();
+        }
+
+        /**
+         * @return the missed fire time
+         */
+        public Date getNextFireTime() {
+            return trigger.getNextFireTime();
+        }
+
+        public boolean isConcurrentExecutionDisallowed() {
+            return concurrentExecutionDisallowed;
+        }
+
+        /**
+         * @return the next fire time if the misfire instruction of the trigger is applied, null if the trigger will
+         * be complete
+         */
+        public Date getMisfireInstructionFireTime() {
+
+            OperableTrigger copy = (OperableTrigger) trigger.clone();
+            copy.updateAfterMisfire(calendar);
+            return copy.getNextFireTime();
+        }
+
+        /**
+         * @return the first regular fire time after the given time which is included in the calendar,
+         * null if the trigger will not fire after that
+         */
+        public Date getRegularFireTimeAfter(long time) {
+
+            Date fireTime = trigger.getFireTimeAfter(new Date(time));
+            while (null != fireTime && null != calendar && !calendar.isTimeIncluded(fireTime.getTime())) {
+                fireTime = trigger.getFireTimeAfter(fireTime);
+            }
+            return fireTime;
+        }
+
+        /**
+         * Apply the misfire instruction of the trigger
+         */
+        public void applyMisfireInstruction() {
+            this.action = Action.MISFIRE_INSTRUCTION;
+        }
+
+        /**
+         * Don't fire for the missed fire times, the next fire is the first regular fire time after now
+         */
+        public void skip() {
+            this.action = Action.SKIP;
+        }
+
+        /**
+         * Fire once at the given time for all the missed fire times, and then continue with the regular fire times
+         */
+        public void recoverAt(long time) {
+
+            this.action = Action.RECOVER;
+            this.recoverAt = time;
+        }
+
+        Action getAction() {
+            return action;
+        }
+
+        long getRecoverAt() {
+            return recoverAt;
+        }
+
+        OperableTrigger getTrigger() {
+            return trigger;
+        }
+
+        Calendar getCalendar() {
+            return calendar;
+        }
+    }
+}
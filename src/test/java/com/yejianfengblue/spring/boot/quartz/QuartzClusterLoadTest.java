@@ -0,0 +1,142 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.asserts.ProxyTestDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.quartz.SchedulerFactoryBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load test of the quartz-cluster profile (src/main/resources/application-quartz-cluster.yaml) on an in-memory H2.
+ * Schedule 10k short triggers, and measure fire lateness and the database statement count.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.quartz.auto-startup = false",
+        "spring.quartz.jdbc.initialize-schema = always",
+        "quartz.cluster.thread-count = 10",
+        "quartz.cluster.batch-trigger-acquisition-max-count = 10",
+        "quartz.cluster.batch-trigger-acquisition-fire-ahead-time-window = 50",
+        // 10k statements logged at INFO would dominate the test time
+        "logging.level.net.ttddyy.dsproxy = WARN"
+})
+@ActiveProfiles("quartz-cluster")
+@Import(ProxyTestDataSourceConfig.class)
+@EnableAutoConfiguration
+@Slf4j
+class QuartzClusterLoadTest {
+
+    private static final int TRIGGER_COUNT = 10_000;
+
+    /**
+     * All triggers are due within this window after the scheduler starts
+     */
+    private static final long FIRE_WINDOW_MILLIS = 10_000;
+
+    @Autowired
+    SchedulerFactoryBean schedulerFactoryBean;
+
+    @Autowired
+    ProxyTestDataSource proxyTestDataSource;
+
+    @Configuration
+    static class Config {}
+
+    static CountDownLatch firedLatch;
+
+    static Queue<Long> latenessMillis = new ConcurrentLinkedQueue<>();
+
+    public static class LatenessJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) {
+
+            latenessMillis.add(context.getFireTime().getTime() - context.getScheduledFireTime().getTime());
+            firedLatch.countDown();
+        }
+    }
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        schedulerFactoryBean.getScheduler().clear();
+        schedulerFactoryBean.stop();
+    }
+
+    @Test
+    @DisplayName("Given clustered JDBC store with batch trigger acquisition, when 10k triggers fire, " +
+                 "then all fire and lateness and statement count are reported")
+    @SneakyThrows
+    void givenClusteredJdbcStoreWithBatchAcquisition_when10kTriggersFire_thenAllFire() {
+
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        assertThat(scheduler.getMetaData().isJobStoreClustered()).isTrue();
+        scheduler.clear();
+
+        firedLatch = new CountDownLatch(TRIGGER_COUNT);
+        latenessMillis.clear();
+
+        // one durable job with many triggers, stored in one transaction
+        JobDetail jobDetail = JobBuilder.newJob(LatenessJob.class)
+                                        .withIdentity("lateness-job")
+                                        .storeDurably()
+                                        .build();
+        long scheduleStart = System.currentTimeMillis();
+        long fireStart = scheduleStart + 15_000;
+        Set<Trigger> triggers = new HashSet<>();
+        for (int i = 0; i < TRIGGER_COUNT; i++) {
+            triggers.add(TriggerBuilder.newTrigger()
+                                       .withIdentity("lateness-trigger-" + i)
+                                       .forJob(jobDetail)
+                                       .startAt(new Date(fireStart + (i % FIRE_WINDOW_MILLIS)))
+                                       .build());
+        }
+        scheduler.scheduleJobs(Map.of(jobDetail, triggers), false);
+        long scheduleEnd = System.currentTimeMillis();
+        log.info("Schedule {} triggers took {}ms, {} statements",
+                TRIGGER_COUNT, scheduleEnd - scheduleStart, proxyTestDataSource.getQueryExecutions().size());
+        assertThat(scheduleEnd).as("Scheduling must finish before the first trigger is due")
+                               .isLessThan(fireStart);
+
+        proxyTestDataSource.reset();
+        scheduler.start();
+
+        assertThat(firedLatch.await(FIRE_WINDOW_MILLIS + 60_000, TimeUnit.MILLISECONDS))
+                .as("All triggers should fire")
+                .isTrue();
+        int statementCount = proxyTestDataSource.getQueryExecutions().size();
+
+        long[] sortedLateness = latenessMillis.stream().mapToLong(Long::longValue).sorted().toArray();
+        log.info("Fired {} triggers, lateness ms min = {}, p50 = {}, p99 = {}, max = {}",
+                sortedLateness.length,
+                sortedLateness[0],
+                percentile(sortedLateness, 0.50),
+                percentile(sortedLateness, 0.99),
+                sortedLateness[sortedLateness.length - 1]);
+        log.info("{} statements while firing, {} statements per trigger",
+                statementCount, (double) statementCount / TRIGGER_COUNT);
+
+        assertThat(sortedLateness).hasSize(TRIGGER_COUNT);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
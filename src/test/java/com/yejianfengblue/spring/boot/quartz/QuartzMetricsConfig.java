@@ -0,0 +1,50 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.quartz.ListenerManager;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Register {@link QuartzMetricsListener} as global job, trigger and scheduler listener of the auto-configured
+ * scheduler, and expose the metrics by {@link QuartzMetricsEndpoint}.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class QuartzMetricsConfig {
+
+    @Bean
+    QuartzMetricsListener quartzMetricsListener(MeterRegistry meterRegistry) {
+        return new QuartzMetricsListener(meterRegistry);
+    }
+
+    /**
+     * Add the listener to those of the scheduler, rather than set the listeners of the {@code SchedulerFactoryBean},
+     * which would replace the listeners set by any other customizer. Added after all singletons are created and
+     * before the scheduler is started by its lifecycle, so no fire is missed.
+     */
+    @Bean
+    SmartInitializingSingleton quartzMetricsListenerRegistrar(Scheduler scheduler,
+                                                               QuartzMetricsListener quartzMetricsListener) {
+
+        return () -> {
+            try {
+                ListenerManager listenerManager = scheduler.getListenerManager();
+                listenerManager.addJobListener(quartzMetricsListener);
+                listenerManager.addTriggerListener(quartzMetricsListener);
+                listenerManager.addSchedulerListener(quartzMetricsListener);
+            } catch (SchedulerException e) {
+                throw new IllegalStateException("Fail to add Quartz metrics listener", e);
+            }
+        };
+    }
+
+    @Bean
+    QuartzMetricsEndpoint quartzMetricsEndpoint(QuartzMetricsListener quartzMetricsListener) {
+        return new QuartzMetricsEndpoint(quartzMetricsListener);
+    }
+}
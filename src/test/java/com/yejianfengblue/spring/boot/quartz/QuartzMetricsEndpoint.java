@@ -0,0 +1,124 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import org.quartz.JobKey;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Actuator endpoint {@code /actuator/quartzmetrics} of the metrics recorded by {@link QuartzMetricsListener},
+ * grouped by job group and then job name. {@code /actuator/quartzmetrics/{group}} for one job group.
+ *
+ * @author yejianfengblue
+ */
+@Endpoint(id = "quartzmetrics")
+@RequiredArgsConstructor
+public class QuartzMetricsEndpoint {
+
+    private final QuartzMetricsListener quartzMetricsListener;
+
+    @ReadOperation
+    public Map<String, Map<String, JobMetrics>> metrics() {
+
+        Map<String, Map<String, JobMetrics>> metricsByGroup = new TreeMap<>();
+        quartzMetricsListener.getJobMeters().forEach((jobKey, meters) ->
+                metricsByGroup.computeIfAbsent(jobKey.getGroup(), group -> new TreeMap<>())
+                              .put(jobKey.getName(), JobMetrics.of(meters)));
+        return metricsByGroup;
+    }
+
+    @ReadOperation
+    public Map<String, JobMetrics> groupMetrics(@Selector String group) {
+
+        Map<String, JobMetrics> metricsByJob = new TreeMap<>();
+        quartzMetricsListener.getJobMeters().forEach((jobKey, meters) -> {
+            if (jobKey.getGroup().equals(group)) {
+                metricsByJob.put(jobKey.getName(), JobMetrics.of(meters));
+            }
+        });
+        return metricsByJob;
+    }
+
+    /**
+     * @return null if the job has no metrics
+     */
+    public JobMetrics jobMetrics(JobKey jobKey) {
+
+        QuartzMetricsListener.JobMeters meters = quartzMetricsListener.getJobMeters().get(jobKey);
+        return (null != meters) ? JobMetrics.of(meters) : null;
+    }
+
+    @Value
+    public static class JobMetrics {
+
+        TimerSummary lateness;
+
+        TimerSummary earliness;
+
+        TimerSummary executionSuccess;
+
+        TimerSummary executionFailure;
+
+        long misfired;
+
+        long vetoed;
+
+        double misfireRate;
+
+        static JobMetrics of(QuartzMetricsListener.JobMeters meters) {
+
+            return new JobMetrics(TimerSummary.of(meters.getLateness()),
+                    TimerSummary.of(meters.getEarliness()),
+                    TimerSummary.of(meters.getExecutionSuccess()),
+                    TimerSummary.of(meters.getExecutionFailure()),
+                    (long) meters.getMisfired().count(),
+                    (long) meters.getVetoed().count(),
+                    meters.getMisfireRate());
+        }
+    }
+
+    /**
+     * Count and milliseconds
+     */
+    @Value
+    public static class TimerSummary {
+
+        long count;
+
+        double mean;
+
+        double max;
+
+        double p50;
+
+        double p99;
+
+        static TimerSummary of(Timer timer) {
+
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            double p50 = 0;
+            double p99 = 0;
+            for (ValueAtPercentile valueAtPercentile : snapshot.percentileValues()) {
+                if (valueAtPercentile.percentile() == 0.5) {
+                    p50 = valueAtPercentile.value(TimeUnit.MILLISECONDS);
+                } else if (valueAtPercentile.percentile() == 0.99) {
+                    p99 = valueAtPercentile.value(TimeUnit.MILLISECONDS);
+                }
+            }
+            return new TimerSummary(snapshot.count(),
+                    snapshot.mean(TimeUnit.MILLISECONDS),
+                    snapshot.max(TimeUnit.MILLISECONDS),
+                    p50,
+                    p99);
+        }
+    }
+}
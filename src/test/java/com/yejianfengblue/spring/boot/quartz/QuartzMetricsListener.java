@@ -0,0 +1,201 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.quartz.*;
+import org.quartz.listeners.SchedulerListenerSupport;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global Quartz listener which records, per job key and job group,
+ * <ul>
+ * <li>{@code quartz.trigger.lateness} actual fire time minus scheduled fire time, of a fire on or after time
+ * <li>{@code quartz.trigger.earliness} scheduled fire time minus actual fire time, of a fire ahead of time by the
+ * batch trigger acquisition fire-ahead time window, which a timer of non-negative durations can't keep as lateness
+ * <li>{@code quartz.job.execution} job run time, tagged by {@code outcome} success or failure
+ * <li>{@code quartz.trigger.misfired} misfire count
+ * <li>{@code quartz.job.vetoed} vetoed execution count
+ * </ul>
+ * and {@code quartz.scheduler.errors} for scheduler errors.
+ * <p>
+ * The meters are Micrometer timers and counters, whose histograms and counts are updated without locks,
+ * so recording from all worker threads doesn't serialize job execution.
+ * The meters of a job are removed from the registry when the job is deleted or the scheduler is cleared,
+ * including a non-durable job deleted after its last trigger by {@code RAMJobStore}, so generated job names don't
+ * grow the registry. A JDBC job store doesn't notify the deletion of such a job, so its generated job names should
+ * be bounded.
+ * Register by {@link QuartzMetricsConfig}.
+ *
+ * @author yejianfengblue
+ */
+@RequiredArgsConstructor
+public class QuartzMetricsListener extends SchedulerListenerSupport implements JobListener, TriggerListener {
+
+    public static final String NAME = "quartzMetricsListener";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<JobKey, JobMeters> jobMeters = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @return the meters of every job which has fired, misfired or been vetoed, and not been deleted
+     */
+    public Map<JobKey, JobMeters> getJobMeters() {
+        return jobMeters;
+    }
+
+    private JobMeters metersOf(JobKey jobKey) {
+        return jobMeters.computeIfAbsent(jobKey, key -> new JobMeters(meterRegistry, key));
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // TriggerListener
+
+    @Override
+    public void triggerFired(Trigger trigger, JobExecutionContext context) {
+
+        JobMeters meters = metersOf(trigger.getJobKey());
+        long latenessMillis = context.getFireTime().getTime() - context.getScheduledFireTime().getTime();
+        if (latenessMillis >= 0) {
+            meters.lateness.record(latenessMillis, TimeUnit.MILLISECONDS);
+        } else {
+            meters.earliness.record(-latenessMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+        return false;
+    }
+
+    @Override
+    public void triggerMisfired(Trigger trigger) {
+        metersOf(trigger.getJobKey()).misfired.increment();
+    }
+
+    @Override
+    public void triggerComplete(Trigger trigger,
+                                JobExecutionContext context,
+                                Trigger.CompletedExecutionInstruction triggerInstructionCode) {
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // JobListener
+
+    @Override
+    public void jobToBeExecuted(JobExecutionContext context) {
+    }
+
+    @Override
+    public void jobExecutionVetoed(JobExecutionContext context) {
+        metersOf(context.getJobDetail().getKey()).vetoed.increment();
+    }
+
+    @Override
+    public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+
+        JobMeters meters = metersOf(context.getJobDetail().getKey());
+        Timer execution = (null == jobException) ? meters.executionSuccess : meters.executionFailure;
+        execution.record(context.getJobRunTime(), TimeUnit.MILLISECONDS);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // SchedulerListener
+
+    @Override
+    public void schedulerError(String msg, SchedulerException cause) {
+        meterRegistry.counter("quartz.scheduler.errors").increment();
+    }
+
+    @Override
+    public void jobDeleted(JobKey jobKey) {
+
+        JobMeters meters = jobMeters.remove(jobKey);
+        if (null != meters) {
+            meters.remove(meterRegistry);
+        }
+    }
+
+    @Override
+    public void schedulingDataCleared() {
+        new ArrayList<>(jobMeters.keySet()).forEach(this::jobDeleted);
+    }
+
+    @Getter
+    public static class JobMeters {
+
+        private final Timer lateness;
+
+        private final Timer earliness;
+
+        private final Timer executionSuccess;
+
+        private final Timer executionFailure;
+
+        private final Counter misfired;
+
+        private final Counter vetoed;
+
+        JobMeters(MeterRegistry meterRegistry, JobKey jobKey) {
+
+            Tags tags = Tags.of("group", jobKey.getGroup(), "job", jobKey.getName());
+            this.lateness = Timer.builder("quartz.trigger.lateness")
+                                 .description("Actual fire time minus scheduled fire time")
+                                 .tags(tags)
+                                 .publishPercentiles(0.5, 0.99)
+                                 .publishPercentileHistogram()
+                                 .register(meterRegistry);
+            this.earliness = Timer.builder("quartz.trigger.earliness")
+                                  .description("Scheduled fire time minus actual fire time, of a fire ahead of time")
+                                  .tags(tags)
+                                  .publishPercentiles(0.5, 0.99)
+                                  .publishPercentileHistogram()
+                                  .register(meterRegistry);
+            this.executionSuccess = executionTimer(meterRegistry, tags, "success");
+            this.executionFailure = executionTimer(meterRegistry, tags, "failure");
+            this.misfired = meterRegistry.counter("quartz.trigger.misfired", tags);
+            this.vetoed = meterRegistry.counter("quartz.job.vetoed", tags);
+        }
+
+        private static Timer executionTimer(MeterRegistry meterRegistry, Tags tags, String outcome) {
+
+            return Timer.builder("quartz.job.execution")
+                        .description("Job run time")
+                        .tags(tags)
+                        .tag("outcome", outcome)
+                        .publishPercentiles(0.5, 0.99)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry);
+        }
+
+        void remove(MeterRegistry meterRegistry) {
+
+            for (Meter meter : new Meter[]{lateness, earliness, executionSuccess, executionFailure, misfired, vetoed}) {
+                meterRegistry.remove(meter);
+            }
+        }
+
+        /**
+         * @return misfires over fires plus misfires
+         */
+        public double getMisfireRate() {
+
+            double total = lateness.count() + earliness.count() + misfired.count();
+            return (0 == total) ? 0 : misfired.count() / total;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.matchers.KeyMatcher;
+import org.quartz.listeners.JobListenerSupport;
+import org.quartz.listeners.TriggerListenerSupport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.quartz.SchedulerFactoryBeanCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.quartz.SchedulerFactoryBean;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.quartz.job-store-type = memory",
+        "spring.quartz.properties.org.quartz.scheduler.batchTriggerAcquisitionMaxCount = 10",
+        "spring.quartz.properties.org.quartz.scheduler.batchTriggerAcquisitionFireAheadTimeWindow = 1000",
+        "management.endpoints.web.exposure.include = quartzmetrics"
+})
+@Import(QuartzMetricsConfig.class)
+@EnableAutoConfiguration
+@Slf4j
+class QuartzMetricsTest {
+
+    @Autowired
+    SchedulerFactoryBean schedulerFactoryBean;
+
+    @Autowired
+    QuartzMetricsEndpoint quartzMetricsEndpoint;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Configuration
+    static class Config {
+
+        /**
+         * Another global job listener set on the scheduler factory bean, which the metrics listener must not replace
+         */
+        @Bean
+        SchedulerFactoryBeanCustomizer countingJobListenerCustomizer() {
+            return schedulerFactoryBean -> schedulerFactoryBean.setGlobalJobListeners(COUNTING_JOB_LISTENER);
+        }
+    }
+
+    static final CountingJobListener COUNTING_JOB_LISTENER = new CountingJobListener();
+
+    static class CountingJobListener extends JobListenerSupport {
+
+        final AtomicInteger executed = new AtomicInteger();
+
+        @Override
+        public String getName() {
+            return "countingJobListener";
+        }
+
+        @Override
+        public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+            executed.incrementAndGet();
+        }
+    }
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        schedulerFactoryBean.getScheduler().clear();
+    }
+
+    static CountDownLatch executedLatch;
+
+    public static class SleepJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                executedLatch.countDown();
+            }
+        }
+    }
+
+    public static class FailingJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+
+            executedLatch.countDown();
+            throw new JobExecutionException("Fail on purpose");
+        }
+    }
+
+    @Test
+    @DisplayName("Given one-shot job fired and durable job deleted, then their meters are removed")
+    @SneakyThrows
+    void givenOneShotJobFiredAndDurableJobDeleted_thenMetersRemoved() {
+
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        executedLatch = new CountDownLatch(2);
+
+        JobDetail oneShotJob = JobBuilder.newJob(SleepJob.class)
+                                         .withIdentity("one-shot", "deleted")
+                                         .build();
+        scheduler.scheduleJob(oneShotJob, TriggerBuilder.newTrigger()
+                                                        .forJob(oneShotJob)
+                                                        .startNow()
+                                                        .build());
+        JobDetail durableJob = JobBuilder.newJob(SleepJob.class)
+                                         .withIdentity("durable", "deleted")
+                                         .storeDurably()
+                                         .build();
+        scheduler.scheduleJob(durableJob, TriggerBuilder.newTrigger()
+                                                        .forJob(durableJob)
+                                                        .startNow()
+                                                        .build());
+
+        assertThat(executedLatch.await(10, TimeUnit.SECONDS)).isTrue();
+        // listeners are notified after the job execution
+        TimeUnit.MILLISECONDS.sleep(500);
+        assertThat(scheduler.checkExists(oneShotJob.getKey())).isFalse();
+        assertThat(quartzMetricsEndpoint.groupMetrics("deleted")).containsOnlyKeys("durable");
+        assertThat(meterRegistry.find("quartz.trigger.lateness").tag("group", "deleted").timers()).hasSize(1);
+
+        scheduler.deleteJob(durableJob.getKey());
+        assertThat(quartzMetricsEndpoint.groupMetrics("deleted")).isEmpty();
+        assertThat(meterRegistry.find("quartz.trigger.lateness").tag("group", "deleted").timers()).isEmpty();
+        assertThat(meterRegistry.find("quartz.job.execution").tag("group", "deleted").timers()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Given job group with success, failure, misfire and veto, when triggers fire, " +
+                 "then endpoint reports lateness, execution, misfire and veto per job")
+    @SneakyThrows
+    void givenJobGroupWithSuccessFailureMisfireAndVeto_whenTriggersFire_thenEndpointReportsPerJob() {
+
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        executedLatch = new CountDownLatch(5);
+        int executedBefore = COUNTING_JOB_LISTENER.executed.get();
+
+        JobDetail sleepJob = JobBuilder.newJob(SleepJob.class)
+                                       .withIdentity("sleep", "metrics")
+                                       .storeDurably()
+                                       .build();
+        scheduler.scheduleJob(sleepJob, TriggerBuilder.newTrigger()
+                                                      .forJob(sleepJob)
+                                                      .startNow()
+                                                      .build());
+
+        JobDetail failingJob = JobBuilder.newJob(FailingJob.class)
+                                         .withIdentity("failing", "metrics")
+                                         .storeDurably()
+                                         .build();
+        scheduler.scheduleJob(failingJob, TriggerBuilder.newTrigger()
+                                                        .forJob(failingJob)
+                                                        .startNow()
+                                                        .build());
+
+        // fire time older than the default 5s misfire threshold, so it misfires and then fires now
+        JobDetail misfiredJob = JobBuilder.newJob(SleepJob.class)
+                                          .withIdentity("misfired", "metrics")
+                                          .storeDurably()
+                                          .build();
+        scheduler.scheduleJob(misfiredJob, TriggerBuilder.newTrigger()
+                                                         .forJob(misfiredJob)
+                                                         .startAt(new Date(System.currentTimeMillis() - 120_000))
+                                                         .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                                                                 .withMisfireHandlingInstructionFireNow())
+                                                         .build());
+
+        // fires within the 1s fire-ahead window of the first fire of a batch are acquired and fired with it, early
+        JobDetail earlyJob = JobBuilder.newJob(SleepJob.class)
+                                       .withIdentity("early", "metrics")
+                                       .storeDurably()
+                                       .build();
+        scheduler.addJob(earlyJob, false);
+        long firstFireTime = System.currentTimeMillis() + 1_000;
+        for (long fireTime : new long[]{firstFireTime, firstFireTime + 500}) {
+            scheduler.scheduleJob(TriggerBuilder.newTrigger()
+                                                .forJob(earlyJob)
+                                                .startAt(new Date(fireTime))
+                                                .build());
+        }
+
+        JobDetail vetoedJob = JobBuilder.newJob(SleepJob.class)
+                                        .withIdentity("vetoed", "metrics")
+                                        .storeDurably()
+                                        .build();
+        Trigger vetoedTrigger = TriggerBuilder.newTrigger()
+                                              .forJob(vetoedJob)
+                                              .startNow()
+                                              .build();
+        scheduler.getListenerManager().addTriggerListener(new TriggerListenerSupport() {
+
+            @Override
+            public String getName() {
+                return "vetoAll";
+            }
+
+            @Override
+            public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+                return true;
+            }
+        }, KeyMatcher.keyEquals(vetoedTrigger.getKey()));
+        scheduler.scheduleJob(vetoedJob, vetoedTrigger);
+
+        assertThat(executedLatch.await(10, TimeUnit.SECONDS)).isTrue();
+        // listeners are notified after the job execution
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        Map<String, QuartzMetricsEndpoint.JobMetrics> metrics = quartzMetricsEndpoint.groupMetrics("metrics");
+        log.info("{}", metrics);
+
+        assertThat(metrics).containsOnlyKeys("sleep", "failing", "misfired", "early", "vetoed");
+        QuartzMetricsEndpoint.JobMetrics sleep = metrics.get("sleep");
+        assertThat(sleep.getLateness().getCount()).isEqualTo(1);
+        assertThat(sleep.getEarliness().getCount()).isZero();
+        assertThat(sleep.getExecutionSuccess().getMean()).isGreaterThanOrEqualTo(100);
+        assertThat(sleep.getMisfireRate()).isZero();
+
+        assertThat(metrics.get("failing").getExecutionFailure().getCount()).isEqualTo(1);
+
+        QuartzMetricsEndpoint.JobMetrics misfired = metrics.get("misfired");
+        assertThat(misfired.getMisfired()).isEqualTo(1);
+        assertThat(misfired.getMisfireRate()).isEqualTo(0.5);
+
+        QuartzMetricsEndpoint.JobMetrics vetoed = metrics.get("vetoed");
+        assertThat(vetoed.getVetoed()).isEqualTo(1);
+        assertThat(vetoed.getExecutionSuccess().getCount()).isZero();
+
+        QuartzMetricsEndpoint.JobMetrics early = metrics.get("early");
+        assertThat(early.getLateness().getCount() + early.getEarliness().getCount()).isEqualTo(2);
+        assertThat(early.getEarliness().getCount()).isPositive();
+        assertThat(early.getEarliness().getMax()).isPositive().isLessThanOrEqualTo(1_000);
+        assertThat(early.getMisfireRate()).isZero();
+
+        assertThat(quartzMetricsEndpoint.metrics()).containsKey("metrics");
+        // sleep, failing, misfired and the 2 early fires
+        assertThat(COUNTING_JOB_LISTENER.executed.get() - executedBefore).isEqualTo(5);
+    }
+}
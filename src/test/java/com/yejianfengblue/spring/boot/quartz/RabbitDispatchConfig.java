@@ -0,0 +1,58 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * The queues and the JSON message converter shared by the scheduler and the workers.
+ * The scheduler side imports {@link RabbitDispatchSchedulerConfig} too, a worker imports {@link JobWorkerConfig}.
+ * <p>
+ * The work queue {@code quartz.dispatch.work-queue} dead letters to {@code <work queue>.dlq}.
+ * The completion queue is {@code quartz.dispatch.completion-queue}.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class RabbitDispatchConfig {
+
+    public static final String DEFAULT_WORK_QUEUE = "quartz-job-work";
+
+    public static final String DEFAULT_COMPLETION_QUEUE = "quartz-job-completion";
+
+    @Value("${quartz.dispatch.work-queue:" + DEFAULT_WORK_QUEUE + "}")
+    private String workQueue;
+
+    @Value("${quartz.dispatch.completion-queue:" + DEFAULT_COMPLETION_QUEUE + "}")
+    private String completionQueue;
+
+    @Bean
+    Queue jobWorkQueue() {
+        return QueueBuilder.durable(workQueue)
+                .deadLetterExchange("")
+                .deadLetterRoutingKey(workQueue + ".dlq")
+                .build();
+    }
+
+    @Bean
+    Queue jobWorkDeadLetterQueue() {
+        return QueueBuilder.durable(workQueue + ".dlq").build();
+    }
+
+    @Bean
+    Queue jobCompletionQueue() {
+        return QueueBuilder.durable(completionQueue).build();
+    }
+
+    /**
+     * Picked up by the auto-configured {@code RabbitTemplate} and listener container factory
+     */
+    @Bean
+    MessageConverter jsonMessageConverter() {
+        return new Jackson2JsonMessageConverter();
+    }
+}
@@ -0,0 +1,109 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A job which doesn't do the work but publishes a {@link JobWorkMessage} to the work queue, so the scheduler threads
+ * are busy only for the publish and the workers, {@link JobWorker}, scale out independently.
+ * <p>
+ * The job waits for the publisher confirm, so a fire completes only when the broker has taken the message.
+ * A nack, a return of an unroutable message or a confirm timeout fails the job execution with
+ * {@link JobExecutionException}, which the job listeners see.
+ * Publisher confirm and return must be enabled by {@code spring.rabbitmq.publisher-confirm-type = correlated},
+ * {@code spring.rabbitmq.publisher-returns = true} and {@code spring.rabbitmq.template.mandatory = true}.
+ * <p>
+ * Job data {@link #HANDLER} is required. {@link #WORK_QUEUE} is optional and overrides
+ * {@code quartz.dispatch.work-queue}. Both are set by {@link org.springframework.scheduling.quartz.SpringBeanJobFactory}
+ * as bean properties, and the other job data is the message data.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class RabbitDispatchJob implements Job {
+
+    public static final String HANDLER = "handler";
+
+    public static final String WORK_QUEUE = "workQueue";
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final Duration confirmTimeout;
+
+    private String handler;
+
+    private String workQueue;
+
+    public RabbitDispatchJob(RabbitTemplate rabbitTemplate,
+                             @Value("${quartz.dispatch.work-queue:" + RabbitDispatchConfig.DEFAULT_WORK_QUEUE + "}")
+                                     String workQueue,
+                             @Value("${quartz.dispatch.confirm-timeout:10s}") Duration confirmTimeout) {
+
+        this.rabbitTemplate = rabbitTemplate;
+        this.workQueue = workQueue;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    public void setHandler(String handler) {
+        this.handler = handler;
+    }
+
+    public void setWorkQueue(String workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+
+        JobKey jobKey = context.getJobDetail().getKey();
+        if (null == handler) {
+            throw new JobExecutionException("Job data '" + HANDLER + "' is required for " + jobKey);
+        }
+
+        JobDataMap mergedJobDataMap = context.getMergedJobDataMap();
+        Map<String, Object> data = new HashMap<>(mergedJobDataMap.getWrappedMap());
+        data.remove(HANDLER);
+        data.remove(WORK_QUEUE);
+        JobWorkMessage message = new JobWorkMessage(context.getFireInstanceId(), jobKey.getGroup(), jobKey.getName(),
+                handler, context.getScheduledFireTime().getTime(), context.getFireTime().getTime(), data);
+
+        CorrelationData correlationData = new CorrelationData(context.getFireInstanceId());
+        CorrelationData.Confirm confirm;
+        try {
+            // publish to the default exchange with the queue name as routing key
+            rabbitTemplate.convertAndSend("", workQueue, message, correlationData);
+            confirm = correlationData.getFuture().get(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (AmqpException | ExecutionException e) {
+            throw new JobExecutionException("Fail to publish " + jobKey + " to " + workQueue, e);
+        } catch (TimeoutException e) {
+            throw new JobExecutionException("No publisher confirm of " + jobKey + " in " + confirmTimeout, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JobExecutionException("Interrupted while waiting publisher confirm of " + jobKey, e);
+        }
+
+        if (!confirm.isAck()) {
+            throw new JobExecutionException("Broker nack " + jobKey + " to " + workQueue + ": " + confirm.getReason());
+        }
+        // a mandatory message which can't be routed is returned before the ack
+        if (null != correlationData.getReturnedMessage()) {
+            throw new JobExecutionException("No queue " + workQueue + " to route " + jobKey);
+        }
+        log.debug("Dispatch {} fire {} to {}", jobKey, context.getFireInstanceId(), workQueue);
+    }
+}
@@ -0,0 +1,20 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * The scheduler side of {@link RabbitDispatchJob}, the {@link JobCompletionReceiver} of the completion queue.
+ * A scheduler application imports this and {@link RabbitDispatchConfig}.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class RabbitDispatchSchedulerConfig {
+
+    @Bean
+    JobCompletionReceiver jobCompletionReceiver(ApplicationEventPublisher applicationEventPublisher) {
+        return new JobCompletionReceiver(applicationEventPublisher);
+    }
+}
@@ -0,0 +1,205 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.matchers.KeyMatcher;
+import org.quartz.listeners.JobListenerSupport;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.event.EventListener;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Quartz jobs dispatched to RabbitMQ workers.
+ * Run a RabbitMQ server on localhost:5672 with default user guest:guest before start the test.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.rabbitmq.publisher-confirm-type = correlated",
+        "spring.rabbitmq.publisher-returns = true",
+        "spring.rabbitmq.template.mandatory = true",
+        "spring.rabbitmq.listener.simple.concurrency = 4",
+        "quartz.dispatch.work-queue = " + RabbitDispatchTest.WORK_QUEUE,
+        "quartz.dispatch.completion-queue = " + RabbitDispatchTest.COMPLETION_QUEUE
+})
+@Import({RabbitDispatchConfig.class, RabbitDispatchSchedulerConfig.class, JobWorkerConfig.class})
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+@Slf4j
+class RabbitDispatchTest {
+
+    static final String WORK_QUEUE = "spring-boot-study-quartz-dispatch-test-work-queue";
+
+    static final String COMPLETION_QUEUE = "spring-boot-study-quartz-dispatch-test-completion-queue";
+
+    @Autowired
+    Scheduler scheduler;
+
+    @Autowired
+    RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    CompletionCollector completionCollector;
+
+    @Configuration
+    static class Config {}
+
+    @TestConfiguration
+    static class HandlerConfig {
+
+        static final BlockingQueue<JobWorkMessage> greeted = new LinkedBlockingQueue<>();
+
+        @Bean
+        JobWorkHandler greetingHandler() {
+            return message -> {
+                log.info("Hello {}", message.getData().get("user"));
+                greeted.add(message);
+            };
+        }
+
+        @Bean
+        JobWorkHandler failingHandler() {
+            return message -> {
+                throw new IllegalStateException("Simulate work failure");
+            };
+        }
+
+        @Bean
+        CompletionCollector completionCollector() {
+            return new CompletionCollector();
+        }
+    }
+
+    static class CompletionCollector {
+
+        final BlockingQueue<JobCompletion> completions = new LinkedBlockingQueue<>();
+
+        @EventListener
+        void onCompletion(JobCompletion completion) {
+            completions.add(completion);
+        }
+    }
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        scheduler.clear();
+        HandlerConfig.greeted.clear();
+        completionCollector.completions.clear();
+    }
+
+    private static JobDetail dispatchJob(String name, String handler) {
+
+        return JobBuilder.newJob(RabbitDispatchJob.class)
+                         .withIdentity(name, "dispatch")
+                         .usingJobData(RabbitDispatchJob.HANDLER, handler)
+                         .usingJobData("user", "Tony")
+                         .build();
+    }
+
+    @Test
+    @DisplayName("Given a dispatch job repeating 3 times, when fire, then worker handler executes each fire " +
+                 "and success completion is reported per fire")
+    @SneakyThrows
+    void givenDispatchJobRepeating3Times_whenFire_thenWorkerExecutesAndCompletionReported() {
+
+        JobDetail jobDetail = dispatchJob("greeting", "greetingHandler");
+        scheduler.scheduleJob(jobDetail, TriggerBuilder.newTrigger()
+                                                       .forJob(jobDetail)
+                                                       .startNow()
+                                                       .withSchedule(SimpleScheduleBuilder.simpleSchedule()
+                                                                                          .withIntervalInMilliseconds(200)
+                                                                                          .withRepeatCount(2))
+                                                       .build());
+
+        Set<String> fireInstanceIds = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            JobCompletion completion = completionCollector.completions.poll(10, TimeUnit.SECONDS);
+            assertThat(completion).isNotNull();
+            assertThat(completion.isSuccess()).isTrue();
+            assertThat(completion.getJobName()).isEqualTo("greeting");
+            assertThat(completion.getWorker()).isEqualTo("job-worker");
+            fireInstanceIds.add(completion.getFireInstanceId());
+        }
+        assertThat(fireInstanceIds).hasSize(3);
+
+        assertThat(HandlerConfig.greeted).hasSize(3)
+                                         .allSatisfy(message -> {
+                                             assertThat(message.getData()).containsEntry("user", "Tony")
+                                                                          .doesNotContainKey(RabbitDispatchJob.HANDLER);
+                                             assertThat(message.getFireTime())
+                                                     .isGreaterThanOrEqualTo(message.getScheduledFireTime());
+                                         });
+    }
+
+    @Test
+    @DisplayName("Given a handler which throws, when fire, then failure completion is reported " +
+                 "and the work message is dead lettered")
+    @SneakyThrows
+    void givenHandlerThrows_whenFire_thenFailureReportedAndMessageDeadLettered() {
+
+        JobDetail jobDetail = dispatchJob("failing", "failingHandler");
+        scheduler.scheduleJob(jobDetail, TriggerBuilder.newTrigger().forJob(jobDetail).startNow().build());
+
+        JobCompletion completion = completionCollector.completions.poll(10, TimeUnit.SECONDS);
+        assertThat(completion).isNotNull();
+        assertThat(completion.isSuccess()).isFalse();
+        assertThat(completion.getError()).contains("Simulate work failure");
+
+        Message deadLetter = rabbitTemplate.receive(WORK_QUEUE + ".dlq", 10_000);
+        assertThat(deadLetter).isNotNull();
+        assertThat(new String(deadLetter.getBody())).contains(completion.getFireInstanceId());
+    }
+
+    @Test
+    @DisplayName("Given a work queue which doesn't exist, when fire, then the job execution fails " +
+                 "because the message is returned")
+    @SneakyThrows
+    void givenNonExistentWorkQueue_whenFire_thenJobExecutionFails() {
+
+        JobDetail jobDetail = JobBuilder.newJob(RabbitDispatchJob.class)
+                                        .withIdentity("unroutable", "dispatch")
+                                        .usingJobData(RabbitDispatchJob.HANDLER, "greetingHandler")
+                                        .usingJobData(RabbitDispatchJob.WORK_QUEUE, "non-existent-queue")
+                                        .build();
+        CompletableFuture<JobExecutionException> jobException = new CompletableFuture<>();
+        scheduler.getListenerManager().addJobListener(new JobListenerSupport() {
+
+            @Override
+            public String getName() {
+                return "unroutable-listener";
+            }
+
+            @Override
+            public void jobWasExecuted(JobExecutionContext context, JobExecutionException executionException) {
+                jobException.complete(executionException);
+            }
+        }, KeyMatcher.keyEquals(jobDetail.getKey()));
+        scheduler.scheduleJob(jobDetail, TriggerBuilder.newTrigger().forJob(jobDetail).startNow().build());
+
+        assertThat(jobException.get(10, TimeUnit.SECONDS)).hasMessageContaining("No queue non-existent-queue");
+        assertThat(completionCollector.completions.poll(1, TimeUnit.SECONDS)).isNull();
+        scheduler.getListenerManager().removeJobListener("unroutable-listener");
+    }
+}
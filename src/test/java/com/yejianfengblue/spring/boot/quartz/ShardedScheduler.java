@@ -0,0 +1,339 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.quartz.SchedulerFactoryBean;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * One facade over N independent Quartz schedulers (partitions) in one application.
+ * <p>
+ * A clustered JDBC job store serializes trigger acquisition on the {@code TRIGGER_ACCESS} row of
+ * {@code QRTZ_LOCKS}, which is per scheduler name. Each partition has its own scheduler name, so its own lock rows
+ * and its own trigger acquisition, and the partitions share the tables and the data source.
+ * A job and all its triggers are in the partition chosen by consistent hashing on {@link JobKey}, with
+ * {@link #DEFAULT_VIRTUAL_NODES} virtual nodes per partition to even out the distribution.
+ * <p>
+ * Operations by {@link JobKey} go to one partition. Operations by {@link TriggerKey} don't know the job, so they
+ * look up the partitions in turn. Group queries are the union of all partitions.
+ * <p>
+ * A partition keeps its trigger keys unique only within itself, so scheduling checks the other partitions too, and
+ * a trigger key is in at most one partition, as in one {@link Scheduler}. The check and the schedule are not atomic
+ * across partitions, so two concurrent schedules of one new trigger key for jobs of different partitions can both
+ * succeed.
+ * <p>
+ * Jobs are not moved when the partition count changes. Consistent hashing keeps most jobs in place, but the jobs
+ * whose partition changes must be moved by unscheduling and scheduling again.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class ShardedScheduler implements DisposableBean {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<Scheduler> partitions;
+
+    private final NavigableMap<Long, Integer> ring = new TreeMap<>();
+
+    public ShardedScheduler(List<Scheduler> partitions, int virtualNodes) {
+
+        if (partitions.isEmpty()) {
+            throw new IllegalArgumentException("At least one partition is required");
+        }
+        this.partitions = List.copyOf(partitions);
+        for (int partition = 0; partition < partitions.size(); partition++) {
+            for (int virtualNode = 0; virtualNode < virtualNodes; virtualNode++) {
+                ring.put(hash("partition-" + partition + "#" + virtualNode), partition);
+            }
+        }
+    }
+
+    /**
+     * Create {@code partitionCount} schedulers named {@code <schedulerNamePrefix>-<partition>} on the data source,
+     * each with {@code quartzProperties}, which usually includes the thread count and the job store settings.
+     *
+     * @param transactionManager null to use the data source without Spring transaction
+     */
+    public static ShardedScheduler onDataSource(DataSource dataSource,
+                                                PlatformTransactionManager transactionManager,
+                                                String schedulerNamePrefix,
+                                                int partitionCount,
+                                                Properties quartzProperties) throws Exception {
+
+        List<Scheduler> partitions = new ArrayList<>(partitionCount);
+        for (int partition = 0; partition < partitionCount; partition++) {
+            SchedulerFactoryBean schedulerFactoryBean = new SchedulerFactoryBean();
+            schedulerFactoryBean.setSchedulerName(schedulerNamePrefix + "-" + partition);
+            schedulerFactoryBean.setDataSource(dataSource);
+            schedulerFactoryBean.setTransactionManager(transactionManager);
+            schedulerFactoryBean.setQuartzProperties(quartzProperties);
+            schedulerFactoryBean.setAutoStartup(false);
+            schedulerFactoryBean.afterPropertiesSet();
+            partitions.add(schedulerFactoryBean.getScheduler());
+        }
+        log.info("Created {} scheduler partitions {}-0..{}", partitionCount, schedulerNamePrefix, partitionCount - 1);
+        return new ShardedScheduler(partitions, DEFAULT_VIRTUAL_NODES);
+    }
+
+    private static long hash(String value) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public List<Scheduler> getPartitions() {
+        return partitions;
+    }
+
+    public int partitionOf(JobKey jobKey) {
+
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(jobKey.toString()));
+        return (null != entry) ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public Scheduler schedulerOf(JobKey jobKey) {
+        return partitions.get(partitionOf(jobKey));
+    }
+
+    /**
+     * @return the scheduler having the trigger, or null if no partition has it
+     */
+    private Scheduler schedulerOf(TriggerKey triggerKey) throws SchedulerException {
+
+        for (Scheduler scheduler : partitions) {
+            if (scheduler.checkExists(triggerKey)) {
+                return scheduler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @throws ObjectAlreadyExistsException if a partition other than the target one has the trigger
+     */
+    private void checkNotInOtherPartition(Scheduler target, Trigger trigger) throws SchedulerException {
+
+        for (Scheduler scheduler : partitions) {
+            if (scheduler != target && scheduler.checkExists(trigger.getKey())) {
+                throw new ObjectAlreadyExistsException(trigger);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // lifecycle
+
+    public void start() throws SchedulerException {
+
+        for (Scheduler scheduler : partitions) {
+            scheduler.start();
+        }
+    }
+
+    public void standby() throws SchedulerException {
+
+        for (Scheduler scheduler : partitions) {
+            scheduler.standby();
+        }
+    }
+
+    public void shutdown(boolean waitForJobsToComplete) throws SchedulerException {
+
+        for (Scheduler scheduler : partitions) {
+            scheduler.shutdown(waitForJobsToComplete);
+        }
+    }
+
+    @Override
+    public void destroy() throws SchedulerException {
+        shutdown(true);
+    }
+
+    public void clear() throws SchedulerException {
+
+        for (Scheduler scheduler : partitions) {
+            scheduler.clear();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // schedule and unschedule
+
+    public Date scheduleJob(JobDetail jobDetail, Trigger trigger) throws SchedulerException {
+
+        Scheduler scheduler = schedulerOf(jobDetail.getKey());
+        checkNotInOtherPartition(scheduler, trigger);
+        return scheduler.scheduleJob(jobDetail, trigger);
+    }
+
+    /**
+     * Schedule a trigger of a job which was added before
+     */
+    public Date scheduleJob(Trigger trigger) throws SchedulerException {
+
+        Scheduler scheduler = schedulerOf(trigger.getJobKey());
+        checkNotInOtherPartition(scheduler, trigger);
+        return scheduler.scheduleJob(trigger);
+    }
+
+    /**
+     * Schedule the jobs and triggers in one call per partition. A trigger key in another partition than the one of
+     * its job fails the call before anything is scheduled, or with replace, is unscheduled from there after the
+     * partitions of the jobs have scheduled it, so a failure leaves the old trigger rather than none. Replace across
+     * partitions is not atomic: until then both partitions have the trigger, and a failure to unschedule the old one
+     * leaves both.
+     */
+    public void scheduleJobs(Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace)
+            throws SchedulerException {
+
+        Map<Integer, Map<JobDetail, Set<? extends Trigger>>> byPartition = new TreeMap<>();
+        triggersAndJobs.forEach((jobDetail, triggers) ->
+                byPartition.computeIfAbsent(partitionOf(jobDetail.getKey()), partition -> new HashMap<>())
+                           .put(jobDetail, triggers));
+
+        // look up the trigger keys of the other partitions by group, one query per group and partition
+        Map<String, Map<Trigger, Integer>> triggersByGroup = new HashMap<>();
+        triggersAndJobs.forEach((jobDetail, triggers) -> triggers.forEach(trigger ->
+                triggersByGroup.computeIfAbsent(trigger.getKey().getGroup(), group -> new HashMap<>())
+                               .put(trigger, partitionOf(jobDetail.getKey()))));
+        Map<TriggerKey, Integer> elsewhere = new HashMap<>();
+        for (int partition = 0; partition < partitions.size(); partition++) {
+            for (Map.Entry<String, Map<Trigger, Integer>> entry : triggersByGroup.entrySet()) {
+                Set<TriggerKey> existing =
+                        partitions.get(partition).getTriggerKeys(GroupMatcher.triggerGroupEquals(entry.getKey()));
+                for (Map.Entry<Trigger, Integer> triggerPartition : entry.getValue().entrySet()) {
+                    Trigger trigger = triggerPartition.getKey();
+                    if (existing.contains(trigger.getKey()) && triggerPartition.getValue() != partition) {
+                        if (!replace) {
+                            throw new ObjectAlreadyExistsException(trigger);
+                        }
+                        elsewhere.put(trigger.getKey(), partition);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, Map<JobDetail, Set<? extends Trigger>>> entry : byPartition.entrySet()) {
+            partitions.get(entry.getKey()).scheduleJobs(entry.getValue(), replace);
+        }
+        for (Map.Entry<TriggerKey, Integer> entry : elsewhere.entrySet()) {
+            partitions.get(entry.getValue()).unscheduleJob(entry.getKey());
+        }
+    }
+
+    public void addJob(JobDetail jobDetail, boolean replace) throws SchedulerException {
+        schedulerOf(jobDetail.getKey()).addJob(jobDetail, replace);
+    }
+
+    public boolean unscheduleJob(TriggerKey triggerKey) throws SchedulerException {
+
+        Scheduler scheduler = schedulerOf(triggerKey);
+        return (null != scheduler) && scheduler.unscheduleJob(triggerKey);
+    }
+
+    /**
+     * @return null if no partition has the trigger, otherwise as {@link Scheduler#rescheduleJob}
+     */
+    public Date rescheduleJob(TriggerKey triggerKey, Trigger newTrigger) throws SchedulerException {
+
+        Scheduler scheduler = schedulerOf(triggerKey);
+        if (null == scheduler) {
+            return null;
+        }
+        if (!triggerKey.equals(newTrigger.getKey())) {
+            checkNotInOtherPartition(scheduler, newTrigger);
+        }
+        return scheduler.rescheduleJob(triggerKey, newTrigger);
+    }
+
+    public boolean deleteJob(JobKey jobKey) throws SchedulerException {
+        return schedulerOf(jobKey).deleteJob(jobKey);
+    }
+
+    public void triggerJob(JobKey jobKey, JobDataMap data) throws SchedulerException {
+        schedulerOf(jobKey).triggerJob(jobKey, data);
+    }
+
+    public void pauseJob(JobKey jobKey) throws SchedulerException {
+        schedulerOf(jobKey).pauseJob(jobKey);
+    }
+
+    public void resumeJob(JobKey jobKey) throws SchedulerException {
+        schedulerOf(jobKey).resumeJob(jobKey);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // lookup
+
+    public boolean checkExists(JobKey jobKey) throws SchedulerException {
+        return schedulerOf(jobKey).checkExists(jobKey);
+    }
+
+    public boolean checkExists(TriggerKey triggerKey) throws SchedulerException {
+        return null != schedulerOf(triggerKey);
+    }
+
+    public JobDetail getJobDetail(JobKey jobKey) throws SchedulerException {
+        return schedulerOf(jobKey).getJobDetail(jobKey);
+    }
+
+    public Trigger getTrigger(TriggerKey triggerKey) throws SchedulerException {
+
+        Scheduler scheduler = schedulerOf(triggerKey);
+        return (null != scheduler) ? scheduler.getTrigger(triggerKey) : null;
+    }
+
+    public Trigger.TriggerState getTriggerState(TriggerKey triggerKey) throws SchedulerException {
+
+        Scheduler scheduler = schedulerOf(triggerKey);
+        return (null != scheduler) ? scheduler.getTriggerState(triggerKey) : Trigger.TriggerState.NONE;
+    }
+
+    public List<? extends Trigger> getTriggersOfJob(JobKey jobKey) throws SchedulerException {
+        return schedulerOf(jobKey).getTriggersOfJob(jobKey);
+    }
+
+    public Set<JobKey> getJobKeys(GroupMatcher<JobKey> matcher) throws SchedulerException {
+
+        Set<JobKey> jobKeys = new HashSet<>();
+        for (Scheduler scheduler : partitions) {
+            jobKeys.addAll(scheduler.getJobKeys(matcher));
+        }
+        return jobKeys;
+    }
+
+    public Set<TriggerKey> getTriggerKeys(GroupMatcher<TriggerKey> matcher) throws SchedulerException {
+
+        Set<TriggerKey> triggerKeys = new HashSet<>();
+        for (Scheduler scheduler : partitions) {
+            triggerKeys.addAll(scheduler.getTriggerKeys(matcher));
+        }
+        return triggerKeys;
+    }
+
+    public List<JobExecutionContext> getCurrentlyExecutingJobs() throws SchedulerException {
+
+        List<JobExecutionContext> executingJobs = new ArrayList<>();
+        for (Scheduler scheduler : partitions) {
+            executingJobs.addAll(scheduler.getCurrentlyExecutingJobs());
+        }
+        return executingJobs;
+    }
+}
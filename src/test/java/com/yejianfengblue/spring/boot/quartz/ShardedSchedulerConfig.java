@@ -0,0 +1,36 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.quartz.QuartzProperties;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.Properties;
+
+/**
+ * {@link ShardedScheduler} of {@code quartz.shards.count} (default 4) partitions named
+ * {@code quartz.shards.scheduler-name-prefix} (default sharded-scheduler) on the application data source.
+ * Every partition uses {@code spring.quartz.properties}, e.g. the thread count and clustering.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class ShardedSchedulerConfig {
+
+    @Bean
+    ShardedScheduler shardedScheduler(DataSource dataSource,
+                                      ObjectProvider<PlatformTransactionManager> transactionManager,
+                                      QuartzProperties quartzProperties,
+                                      @Value("${quartz.shards.count:4}") int partitionCount,
+                                      @Value("${quartz.shards.scheduler-name-prefix:sharded-scheduler}")
+                                              String schedulerNamePrefix) throws Exception {
+
+        Properties properties = new Properties();
+        properties.putAll(quartzProperties.getProperties());
+        return ShardedScheduler.onDataSource(dataSource, transactionManager.getIfUnique(),
+                schedulerNamePrefix, partitionCount, properties);
+    }
+}
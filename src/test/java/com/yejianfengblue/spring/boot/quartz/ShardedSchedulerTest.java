@@ -0,0 +1,245 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.quartz.QuartzProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Sharded schedulers on an in-memory H2 clustered JDBC job store
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.quartz.job-store-type = jdbc",
+        "spring.quartz.jdbc.initialize-schema = always",
+        "spring.quartz.auto-startup = false",
+        "spring.quartz.properties.org.quartz.scheduler.instanceId = AUTO",
+        "spring.quartz.properties.org.quartz.jobStore.isClustered = true",
+        "spring.quartz.properties.org.quartz.threadPool.threadCount = 10",
+        "spring.quartz.properties.org.quartz.scheduler.batchTriggerAcquisitionMaxCount = 10",
+        "spring.quartz.properties.org.quartz.jobStore.acquireTriggersWithinLock = true",
+        "quartz.shards.count = 4"
+})
+@Import(ShardedSchedulerConfig.class)
+@EnableAutoConfiguration
+@Slf4j
+class ShardedSchedulerTest {
+
+    @Autowired
+    ShardedScheduler shardedScheduler;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    QuartzProperties quartzProperties;
+
+    @Configuration
+    static class Config {}
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        shardedScheduler.standby();
+        shardedScheduler.clear();
+    }
+
+    static CountDownLatch firedLatch;
+
+    static AtomicLong lastFiredAt = new AtomicLong();
+
+    public static class LatchJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) {
+
+            lastFiredAt.accumulateAndGet(System.currentTimeMillis(), Math::max);
+            firedLatch.countDown();
+        }
+    }
+
+    @Test
+    @DisplayName("Given 4 partitions, when schedule jobs through facade, then jobs spread over partitions " +
+                 "and lookup and unschedule work across partitions")
+    @SneakyThrows
+    void given4Partitions_whenScheduleThroughFacade_thenSpreadAndLookupWork() {
+
+        assertThat(shardedScheduler.getPartitionCount()).isEqualTo(4);
+        assertThat(shardedScheduler.getPartitions()).extracting(Scheduler::getSchedulerName)
+                                                    .containsExactly("sharded-scheduler-0", "sharded-scheduler-1",
+                                                            "sharded-scheduler-2", "sharded-scheduler-3");
+
+        int[] jobsPerPartition = new int[4];
+        List<Trigger> triggers = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            JobDetail jobDetail = JobBuilder.newJob(LatchJob.class)
+                                            .withIdentity("job-" + i, "sharded")
+                                            .build();
+            Trigger trigger = TriggerBuilder.newTrigger()
+                                            .withIdentity("trigger-" + i, "sharded")
+                                            .forJob(jobDetail)
+                                            .startAt(new Date(System.currentTimeMillis() + 3_600_000))
+                                            .build();
+            shardedScheduler.scheduleJob(jobDetail, trigger);
+            triggers.add(trigger);
+
+            int partition = shardedScheduler.partitionOf(jobDetail.getKey());
+            jobsPerPartition[partition]++;
+            assertThat(shardedScheduler.getPartitions().get(partition).checkExists(jobDetail.getKey())).isTrue();
+        }
+        log.info("Jobs per partition {}", Arrays.toString(jobsPerPartition));
+        for (int jobCount : jobsPerPartition) {
+            assertThat(jobCount).isBetween(50, 150);
+        }
+
+        assertThat(shardedScheduler.getJobKeys(GroupMatcher.jobGroupEquals("sharded"))).hasSize(400);
+        Trigger trigger = triggers.get(123);
+        assertThat(shardedScheduler.getTrigger(trigger.getKey()).getJobKey()).isEqualTo(trigger.getJobKey());
+        assertThat(shardedScheduler.getTriggerState(trigger.getKey())).isEqualTo(Trigger.TriggerState.NORMAL);
+
+        assertThat(shardedScheduler.unscheduleJob(trigger.getKey())).isTrue();
+        assertThat(shardedScheduler.checkExists(trigger.getKey())).isFalse();
+        // non-durable job is deleted with its last trigger
+        assertThat(shardedScheduler.checkExists(trigger.getJobKey())).isFalse();
+        assertThat(shardedScheduler.getTriggerState(trigger.getKey())).isEqualTo(Trigger.TriggerState.NONE);
+    }
+
+    @Test
+    @DisplayName("Given trigger of a job in one partition, when schedule the same trigger key for a job " +
+                 "in another partition, then already exists, and with replace it moves to the other partition, " +
+                 "or stays if the other partition fails")
+    @SneakyThrows
+    void givenTriggerInOnePartition_whenScheduleSameKeyInAnother_thenAlreadyExistsOrReplaced() {
+
+        JobDetail jobDetail = JobBuilder.newJob(LatchJob.class)
+                                        .withIdentity("job-0", "unique")
+                                        .build();
+        JobDetail otherJobDetail = null;
+        for (int i = 1; null == otherJobDetail; i++) {
+            JobKey jobKey = JobKey.jobKey("job-" + i, "unique");
+            if (shardedScheduler.partitionOf(jobKey) != shardedScheduler.partitionOf(jobDetail.getKey())) {
+                otherJobDetail = JobBuilder.newJob(LatchJob.class)
+                                           .withIdentity(jobKey)
+                                           .build();
+            }
+        }
+        TriggerKey triggerKey = TriggerKey.triggerKey("trigger", "unique");
+        Date startAt = new Date(System.currentTimeMillis() + 3_600_000);
+        shardedScheduler.scheduleJob(jobDetail, TriggerBuilder.newTrigger()
+                                                              .withIdentity(triggerKey)
+                                                              .forJob(jobDetail)
+                                                              .startAt(startAt)
+                                                              .build());
+        Trigger otherTrigger = TriggerBuilder.newTrigger()
+                                             .withIdentity(triggerKey)
+                                             .forJob(otherJobDetail)
+                                             .startAt(startAt)
+                                             .build();
+
+        JobDetail finalOtherJobDetail = otherJobDetail;
+        assertThatThrownBy(() -> shardedScheduler.scheduleJob(finalOtherJobDetail, otherTrigger))
+                .isInstanceOf(ObjectAlreadyExistsException.class);
+        assertThatThrownBy(() -> shardedScheduler.scheduleJobs(Map.of(finalOtherJobDetail, Set.of(otherTrigger)),
+                false))
+                .isInstanceOf(ObjectAlreadyExistsException.class);
+        assertThat(shardedScheduler.getTrigger(triggerKey).getJobKey()).isEqualTo(jobDetail.getKey());
+
+        // the other partition fails to schedule it, so the trigger is kept in its partition
+        Trigger failingTrigger = otherTrigger.getTriggerBuilder()
+                                             .modifiedByCalendar("non-existent-calendar")
+                                             .build();
+        assertThatThrownBy(() -> shardedScheduler.scheduleJobs(Map.of(finalOtherJobDetail, Set.of(failingTrigger)),
+                true))
+                .isInstanceOf(SchedulerException.class);
+        assertThat(shardedScheduler.getTrigger(triggerKey).getJobKey()).isEqualTo(jobDetail.getKey());
+
+        shardedScheduler.scheduleJobs(Map.of(otherJobDetail, Set.of(otherTrigger)), true);
+        assertThat(shardedScheduler.getTrigger(triggerKey).getJobKey()).isEqualTo(otherJobDetail.getKey());
+        assertThat(shardedScheduler.getPartitions().stream()
+                                   .filter(scheduler -> {
+                                       try {
+                                           return scheduler.checkExists(triggerKey);
+                                       } catch (SchedulerException e) {
+                                           throw new IllegalStateException(e);
+                                       }
+                                   }))
+                .hasSize(1);
+        // non-durable job is deleted with its last trigger
+        assertThat(shardedScheduler.checkExists(jobDetail.getKey())).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given 1 and 4 partitions, when 4k triggers are due at once, then all fire, " +
+                 "and firing duration is reported")
+    @SneakyThrows
+    void given1And4Partitions_when4kTriggersDue_thenAllFire() {
+
+        Properties properties = new Properties();
+        properties.putAll(quartzProperties.getProperties());
+        ShardedScheduler singlePartition = ShardedScheduler.onDataSource(dataSource, transactionManager,
+                "single-scheduler", 1, properties);
+        try {
+            long singlePartitionMillis = fire(singlePartition, 4_000);
+            long fourPartitionMillis = fire(shardedScheduler, 4_000);
+            log.info("Fire 4000 triggers: 1 partition = {}ms, 4 partitions = {}ms",
+                    singlePartitionMillis, fourPartitionMillis);
+        } finally {
+            singlePartition.clear();
+            singlePartition.shutdown(true);
+        }
+    }
+
+    /**
+     * @return milliseconds from the due time to the last fire
+     */
+    @SneakyThrows
+    private long fire(ShardedScheduler scheduler, int triggerCount) {
+
+        firedLatch = new CountDownLatch(triggerCount);
+        lastFiredAt.set(0);
+
+        long dueAt = System.currentTimeMillis() + 10_000;
+        Map<JobDetail, Set<? extends Trigger>> triggersAndJobs = new HashMap<>();
+        for (int i = 0; i < triggerCount; i++) {
+            JobDetail jobDetail = JobBuilder.newJob(LatchJob.class)
+                                            .withIdentity("job-" + i, "throughput")
+                                            .build();
+            triggersAndJobs.put(jobDetail, Set.of(TriggerBuilder.newTrigger()
+                                                                .forJob(jobDetail)
+                                                                .startAt(new Date(dueAt))
+                                                                .build()));
+        }
+        scheduler.scheduleJobs(triggersAndJobs, false);
+        assertThat(System.currentTimeMillis()).as("Scheduling must finish before the triggers are due")
+                                              .isLessThan(dueAt);
+
+        scheduler.start();
+        assertThat(firedLatch.await(120, TimeUnit.SECONDS)).isTrue();
+        scheduler.standby();
+        return lastFiredAt.get() - dueAt;
+    }
+}
@@ -0,0 +1,281 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A hierarchical timing wheel of millisecond ticks, used by {@link TimingWheelJobStore} to keep triggers by next
+ * fire time.
+ * <p>
+ * There are {@link #LEVELS} levels of {@link #SLOTS} slots. An entry is put at the level of the highest base-64
+ * digit where its time differs from the cursor, and the slot of that digit, so insert and remove are O(1).
+ * A bitmap per level finds the next non-empty slot without scanning empty ones. When the cursor moves to a slot,
+ * the entries of the slot are cascaded to lower levels, each entry is cascaded at most {@link #LEVELS} times.
+ * Entries at or before the cursor are due, and are kept in a small "ready" queue ordered by time and then the
+ * tie-breaker, so entries of the same millisecond are polled in order.
+ * Entries further than 2^36 ms (about 2 years) away are kept in an overflow set, which is scanned only when the
+ * wheel is empty and a lower bound of its times is due.
+ * <p>
+ * When the wheel is empty, a poll moves the cursor on to the polled time, so the entries added later are placed
+ * relative to the current time rather than to the time of the last entry, and don't go to the overflow set.
+ * <p>
+ * Not thread-safe, the caller must synchronize.
+ *
+ * @author yejianfengblue
+ */
+final class TimingWheel<T> {
+
+    static final int BITS = 6;
+
+    static final int SLOTS = 1 << BITS;
+
+    static final int LEVELS = 6;
+
+    private static final long MASK = SLOTS - 1;
+
+    private static final int READY = -1;
+
+    private static final int OVERFLOW = -2;
+
+    private static final int DETACHED = -3;
+
+    static final class Node<T> {
+
+        final T value;
+
+        final long time;
+
+        private int level = DETACHED;
+
+        private Node<T> prev;
+
+        private Node<T> next;
+
+        private Node(T value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final Node<T>[][] slots = new Node[LEVELS][SLOTS];
+
+    private final long[] bitmaps = new long[LEVELS];
+
+    private final PriorityQueue<Node<T>> ready;
+
+    private final Set<Node<T>> overflow = new HashSet<>();
+
+    /**
+     * Not later than any time in the overflow set
+     */
+    private long overflowLowerBound = Long.MAX_VALUE;
+
+    private long cursor;
+
+    private int size = 0;
+
+    TimingWheel(long startTime, Comparator<T> tieBreaker) {
+
+        this.cursor = startTime;
+        this.ready = new PriorityQueue<>(Comparator.<Node<T>>comparingLong(node -> node.time)
+                                                   .thenComparing(node -> node.value, tieBreaker));
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getCursor() {
+        return cursor;
+    }
+
+    int getOverflowSize() {
+        return overflow.size();
+    }
+
+    Node<T> add(T value, long time) {
+
+        Node<T> node = new Node<>(value, time);
+        place(node);
+        size++;
+        return node;
+    }
+
+    /**
+     * Remove the node if it is still in the wheel, no-op if it was polled or removed
+     */
+    void remove(Node<T> node) {
+
+        switch (node.level) {
+            case DETACHED:
+                return;
+            case READY:
+                // lazy removal, skipped when it reaches the head of the ready queue
+                break;
+            case OVERFLOW:
+                overflow.remove(node);
+                break;
+            default:
+                unlink(node);
+        }
+        node.level = DETACHED;
+        size--;
+    }
+
+    /**
+     * Remove and return the earliest node whose time is not later than the given time
+     *
+     * @return null if no such node
+     */
+    Node<T> poll(long noLaterThan) {
+
+        while (true) {
+            Node<T> head = ready.peek();
+            while (null != head && head.level == DETACHED) {
+                ready.poll();
+                head = ready.peek();
+            }
+            if (null != head) {
+                if (head.time > noLaterThan) {
+                    return null;
+                }
+                ready.poll();
+                head.level = DETACHED;
+                size--;
+                return head;
+            }
+            if (!advance(noLaterThan)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Move the cursor to the start of the next non-empty slot, and cascade the slot
+     *
+     * @return false if there is no entry or the next slot starts later than the given time
+     */
+    private boolean advance(long noLaterThan) {
+
+        for (int level = 0; level < LEVELS; level++) {
+
+            int current = (int) ((cursor >>> (level * BITS)) & MASK);
+            // entries at this level are always in a slot after the cursor's one
+            long candidates = bitmaps[level] & (-2L << current);
+            if (candidates != 0) {
+
+                int slot = Long.numberOfTrailingZeros(candidates);
+                int upperShift = (level + 1) * BITS;
+                long slotStart = ((cursor >>> upperShift) << upperShift) | ((long) slot << (level * BITS));
+                if (slotStart > noLaterThan) {
+                    return false;
+                }
+                cursor = slotStart;
+                cascade(level, slot);
+                return true;
+            }
+        }
+
+        // all levels are empty
+        if (!overflow.isEmpty() && overflowLowerBound <= noLaterThan) {
+            long min = Long.MAX_VALUE;
+            for (Node<T> node : overflow) {
+                min = Math.min(min, node.time);
+            }
+            overflowLowerBound = min;
+            if (min <= noLaterThan) {
+                cursor = min;
+                placeOverflow();
+                return true;
+            }
+        }
+
+        // idle, move the cursor on to the polled time
+        if (noLaterThan > cursor) {
+            long epoch = cursor >>> (LEVELS * BITS);
+            cursor = noLaterThan;
+            // the overflow entries of the new epoch fit in the levels now
+            if (!overflow.isEmpty() && epoch != cursor >>> (LEVELS * BITS)) {
+                placeOverflow();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void placeOverflow() {
+
+        Node<?>[] nodes = overflow.toArray(new Node<?>[0]);
+        overflow.clear();
+        overflowLowerBound = Long.MAX_VALUE;
+        for (Node<?> node : nodes) {
+            @SuppressWarnings("unchecked")
+            Node<T> typedNode = (Node<T>) node;
+            place(typedNode);
+        }
+    }
+
+    private void cascade(int level, int slot) {
+
+        Node<T> node = slots[level][slot];
+        slots[level][slot] = null;
+        bitmaps[level] &= ~(1L << slot);
+        while (null != node) {
+            Node<T> next = node.next;
+            node.prev = null;
+            node.next = null;
+            place(node);
+            node = next;
+        }
+    }
+
+    private void place(Node<T> node) {
+
+        if (node.time <= cursor) {
+            node.level = READY;
+            ready.add(node);
+            return;
+        }
+
+        int highestDifferentBit = 63 - Long.numberOfLeadingZeros(node.time ^ cursor);
+        int level = highestDifferentBit / BITS;
+        if (level >= LEVELS) {
+            node.level = OVERFLOW;
+            overflow.add(node);
+            overflowLowerBound = Math.min(overflowLowerBound, node.time);
+            return;
+        }
+
+        int slot = (int) ((node.time >>> (level * BITS)) & MASK);
+        node.level = level;
+        node.prev = null;
+        node.next = slots[level][slot];
+        if (null != node.next) {
+            node.next.prev = node;
+        }
+        slots[level][slot] = node;
+        bitmaps[level] |= 1L << slot;
+    }
+
+    private void unlink(Node<T> node) {
+
+        int level = node.level;
+        int slot = (int) ((node.time >>> (level * BITS)) & MASK);
+        if (null != node.prev) {
+            node.prev.next = node.next;
+        } else {
+            slots[level][slot] = node.next;
+            if (null == node.next) {
+                bitmaps[level] &= ~(1L << slot);
+            }
+        }
+        if (null != node.next) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+}
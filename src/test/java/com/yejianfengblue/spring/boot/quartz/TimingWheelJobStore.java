@@ -0,0 +1,1476 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.*;
+import org.quartz.Calendar;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.Trigger.TriggerState;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.impl.matchers.StringMatcher;
+import org.quartz.spi.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An in-memory {@link JobStore} for high volume short-lived triggers.
+ * <p>
+ * {@code RAMJobStore} keeps waiting triggers in a {@code TreeSet} and guards everything by one global lock.
+ * This store keeps waiting triggers in a {@link TimingWheel}, so storing and acquiring a trigger are O(1) amortised,
+ * and guards the jobs and triggers by lock stripes by {@link JobKey}, so scheduling different jobs doesn't contend.
+ * A job and all its triggers are in the same stripe, so {@code @DisallowConcurrentExecution} blocking and non-durable
+ * job cleanup are decided under one stripe lock. Only group operations (pause/resume groups, pause/resume all,
+ * clear, calendar update) lock all stripes, always in stripe order.
+ * <p>
+ * The timing wheel has its own lock, which is only taken within a stripe lock, or alone when polling.
+ * Scheduler signals are sent after all locks are released.
+ * <p>
+ * All the triggers misfired at one acquisition are recovered together by the {@link MisfirePolicy}, which by default
+ * applies the misfire instruction of each trigger.
+ * <p>
+ * Behaviour is the same as {@code RAMJobStore}. Configure by
+ * <pre>
+ * org.quartz.jobStore.class = com.yejianfengblue.spring.boot.quartz.TimingWheelJobStore
+ * org.quartz.jobStore.misfireThreshold = 5000
+ * org.quartz.jobStore.lockStripes = 64
+ * org.quartz.jobStore.misfirePolicyClass = com.yejianfengblue.spring.boot.quartz.AdaptiveMisfirePolicy
+ * </pre>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class TimingWheelJobStore implements JobStore {
+
+    private static final AtomicLong FIRED_TRIGGER_RECORD_ID = new AtomicLong(System.currentTimeMillis());
+
+    private final ConcurrentHashMap<JobKey, JobWrapper> jobsByKey = new ConcurrentHashMap<>(1000);
+
+    private final ConcurrentHashMap<TriggerKey, TriggerWrapper> triggersByKey = new ConcurrentHashMap<>(1000);
+
+    private final ConcurrentHashMap<String, Set<JobKey>> jobsByGroup = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Set<TriggerKey>> triggersByGroup = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Calendar> calendarsByName = new ConcurrentHashMap<>();
+
+    // modified only when all stripes are locked
+    private final Set<String> pausedTriggerGroups = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> pausedJobGroups = ConcurrentHashMap.newKeySet();
+
+    private final ReentrantLock wheelLock = new ReentrantLock();
+
+    private TimingWheel<TriggerWrapper> wheel;
+
+    private ReentrantLock[] stripes;
+
+    private int lockStripes = 64;
+
+    private long misfireThreshold = 5000L;
+
+    private MisfirePolicy misfirePolicy = MisfirePolicy.MISFIRE_INSTRUCTION;
+
+    private SchedulerSignaler signaler;
+
+    public long getMisfireThreshold() {
+        return misfireThreshold;
+    }
+
+    public void setMisfireThreshold(long misfireThreshold) {
+
+        if (misfireThreshold < 1) {
+            throw new IllegalArgumentException("Misfire threshold must be larger than 0");
+        }
+        this.misfireThreshold = misfireThreshold;
+    }
+
+    public void setMisfirePolicy(MisfirePolicy misfirePolicy) {
+        this.misfirePolicy = Objects.requireNonNull(misfirePolicy);
+    }
+
+    /**
+     * @param misfirePolicyClass a {@link MisfirePolicy} class with a public no-arg constructor
+     */
+    public void setMisfirePolicyClass(String misfirePolicyClass) {
+
+        try {
+            setMisfirePolicy((MisfirePolicy) Class.forName(misfirePolicyClass).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Invalid misfire policy class " + misfirePolicyClass, e);
+        }
+    }
+
+    public void setLockStripes(int lockStripes) {
+
+        if (lockStripes < 1) {
+            throw new IllegalArgumentException("Lock stripes must be larger than 0");
+        }
+        this.lockStripes = lockStripes;
+    }
+
+    @Override
+    public void initialize(ClassLoadHelper loadHelper, SchedulerSignaler signaler) {
+
+        this.signaler = signaler;
+        this.stripes = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.wheel = new TimingWheel<>(System.currentTimeMillis(), (trigger1, trigger2) -> {
+            // same as Trigger.TriggerTimeComparator after the fire time: higher priority first, then by key
+            int comparison = Integer.compare(trigger2.trigger.getPriority(), trigger1.trigger.getPriority());
+            return comparison != 0 ? comparison : trigger1.key.compareTo(trigger2.key);
+        });
+        log.info("{} initialized with {} lock stripes", getClass().getSimpleName(), lockStripes);
+    }
+
+    @Override
+    public void schedulerStarted() {
+    }
+
+    @Override
+    public void schedulerPaused() {
+    }
+
+    @Override
+    public void schedulerResumed() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean supportsPersistence() {
+        return false;
+    }
+
+    @Override
+    public long getEstimatedTimeToReleaseAndAcquireTrigger() {
+        return 5;
+    }
+
+    @Override
+    public boolean isClustered() {
+        return false;
+    }
+
+    @Override
+    public long getAcquireRetryDelay(int failureCount) {
+        return 20;
+    }
+
+    @Override
+    public void setInstanceId(String schedInstId) {
+    }
+
+    @Override
+    public void setInstanceName(String schedName) {
+    }
+
+    @Override
+    public void setThreadPoolSize(int poolSize) {
+    }
+
+    /**
+     * Number of triggers waiting in the timing wheel
+     */
+    int getNumberOfWaitingTriggers() {
+
+        wheelLock.lock();
+        try {
+            return wheel.size();
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // locking
+
+    private ReentrantLock stripeOf(JobKey jobKey) {
+        return stripes[Math.floorMod(jobKey.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Lock the stripes of the given job keys in stripe order
+     */
+    private List<ReentrantLock> lockStripesOf(JobKey... jobKeys) {
+
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (JobKey jobKey : jobKeys) {
+            indexes.add(Math.floorMod(jobKey.hashCode(), stripes.length));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            stripes[index].lock();
+            locks.add(stripes[index]);
+        }
+        return locks;
+    }
+
+    private static void unlock(List<ReentrantLock> locks) {
+
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    private void lockAll() {
+
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAll() {
+
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    private static void signal(List<Runnable> signals) {
+        signals.forEach(Runnable::run);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // timing wheel, the caller must hold the stripe lock of the trigger
+
+    private void addToWheel(TriggerWrapper tw) {
+
+        // a trigger which has fired for the last time is unblocked without next fire time
+        Date nextFireTime = tw.trigger.getNextFireTime();
+        wheelLock.lock();
+        try {
+            if (null != tw.node) {
+                wheel.remove(tw.node);
+                tw.node = null;
+            }
+            if (null != nextFireTime) {
+                tw.node = wheel.add(tw, nextFireTime.getTime());
+            }
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the trigger was in the wheel
+     */
+    private boolean removeFromWheel(TriggerWrapper tw) {
+
+        wheelLock.lock();
+        try {
+            if (null == tw.node) {
+                return false;
+            }
+            wheel.remove(tw.node);
+            tw.node = null;
+            return true;
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private TriggerWrapper pollWheel(long noLaterThan) {
+
+        wheelLock.lock();
+        try {
+            TimingWheel.Node<TriggerWrapper> node = wheel.poll(noLaterThan);
+            if (null == node) {
+                return null;
+            }
+            node.value.node = null;
+            return node.value;
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // jobs and triggers
+
+    @Override
+    public void storeJobAndTrigger(JobDetail newJob, OperableTrigger newTrigger) throws JobPersistenceException {
+
+        TriggerWrapper tw = new TriggerWrapper((OperableTrigger) newTrigger.clone());
+        List<Runnable> signals = new ArrayList<>();
+        while (true) {
+            TriggerWrapper existing = triggersByKey.get(tw.key);
+            // lock the stripes of the new job and of the job of an existing trigger up front, in stripe order
+            List<ReentrantLock> locks = (null == existing)
+                                        ? lockStripesOf(newJob.getKey(), tw.jobKey)
+                                        : lockStripesOf(newJob.getKey(), tw.jobKey, existing.jobKey);
+            try {
+                if (triggersByKey.get(tw.key) != existing) {
+                    continue;  // changed before locked, retry
+                }
+                storeJob(newJob, false);
+                storeTriggerLocked(tw, existing, false, signals);
+                break;
+            } finally {
+                unlock(locks);
+            }
+        }
+        signal(signals);
+    }
+
+    @Override
+    public void storeJob(JobDetail newJob, boolean replaceExisting) throws ObjectAlreadyExistsException {
+
+        JobDetail jobDetail = (JobDetail) newJob.clone();
+        ReentrantLock stripe = stripeOf(jobDetail.getKey());
+        stripe.lock();
+        try {
+            JobWrapper existing = jobsByKey.get(jobDetail.getKey());
+            if (null != existing) {
+                if (!replaceExisting) {
+                    throw new ObjectAlreadyExistsException(newJob);
+                }
+                existing.jobDetail = jobDetail;
+            } else {
+                jobsByKey.put(jobDetail.getKey(), new JobWrapper(jobDetail));
+                addToGroup(jobsByGroup, jobDetail.getKey().getGroup(), jobDetail.getKey());
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public void storeJobsAndTriggers(Map<JobDetail, Set<? extends Trigger>> triggersAndJobs, boolean replace)
+            throws JobPersistenceException {
+
+        List<Runnable> signals = new ArrayList<>();
+        lockAll();
+        try {
+            // make sure there are no collisions...
+            if (!replace) {
+                for (Map.Entry<JobDetail, Set<? extends Trigger>> entry : triggersAndJobs.entrySet()) {
+                    if (checkExists(entry.getKey().getKey())) {
+                        throw new ObjectAlreadyExistsException(entry.getKey());
+                    }
+                    for (Trigger trigger : entry.getValue()) {
+                        if (checkExists(trigger.getKey())) {
+                            throw new ObjectAlreadyExistsException(trigger);
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<JobDetail, Set<? extends Trigger>> entry : triggersAndJobs.entrySet()) {
+                storeJob(entry.getKey(), true);
+                for (Trigger trigger : entry.getValue()) {
+                    TriggerWrapper tw = new TriggerWrapper((OperableTrigger) ((OperableTrigger) trigger).clone());
+                    storeTriggerLocked(tw, triggersByKey.get(tw.key), true, signals);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+        signal(signals);
+    }
+
+    @Override
+    public boolean removeJob(JobKey jobKey) {
+
+        List<Runnable> signals = new ArrayList<>();
+        ReentrantLock stripe = stripeOf(jobKey);
+        stripe.lock();
+        boolean found;
+        try {
+            found = removeJobLocked(jobKey, signals);
+        } finally {
+            stripe.unlock();
+        }
+        signal(signals);
+        return found;
+    }
+
+    private boolean removeJobLocked(JobKey jobKey, List<Runnable> signals) {
+
+        JobWrapper jw = jobsByKey.get(jobKey);
+        if (null == jw) {
+            return false;
+        }
+        for (TriggerWrapper tw : new ArrayList<>(jw.triggers)) {
+            removeTriggerLocked(tw, false, signals);
+        }
+        jobsByKey.remove(jobKey);
+        removeFromGroup(jobsByGroup, jobKey.getGroup(), jobKey);
+        return true;
+    }
+
+    @Override
+    public boolean removeJobs(List<JobKey> jobKeys) {
+
+        boolean allFound = true;
+        for (JobKey jobKey : jobKeys) {
+            allFound = removeJob(jobKey) && allFound;
+        }
+        return allFound;
+    }
+
+    @Override
+    public JobDetail retrieveJob(JobKey jobKey) {
+
+        JobWrapper jw = jobsByKey.get(jobKey);
+        return (null != jw) ? (JobDetail) jw.jobDetail.clone() : null;
+    }
+
+    @Override
+    public void storeTrigger(OperableTrigger newTrigger, boolean replaceExisting) throws JobPersistenceException {
+
+        TriggerWrapper tw = new TriggerWrapper((OperableTrigger) newTrigger.clone());
+        List<Runnable> signals = new ArrayList<>();
+        while (true) {
+            TriggerWrapper existing = triggersByKey.get(tw.key);
+            // an existing trigger with the same key may belong to another job, so lock both jobs
+            List<ReentrantLock> locks = (null == existing)
+                                        ? lockStripesOf(tw.jobKey)
+                                        : lockStripesOf(tw.jobKey, existing.jobKey);
+            try {
+                if (triggersByKey.get(tw.key) != existing) {
+                    continue;  // changed before locked, retry
+                }
+                storeTriggerLocked(tw, existing, replaceExisting, signals);
+                break;
+            } finally {
+                unlock(locks);
+            }
+        }
+        signal(signals);
+    }
+
+    /**
+     * The caller must hold the stripe locks of the trigger's job and of the existing trigger's job
+     */
+    private void storeTriggerLocked(TriggerWrapper tw,
+                                    TriggerWrapper existing,
+                                    boolean replaceExisting,
+                                    List<Runnable> signals) throws JobPersistenceException {
+
+        if (null != existing) {
+            if (!replaceExisting) {
+                throw new ObjectAlreadyExistsException(tw.trigger);
+            }
+            removeTriggerLocked(existing, false, signals);
+        }
+        JobWrapper jw = jobsByKey.get(tw.jobKey);
+        if (null == jw) {
+            throw new JobPersistenceException("The job (" + tw.jobKey +
+                                              ") referenced by the trigger does not exist.");
+        }
+        insertTriggerLocked(tw, jw);
+    }
+
+    private void insertTriggerLocked(TriggerWrapper tw, JobWrapper jw) {
+
+        jw.triggers.add(tw);
+        addToGroup(triggersByGroup, tw.key.getGroup(), tw.key);
+        triggersByKey.put(tw.key, tw);
+
+        if (pausedTriggerGroups.contains(tw.key.getGroup()) || pausedJobGroups.contains(tw.jobKey.getGroup())) {
+            tw.state = jw.blocked ? TriggerWrapper.STATE_PAUSED_BLOCKED : TriggerWrapper.STATE_PAUSED;
+        } else if (jw.blocked) {
+            tw.state = TriggerWrapper.STATE_BLOCKED;
+        } else {
+            addToWheel(tw);
+        }
+    }
+
+    @Override
+    public boolean removeTrigger(TriggerKey triggerKey) {
+        return removeTrigger(triggerKey, true);
+    }
+
+    private boolean removeTrigger(TriggerKey triggerKey, boolean removeOrphanedJob) {
+
+        List<Runnable> signals = new ArrayList<>();
+        boolean found = false;
+        while (true) {
+            TriggerWrapper tw = triggersByKey.get(triggerKey);
+            if (null == tw) {
+                break;
+            }
+            ReentrantLock stripe = stripeOf(tw.jobKey);
+            stripe.lock();
+            try {
+                if (triggersByKey.get(triggerKey) != tw) {
+                    continue;  // changed before locked, retry
+                }
+                removeTriggerLocked(tw, removeOrphanedJob, signals);
+                found = true;
+                break;
+            } finally {
+                stripe.unlock();
+            }
+        }
+        signal(signals);
+        return found;
+    }
+
+    private void removeTriggerLocked(TriggerWrapper tw, boolean removeOrphanedJob, List<Runnable> signals) {
+
+        triggersByKey.remove(tw.key);
+        removeFromGroup(triggersByGroup, tw.key.getGroup(), tw.key);
+        removeFromWheel(tw);
+        tw.removed = true;
+
+        JobWrapper jw = jobsByKey.get(tw.jobKey);
+        if (null == jw) {
+            return;
+        }
+        jw.triggers.remove(tw);
+        if (removeOrphanedJob && jw.triggers.isEmpty() && !jw.jobDetail.isDurable()) {
+            if (removeJobLocked(jw.jobDetail.getKey(), signals)) {
+                JobKey jobKey = jw.jobDetail.getKey();
+                signals.add(() -> signaler.notifySchedulerListenersJobDeleted(jobKey));
+            }
+        }
+    }
+
+    @Override
+    public boolean removeTriggers(List<TriggerKey> triggerKeys) {
+
+        boolean allFound = true;
+        for (TriggerKey triggerKey : triggerKeys) {
+            allFound = removeTrigger(triggerKey) && allFound;
+        }
+        return allFound;
+    }
+
+    @Override
+    public boolean replaceTrigger(TriggerKey triggerKey, OperableTrigger newTrigger) throws JobPersistenceException {
+
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+        if (null == tw) {
+            return false;
+        }
+        if (!tw.jobKey.equals(newTrigger.getJobKey())) {
+            throw new JobPersistenceException("New trigger is not related to the same job as the old trigger.");
+        }
+
+        List<Runnable> signals = new ArrayList<>();
+        ReentrantLock stripe = stripeOf(tw.jobKey);
+        stripe.lock();
+        try {
+            if (triggersByKey.get(triggerKey) != tw) {
+                return false;
+            }
+            removeTriggerLocked(tw, false, signals);
+            try {
+                storeTrigger(newTrigger, false);
+            } catch (JobPersistenceException e) {
+                storeTrigger(tw.trigger, false);  // put previous trigger back...
+                throw e;
+            }
+        } finally {
+            stripe.unlock();
+        }
+        signal(signals);
+        return true;
+    }
+
+    @Override
+    public OperableTrigger retrieveTrigger(TriggerKey triggerKey) {
+
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+        if (null == tw) {
+            return null;
+        }
+        ReentrantLock stripe = stripeOf(tw.jobKey);
+        stripe.lock();
+        try {
+            return (OperableTrigger) tw.trigger.clone();
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public boolean checkExists(JobKey jobKey) {
+        return jobsByKey.containsKey(jobKey);
+    }
+
+    @Override
+    public boolean checkExists(TriggerKey triggerKey) {
+        return triggersByKey.containsKey(triggerKey);
+    }
+
+    @Override
+    public void clearAllSchedulingData() throws JobPersistenceException {
+
+        List<Runnable> signals = new ArrayList<>();
+        lockAll();
+        try {
+            for (TriggerWrapper tw : new ArrayList<>(triggersByKey.values())) {
+                removeTriggerLocked(tw, true, signals);
+            }
+            for (JobKey jobKey : new ArrayList<>(jobsByKey.keySet())) {
+                removeJobLocked(jobKey, signals);
+            }
+            calendarsByName.clear();
+        } finally {
+            unlockAll();
+        }
+        signal(signals);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // calendars
+
+    @Override
+    public void storeCalendar(String name, Calendar calendar, boolean replaceExisting, boolean updateTriggers)
+            throws ObjectAlreadyExistsException {
+
+        Calendar clonedCalendar = (Calendar) calendar.clone();
+        lockAll();
+        try {
+            Calendar existing = calendarsByName.get(name);
+            if (null != existing && !replaceExisting) {
+                throw new ObjectAlreadyExistsException("Calendar with name '" + name + "' already exists.");
+            }
+            calendarsByName.put(name, clonedCalendar);
+
+            if (null != existing && updateTriggers) {
+                for (TriggerWrapper tw : triggersByKey.values()) {
+                    if (name.equals(tw.trigger.getCalendarName())) {
+                        boolean removed = removeFromWheel(tw);
+                        tw.trigger.updateWithNewCalendar(clonedCalendar, getMisfireThreshold());
+                        if (removed && null != tw.trigger.getNextFireTime()) {
+                            addToWheel(tw);
+                        }
+                    }
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public boolean removeCalendar(String calName) throws JobPersistenceException {
+
+        lockAll();
+        try {
+            for (TriggerWrapper tw : triggersByKey.values()) {
+                if (calName.equals(tw.trigger.getCalendarName())) {
+                    throw new JobPersistenceException("Calender cannot be removed if it referenced by a Trigger!");
+                }
+            }
+            return null != calendarsByName.remove(calName);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public Calendar retrieveCalendar(String calName) {
+
+        Calendar calendar = calendarsByName.get(calName);
+        return (null != calendar) ? (Calendar) calendar.clone() : null;
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // lookup
+
+    @Override
+    public int getNumberOfJobs() {
+        return jobsByKey.size();
+    }
+
+    @Override
+    public int getNumberOfTriggers() {
+        return triggersByKey.size();
+    }
+
+    @Override
+    public int getNumberOfCalendars() {
+        return calendarsByName.size();
+    }
+
+    @Override
+    public Set<JobKey> getJobKeys(GroupMatcher<JobKey> matcher) {
+        return keysOf(jobsByGroup, matcher.getCompareWithOperator(), matcher.getCompareToValue());
+    }
+
+    @Override
+    public Set<TriggerKey> getTriggerKeys(GroupMatcher<TriggerKey> matcher) {
+        return keysOf(triggersByGroup, matcher.getCompareWithOperator(), matcher.getCompareToValue());
+    }
+
+    private static <K> Set<K> keysOf(Map<String, Set<K>> byGroup,
+                                     StringMatcher.StringOperatorName operator,
+                                     String compareToValue) {
+
+        Set<K> keys = new HashSet<>();
+        if (operator == StringMatcher.StringOperatorName.EQUALS) {
+            Set<K> group = byGroup.get(compareToValue);
+            if (null != group) {
+                keys.addAll(group);
+            }
+        } else {
+            byGroup.forEach((group, groupKeys) -> {
+                if (operator.evaluate(group, compareToValue)) {
+                    keys.addAll(groupKeys);
+                }
+            });
+        }
+        return keys;
+    }
+
+    @Override
+    public List<String> getJobGroupNames() {
+        return new LinkedList<>(jobsByGroup.keySet());
+    }
+
+    @Override
+    public List<String> getTriggerGroupNames() {
+        return new LinkedList<>(triggersByGroup.keySet());
+    }
+
+    @Override
+    public List<String> getCalendarNames() {
+        return new LinkedList<>(calendarsByName.keySet());
+    }
+
+    @Override
+    public List<OperableTrigger> getTriggersForJob(JobKey jobKey) {
+
+        List<OperableTrigger> triggers = new ArrayList<>();
+        ReentrantLock stripe = stripeOf(jobKey);
+        stripe.lock();
+        try {
+            JobWrapper jw = jobsByKey.get(jobKey);
+            if (null != jw) {
+                for (TriggerWrapper tw : jw.triggers) {
+                    triggers.add((OperableTrigger) tw.trigger.clone());
+                }
+            }
+        } finally {
+            stripe.unlock();
+        }
+        return triggers;
+    }
+
+    @Override
+    public TriggerState getTriggerState(TriggerKey triggerKey) {
+
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+        if (null == tw) {
+            return TriggerState.NONE;
+        }
+        switch (tw.state) {
+            case TriggerWrapper.STATE_COMPLETE:
+                return TriggerState.COMPLETE;
+            case TriggerWrapper.STATE_PAUSED:
+            case TriggerWrapper.STATE_PAUSED_BLOCKED:
+                return TriggerState.PAUSED;
+            case TriggerWrapper.STATE_BLOCKED:
+                return TriggerState.BLOCKED;
+            case TriggerWrapper.STATE_ERROR:
+                return TriggerState.ERROR;
+            default:
+                return TriggerState.NORMAL;
+        }
+    }
+
+    @Override
+    public void resetTriggerFromErrorState(TriggerKey triggerKey) {
+
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+        if (null == tw) {
+            return;
+        }
+        ReentrantLock stripe = stripeOf(tw.jobKey);
+        stripe.lock();
+        try {
+            if (tw.removed || tw.state != TriggerWrapper.STATE_ERROR) {
+                return;
+            }
+            if (pausedTriggerGroups.contains(triggerKey.getGroup())) {
+                tw.state = TriggerWrapper.STATE_PAUSED;
+            } else {
+                tw.state = TriggerWrapper.STATE_WAITING;
+                addToWheel(tw);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // pause and resume
+
+    @Override
+    public void pauseTrigger(TriggerKey triggerKey) {
+
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+        if (null == tw) {
+            return;
+        }
+        ReentrantLock stripe = stripeOf(tw.jobKey);
+        stripe.lock();
+        try {
+            pauseTriggerLocked(tw);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void pauseTriggerLocked(TriggerWrapper tw) {
+
+        // if the trigger is "complete" pausing it does not make sense...
+        if (tw.removed || tw.state == TriggerWrapper.STATE_COMPLETE) {
+            return;
+        }
+        if (tw.state == TriggerWrapper.STATE_BLOCKED) {
+            tw.state = TriggerWrapper.STATE_PAUSED_BLOCKED;
+        } else {
+            tw.state = TriggerWrapper.STATE_PAUSED;
+        }
+        removeFromWheel(tw);
+    }
+
+    @Override
+    public Collection<String> pauseTriggers(GroupMatcher<TriggerKey> matcher) {
+
+        List<String> pausedGroups = new LinkedList<>();
+        lockAll();
+        try {
+            StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
+            if (operator == StringMatcher.StringOperatorName.EQUALS) {
+                if (pausedTriggerGroups.add(matcher.getCompareToValue())) {
+                    pausedGroups.add(matcher.getCompareToValue());
+                }
+            } else {
+                for (String group : triggersByGroup.keySet()) {
+                    if (operator.evaluate(group, matcher.getCompareToValue()) && pausedTriggerGroups.add(group)) {
+                        pausedGroups.add(group);
+                    }
+                }
+            }
+            for (String pausedGroup : pausedGroups) {
+                for (TriggerKey triggerKey : getTriggerKeys(GroupMatcher.triggerGroupEquals(pausedGroup))) {
+                    pauseTrigger(triggerKey);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+        return pausedGroups;
+    }
+
+    @Override
+    public void pauseJob(JobKey jobKey) {
+
+        ReentrantLock stripe = stripeOf(jobKey);
+        stripe.lock();
+        try {
+            JobWrapper jw = jobsByKey.get(jobKey);
+            if (null != jw) {
+                for (TriggerWrapper tw : jw.triggers) {
+                    pauseTriggerLocked(tw);
+                }
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public Collection<String> pauseJobs(GroupMatcher<JobKey> matcher) {
+
+        List<String> pausedGroups = new LinkedList<>();
+        lockAll();
+        try {
+            StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
+            if (operator == StringMatcher.StringOperatorName.EQUALS) {
+                if (pausedJobGroups.add(matcher.getCompareToValue())) {
+                    pausedGroups.add(matcher.getCompareToValue());
+                }
+            } else {
+                for (String group : jobsByGroup.keySet()) {
+                    if (operator.evaluate(group, matcher.getCompareToValue()) && pausedJobGroups.add(group)) {
+                        pausedGroups.add(group);
+                    }
+                }
+            }
+            for (String groupName : pausedGroups) {
+                for (JobKey jobKey : getJobKeys(GroupMatcher.jobGroupEquals(groupName))) {
+                    pauseJob(jobKey);
+                }
+            }
+        } finally {
+            unlockAll();
+        }
+        return pausedGroups;
+    }
+
+    @Override
+    public void resumeTrigger(TriggerKey triggerKey) {
+
+        TriggerWrapper tw = triggersByKey.get(triggerKey);
+        if (null == tw) {
+            return;
+        }
+        List<Runnable> signals = new ArrayList<>();
+        ReentrantLock stripe = stripeOf(tw.jobKey);
+        stripe.lock();
+        try {
+            resumeTriggerLocked(tw, signals);
+        } finally {
+            stripe.unlock();
+        }
+        signal(signals);
+    }
+
+    private void resumeTriggerLocked(TriggerWrapper tw, List<Runnable> signals) {
+
+        // if the trigger is not paused resuming it does not make sense...
+        if (tw.removed ||
+            (tw.state != TriggerWrapper.STATE_PAUSED && tw.state != TriggerWrapper.STATE_PAUSED_BLOCKED)) {
+            return;
+        }
+        JobWrapper jw = jobsByKey.get(tw.jobKey);
+        tw.state = (null != jw && jw.blocked) ? TriggerWrapper.STATE_BLOCKED : TriggerWrapper.STATE_WAITING;
+        applyMisfire(tw, signals);
+        if (tw.state == TriggerWrapper.STATE_WAITING) {
+            addToWheel(tw);
+        }
+    }
+
+    @Override
+    public Collection<String> resumeTriggers(GroupMatcher<TriggerKey> matcher) {
+
+        Set<String> groups = new HashSet<>();
+        List<Runnable> signals = new ArrayList<>();
+        lockAll();
+        try {
+            for (TriggerKey triggerKey : getTriggerKeys(matcher)) {
+                groups.add(triggerKey.getGroup());
+                TriggerWrapper tw = triggersByKey.get(triggerKey);
+                if (null == tw || pausedJobGroups.contains(tw.jobKey.getGroup())) {
+                    continue;
+                }
+                resumeTriggerLocked(tw, signals);
+            }
+            // find all matching paused trigger groups, and then remove them
+            StringMatcher.StringOperatorName operator = matcher.getCompareWithOperator();
+            if (operator == StringMatcher.StringOperatorName.EQUALS) {
+                pausedTriggerGroups.remove(matcher.getCompareToValue());
+            } else {
+                pausedTriggerGroups.removeIf(group -> operator.evaluate(group, matcher.getCompareToValue()));
+            }
+        } finally {
+            unlockAll();
+        }
+        signal(signals);
+        return new ArrayList<>(groups);
+    }
+
+    @Override
+    public Set<String> getPausedTriggerGroups() {
+        return new HashSet<>(pausedTriggerGroups);
+    }
+
+    @Override
+    public void resumeJob(JobKey jobKey) {
+
+        List<Runnable> signals = new ArrayList<>();
+        ReentrantLock stripe = stripeOf(jobKey);
+        stripe.lock();
+        try {
+            JobWrapper jw = jobsByKey.get(jobKey);
+            if (null != jw) {
+                for (TriggerWrapper tw : jw.triggers) {
+                    resumeTriggerLocked(tw, signals);
+                }
+            }
+        } finally {
+            stripe.unlock();
+        }
+        signal(signals);
+    }
+
+    @Override
+    public Collection<String> resumeJobs(GroupMatcher<JobKey> matcher) {
+
+        Set<String> resumedGroups = new HashSet<>();
+        lockAll();
+        try {
+            for (String pausedJobGroup : pausedJobGroups) {
+                if (matcher.getCompareWithOperator().evaluate(pausedJobGroup, matcher.getCompareToValue())) {
+                    resumedGroups.add(pausedJobGroup);
+                }
+            }
+            pausedJobGroups.removeAll(resumedGroups);
+            for (JobKey jobKey : getJobKeys(matcher)) {
+                resumeJob(jobKey);
+            }
+        } finally {
+            unlockAll();
+        }
+        return resumedGroups;
+    }
+
+    @Override
+    public void pauseAll() {
+
+        lockAll();
+        try {
+            for (String group : getTriggerGroupNames()) {
+                pauseTriggers(GroupMatcher.triggerGroupEquals(group));
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public void resumeAll() {
+
+        lockAll();
+        try {
+            pausedJobGroups.clear();
+            resumeTriggers(GroupMatcher.anyTriggerGroup());
+        } finally {
+            unlockAll();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // firing
+
+    private boolean isMisfired(TriggerWrapper tw, long misfireTime) {
+
+        Date nextFireTime = tw.trigger.getNextFireTime();
+        return null != nextFireTime && nextFireTime.getTime() <= misfireTime &&
+               tw.trigger.getMisfireInstruction() != Trigger.MISFIRE_INSTRUCTION_IGNORE_MISFIRE_POLICY;
+    }
+
+    /**
+     * The caller must hold the stripe lock of the trigger
+     *
+     * @return true if the next fire time is changed by misfire policy
+     */
+    private boolean applyMisfire(TriggerWrapper tw, List<Runnable> signals) {
+
+        Date nextFireTime = tw.trigger.getNextFireTime();
+        if (!isMisfired(tw, System.currentTimeMillis() - getMisfireThreshold())) {
+            return false;
+        }
+        applyMisfires(Collections.singletonList(tw), signals);
+        return !nextFireTime.equals(tw.trigger.getNextFireTime());
+    }
+
+    /**
+     * Let the misfire policy decide the misfired triggers together.
+     * The caller must hold the stripe locks of the triggers.
+     */
+    private void applyMisfires(List<TriggerWrapper> misfired, List<Runnable> signals) {
+
+        List<MisfirePolicy.Misfire> misfires = new ArrayList<>(misfired.size());
+        for (TriggerWrapper tw : misfired) {
+            Calendar calendar = null;
+            if (null != tw.trigger.getCalendarName()) {
+                calendar = retrieveCalendar(tw.trigger.getCalendarName());
+            }
+            JobWrapper jw = jobsByKey.get(tw.jobKey);
+            misfires.add(new MisfirePolicy.Misfire(tw.trigger, calendar,
+                    null != jw && jw.jobDetail.isConcurrentExectionDisallowed()));
+        }
+        long now = System.currentTimeMillis();
+        misfirePolicy.handle(Collections.unmodifiableList(misfires), now);
+
+        for (int i = 0; i < misfired.size(); i++) {
+            TriggerWrapper tw = misfired.get(i);
+            MisfirePolicy.Misfire misfire = misfires.get(i);
+
+            OperableTrigger misfiredTrigger = (OperableTrigger) tw.trigger.clone();
+            signals.add(() -> signaler.notifyTriggerListenersMisfired(misfiredTrigger));
+
+            switch (misfire.getAction()) {
+                case SKIP:
+                    tw.trigger.setNextFireTime(misfire.getRegularFireTimeAfter(now));
+                    break;
+                case RECOVER:
+                    tw.trigger.setNextFireTime(new Date(misfire.getRecoverAt()));
+                    break;
+                default:
+                    tw.trigger.updateAfterMisfire(misfire.getCalendar());
+            }
+
+            if (null == tw.trigger.getNextFireTime()) {
+                tw.state = TriggerWrapper.STATE_COMPLETE;
+                OperableTrigger finalizedTrigger = tw.trigger;
+                signals.add(() -> signaler.notifySchedulerListenersFinalized(finalizedTrigger));
+                removeFromWheel(tw);
+            }
+        }
+    }
+
+    /**
+     * Take all the misfired triggers out of the wheel, apply the misfire policy on them together,
+     * and put them back by their new next fire time
+     */
+    private void recoverMisfires(List<Runnable> signals) {
+
+        long misfireTime = System.currentTimeMillis() - getMisfireThreshold();
+        List<TriggerWrapper> polled = new ArrayList<>();
+        TriggerWrapper polledTrigger;
+        while (null != (polledTrigger = pollWheel(misfireTime))) {
+            polled.add(polledTrigger);
+        }
+        if (polled.isEmpty()) {
+            return;
+        }
+
+        List<ReentrantLock> locks = lockStripesOf(polled.stream().map(tw -> tw.jobKey).toArray(JobKey[]::new));
+        try {
+            List<TriggerWrapper> misfired = new ArrayList<>();
+            for (TriggerWrapper tw : polled) {
+                // removed, paused or blocked since polled, or paused and resumed so back in the wheel
+                if (tw.removed || tw.state != TriggerWrapper.STATE_WAITING || null != tw.node ||
+                    null == tw.trigger.getNextFireTime()) {
+                    continue;
+                }
+                if (isMisfired(tw, misfireTime)) {
+                    misfired.add(tw);
+                } else {
+                    addToWheel(tw);
+                }
+            }
+            if (!misfired.isEmpty()) {
+                applyMisfires(misfired, signals);
+            }
+            for (TriggerWrapper tw : misfired) {
+                if (tw.state == TriggerWrapper.STATE_WAITING) {
+                    addToWheel(tw);
+                }
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    @Override
+    public List<OperableTrigger> acquireNextTriggers(long noLaterThan, int maxCount, long timeWindow) {
+
+        List<OperableTrigger> result = new ArrayList<>();
+        Set<JobKey> acquiredJobKeysForNoConcurrentExec = new HashSet<>();
+        List<TriggerWrapper> excludedTriggers = new ArrayList<>();
+        List<Runnable> signals = new ArrayList<>();
+        long batchEnd = noLaterThan;
+
+        recoverMisfires(signals);
+        while (true) {
+            TriggerWrapper tw = pollWheel(batchEnd);
+            if (null == tw) {
+                break;
+            }
+
+            ReentrantLock stripe = stripeOf(tw.jobKey);
+            stripe.lock();
+            try {
+                // removed, paused or blocked since polled, or paused and resumed so back in the wheel
+                if (tw.removed || tw.state != TriggerWrapper.STATE_WAITING || null != tw.node ||
+                    null == tw.trigger.getNextFireTime()) {
+                    continue;
+                }
+
+                if (applyMisfire(tw, signals)) {
+                    if (null != tw.trigger.getNextFireTime()) {
+                        addToWheel(tw);
+                    }
+                    continue;
+                }
+
+                if (tw.trigger.getNextFireTime().getTime() > batchEnd) {
+                    addToWheel(tw);
+                    break;
+                }
+
+                // If trigger's job is set as @DisallowConcurrentExecution, and it has already been added to result,
+                // then put it back into the wheel afterwards and continue to search for next trigger.
+                JobWrapper jw = jobsByKey.get(tw.jobKey);
+                if (jw.jobDetail.isConcurrentExectionDisallowed()) {
+                    if (!acquiredJobKeysForNoConcurrentExec.add(tw.jobKey)) {
+                        excludedTriggers.add(tw);
+                        continue;
+                    }
+                }
+
+                tw.state = TriggerWrapper.STATE_ACQUIRED;
+                tw.trigger.setFireInstanceId(String.valueOf(FIRED_TRIGGER_RECORD_ID.incrementAndGet()));
+                if (result.isEmpty()) {
+                    batchEnd = Math.max(tw.trigger.getNextFireTime().getTime(), System.currentTimeMillis()) +
+                               timeWindow;
+                }
+                result.add((OperableTrigger) tw.trigger.clone());
+                if (result.size() == maxCount) {
+                    break;
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        for (TriggerWrapper tw : excludedTriggers) {
+            ReentrantLock stripe = stripeOf(tw.jobKey);
+            stripe.lock();
+            try {
+                if (!tw.removed && tw.state == TriggerWrapper.STATE_WAITING && null == tw.node) {
+                    addToWheel(tw);
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        signal(signals);
+        return result;
+    }
+
+    @Override
+    public void releaseAcquiredTrigger(OperableTrigger trigger) {
+
+        ReentrantLock stripe = stripeOf(trigger.getJobKey());
+        stripe.lock();
+        try {
+            TriggerWrapper tw = triggersByKey.get(trigger.getKey());
+            if (null != tw && tw.state == TriggerWrapper.STATE_ACQUIRED) {
+                tw.state = TriggerWrapper.STATE_WAITING;
+                addToWheel(tw);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    @Override
+    public List<TriggerFiredResult> triggersFired(List<OperableTrigger> firedTriggers) {
+
+        List<TriggerFiredResult> results = new ArrayList<>();
+        for (OperableTrigger trigger : firedTriggers) {
+
+            ReentrantLock stripe = stripeOf(trigger.getJobKey());
+            stripe.lock();
+            try {
+                TriggerWrapper tw = triggersByKey.get(trigger.getKey());
+                // was the trigger deleted since being acquired?
+                if (null == tw) {
+                    continue;
+                }
+                // was the trigger completed, paused, blocked, etc. since being acquired?
+                if (tw.state != TriggerWrapper.STATE_ACQUIRED) {
+                    continue;
+                }
+
+                Calendar calendar = null;
+                if (null != tw.trigger.getCalendarName()) {
+                    calendar = retrieveCalendar(tw.trigger.getCalendarName());
+                    if (null == calendar) {
+                        continue;
+                    }
+                }
+                Date prevFireTime = trigger.getPreviousFireTime();
+                // in case trigger was replaced between acquiring and firing
+                removeFromWheel(tw);
+                // call triggered on our copy, and the scheduler's copy
+                tw.trigger.triggered(calendar);
+                trigger.triggered(calendar);
+                tw.state = TriggerWrapper.STATE_WAITING;
+
+                JobWrapper jw = jobsByKey.get(tw.jobKey);
+                TriggerFiredBundle bundle = new TriggerFiredBundle((JobDetail) jw.jobDetail.clone(), trigger,
+                        calendar, false, new Date(), trigger.getPreviousFireTime(), prevFireTime,
+                        trigger.getNextFireTime());
+
+                if (jw.jobDetail.isConcurrentExectionDisallowed()) {
+                    for (TriggerWrapper jobTrigger : jw.triggers) {
+                        if (jobTrigger.state == TriggerWrapper.STATE_WAITING) {
+                            jobTrigger.state = TriggerWrapper.STATE_BLOCKED;
+                        }
+                        if (jobTrigger.state == TriggerWrapper.STATE_PAUSED) {
+                            jobTrigger.state = TriggerWrapper.STATE_PAUSED_BLOCKED;
+                        }
+                        removeFromWheel(jobTrigger);
+                    }
+                    jw.blocked = true;
+                } else if (null != tw.trigger.getNextFireTime()) {
+                    addToWheel(tw);
+                }
+
+                results.add(new TriggerFiredResult(bundle));
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void triggeredJobComplete(OperableTrigger trigger,
+                                     JobDetail jobDetail,
+                                     CompletedExecutionInstruction triggerInstCode) {
+
+        List<Runnable> signals = new ArrayList<>();
+        ReentrantLock stripe = stripeOf(jobDetail.getKey());
+        stripe.lock();
+        try {
+            JobWrapper jw = jobsByKey.get(jobDetail.getKey());
+            TriggerWrapper tw = triggersByKey.get(trigger.getKey());
+
+            // It's possible that the job is null if it was deleted during execution
+            if (null != jw) {
+                JobDetail jd = jw.jobDetail;
+                if (jd.isPersistJobDataAfterExecution()) {
+                    JobDataMap newData = jobDetail.getJobDataMap();
+                    if (null != newData) {
+                        newData = (JobDataMap) newData.clone();
+                        newData.clearDirtyFlag();
+                    }
+                    jd = jd.getJobBuilder().setJobData(newData).build();
+                    jw.jobDetail = jd;
+                }
+                if (jd.isConcurrentExectionDisallowed()) {
+                    jw.blocked = false;
+                    for (TriggerWrapper jobTrigger : jw.triggers) {
+                        if (jobTrigger.state == TriggerWrapper.STATE_BLOCKED) {
+                            jobTrigger.state = TriggerWrapper.STATE_WAITING;
+                            addToWheel(jobTrigger);
+                        }
+                        if (jobTrigger.state == TriggerWrapper.STATE_PAUSED_BLOCKED) {
+                            jobTrigger.state = TriggerWrapper.STATE_PAUSED;
+                        }
+                    }
+                    signals.add(() -> signaler.signalSchedulingChange(0L));
+                }
+            }
+
+            // check for trigger deleted during execution...
+            if (null != tw) {
+                if (triggerInstCode == CompletedExecutionInstruction.DELETE_TRIGGER) {
+                    if (null == trigger.getNextFireTime()) {
+                        // double check for possible reschedule within job execution, which would cancel the need
+                        // to delete...
+                        if (null == tw.trigger.getNextFireTime()) {
+                            removeTriggerLocked(tw, true, signals);
+                        }
+                    } else {
+                        removeTriggerLocked(tw, true, signals);
+                        signals.add(() -> signaler.signalSchedulingChange(0L));
+                    }
+                } else if (triggerInstCode == CompletedExecutionInstruction.SET_TRIGGER_COMPLETE) {
+                    tw.state = TriggerWrapper.STATE_COMPLETE;
+                    removeFromWheel(tw);
+                    signals.add(() -> signaler.signalSchedulingChange(0L));
+                } else if (triggerInstCode == CompletedExecutionInstruction.SET_TRIGGER_ERROR) {
+                    log.info("Trigger {} set to ERROR state.", trigger.getKey());
+                    tw.state = TriggerWrapper.STATE_ERROR;
+                    signals.add(() -> signaler.signalSchedulingChange(0L));
+                } else if (triggerInstCode == CompletedExecutionInstruction.SET_ALL_JOB_TRIGGERS_ERROR) {
+                    log.info("All triggers of Job {} set to ERROR state.", trigger.getJobKey());
+                    setAllTriggersOfJobToState(jw, TriggerWrapper.STATE_ERROR);
+                    signals.add(() -> signaler.signalSchedulingChange(0L));
+                } else if (triggerInstCode == CompletedExecutionInstruction.SET_ALL_JOB_TRIGGERS_COMPLETE) {
+                    setAllTriggersOfJobToState(jw, TriggerWrapper.STATE_COMPLETE);
+                    signals.add(() -> signaler.signalSchedulingChange(0L));
+                }
+            }
+        } finally {
+            stripe.unlock();
+        }
+        signal(signals);
+    }
+
+    private void setAllTriggersOfJobToState(JobWrapper jw, int state) {
+
+        if (null == jw) {
+            return;
+        }
+        for (TriggerWrapper tw : jw.triggers) {
+            tw.state = state;
+            if (state != TriggerWrapper.STATE_WAITING) {
+                removeFromWheel(tw);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // group index
+
+    private static <K> void addToGroup(ConcurrentHashMap<String, Set<K>> byGroup, String group, K key) {
+
+        byGroup.compute(group, (g, keys) -> {
+            Set<K> groupKeys = (null != keys) ? keys : ConcurrentHashMap.newKeySet();
+            groupKeys.add(key);
+            return groupKeys;
+        });
+    }
+
+    private static <K> void removeFromGroup(ConcurrentHashMap<String, Set<K>> byGroup, String group, K key) {
+
+        byGroup.computeIfPresent(group, (g, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static class JobWrapper {
+
+        volatile JobDetail jobDetail;
+
+        // guarded by the stripe lock of the job
+        final List<TriggerWrapper> triggers = new ArrayList<>(1);
+
+        // guarded by the stripe lock of the job, true while a @DisallowConcurrentExecution job is executing
+        boolean blocked = false;
+
+        JobWrapper(JobDetail jobDetail) {
+            this.jobDetail = jobDetail;
+        }
+    }
+
+    static class TriggerWrapper {
+
+        static final int STATE_WAITING = 0;
+
+        static final int STATE_ACQUIRED = 1;
+
+        static final int STATE_COMPLETE = 3;
+
+        static final int STATE_PAUSED = 4;
+
+        static final int STATE_BLOCKED = 5;
+
+        static final int STATE_PAUSED_BLOCKED = 6;
+
+        static final int STATE_ERROR = 7;
+
+        final TriggerKey key;
+
+        final JobKey jobKey;
+
+        final OperableTrigger trigger;
+
+        // written under the stripe lock of the job, read without lock by getTriggerState()
+        volatile int state = STATE_WAITING;
+
+        // written under the stripe lock of the job
+        volatile boolean removed = false;
+
+        // written under the wheel lock, null if not in the wheel
+        volatile TimingWheel.Node<TriggerWrapper> node;
+
+        TriggerWrapper(OperableTrigger trigger) {
+
+            this.trigger = trigger;
+            this.key = trigger.getKey();
+            this.jobKey = trigger.getJobKey();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.yejianfengblue.spring.boot.quartz;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.quartz.*;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.simpl.CascadingClassLoadHelper;
+import org.quartz.simpl.RAMJobStore;
+import org.quartz.spi.JobStore;
+import org.quartz.spi.OperableTrigger;
+import org.quartz.spi.SchedulerSignaler;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author yejianfengblue
+ */
+@Slf4j
+class TimingWheelJobStoreTest {
+
+    Scheduler scheduler;
+
+    @AfterEach
+    @SneakyThrows
+    void clear() {
+        log.info("Test end");
+        if (null != scheduler) {
+            scheduler.shutdown(true);
+        }
+    }
+
+    @SneakyThrows
+    Scheduler startScheduler(String name) {
+
+        Properties properties = new Properties();
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, name);
+        properties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, TimingWheelJobStore.class.getName());
+        properties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_PREFIX + ".lockStripes", "16");
+        properties.setProperty("org.quartz.threadPool.threadCount", "10");
+
+        Scheduler scheduler = new StdSchedulerFactory(properties).getScheduler();
+        scheduler.start();
+        log.info("Test start");
+        return scheduler;
+    }
+
+    @Test
+    @DisplayName("Given random times, when poll timing wheel, then polled in time order and then tie-breaker order")
+    void givenRandomTimes_whenPollTimingWheel_thenPolledInOrder() {
+
+        long start = 1_000_000L;
+        TimingWheel<Integer> wheel = new TimingWheel<>(start, Comparator.<Integer>naturalOrder());
+        Random random = new Random(42);
+        List<long[]> expected = new ArrayList<>();
+        List<TimingWheel.Node<Integer>> removable = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            // mostly near, some far beyond the wheel span
+            long time = start + (i % 100 == 0 ? (long) (random.nextDouble() * (1L << 40))
+                                              : random.nextInt(10_000_000));
+            TimingWheel.Node<Integer> node = wheel.add(i, time);
+            if (i % 10 == 0) {
+                removable.add(node);
+            } else {
+                expected.add(new long[]{time, i});
+            }
+        }
+        removable.forEach(wheel::remove);
+        expected.sort(Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+        assertThat(wheel.size()).isEqualTo(expected.size());
+
+        List<long[]> polled = new ArrayList<>();
+        TimingWheel.Node<Integer> node;
+        while (null != (node = wheel.poll(Long.MAX_VALUE))) {
+            polled.add(new long[]{node.time, node.value});
+        }
+        assertThat(polled).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(polled.get(i)).containsExactly(expected.get(i));
+        }
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Given empty wheel, when poll far beyond the wheel span, then cursor moves on, " +
+                 "and an entry near the polled time is not in the overflow set")
+    void givenEmptyWheel_whenPollFarBeyondSpan_thenCursorMovesOn() {
+
+        TimingWheel<String> wheel = new TimingWheel<>(0, Comparator.<String>naturalOrder());
+        long now = 1L << 40;
+        assertThat(wheel.poll(now)).isNull();
+        assertThat(wheel.getCursor()).isEqualTo(now);
+
+        wheel.add("soon", now + 5_000);
+        assertThat(wheel.getOverflowSize()).isZero();
+        assertThat(wheel.poll(now + 4_999)).isNull();
+        assertThat(wheel.poll(now + 5_000).value).isEqualTo("soon");
+    }
+
+    @Test
+    @DisplayName("Given entries not due, when poll no later than now, then nothing and entries are kept")
+    void givenEntriesNotDue_whenPollNoLaterThanNow_thenNothing() {
+
+        TimingWheel<String> wheel = new TimingWheel<>(0, Comparator.<String>naturalOrder());
+        wheel.add("later", 5_000);
+        assertThat(wheel.poll(4_999)).isNull();
+        assertThat(wheel.size()).isEqualTo(1);
+        assertThat(wheel.poll(5_000).value).isEqualTo("later");
+    }
+
+    @Test
+    @DisplayName("When scheduler.scheduleJob(trigger) without job, then JobPersistenceException, " +
+                 "and when schedule same job twice, then ObjectAlreadyExistsException")
+    @SneakyThrows
+    void whenScheduleWithoutJobOrTwice_thenException() {
+
+        scheduler = startScheduler("timing-wheel-test-exception");
+        JobDetail jobDetail = JobBuilder.newJob(SchedulerTest.CounterJob.class)
+                                        .build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+                                        .forJob(jobDetail)
+                                        .startAt(new Date(System.currentTimeMillis() + 60_000))
+                                        .build();
+        assertThatThrownBy(() -> scheduler.scheduleJob(trigger))
+                .isInstanceOf(JobPersistenceException.class)
+                .hasMessageContaining("does not exist");
+
+        scheduler.scheduleJob(jobDetail, trigger);
+        assertThatThrownBy(() -> scheduler.scheduleJob(jobDetail, trigger))
+                .isInstanceOf(ObjectAlreadyExistsException.class);
+    }
+
+    static AtomicInteger running = new AtomicInteger(0);
+
+    static AtomicInteger maxRunning = new AtomicInteger(0);
+
+    static CountDownLatch completedLatch;
+
+    @DisallowConcurrentExecution
+    public static class NonConcurrentSleepJob implements Job {
+
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                running.decrementAndGet();
+                completedLatch.countDown();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Given non-durable @DisallowConcurrentExecution job with 5 triggers due now, when fire, " +
+                 "then run one at a time and job is removed after the last trigger")
+    @SneakyThrows
+    void givenNonConcurrentJobWith5Triggers_whenFire_thenSerialAndJobRemoved() {
+
+        scheduler = startScheduler("timing-wheel-test-non-concurrent");
+        completedLatch = new CountDownLatch(5);
+        running.set(0);
+        maxRunning.set(0);
+
+        JobDetail jobDetail = JobBuilder.newJob(NonConcurrentSleepJob.class)
+                                        .build();
+        Set<Trigger> triggers = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            triggers.add(TriggerBuilder.newTrigger()
+                                       .forJob(jobDetail)
+                                       .startNow()
+                                       .build());
+        }
+        scheduler.scheduleJob(jobDetail, triggers, false);
+
+        assertThat(completedLatch.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(1);
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertThat(scheduler.checkExists(jobDetail.getKey())).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given durable job, when its only trigger completes, then job is kept")
+    @SneakyThrows
+    void givenDurableJob_whenTriggerCompletes_thenJobKept() {
+
+        scheduler = startScheduler("timing-wheel-test-durable");
+        completedLatch = new CountDownLatch(1);
+
+        JobDetail jobDetail = JobBuilder.newJob(NonConcurrentSleepJob.class)
+                                        .storeDurably()
+                                        .build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+                                        .forJob(jobDetail)
+                                        .startNow()
+                                        .build();
+        scheduler.scheduleJob(jobDetail, trigger);
+
+        assertThat(completedLatch.await(10, TimeUnit.SECONDS)).isTrue();
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertThat(scheduler.checkExists(trigger.getKey())).isFalse();
+        assertThat(scheduler.checkExists(jobDetail.getKey())).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given paused trigger, when resume, then it fires")
+    @SneakyThrows
+    void givenPausedTrigger_whenResume_thenFire() {
+
+        scheduler = startScheduler("timing-wheel-test-pause");
+        completedLatch = new CountDownLatch(1);
+
+        JobDetail jobDetail = JobBuilder.newJob(NonConcurrentSleepJob.class)
+                                        .build();
+        Trigger trigger = TriggerBuilder.newTrigger()
+                                        .forJob(jobDetail)
+                                        .startAt(new Date(System.currentTimeMillis() + 500))
+                                        .build();
+        scheduler.scheduleJob(jobDetail, trigger);
+        scheduler.pauseTrigger(trigger.getKey());
+        assertThat(scheduler.getTriggerState(trigger.getKey())).isEqualTo(Trigger.TriggerState.PAUSED);
+
+        assertThat(completedLatch.await(1, TimeUnit.SECONDS)).isFalse();
+        scheduler.resumeTrigger(trigger.getKey());
+        assertThat(completedLatch.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given 1M pending triggers, when store and acquire all, then compare TimingWheelJobStore with RAMJobStore")
+    @SneakyThrows
+    void given1MPendingTriggers_whenStoreAndAcquire_thenCompareWithRamJobStore() {
+
+        long ramJobStoreNanos = storeAndAcquire(new RAMJobStore(), 1_000_000);
+        System.gc();
+        long timingWheelNanos = storeAndAcquire(new TimingWheelJobStore(), 1_000_000);
+        log.info("1M triggers store and acquire: RAMJobStore = {}ms, TimingWheelJobStore = {}ms",
+                TimeUnit.NANOSECONDS.toMillis(ramJobStoreNanos), TimeUnit.NANOSECONDS.toMillis(timingWheelNanos));
+    }
+
+    @SneakyThrows
+    private long storeAndAcquire(JobStore jobStore, int triggerCount) {
+
+        jobStore.initialize(new CascadingClassLoadHelper(), mock(SchedulerSignaler.class));
+        JobDetail jobDetail = JobBuilder.newJob(SchedulerTest.CounterJob.class)
+                                        .withIdentity("benchmark-job")
+                                        .storeDurably()
+                                        .build();
+        jobStore.storeJob(jobDetail, false);
+
+        // all due within the next minute, in random order
+        long now = System.currentTimeMillis();
+        Random random = new Random(42);
+        List<OperableTrigger> triggers = new ArrayList<>(triggerCount);
+        for (int i = 0; i < triggerCount; i++) {
+            triggers.add((OperableTrigger) TriggerBuilder.newTrigger()
+                                                         .withIdentity("benchmark-trigger-" + i)
+                                                         .forJob(jobDetail)
+                                                         .startAt(new Date(now + random.nextInt(60_000)))
+                                                         .build());
+        }
+
+        long start = System.nanoTime();
+        for (OperableTrigger trigger : triggers) {
+            trigger.computeFirstFireTime(null);
+            jobStore.storeTrigger(trigger, false);
+        }
+        long stored = System.nanoTime();
+
+        int acquired = 0;
+        List<OperableTrigger> batch;
+        while (!(batch = jobStore.acquireNextTriggers(now + 60_000, 100, 0)).isEmpty()) {
+            acquired += batch.size();
+        }
+        long end = System.nanoTime();
+
+        log.info("{} stored {} triggers in {}ms, acquired {} in {}ms", jobStore.getClass().getSimpleName(),
+                triggerCount, TimeUnit.NANOSECONDS.toMillis(stored - start),
+                acquired, TimeUnit.NANOSECONDS.toMillis(end - stored));
+        assertThat(acquired).isEqualTo(triggerCount);
+        jobStore.shutdown();
+        return end - start;
+    }
+}
@@ -0,0 +1,243 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Return;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.core.Address;
+import org.springframework.amqp.core.AmqpMessageReturnedException;
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request and reply over direct reply-to, without blocking the caller, with any number of outstanding requests on
+ * one channel of a dedicated connection.
+ * <p>
+ * {@code RabbitTemplate.convertSendAndReceive} blocks the caller until the reply. {@code AsyncRabbitTemplate} doesn't,
+ * but with direct reply-to it holds a channel for each outstanding request, because the reply comes to the channel
+ * which published the request, so the outstanding requests are bounded by the channels of a connection; and it
+ * schedules each reply timeout on a {@code TaskScheduler}. This client instead consumes {@code amq.rabbitmq.reply-to}
+ * once on its channel, publishes every request on that channel with a correlation id, and completes the future of
+ * the request when the reply of the same correlation id comes. The reply timeouts are on a {@link HashedTimerWheel},
+ * as most of them are cancelled by the reply.
+ * <p>
+ * A request is published mandatory, so an unroutable request fails with {@link AmqpMessageReturnedException} at
+ * once instead of timing out. A timed out request fails with {@link AmqpReplyTimeoutException}, and its late reply
+ * is dropped. The futures are completed on the consumer thread of the connection or the timer wheel thread, so a
+ * long callback should be async.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class AsyncRpcClient implements AutoCloseable {
+
+    private final Connection connection;
+
+    private final Channel channel;
+
+    private final MessageConverter messageConverter;
+
+    private final Duration receiveTimeout;
+
+    private final HashedTimerWheel timerWheel;
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    private final Map<String, PendingReply> pendingReplies = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+
+    private final Object sendLock = new Object();
+
+    /**
+     * Open a dedicated connection and channel, with the reply timeouts on a timer wheel of 10ms ticks
+     *
+     * @param rabbitConnectionFactory e.g. {@code CachingConnectionFactory.getRabbitConnectionFactory()}
+     * @param receiveTimeout          the default reply timeout
+     */
+    public static AsyncRpcClient open(ConnectionFactory rabbitConnectionFactory,
+                                      MessageConverter messageConverter,
+                                      Duration receiveTimeout) throws IOException, TimeoutException {
+
+        Connection connection = rabbitConnectionFactory.newConnection("async-rpc-client");
+        try {
+            return new AsyncRpcClient(connection, connection.createChannel(), messageConverter, receiveTimeout,
+                    new HashedTimerWheel("async-rpc-client-timeout", Duration.ofMillis(10), 512));
+        } catch (IOException | RuntimeException e) {
+            connection.abort();
+            throw e;
+        }
+    }
+
+    AsyncRpcClient(Connection connection,
+                   Channel channel,
+                   MessageConverter messageConverter,
+                   Duration receiveTimeout,
+                   HashedTimerWheel timerWheel) throws IOException {
+
+        this.connection = connection;
+        this.channel = channel;
+        this.messageConverter = messageConverter;
+        this.receiveTimeout = receiveTimeout;
+        this.timerWheel = timerWheel;
+
+        channel.addReturnListener(this::returned);
+        channel.addShutdownListener(this::failPending);
+        channel.basicConsume(Address.AMQ_RABBITMQ_REPLY_TO, true, this::reply, consumerTag -> { });
+    }
+
+    /**
+     * @return completed with the converted reply
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> convertSendAndReceive(String exchange, String routingKey, Object payload) {
+        return sendAndReceive(exchange, routingKey, messageConverter.toMessage(payload, new MessageProperties()),
+                receiveTimeout)
+                .thenApply(reply -> (T) messageConverter.fromMessage(reply));
+    }
+
+    public CompletableFuture<Message> sendAndReceive(String exchange, String routingKey, Message message) {
+        return sendAndReceive(exchange, routingKey, message, receiveTimeout);
+    }
+
+    /**
+     * @return completed with the reply, or exceptionally by {@link AmqpReplyTimeoutException},
+     * {@link AmqpMessageReturnedException}, or an {@link AmqpException} if the request can't be published or the
+     * channel or the client is closed
+     */
+    public CompletableFuture<Message> sendAndReceive(String exchange, String routingKey, Message message,
+                                                     Duration timeout) {
+
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet());
+        MessageProperties messageProperties = message.getMessageProperties();
+        messageProperties.setCorrelationId(correlationId);
+        messageProperties.setReplyTo(Address.AMQ_RABBITMQ_REPLY_TO);
+        AMQP.BasicProperties basicProperties =
+                messagePropertiesConverter.fromMessageProperties(messageProperties, "UTF-8");
+
+        // schedule the timeout before the pending reply is visible to the reply, return and shutdown listeners
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        HashedTimerWheel.Timeout replyTimeout;
+        try {
+            replyTimeout = timerWheel.schedule(() -> {
+                pendingReplies.remove(correlationId);
+                future.completeExceptionally(new AmqpReplyTimeoutException(
+                        "Reply of correlation id " + correlationId + " is not received in " + timeout, message));
+            }, timeout);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(new AmqpException("Reply timeout can't be scheduled", e));
+            return future;
+        }
+        PendingReply pendingReply = new PendingReply(future, replyTimeout);
+        pendingReplies.put(correlationId, pendingReply);
+        if (future.isDone()) {
+            // timed out before put
+            pendingReplies.remove(correlationId);
+            return future;
+        }
+
+        try {
+            synchronized (sendLock) {
+                channel.basicPublish(exchange, routingKey, true, basicProperties, message.getBody());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (null != pendingReplies.remove(correlationId)) {
+                pendingReply.timeout.cancel();
+                pendingReply.future.completeExceptionally(
+                        e instanceof IOException ? new AmqpIOException((IOException) e) : e);
+            }
+        }
+        return pendingReply.future;
+    }
+
+    /**
+     * @return the requests waiting for reply
+     */
+    public int getPending() {
+        return pendingReplies.size();
+    }
+
+    private void reply(String consumerTag, Delivery delivery) {
+
+        String correlationId = delivery.getProperties().getCorrelationId();
+        PendingReply pendingReply = (null != correlationId) ? pendingReplies.remove(correlationId) : null;
+        if (null == pendingReply) {
+            log.debug("Drop reply of unknown or timed out correlation id {}", correlationId);
+            return;
+        }
+        pendingReply.timeout.cancel();
+        pendingReply.future.complete(new Message(delivery.getBody(), messagePropertiesConverter.toMessageProperties(
+                delivery.getProperties(), delivery.getEnvelope(), "UTF-8")));
+    }
+
+    private void returned(Return returned) {
+
+        String correlationId = returned.getProperties().getCorrelationId();
+        PendingReply pendingReply = (null != correlationId) ? pendingReplies.remove(correlationId) : null;
+        if (null != pendingReply) {
+            pendingReply.timeout.cancel();
+            Message returnedMessage = new Message(returned.getBody(),
+                    messagePropertiesConverter.toMessageProperties(returned.getProperties(), null, "UTF-8"));
+            pendingReply.future.completeExceptionally(new AmqpMessageReturnedException("Request is returned",
+                    returnedMessage, returned.getReplyCode(), returned.getReplyText(), returned.getExchange(),
+                    returned.getRoutingKey()));
+        }
+    }
+
+    private void failPending(ShutdownSignalException cause) {
+
+        for (String correlationId : new ArrayList<>(pendingReplies.keySet())) {
+            PendingReply pendingReply = pendingReplies.remove(correlationId);
+            if (null != pendingReply) {
+                pendingReply.timeout.cancel();
+                pendingReply.future.completeExceptionally(new AmqpException("Channel is closed", cause));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException | ShutdownSignalException e) {
+            log.warn("Fail to close channel cleanly", e);
+        } finally {
+            connection.abort();
+            timerWheel.close();
+        }
+    }
+
+    private static class PendingReply {
+
+        final CompletableFuture<Message> future;
+
+        final HashedTimerWheel.Timeout timeout;
+
+        PendingReply(CompletableFuture<Message> future, HashedTimerWheel.Timeout timeout) {
+            this.future = future;
+            this.timeout = timeout;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpMessageReturnedException;
+import org.springframework.amqp.core.AmqpReplyTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The timer wheel test doesn't need a broker. The others need a RabbitMQ server on localhost:5672 with default user
+ * guest:guest, or run with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.rabbitmq.listener.simple.concurrency = 4",
+        "spring.rabbitmq.listener.simple.prefetch = 250"
+})
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+@Import(AsyncRpcConfig.class)
+class AsyncRpcClientTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-async-rpc-test-queue";
+
+    private static final String NO_CONSUMER_QUEUE_NAME = "spring-boot-study-rabbitmq-async-rpc-no-consumer-test-queue";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue requestQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        Queue noConsumerQueue() {
+            return QueueBuilder.durable(NO_CONSUMER_QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        UpperCaseServer upperCaseServer() {
+            return new UpperCaseServer();
+        }
+    }
+
+    static class UpperCaseServer {
+
+        @RabbitListener(queues = QUEUE_NAME)
+        String upperCase(String request) {
+            return request.toUpperCase();
+        }
+    }
+
+    @Autowired
+    private AsyncRpcClient asyncRpcClient;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private CachingConnectionFactory connectionFactory;
+
+    @Test
+    @DisplayName("Given timer wheel of 10ms ticks, when schedule 100k timeouts and cancel half, " +
+                 "then the other half fire about in time and none pending")
+    void givenTimerWheel_whenSchedule100kTimeoutsAndCancelHalf_thenOtherHalfFireInTime() throws InterruptedException {
+
+        try (HashedTimerWheel timerWheel = new HashedTimerWheel("test-timer-wheel", Duration.ofMillis(10), 64)) {
+
+            int count = 100_000;
+            AtomicInteger fired = new AtomicInteger();
+            long[] lateness = new long[count / 2];
+            List<HashedTimerWheel.Timeout> timeouts = new ArrayList<>(count);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                // up to 1s, so longer than a wheel rotation of 640ms
+                long delayMillis = 100 + i % 900;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                timeouts.add(timerWheel.schedule(
+                        () -> lateness[fired.getAndIncrement()] = System.nanoTime() - deadline,
+                        Duration.ofMillis(delayMillis)));
+            }
+            long scheduleNanos = (System.nanoTime() - start) / count;
+            for (int i = 0; i < count; i += 2) {
+                assertThat(timeouts.get(i).cancel()).isTrue();
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (timerWheel.getPending() > 0 && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            Arrays.sort(lateness);
+            log.info("{}ns per schedule, lateness min {}ms, median {}ms, max {}ms", scheduleNanos,
+                    TimeUnit.NANOSECONDS.toMillis(lateness[0]),
+                    TimeUnit.NANOSECONDS.toMillis(lateness[lateness.length / 2]),
+                    TimeUnit.NANOSECONDS.toMillis(lateness[lateness.length - 1]));
+            assertThat(timerWheel.getPending()).isZero();
+            assertThat(fired.get()).isEqualTo(count / 2);
+            assertThat(lateness[0]).isGreaterThanOrEqualTo(0);
+            assertThat(lateness[lateness.length / 2]).isLessThan(TimeUnit.MILLISECONDS.toNanos(50));
+            assertThat(timeouts.get(0).isCancelled()).isTrue();
+            assertThat(timeouts.get(1).isExpired()).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Given listener, when request async, then complete with reply")
+    void givenListener_whenRequestAsync_thenCompleteWithReply() throws Exception {
+
+        CompletableFuture<String> reply = asyncRpcClient.convertSendAndReceive("", QUEUE_NAME, "hail hydra");
+
+        assertThat(reply.get(10, TimeUnit.SECONDS)).isEqualTo("HAIL HYDRA");
+        assertThat(asyncRpcClient.getPending()).isZero();
+    }
+
+    @Test
+    @DisplayName("Given no consumer, when request with 100ms timeout, then fail by reply timeout in about 100ms")
+    void givenNoConsumer_whenRequestWith100msTimeout_thenFailByReplyTimeout() {
+
+        long start = System.nanoTime();
+        CompletableFuture<Message> reply = asyncRpcClient.sendAndReceive("", NO_CONSUMER_QUEUE_NAME,
+                new Message("anyone?".getBytes(), new MessageProperties()), Duration.ofMillis(100));
+
+        assertThatThrownBy(() -> reply.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(AmqpReplyTimeoutException.class);
+        assertThat(System.nanoTime() - start).isBetween(TimeUnit.MILLISECONDS.toNanos(100),
+                TimeUnit.MILLISECONDS.toNanos(1_000));
+        assertThat(asyncRpcClient.getPending()).isZero();
+    }
+
+    @Test
+    @DisplayName("When request to non-existent queue, then fail as returned without waiting for timeout")
+    void whenRequestToNonExistentQueue_thenFailAsReturned() {
+
+        CompletableFuture<Message> reply = asyncRpcClient.sendAndReceive("", "non-existent-queue",
+                new Message("anyone?".getBytes(), new MessageProperties()), Duration.ofSeconds(30));
+
+        assertThatThrownBy(() -> reply.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(AmqpMessageReturnedException.class);
+        assertThat(asyncRpcClient.getPending()).isZero();
+    }
+
+    @Test
+    @DisplayName("Given closed client, when request, then fail at once without pending reply")
+    void givenClosedClient_whenRequest_thenFailWithoutPending() throws Exception {
+
+        AsyncRpcClient closedClient = AsyncRpcClient.open(connectionFactory.getRabbitConnectionFactory(),
+                rabbitTemplate.getMessageConverter(), Duration.ofSeconds(5));
+        closedClient.close();
+
+        CompletableFuture<Message> reply = closedClient.sendAndReceive("", QUEUE_NAME,
+                new Message("anyone?".getBytes(), new MessageProperties()));
+
+        assertThat(reply).isCompletedExceptionally();
+        assertThatThrownBy(reply::get)
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(AmqpException.class);
+        assertThat(closedClient.getPending()).isZero();
+    }
+
+    @Test
+    @DisplayName("Given listener, when 20k requests by blocking convertSendAndReceive and by async client of " +
+                 "up to 5k outstanding, then async has higher throughput")
+    void givenListener_whenRequestsByBlockingAndAsync_thenAsyncHigherThroughput() throws Exception {
+
+        int blockingRequests = 2_000;
+        int asyncRequests = 20_000;
+        int maxOutstanding = 5_000;
+
+        // warm up
+        for (int i = 0; i < 200; i++) {
+            rabbitTemplate.convertSendAndReceive("", QUEUE_NAME, "warm up " + i);
+            asyncRpcClient.convertSendAndReceive("", QUEUE_NAME, "warm up " + i).get(10, TimeUnit.SECONDS);
+        }
+
+        long[] blockingLatencies = new long[blockingRequests];
+        long start = System.nanoTime();
+        for (int i = 0; i < blockingRequests; i++) {
+            long requestStart = System.nanoTime();
+            assertThat(rabbitTemplate.convertSendAndReceive("", QUEUE_NAME, "request " + i))
+                    .isEqualTo("REQUEST " + i);
+            blockingLatencies[i] = System.nanoTime() - requestStart;
+        }
+        double blockingRate = blockingRequests * 1e9 / (System.nanoTime() - start);
+
+        long[] asyncLatencies = new long[asyncRequests];
+        Semaphore outstanding = new Semaphore(maxOutstanding);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<CompletableFuture<?>> replies = new ArrayList<>(asyncRequests);
+        start = System.nanoTime();
+        for (int i = 0; i < asyncRequests; i++) {
+            outstanding.acquire();
+            int request = i;
+            long requestStart = System.nanoTime();
+            replies.add(asyncRpcClient.<String>convertSendAndReceive("", QUEUE_NAME, "request " + i)
+                    .whenComplete((reply, e) -> {
+                        asyncLatencies[request] = System.nanoTime() - requestStart;
+                        if (!("REQUEST " + request).equals(reply)) {
+                            mismatches.incrementAndGet();
+                        }
+                        outstanding.release();
+                    }));
+        }
+        CompletableFuture.allOf(replies.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        double asyncRate = asyncRequests * 1e9 / (System.nanoTime() - start);
+
+        Arrays.sort(blockingLatencies);
+        Arrays.sort(asyncLatencies);
+        log.info("Blocking {} requests per second, latency p50 {}us p99 {}us",
+                Math.round(blockingRate), blockingLatencies[blockingRequests / 2] / 1_000,
+                blockingLatencies[blockingRequests * 99 / 100] / 1_000);
+        log.info("Async {} requests per second of up to {} outstanding, latency p50 {}us p99 {}us",
+                Math.round(asyncRate), maxOutstanding, asyncLatencies[asyncRequests / 2] / 1_000,
+                asyncLatencies[asyncRequests * 99 / 100] / 1_000);
+        assertThat(mismatches.get()).isZero();
+        assertThat(asyncRpcClient.getPending()).isZero();
+        assertThat(asyncRate).isGreaterThan(blockingRate);
+    }
+}
@@ -0,0 +1,31 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An {@link AsyncRpcClient} with the message converter of the {@link RabbitTemplate}, and a default reply timeout of
+ * {@code rabbitmq.rpc.receive-timeout} (default 5s, the same as {@code RabbitTemplate}).
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class AsyncRpcConfig {
+
+    @Bean
+    AsyncRpcClient asyncRpcClient(CachingConnectionFactory connectionFactory,
+                                  RabbitTemplate rabbitTemplate,
+                                  @Value("${rabbitmq.rpc.receive-timeout:5s}") Duration receiveTimeout)
+            throws IOException, TimeoutException {
+
+        return AsyncRpcClient.open(connectionFactory.getRabbitConnectionFactory(), rabbitTemplate.getMessageConverter(),
+                receiveTimeout);
+    }
+}
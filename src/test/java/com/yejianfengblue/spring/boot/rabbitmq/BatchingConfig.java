@@ -0,0 +1,54 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * A {@link BatchingPublisher} batching per exchange and routing key by {@code rabbitmq.batching.size} messages
+ * (default 100), {@code rabbitmq.batching.buffer-limit} bytes (default 64KB) or {@code rabbitmq.batching.timeout}
+ * milliseconds (default 50).
+ * <p>
+ * And a listener container factory {@code batchRabbitListenerContainerFactory} for
+ * {@code @RabbitListener(containerFactory = "batchRabbitListenerContainerFactory")} methods receiving
+ * {@code List<Message>}. The container takes up to {@code rabbitmq.batching.size} deliveries for one call, and
+ * de-batches each delivery of a producer batch into its messages, so a call gets up to batch size times producer
+ * batch size messages. It acks them by one {@code basic.ack} with {@code multiple = true} after the call returns.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class BatchingConfig {
+
+    @Value("${rabbitmq.batching.size:100}")
+    private int batchSize;
+
+    @Bean
+    BatchingPublisher batchingPublisher(ConnectionFactory connectionFactory,
+                                        RabbitTemplate rabbitTemplate,
+                                        @Value("${rabbitmq.batching.buffer-limit:65536}") int bufferLimit,
+                                        @Value("${rabbitmq.batching.timeout:50}") long timeout) {
+
+        return new BatchingPublisher(connectionFactory, rabbitTemplate.getMessageConverter(),
+                new DestinationBatchingStrategy(batchSize, bufferLimit, timeout));
+    }
+
+    @Bean
+    SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        // a consumer batch can't be larger than the prefetch
+        factory.setPrefetchCount(Math.max(batchSize * 2, 250));
+        return factory;
+    }
+}
@@ -0,0 +1,56 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.rabbit.batch.BatchingStrategy;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.BatchingRabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Publish small messages in batches by a {@link BatchingRabbitTemplate}.
+ * <p>
+ * The template is not exposed as a bean, because any {@code RabbitOperations} bean turns off the auto-configured
+ * {@code RabbitTemplate}. A batch is one AMQP message, so the broker routes a batch as a whole, and a consumer must
+ * de-batch it, which the listener containers do by default.
+ *
+ * @author yejianfengblue
+ */
+public class BatchingPublisher implements DisposableBean {
+
+    private final BatchingRabbitTemplate batchingRabbitTemplate;
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    public BatchingPublisher(ConnectionFactory connectionFactory,
+                             MessageConverter messageConverter,
+                             BatchingStrategy batchingStrategy) {
+
+        scheduler.setThreadNamePrefix("batching-publisher-");
+        scheduler.initialize();
+        batchingRabbitTemplate = new BatchingRabbitTemplate(connectionFactory, batchingStrategy, scheduler);
+        batchingRabbitTemplate.setMessageConverter(messageConverter);
+    }
+
+    /**
+     * Add to the batch of the exchange and routing key, which is published when it is full or times out
+     */
+    public void convertAndSend(String exchange, String routingKey, Object message) {
+        batchingRabbitTemplate.convertAndSend(exchange, routingKey, message);
+    }
+
+    /**
+     * Publish all the batches now
+     */
+    public void flush() {
+        batchingRabbitTemplate.flush();
+    }
+
+    @Override
+    public void destroy() {
+
+        flush();
+        batchingRabbitTemplate.stop();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,211 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.batch.BatchingStrategy;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The publish count tests use a mock connection factory and don't need a broker.
+ * The others need a RabbitMQ server on localhost:5672 with default user guest:guest.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "rabbitmq.batching.size = 100",
+        "rabbitmq.batching.timeout = 50"
+})
+@Import(BatchingConfig.class)
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class BatchingTest {
+
+    private static final String EXCHANGE_NAME = "spring-boot-study-rabbitmq-batching-test-exchange";
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-batching-test-queue";
+
+    /**
+     * Each basic.publish of a small message is 3 frames, method, content header and content body
+     */
+    private static final int FRAMES_PER_PUBLISH = 3;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        DirectExchange messageExchange() {
+            return ExchangeBuilder.directExchange(EXCHANGE_NAME)
+                    .autoDelete()
+                    .build();
+        }
+
+        @Bean
+        Queue messageQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        Binding messageBinding() {
+            return BindingBuilder.bind(messageQueue())
+                    .to(messageExchange())
+                    .withQueueName();
+        }
+
+        @Bean
+        BatchReceiver batchReceiver() {
+            return new BatchReceiver();
+        }
+    }
+
+    static class BatchReceiver {
+
+        private final Logger log = LoggerFactory.getLogger(getClass());
+
+        static volatile CountDownLatch latch = new CountDownLatch(0);
+
+        static final ConcurrentLinkedQueue<Integer> batchSizes = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The deliveries of each batch, the messages de-batched from one producer batch share a delivery tag
+         */
+        static final ConcurrentLinkedQueue<Long> batchDeliveries = new ConcurrentLinkedQueue<>();
+
+        @RabbitListener(queues = QUEUE_NAME, containerFactory = "batchRabbitListenerContainerFactory")
+        void receive(List<Message> messages) {
+
+            log.debug("Receive a batch of {} messages", messages.size());
+            batchSizes.add(messages.size());
+            batchDeliveries.add(messages.stream()
+                                        .map(message -> message.getMessageProperties().getDeliveryTag())
+                                        .distinct()
+                                        .count());
+            messages.forEach(message -> latch.countDown());
+        }
+    }
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private BatchingPublisher batchingPublisher;
+
+    /**
+     * @return the number of basic.publish of 1000 messages sent alternately to 2 routing keys
+     */
+    private static int publishCountOf(BatchingStrategy batchingStrategy) throws Exception {
+
+        Channel channel = mock(Channel.class);
+        when(channel.isOpen()).thenReturn(true);
+        Connection connection = mock(Connection.class);
+        when(connection.createChannel(anyBoolean())).thenReturn(channel);
+        when(connection.isOpen()).thenReturn(true);
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        when(connectionFactory.createConnection()).thenReturn(connection);
+
+        if (null == batchingStrategy) {
+            RabbitTemplate template = new RabbitTemplate(connectionFactory);
+            for (int i = 0; i < 1_000; i++) {
+                template.convertAndSend(EXCHANGE_NAME, "routing-key-" + (i % 2), "Say hello " + i);
+            }
+        } else {
+            BatchingPublisher publisher = new BatchingPublisher(connectionFactory, new SimpleMessageConverter(),
+                    batchingStrategy);
+            for (int i = 0; i < 1_000; i++) {
+                publisher.convertAndSend(EXCHANGE_NAME, "routing-key-" + (i % 2), "Say hello " + i);
+            }
+            publisher.destroy();
+        }
+
+        return (int) mockingDetails(channel).getInvocations().stream()
+                                            .filter(invocation -> invocation.getMethod().getName()
+                                                                            .equals("basicPublish"))
+                                            .count();
+    }
+
+    @Test
+    @DisplayName("Given 1000 small messages alternately to 2 routing keys, when publish one by one " +
+                 "and by batch per destination, then batch per destination publishes 1% of the frames, " +
+                 "and single batch strategy can't mix routing keys")
+    void given1000MessagesTo2RoutingKeys_whenPublish_thenBatchPerDestinationPublishesFewestFrames() throws Exception {
+
+        int oneByOne = publishCountOf(null);
+        int batchPerDestination = publishCountOf(new DestinationBatchingStrategy(100, 65536, 60_000));
+        log.info("Frames to publish 1000 messages to 2 routing keys: one by one = {}, batch per destination = {}",
+                oneByOne * FRAMES_PER_PUBLISH, batchPerDestination * FRAMES_PER_PUBLISH);
+
+        assertThat(oneByOne).isEqualTo(1_000);
+        assertThat(batchPerDestination).isEqualTo(10);
+        assertThatThrownBy(() -> publishCountOf(new SimpleBatchingStrategy(100, 65536, 60_000)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("different routing keys");
+    }
+
+    @Test
+    @DisplayName("Given 1000 small messages, when publish one by one versus in batches, " +
+                 "then batch listener receives all in batches and compare throughput")
+    void given1000Messages_whenPublishOneByOneVersusBatches_thenBatchListenerReceivesAllAndCompareThroughput()
+            throws InterruptedException {
+
+        BatchReceiver.latch = new CountDownLatch(1_000);
+        BatchReceiver.batchSizes.clear();
+        BatchReceiver.batchDeliveries.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            rabbitTemplate.convertAndSend(EXCHANGE_NAME, QUEUE_NAME, "Say hello " + i);
+        }
+        assertThat(BatchReceiver.latch.await(30, TimeUnit.SECONDS)).isTrue();
+        double oneByOneRate = 1_000 * 1e9 / (System.nanoTime() - start);
+        List<Integer> oneByOneBatchSizes = new ArrayList<>(BatchReceiver.batchSizes);
+
+        BatchReceiver.latch = new CountDownLatch(1_000);
+        BatchReceiver.batchSizes.clear();
+        BatchReceiver.batchDeliveries.clear();
+        start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            batchingPublisher.convertAndSend(EXCHANGE_NAME, QUEUE_NAME, "Say hello " + i);
+        }
+        assertThat(BatchReceiver.latch.await(30, TimeUnit.SECONDS)).isTrue();
+        double batchRate = 1_000 * 1e9 / (System.nanoTime() - start);
+
+        log.info("Publish and consume 1000 small messages: one by one = {} msg/s, in batches = {} msg/s, " +
+                 "consumer batch sizes {}", Math.round(oneByOneRate), Math.round(batchRate), BatchReceiver.batchSizes);
+        // one by one, a delivery is a message, so a consumer batch is up to batch size messages
+        assertThat(oneByOneBatchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(1_000);
+        assertThat(oneByOneBatchSizes).allMatch(size -> size <= 100);
+        // in batches, 10 producer batches of 100, or a few more if the timeout releases a partial one, arrive as
+        // deliveries, and a consumer batch is up to batch size deliveries, each de-batched into its messages
+        assertThat(BatchReceiver.batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(1_000);
+        assertThat(BatchReceiver.batchDeliveries.stream().mapToLong(Long::longValue).sum()).isBetween(10L, 20L);
+        assertThat(BatchReceiver.batchDeliveries).allMatch(deliveries -> deliveries <= 100);
+    }
+}
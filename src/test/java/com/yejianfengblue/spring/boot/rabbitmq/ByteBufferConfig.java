@@ -0,0 +1,35 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * A listener container factory {@code byteBufferRabbitListenerContainerFactory} with a
+ * {@link ByteBufferMessageConverter}, for
+ * {@code @RabbitListener(containerFactory = "byteBufferRabbitListenerContainerFactory")} methods receiving large
+ * bodies as a read-only {@code ByteBuffer} view, a {@code byte[]} or a JSON decoded object, without copying the body.
+ * <p>
+ * The converter is not a bean, else as the only {@code MessageConverter} bean Spring Boot would set it on the
+ * {@code RabbitTemplate} and the default listener container factory too.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class ByteBufferConfig {
+
+    @Bean
+    SimpleRabbitListenerContainerFactory byteBufferRabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            ObjectMapper objectMapper) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(new ByteBufferMessageConverter(objectMapper));
+        return factory;
+    }
+}
@@ -0,0 +1,130 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message converter for large binary and JSON bodies which doesn't copy the body.
+ * <p>
+ * Inbound, the body array from the client is shared, not copied:
+ * <ul>
+ *     <li>a {@link ByteBuffer} listener argument, or no inferred argument type, gets a read-only view of the
+ *     body</li>
+ *     <li>a {@code byte[]} argument gets the body itself</li>
+ *     <li>a {@link String} argument gets the body decoded with the content encoding, default UTF-8</li>
+ *     <li>any other argument type of a JSON message is decoded by Jackson straight from the body bytes.
+ *     {@code Jackson2JsonMessageConverter} decodes the body into a String first, which is another copy of the
+ *     body, twice as large for non-Latin-1 text</li>
+ * </ul>
+ * Outbound, a {@code byte[]} is sent as is, and a {@link ByteBuffer} is sent without copy if it wraps a whole
+ * array, otherwise its remaining bytes are copied once. Other objects are written as JSON.
+ * <p>
+ * Buffers are not pooled: the RabbitMQ client allocates an exact size array per inbound body and needs one per
+ * outbound body, and the listener may keep a view after it returns, so the array is left to the GC.
+ *
+ * @author yejianfengblue
+ */
+public class ByteBufferMessageConverter extends AbstractMessageConverter {
+
+    private final ObjectMapper objectMapper;
+
+    public ByteBufferMessageConverter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected Message createMessage(Object object, MessageProperties messageProperties) {
+
+        byte[] body;
+        if (object instanceof byte[]) {
+            body = (byte[]) object;
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_BYTES);
+        } else if (object instanceof ByteBuffer) {
+            body = toArray((ByteBuffer) object);
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_BYTES);
+        } else if (object instanceof String) {
+            body = ((String) object).getBytes(StandardCharsets.UTF_8);
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+            messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        } else {
+            try {
+                body = objectMapper.writeValueAsBytes(object);
+            } catch (IOException e) {
+                throw new MessageConversionException("Fail to write " + object.getClass() + " as JSON", e);
+            }
+            messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+            messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        }
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    /**
+     * @return the backing array if the buffer wraps all of it, otherwise a copy of the remaining bytes
+     */
+    static byte[] toArray(ByteBuffer buffer) {
+
+        if (buffer.hasArray() && 0 == buffer.arrayOffset() && 0 == buffer.position()
+            && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+
+        MessageProperties properties = message.getMessageProperties();
+        Type type = properties.getInferredArgumentType();
+        byte[] body = message.getBody();
+        if (null == type || Object.class == type || ByteBuffer.class == type) {
+            return ByteBuffer.wrap(body).asReadOnlyBuffer();
+        }
+        if (byte[].class == type) {
+            return body;
+        }
+        if (String.class == type) {
+            String encoding = properties.getContentEncoding();
+            return new String(body, (null != encoding) ? Charset.forName(encoding) : StandardCharsets.UTF_8);
+        }
+        String contentType = properties.getContentType();
+        if (null != contentType && contentType.contains("json")) {
+            try {
+                return objectMapper.readValue(body, 0, body.length, objectMapper.constructType(type));
+            } catch (IOException e) {
+                throw new MessageConversionException("Fail to read JSON as " + type, e);
+            }
+        }
+        throw new MessageConversionException("Cannot convert content type " + contentType + " to " + type);
+    }
+
+    /**
+     * Decode JSON from the remaining bytes of a buffer, e.g. a view from this converter, without copying them
+     */
+    public static <T> T readJson(ObjectMapper objectMapper, ByteBuffer buffer, JavaType type) throws IOException {
+
+        if (buffer.hasArray()) {
+            return objectMapper.readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                    type);
+        }
+        // a read-only or direct buffer doesn't expose its array, so stream it
+        return objectMapper.readValue(new ByteBufferBackedInputStream(buffer.duplicate()), type);
+    }
+
+    public static <T> T readJson(ObjectMapper objectMapper, ByteBuffer buffer, Class<T> type) throws IOException {
+        return readJson(objectMapper, buffer, objectMapper.constructType(type));
+    }
+}
@@ -0,0 +1,268 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The converter and benchmark tests don't need a broker.
+ * The listener tests need a RabbitMQ server on localhost:5672 with default user guest:guest,
+ * or run with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest
+@Import(ByteBufferConfig.class)
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class ByteBufferMessageConverterTest {
+
+    private static final String BINARY_QUEUE_NAME = "spring-boot-study-rabbitmq-byte-buffer-binary-test-queue";
+
+    private static final String JSON_QUEUE_NAME = "spring-boot-study-rabbitmq-byte-buffer-json-test-queue";
+
+    private static final int MB = 1024 * 1024;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Attachment {
+
+        private String fileName;
+
+        /**
+         * Base64 in JSON
+         */
+        private byte[] content;
+    }
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue binaryQueue() {
+            return QueueBuilder.durable(BINARY_QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        Queue jsonQueue() {
+            return QueueBuilder.durable(JSON_QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        LargeBodyReceiver largeBodyReceiver() {
+            return new LargeBodyReceiver();
+        }
+    }
+
+    static class LargeBodyReceiver {
+
+        static volatile CompletableFuture<ByteBuffer> binary = new CompletableFuture<>();
+
+        static volatile CompletableFuture<Attachment> json = new CompletableFuture<>();
+
+        @RabbitListener(queues = BINARY_QUEUE_NAME, containerFactory = "byteBufferRabbitListenerContainerFactory")
+        void receive(ByteBuffer body) {
+            binary.complete(body);
+        }
+
+        @RabbitListener(queues = JSON_QUEUE_NAME, containerFactory = "byteBufferRabbitListenerContainerFactory")
+        void receive(Attachment attachment) {
+            json.complete(attachment);
+        }
+    }
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private ByteBufferMessageConverter byteBufferMessageConverter;
+
+    @BeforeEach
+    void createConverter() {
+        byteBufferMessageConverter = new ByteBufferMessageConverter(objectMapper);
+    }
+
+    private static Attachment attachment(int jsonSize) {
+
+        byte[] content = new byte[jsonSize / 4 * 3];
+        new Random(42).nextBytes(content);
+        return new Attachment("photo.jpg", content);
+    }
+
+    private static MessageProperties inferred(MessageProperties properties, Class<?> type) {
+
+        properties.setInferredArgumentType(type);
+        return properties;
+    }
+
+    @Test
+    @DisplayName("Given a body, when convert to ByteBuffer, byte[] and String, then share the body and are read-only")
+    void givenBody_whenConvert_thenShareBodyAndReadOnly() {
+
+        byte[] body = "Say hello".getBytes();
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        Message message = new Message(body, properties);
+
+        ByteBuffer view = (ByteBuffer) byteBufferMessageConverter.fromMessage(message);
+        assertThat(view.isReadOnly()).isTrue();
+        assertThat(view.remaining()).isEqualTo(body.length);
+        body[0] = 's';
+        assertThat(view.get(0)).isEqualTo((byte) 's');
+
+        assertThat(byteBufferMessageConverter.fromMessage(new Message(body, inferred(properties, byte[].class))))
+                .isSameAs(body);
+        assertThat(byteBufferMessageConverter.fromMessage(new Message(body, inferred(properties, String.class))))
+                .isEqualTo("say hello");
+    }
+
+    @Test
+    @DisplayName("Given a ByteBuffer wrapping a whole array and a slice, when to message, " +
+                 "then the array is the body and the slice is copied once")
+    void givenWholeArrayBufferAndSlice_whenToMessage_thenArrayIsBodyAndSliceCopied() {
+
+        byte[] array = new byte[16];
+        Arrays.fill(array, (byte) 7);
+
+        Message whole = byteBufferMessageConverter.toMessage(ByteBuffer.wrap(array), new MessageProperties());
+        assertThat(whole.getBody()).isSameAs(array);
+        assertThat(whole.getMessageProperties().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_BYTES);
+
+        Message slice = byteBufferMessageConverter.toMessage(ByteBuffer.wrap(array, 4, 8), new MessageProperties());
+        assertThat(slice.getBody()).isNotSameAs(array).hasSize(8);
+    }
+
+    @Test
+    @DisplayName("Given a JSON body, when decode by the converter and from a read-only view, then equal objects")
+    void givenJsonBody_whenDecodeByConverterAndFromReadOnlyView_thenEqualObjects() throws Exception {
+
+        Attachment attachment = attachment(10_000);
+        Message message = byteBufferMessageConverter.toMessage(attachment, new MessageProperties());
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+
+        Object decoded = byteBufferMessageConverter.fromMessage(
+                new Message(message.getBody(), inferred(message.getMessageProperties(), Attachment.class)));
+        assertThat(decoded).isEqualTo(attachment);
+
+        ByteBuffer view = ByteBuffer.wrap(message.getBody()).asReadOnlyBuffer();
+        assertThat(ByteBufferMessageConverter.readJson(objectMapper, view, Attachment.class)).isEqualTo(attachment);
+        ByteBuffer direct = ByteBuffer.allocateDirect(message.getBody().length).put(message.getBody()).flip();
+        assertThat(ByteBufferMessageConverter.readJson(objectMapper, direct, Attachment.class)).isEqualTo(attachment);
+        // the view is not consumed
+        assertThat(view.remaining()).isEqualTo(message.getBody().length);
+    }
+
+    /**
+     * A JMH-style benchmark: warm up, then measure time and the allocated bytes of the current thread per decode
+     */
+    @Test
+    @DisplayName("Given 1MB and 10MB JSON, when decode by Jackson2JsonMessageConverter versus " +
+                 "ByteBufferMessageConverter, then report bytes per second and allocated bytes per decode")
+    void given1MBAnd10MBJson_whenDecodeByJacksonConverterVersusByteBufferConverter_thenReport() {
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Jackson2JsonMessageConverter jacksonConverter = new Jackson2JsonMessageConverter(objectMapper);
+
+        for (int size : new int[]{MB, 10 * MB}) {
+
+            Message message = byteBufferMessageConverter.toMessage(attachment(size), new MessageProperties());
+            int length = message.getBody().length;
+            inferred(message.getMessageProperties(), Attachment.class);
+            int iterations = 100 * MB / size;
+
+            long[] allocatedPerDecode = new long[2];
+            double[] bytesPerSecond = new double[2];
+            MessageConverter[] converters = {jacksonConverter, byteBufferMessageConverter};
+            for (int c = 0; c < converters.length; c++) {
+                for (int i = 0; i < iterations; i++) {
+                    converters[c].fromMessage(message);
+                }
+                long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    converters[c].fromMessage(message);
+                }
+                bytesPerSecond[c] = (double) length * iterations * 1e9 / (System.nanoTime() - start);
+                allocatedPerDecode[c] =
+                        (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / iterations;
+            }
+
+            log.info("Decode {} bytes JSON: Jackson2JsonMessageConverter = {} MB/s, {} bytes allocated per decode; "
+                     + "ByteBufferMessageConverter = {} MB/s, {} bytes allocated per decode",
+                    length, Math.round(bytesPerSecond[0] / MB), allocatedPerDecode[0],
+                    Math.round(bytesPerSecond[1] / MB), allocatedPerDecode[1]);
+            // Jackson2JsonMessageConverter decodes the body into a String first, about another body length
+            assertThat(allocatedPerDecode[0] - allocatedPerDecode[1]).isGreaterThan(length * 9L / 10);
+        }
+    }
+
+    @Test
+    @DisplayName("Given 5MB binary body, when listener receives ByteBuffer, then receive a read-only view of the body")
+    void given5MBBinaryBody_whenListenerReceivesByteBuffer_thenReadOnlyView() throws Exception {
+
+        LargeBodyReceiver.binary = new CompletableFuture<>();
+        // only the listeners of byteBufferRabbitListenerContainerFactory use it
+        assertThat(rabbitTemplate.getMessageConverter()).isNotInstanceOf(ByteBufferMessageConverter.class);
+        byte[] body = new byte[5 * MB];
+        new Random(42).nextBytes(body);
+
+        rabbitTemplate.send("", BINARY_QUEUE_NAME, byteBufferMessageConverter.toMessage(body, new MessageProperties()));
+
+        ByteBuffer received = LargeBodyReceiver.binary.get(30, TimeUnit.SECONDS);
+        assertThat(received.isReadOnly()).isTrue();
+        assertThat(received).isEqualTo(ByteBuffer.wrap(body));
+    }
+
+    @Test
+    @DisplayName("Given 5MB JSON body, when listener receives the type, then decoded from the body")
+    void given5MBJsonBody_whenListenerReceivesType_thenDecodedFromBody() throws Exception {
+
+        LargeBodyReceiver.json = new CompletableFuture<>();
+        Attachment attachment = attachment(5 * MB);
+
+        Message message = byteBufferMessageConverter.toMessage(attachment, new MessageProperties());
+        rabbitTemplate.send("", JSON_QUEUE_NAME, message);
+
+        assertThat(LargeBodyReceiver.json.get(30, TimeUnit.SECONDS)).isEqualTo(attachment);
+    }
+}
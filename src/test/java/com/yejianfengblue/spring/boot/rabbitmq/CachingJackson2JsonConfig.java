@@ -0,0 +1,30 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * A {@link CachingJackson2JsonMessageConverter} of the Spring Boot {@link ObjectMapper}, gzipping bodies larger than
+ * {@code rabbitmq.json.compression-threshold} bytes (default no compression).
+ * <p>
+ * Spring Boot sets a {@code MessageConverter} bean on the auto-configured {@code RabbitTemplate} and listener
+ * container factories, so {@code @RabbitListener} methods receive the JSON payload as the parameter type.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class CachingJackson2JsonConfig {
+
+    @Bean
+    CachingJackson2JsonMessageConverter cachingJackson2JsonMessageConverter(
+            ObjectMapper objectMapper,
+            @Value("${rabbitmq.json.compression-threshold:" + CachingJackson2JsonMessageConverter.NO_COMPRESSION + "}")
+                    int compressionThreshold) {
+
+        CachingJackson2JsonMessageConverter converter = new CachingJackson2JsonMessageConverter(objectMapper);
+        converter.setCompressionThreshold(compressionThreshold);
+        return converter;
+    }
+}
@@ -0,0 +1,252 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.MessagePropertiesBuilder;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link Jackson2JsonMessageConverter} which resolves the type of a message once per target type and keeps the
+ * {@link ObjectReader} and {@link ObjectWriter} of it, instead of looking up the {@code __TypeId__} class by name
+ * and resolving the Jackson type for every message. The readers carry the declared type, so {@code @JsonTypeInfo}
+ * polymorphic payloads, and generic containers of them, round trip.
+ * <p>
+ * The writers are by the runtime class of the payload, the same as {@link Jackson2JsonMessageConverter}, so a subclass
+ * returned through its supertype, e.g. by a {@code @RabbitListener} method declared to return the supertype, keeps
+ * its fields. The generic type is used, for the writer and the type id headers, only if it is a container, whose
+ * elements would otherwise lose their type ids, or carries type info, which writes the subclass fields too.
+ * <p>
+ * The readers decode the body bytes directly, without the intermediate String of
+ * {@link Jackson2JsonMessageConverter}. One reader serves all JSON content types, because Jackson detects UTF-8,
+ * UTF-16 and UTF-32 from the bytes; a body in another charset is decoded through a reader of that charset.
+ * <p>
+ * A body larger than the {@link #setCompressionThreshold(int) compression threshold} is gzipped, and its content
+ * encoding is prefixed with {@code gzip:} and the auto decompress header is set, the same as
+ * {@code GZipPostProcessor}, so a consumer with a plain {@link Jackson2JsonMessageConverter} can read it after a
+ * {@link DelegatingDecompressingPostProcessor}.
+ * This converter inflates a gzipped body while parsing it, or before delegating to
+ * {@link Jackson2JsonMessageConverter}, e.g. for a message without type information.
+ *
+ * @author yejianfengblue
+ */
+public class CachingJackson2JsonMessageConverter extends Jackson2JsonMessageConverter {
+
+    public static final int NO_COMPRESSION = Integer.MAX_VALUE;
+
+    private static final String GZIP = "gzip";
+
+    private final ConcurrentMap<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Type, Optional<JavaType>> genericTypes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Type, Optional<ObjectReader>> inferredTypeReaders = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, ObjectReader> typeIdReaders = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Type, ObjectReader> hintReaders = new ConcurrentHashMap<>();
+
+    private int compressionThreshold = NO_COMPRESSION;
+
+    public CachingJackson2JsonMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    public CachingJackson2JsonMessageConverter(ObjectMapper objectMapper, String... trustedPackages) {
+        super(objectMapper, trustedPackages);
+    }
+
+    /**
+     * Gzip the body larger than the threshold in bytes, default {@link #NO_COMPRESSION}
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    protected Message createMessage(Object objectToConvert, MessageProperties messageProperties, Type genericType)
+            throws MessageConversionException {
+
+        JavaType type = Optional.ofNullable(genericType)
+                                .flatMap(key -> genericTypes.computeIfAbsent(key, this::typedGenericTypeOf))
+                                .orElse(null);
+        ObjectWriter writer = (null != type)
+                ? writers.computeIfAbsent(genericType, key -> objectMapper.writerFor(type))
+                : writers.computeIfAbsent(objectToConvert.getClass(), key -> objectMapper.writerFor((Class<?>) key));
+        byte[] body;
+        try {
+            body = writer.writeValueAsBytes(objectToConvert);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+
+        messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        if (body.length > compressionThreshold) {
+            body = gzip(body);
+            messageProperties.setContentEncoding(GZIP + ":" + StandardCharsets.UTF_8.name());
+            messageProperties.setHeader(MessageProperties.SPRING_AUTO_DECOMPRESS, true);
+        } else {
+            messageProperties.setContentEncoding(StandardCharsets.UTF_8.name());
+        }
+        messageProperties.setContentLength(body.length);
+        if (null == getClassMapper()) {
+            getJavaTypeMapper().fromJavaType(
+                    (null != type) ? type : objectMapper.constructType(objectToConvert.getClass()), messageProperties);
+        } else {
+            getClassMapper().fromClass(objectToConvert.getClass(), messageProperties);
+        }
+        return new Message(body, messageProperties);
+    }
+
+    /**
+     * @return the generic type if it is a container or carries type info, else empty for the runtime class
+     */
+    private Optional<JavaType> typedGenericTypeOf(Type genericType) {
+
+        JavaType javaType = objectMapper.constructType(genericType);
+        try {
+            return (javaType.isContainerType()
+                    || null != objectMapper.getSerializerProviderInstance().findTypeSerializer(javaType))
+                    ? Optional.of(javaType) : Optional.empty();
+        } catch (JsonMappingException e) {
+            throw new MessageConversionException("Failed to resolve type info of " + genericType, e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {{ def.setLevel(Deflater.BEST_SPEED); }}) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to compress Message content", e);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public Object fromMessage(Message message, Object conversionHint) throws MessageConversionException {
+
+        MessageProperties properties = message.getMessageProperties();
+        String contentType = properties.getContentType();
+        if (null != getClassMapper() || isUseProjectionForInterfaces()
+            || null == contentType || !contentType.contains("json")) {
+            return super.fromMessage(inflated(message), conversionHint);
+        }
+        ObjectReader reader = (conversionHint instanceof ParameterizedTypeReference)
+                ? hintReaders.computeIfAbsent(((ParameterizedTypeReference<?>) conversionHint).getType(),
+                        key -> objectMapper.readerFor(objectMapper.constructType(key)))
+                : readerOf(properties);
+        if (null == reader) {
+            return super.fromMessage(inflated(message), null);
+        }
+
+        String encoding = properties.getContentEncoding();
+        boolean gzipped = null != encoding && encoding.startsWith(GZIP);
+        if (gzipped) {
+            int colon = encoding.indexOf(':');
+            encoding = (colon < 0) ? null : encoding.substring(colon + 1);
+        }
+        Charset charset = (null == encoding) ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+        byte[] body = message.getBody();
+        try {
+            if (!gzipped && isDetectedByJackson(charset)) {
+                return reader.readValue(body);
+            }
+            InputStream in = gzipped ? new GZIPInputStream(new ByteArrayInputStream(body), 8192)
+                    : new ByteArrayInputStream(body);
+            return isDetectedByJackson(charset) ? reader.readValue(in)
+                    : reader.readValue(new InputStreamReader(in, charset));
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to convert Message content", e);
+        }
+    }
+
+    private static boolean isDetectedByJackson(Charset charset) {
+        return charset.name().startsWith("UTF-");
+    }
+
+    /**
+     * The message with the body inflated and the {@code gzip:} prefix removed from the content encoding, as
+     * {@link DelegatingDecompressingPostProcessor} does, for {@link Jackson2JsonMessageConverter} which reads the
+     * body as is. The properties are copied, so the given message can still be converted again.
+     */
+    private static Message inflated(Message message) {
+
+        String encoding = message.getMessageProperties().getContentEncoding();
+        if (null == encoding || !encoding.startsWith(GZIP)) {
+            return message;
+        }
+        MessageProperties properties = MessagePropertiesBuilder.fromClonedProperties(message.getMessageProperties())
+                                                               .build();
+        int colon = encoding.indexOf(':');
+        properties.setContentEncoding((colon < 0) ? null : encoding.substring(colon + 1));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(message.getBody()), 8192)) {
+            return new Message(StreamUtils.copyToByteArray(in), properties);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to decompress Message content", e);
+        }
+    }
+
+    /**
+     * The same check as {@code DefaultJackson2JavaTypeMapper.toJavaType()}: an abstract class or interface
+     * parameter, other than a {@code java.util} container, is resolved by the type id headers instead
+     */
+    private static boolean canConvert(JavaType inferredType) {
+
+        return !(inferredType.isAbstract() || inferredType.isInterface())
+               || inferredType.getRawClass().getPackage().getName().startsWith("java.util");
+    }
+
+    /**
+     * @return the cached reader of the inferred argument type, or else of the type id headers, null if neither
+     */
+    private ObjectReader readerOf(MessageProperties properties) {
+
+        Type inferredType = properties.getInferredArgumentType();
+        if (null != inferredType) {
+            Optional<ObjectReader> reader = inferredTypeReaders.computeIfAbsent(inferredType,
+                    key -> Optional.ofNullable(getJavaTypeMapper().getInferredType(properties))
+                                   .filter(CachingJackson2JsonMessageConverter::canConvert)
+                                   .map(objectMapper::readerFor));
+            if (reader.isPresent()) {
+                return reader.get();
+            }
+        }
+        Object typeId = properties.getHeaders().get(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME);
+        if (null == typeId) {
+            return null;
+        }
+        Object contentTypeId = properties.getHeaders().get(AbstractJavaTypeMapper.DEFAULT_CONTENT_CLASSID_FIELD_NAME);
+        Object keyTypeId = properties.getHeaders().get(AbstractJavaTypeMapper.DEFAULT_KEY_CLASSID_FIELD_NAME);
+        // the type id alone for a non-container type, so no key is built per message
+        String key = (null == contentTypeId && null == keyTypeId) ? typeId.toString()
+                : typeId + "<" + keyTypeId + "," + contentTypeId + ">";
+        return typeIdReaders.computeIfAbsent(key,
+                k -> objectMapper.readerFor(getJavaTypeMapper().toJavaType(properties)));
+    }
+}
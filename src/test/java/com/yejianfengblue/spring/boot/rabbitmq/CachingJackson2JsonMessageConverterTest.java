@@ -0,0 +1,338 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.support.postprocessor.DelegatingDecompressingPostProcessor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.ParameterizedTypeReference;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The converter and benchmark tests don't need a broker.
+ * The listener test needs a RabbitMQ server on localhost:5672 with default user guest:guest,
+ * or run with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = "rabbitmq.json.compression-threshold = 256")
+@Import(CachingJackson2JsonConfig.class)
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class CachingJackson2JsonMessageConverterTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-caching-jackson2-json-test-queue";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * The polymorphic payload of {@code JacksonAnnotationTest}, with both subtypes registered
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    static class Zoo {
+
+        public Animal animal;
+    }
+
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NAME)
+    @JsonSubTypes({
+            @JsonSubTypes.Type(value = Dog.class, name = "dog"),
+            @JsonSubTypes.Type(value = Cat.class, name = "cat")
+    })
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    static class Animal {
+        String name;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode(callSuper = true)
+    static class Dog extends Animal {
+
+        int barkVolume;
+
+        Dog(String name, int barkVolume) {
+
+            super(name);
+            this.barkVolume = barkVolume;
+        }
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode(callSuper = true)
+    static class Cat extends Animal {
+
+        int lives;
+
+        Cat(String name, int lives) {
+
+            super(name);
+            this.lives = lives;
+        }
+    }
+
+    /**
+     * A supertype without type info
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    static class Fruit {
+        String name;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode(callSuper = true)
+    static class Apple extends Fruit {
+
+        int sweetness;
+
+        Apple(String name, int sweetness) {
+
+            super(name);
+            this.sweetness = sweetness;
+        }
+    }
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue zooQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        ZooReceiver zooReceiver() {
+            return new ZooReceiver();
+        }
+    }
+
+    static class ZooReceiver {
+
+        static final LinkedBlockingQueue<Zoo> received = new LinkedBlockingQueue<>();
+
+        @RabbitListener(queues = QUEUE_NAME)
+        void receive(Zoo zoo) {
+            received.add(zoo);
+        }
+    }
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private static Message withInferredType(Message message, Class<?> type) {
+
+        message.getMessageProperties().setInferredArgumentType(type);
+        return message;
+    }
+
+    @Test
+    @DisplayName("Given zoos of dog and cat, when convert, then @type in JSON and round trip " +
+                 "by inferred argument type and by __TypeId__ header")
+    void givenZoosOfDogAndCat_whenConvert_thenRoundTripByInferredTypeAndTypeIdHeader() {
+
+        CachingJackson2JsonMessageConverter converter = new CachingJackson2JsonMessageConverter(objectMapper);
+        for (Zoo zoo : List.of(new Zoo(new Dog("Spike", 10)), new Zoo(new Cat("Tom", 9)))) {
+
+            Message message = converter.toMessage(zoo, new MessageProperties());
+            assertThat(new String(message.getBody())).startsWith("{\"animal\":{\"@type\":");
+            assertThat(message.getMessageProperties().getContentType())
+                    .isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+            assertThat(message.getMessageProperties().getHeaders()).containsEntry("__TypeId__",
+                    Zoo.class.getName());
+
+            assertThat(converter.fromMessage(message)).isEqualTo(zoo);
+            assertThat(converter.fromMessage(withInferredType(message, Zoo.class))).isEqualTo(zoo);
+            // an interface parameter is resolved by __TypeId__, like Jackson2JsonMessageConverter
+            assertThat(converter.fromMessage(withInferredType(message, Serializable.class))).isEqualTo(zoo);
+        }
+
+        // a sender with the plain converter, whose __TypeId__ is also cached
+        Message message = new Jackson2JsonMessageConverter(objectMapper)
+                .toMessage(new Zoo(new Cat("Tom", 9)), new MessageProperties());
+        assertThat(converter.fromMessage(message)).isEqualTo(new Zoo(new Cat("Tom", 9)));
+    }
+
+    @Test
+    @DisplayName("Given a list of animals, when convert with the generic type, then elements keep their subtypes")
+    void givenListOfAnimals_whenConvertWithGenericType_thenElementsKeepSubtypes() {
+
+        CachingJackson2JsonMessageConverter converter = new CachingJackson2JsonMessageConverter(objectMapper);
+        List<Animal> animals = List.of(new Dog("Spike", 10), new Cat("Tom", 9));
+        ParameterizedTypeReference<List<Animal>> listOfAnimals = new ParameterizedTypeReference<>() {};
+
+        Message message = converter.toMessage(animals, new MessageProperties(), listOfAnimals.getType());
+        assertThat(message.getMessageProperties().getHeaders()).containsEntry("__ContentTypeId__",
+                Animal.class.getName());
+
+        assertThat(converter.fromMessage(message)).isEqualTo(animals);
+        assertThat(converter.fromMessage(message, listOfAnimals)).isEqualTo(animals);
+    }
+
+    @Test
+    @DisplayName("Given a subclass returned through its supertype, when convert with the supertype as generic type, " +
+                 "then subclass fields kept, and __TypeId__ of the subclass unless the supertype carries type info")
+    void givenSubclassThroughSupertype_whenConvertWithSupertype_thenSubclassFieldsKept() {
+
+        CachingJackson2JsonMessageConverter converter = new CachingJackson2JsonMessageConverter(objectMapper);
+
+        Apple apple = new Apple("Fuji", 9);
+        Message message = converter.toMessage(apple, new MessageProperties(), Fruit.class);
+        assertThat(new String(message.getBody())).contains("\"sweetness\":9");
+        assertThat(message.getMessageProperties().getHeaders()).containsEntry("__TypeId__", Apple.class.getName());
+        assertThat(converter.fromMessage(message)).isEqualTo(apple);
+
+        Dog dog = new Dog("Spike", 10);
+        message = converter.toMessage(dog, new MessageProperties(), Animal.class);
+        assertThat(new String(message.getBody())).contains("\"barkVolume\":10");
+        assertThat(message.getMessageProperties().getHeaders()).containsEntry("__TypeId__", Animal.class.getName());
+        assertThat(converter.fromMessage(message)).isEqualTo(dog);
+    }
+
+    @Test
+    @DisplayName("Given compression threshold 256, when convert large and small zoo, then only large is gzipped " +
+                 "and readable by the plain converter after decompressing post processor")
+    void givenCompressionThreshold_whenConvertLargeAndSmallZoo_thenOnlyLargeGzipped() {
+
+        CachingJackson2JsonMessageConverter converter = new CachingJackson2JsonMessageConverter(objectMapper);
+        converter.setCompressionThreshold(256);
+        Zoo small = new Zoo(new Dog("Spike", 10));
+        Zoo large = new Zoo(new Dog("Spike".repeat(1_000), 10));
+
+        Message smallMessage = converter.toMessage(small, new MessageProperties());
+        assertThat(smallMessage.getMessageProperties().getContentEncoding()).isEqualTo("UTF-8");
+
+        Message largeMessage = converter.toMessage(large, new MessageProperties());
+        assertThat(largeMessage.getMessageProperties().getContentEncoding()).isEqualTo("gzip:UTF-8");
+        assertThat(largeMessage.getBody().length).isLessThan(256);
+        assertThat(largeMessage.getBody()[0]).isEqualTo((byte) 0x1f);
+        assertThat(converter.fromMessage(largeMessage)).isEqualTo(large);
+
+        // the paths delegating to Jackson2JsonMessageConverter inflate too
+        DefaultClassMapper classMapper = new DefaultClassMapper();
+        classMapper.setTrustedPackages("*");
+        CachingJackson2JsonMessageConverter classMapperConverter =
+                new CachingJackson2JsonMessageConverter(objectMapper);
+        classMapperConverter.setClassMapper(classMapper);
+        assertThat(classMapperConverter.fromMessage(largeMessage)).isEqualTo(large);
+        Message withoutTypeId = converter.toMessage(large, new MessageProperties());
+        withoutTypeId.getMessageProperties().getHeaders().remove("__TypeId__");
+        assertThat(converter.fromMessage(withoutTypeId)).isInstanceOf(Map.class);
+        assertThat(withoutTypeId.getMessageProperties().getContentEncoding()).isEqualTo("gzip:UTF-8");
+
+        Message inflated = new DelegatingDecompressingPostProcessor().postProcessMessage(largeMessage);
+        assertThat(new Jackson2JsonMessageConverter(objectMapper).fromMessage(inflated)).isEqualTo(large);
+    }
+
+    /**
+     * A JMH-style benchmark: warm up, then measure time and the allocated bytes of the current thread per decode
+     */
+    @Test
+    @DisplayName("Given zoo messages with __TypeId__ header, when decode 200k by Jackson2JsonMessageConverter " +
+                 "versus CachingJackson2JsonMessageConverter, then report time and allocated bytes per decode")
+    void givenZooMessages_whenDecode200kByPlainVersusCaching_thenReport() {
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        MessageConverter[] converters = {
+                new Jackson2JsonMessageConverter(objectMapper),
+                new CachingJackson2JsonMessageConverter(objectMapper)
+        };
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Animal animal = (0 == i % 2) ? new Dog("Spike " + i, i) : new Cat("Tom " + i, i);
+            messages.add(converters[0].toMessage(new Zoo(animal), new MessageProperties()));
+        }
+
+        int iterations = 200_000;
+        long[] nanosPerDecode = new long[2];
+        long[] allocatedPerDecode = new long[2];
+        for (int c = 0; c < converters.length; c++) {
+            for (int i = 0; i < iterations; i++) {
+                converters[c].fromMessage(messages.get(i % 100));
+            }
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                converters[c].fromMessage(messages.get(i % 100));
+            }
+            nanosPerDecode[c] = (System.nanoTime() - start) / iterations;
+            allocatedPerDecode[c] = (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore) / iterations;
+        }
+
+        log.info("Decode {} zoo messages: Jackson2JsonMessageConverter = {}ns, {} bytes allocated per decode; " +
+                 "CachingJackson2JsonMessageConverter = {}ns, {} bytes allocated per decode",
+                iterations, nanosPerDecode[0], allocatedPerDecode[0], nanosPerDecode[1], allocatedPerDecode[1]);
+        for (Message message : messages) {
+            assertThat(converters[1].fromMessage(message)).isEqualTo(converters[0].fromMessage(message));
+        }
+    }
+
+    @Test
+    @DisplayName("Given the converter bean, when send small and large zoo, then listener receives both as Zoo")
+    void givenConverterBean_whenSendSmallAndLargeZoo_thenListenerReceivesZoo() throws InterruptedException {
+
+        ZooReceiver.received.clear();
+        Zoo small = new Zoo(new Dog("Spike", 10));
+        Zoo large = new Zoo(new Cat("Tom".repeat(1_000), 9));
+
+        assertThat(rabbitTemplate.getMessageConverter()).isInstanceOf(CachingJackson2JsonMessageConverter.class);
+        rabbitTemplate.convertAndSend("", QUEUE_NAME, small);
+        rabbitTemplate.convertAndSend("", QUEUE_NAME, large);
+
+        assertThat(ZooReceiver.received.poll(10, TimeUnit.SECONDS)).isEqualTo(small);
+        assertThat(ZooReceiver.received.poll(10, TimeUnit.SECONDS)).isEqualTo(large);
+    }
+}
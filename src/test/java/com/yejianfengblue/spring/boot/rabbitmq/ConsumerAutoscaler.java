@@ -0,0 +1,297 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adjust the consumers and the prefetch of a {@link SimpleMessageListenerContainer} at runtime.
+ * <p>
+ * Every evaluation observes
+ * <ul>
+ * <li>the queue depth, by passive queue declare</li>
+ * <li>the ack rate and the listener processing latency, by the {@code spring.rabbitmq.listener} timer which the
+ * container records for every delivery, with {@code result = success} when the listener returns and the message
+ * is acked</li>
+ * </ul>
+ * and estimates the time to drain the backlog as {@code depth / ack rate}.
+ * When the drain time is longer than {@link Settings#getScaleUpDrainTime()} for
+ * {@link Settings#getScaleUpAfter()} evaluations in a row, the consumers are scaled up in proportion to the drain
+ * time, at most doubled. When the drain time is shorter than {@link Settings#getScaleDownDrainTime()} for
+ * {@link Settings#getScaleDownAfter()} evaluations in a row, one consumer is removed. The gap between the two drain
+ * times and the consecutive evaluations are the hysteresis, so a short burst or a short lull doesn't flip the
+ * consumers. The max concurrent consumers is twice the consumers, so the container's own scaling absorbs the bursts
+ * between evaluations.
+ * <p>
+ * The prefetch is what a consumer processes in {@link Settings#getPrefetchBufferTime()} at the observed latency, and is
+ * changed only when it is off by a factor of 2. A new prefetch applies to the consumers started after the change.
+ * <p>
+ * Meters, all tagged by {@code listener.id} and {@code queue}, {@code rabbitmq.autoscaler.consumers},
+ * {@code rabbitmq.autoscaler.prefetch}, {@code rabbitmq.autoscaler.queue.depth},
+ * {@code rabbitmq.autoscaler.ack.rate}, {@code rabbitmq.autoscaler.latency} and the counter
+ * {@code rabbitmq.autoscaler.decisions} tagged by {@code action}.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class ConsumerAutoscaler implements Runnable {
+
+    static final String LISTENER_TIMER = "spring.rabbitmq.listener";
+
+    enum Action {SCALE_UP, SCALE_DOWN, PREFETCH}
+
+    @Data
+    public static class Settings {
+
+        private int minConsumers = 1;
+
+        private int maxConsumers = 16;
+
+        private int minPrefetch = 1;
+
+        private int maxPrefetch = 250;
+
+        private Duration scaleUpDrainTime = Duration.ofSeconds(5);
+
+        private Duration scaleDownDrainTime = Duration.ofSeconds(1);
+
+        private int scaleUpAfter = 2;
+
+        private int scaleDownAfter = 3;
+
+        private Duration prefetchBufferTime = Duration.ofSeconds(1);
+    }
+
+    private final SimpleMessageListenerContainer container;
+
+    private final String listenerId;
+
+    private final String queue;
+
+    private final AmqpAdmin amqpAdmin;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Settings settings;
+
+    private final Tags tags;
+
+    private volatile int consumers;
+
+    private volatile int prefetch;
+
+    private volatile long depth;
+
+    private volatile double ackRate;
+
+    private volatile double latencyMillis;
+
+    private int scaleUpStreak;
+
+    private int scaleDownStreak;
+
+    private long lastSuccessCount;
+
+    private long lastCount;
+
+    private double lastTotalMillis;
+
+    private long lastNanos = System.nanoTime();
+
+    private ScheduledFuture<?> schedule;
+
+    /**
+     * @param container a container consuming one queue, whose consumers and prefetch are then set by this autoscaler
+     */
+    public ConsumerAutoscaler(SimpleMessageListenerContainer container,
+                              AmqpAdmin amqpAdmin,
+                              MeterRegistry meterRegistry,
+                              Settings settings) {
+
+        if (container.getQueueNames().length != 1) {
+            throw new IllegalArgumentException("Autoscaler supports container of one queue");
+        }
+        if (settings.getMinConsumers() < 1 || settings.getMaxConsumers() < settings.getMinConsumers()) {
+            throw new IllegalArgumentException("Consumers bound must be 1 <= min <= max");
+        }
+        this.container = container;
+        this.listenerId = container.getListenerId();
+        this.queue = container.getQueueNames()[0];
+        this.amqpAdmin = amqpAdmin;
+        this.meterRegistry = meterRegistry;
+        this.settings = settings;
+        this.tags = Tags.of("listener.id", String.valueOf(listenerId), "queue", queue);
+
+        this.consumers = settings.getMinConsumers();
+        this.prefetch = settings.getMinPrefetch();
+        container.setPrefetchCount(prefetch);
+        container.setConcurrentConsumers(consumers);
+        container.setMaxConcurrentConsumers(Math.min(settings.getMaxConsumers(), consumers * 2));
+
+        Gauge.builder("rabbitmq.autoscaler.consumers", this, ConsumerAutoscaler::getConsumers)
+             .tags(tags).register(meterRegistry);
+        Gauge.builder("rabbitmq.autoscaler.prefetch", this, ConsumerAutoscaler::getPrefetch)
+             .tags(tags).register(meterRegistry);
+        Gauge.builder("rabbitmq.autoscaler.queue.depth", this, ConsumerAutoscaler::getDepth)
+             .tags(tags).register(meterRegistry);
+        Gauge.builder("rabbitmq.autoscaler.ack.rate", this, ConsumerAutoscaler::getAckRate)
+             .tags(tags).baseUnit("messages/s").register(meterRegistry);
+        Gauge.builder("rabbitmq.autoscaler.latency", this, ConsumerAutoscaler::getLatencyMillis)
+             .tags(tags).baseUnit("milliseconds").register(meterRegistry);
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    public long getDepth() {
+        return depth;
+    }
+
+    public double getAckRate() {
+        return ackRate;
+    }
+
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public synchronized void start(TaskScheduler taskScheduler, Duration interval) {
+
+        if (null == schedule) {
+            lastNanos = System.nanoTime();
+            schedule = taskScheduler.scheduleAtFixedRate(this, interval);
+        }
+    }
+
+    public synchronized void stop() {
+
+        if (null != schedule) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            Properties queueProperties = amqpAdmin.getQueueProperties(queue);
+            if (null == queueProperties) {
+                log.warn("Queue {} doesn't exist", queue);
+                return;
+            }
+            long now = System.nanoTime();
+            evaluate(((Number) queueProperties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT)).longValue(), now - lastNanos);
+            lastNanos = now;
+        } catch (RuntimeException e) {
+            // keep scheduled
+            log.error("Fail to autoscale listener {}", listenerId, e);
+        }
+    }
+
+    /**
+     * Observe the listener timers since last evaluation, and decide
+     */
+    synchronized void evaluate(long depth, long elapsedNanos) {
+
+        long successCount = 0;
+        long count = 0;
+        double totalMillis = 0;
+        for (Timer timer : meterRegistry.find(LISTENER_TIMER).tag("listener.id", String.valueOf(listenerId)).timers()) {
+            count += timer.count();
+            totalMillis += timer.totalTime(TimeUnit.MILLISECONDS);
+            if ("success".equals(timer.getId().getTag("result"))) {
+                successCount += timer.count();
+            }
+        }
+        double elapsedSeconds = Math.max(elapsedNanos, 1) / 1e9;
+        this.depth = depth;
+        this.ackRate = (successCount - lastSuccessCount) / elapsedSeconds;
+        if (count > lastCount) {
+            this.latencyMillis = (totalMillis - lastTotalMillis) / (count - lastCount);
+        }
+        lastSuccessCount = successCount;
+        lastCount = count;
+        lastTotalMillis = totalMillis;
+
+        decideConsumers();
+        decidePrefetch();
+    }
+
+    private void decideConsumers() {
+
+        double drainSeconds = (depth == 0) ? 0 : (ackRate > 0) ? depth / ackRate : Double.POSITIVE_INFINITY;
+        if (drainSeconds > settings.getScaleUpDrainTime().toMillis() / 1e3) {
+            scaleUpStreak++;
+            scaleDownStreak = 0;
+        } else if (drainSeconds < settings.getScaleDownDrainTime().toMillis() / 1e3) {
+            scaleDownStreak++;
+            scaleUpStreak = 0;
+        } else {
+            scaleUpStreak = 0;
+            scaleDownStreak = 0;
+        }
+
+        if (scaleUpStreak >= settings.getScaleUpAfter() && consumers < settings.getMaxConsumers()) {
+            double needed = consumers * drainSeconds / (settings.getScaleUpDrainTime().toMillis() / 1e3);
+            int target = (int) Math.min(Math.min(settings.getMaxConsumers(), consumers * 2L),
+                    Math.max(consumers + 1, Math.ceil(needed)));
+            // raise the max first, concurrent consumers can't be more than max
+            container.setMaxConcurrentConsumers(Math.min(settings.getMaxConsumers(), target * 2));
+            container.setConcurrentConsumers(target);
+            decided(Action.SCALE_UP, consumers, target, drainSeconds);
+            consumers = target;
+            scaleUpStreak = 0;
+        } else if (scaleDownStreak >= settings.getScaleDownAfter() && consumers > settings.getMinConsumers()) {
+            int target = consumers - 1;
+            container.setConcurrentConsumers(target);
+            container.setMaxConcurrentConsumers(Math.min(settings.getMaxConsumers(), target * 2));
+            decided(Action.SCALE_DOWN, consumers, target, drainSeconds);
+            consumers = target;
+            scaleDownStreak = 0;
+        }
+    }
+
+    private void decidePrefetch() {
+
+        if (latencyMillis <= 0) {
+            return;
+        }
+        int target = (int) Math.max(settings.getMinPrefetch(), Math.min(settings.getMaxPrefetch(),
+                Math.round(settings.getPrefetchBufferTime().toMillis() / latencyMillis)));
+        if (target >= prefetch * 2 || target * 2 <= prefetch) {
+            container.setPrefetchCount(target);
+            decided(Action.PREFETCH, prefetch, target, latencyMillis);
+            prefetch = target;
+        }
+    }
+
+    private void decided(Action action, int from, int to, double observation) {
+
+        log.info("Listener {} on {}: {} {} -> {} (depth {}, ack rate {}/s, latency {}ms, observation {})",
+                listenerId, queue, action, from, to, depth, Math.round(ackRate), Math.round(latencyMillis),
+                observation);
+        Counter.builder("rabbitmq.autoscaler.decisions")
+               .tags(tags.and("action", action.name().toLowerCase()))
+               .register(meterRegistry)
+               .increment();
+    }
+}
@@ -0,0 +1,102 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ConsumerAutoscaler} for each {@code @RabbitListener} id in {@code rabbitmq.autoscaler.listener-ids},
+ * evaluating every {@code rabbitmq.autoscaler.interval} (default 5s), with {@link ConsumerAutoscaler.Settings} bound
+ * from {@code rabbitmq.autoscaler}, e.g. {@code rabbitmq.autoscaler.max-consumers = 32}.
+ * The listeners must use the simple container type.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class ConsumerAutoscalerConfig {
+
+    @Bean
+    ConsumerAutoscalers consumerAutoscalers(RabbitListenerEndpointRegistry registry,
+                                            AmqpAdmin amqpAdmin,
+                                            MeterRegistry meterRegistry,
+                                            Environment environment,
+                                            @Value("${rabbitmq.autoscaler.listener-ids}") List<String> listenerIds,
+                                            @Value("${rabbitmq.autoscaler.interval:5s}") Duration interval) {
+
+        ConsumerAutoscaler.Settings settings = Binder.get(environment)
+                                                     .bind("rabbitmq.autoscaler", ConsumerAutoscaler.Settings.class)
+                                                     .orElseGet(ConsumerAutoscaler.Settings::new);
+        return new ConsumerAutoscalers(registry, amqpAdmin, meterRegistry, settings, listenerIds, interval);
+    }
+
+    /**
+     * Create the autoscalers when the listener containers exist, and schedule them while running
+     */
+    @RequiredArgsConstructor
+    public static class ConsumerAutoscalers implements SmartLifecycle {
+
+        private final RabbitListenerEndpointRegistry registry;
+
+        private final AmqpAdmin amqpAdmin;
+
+        private final MeterRegistry meterRegistry;
+
+        private final ConsumerAutoscaler.Settings settings;
+
+        private final List<String> listenerIds;
+
+        private final Duration interval;
+
+        private final List<ConsumerAutoscaler> autoscalers = new ArrayList<>();
+
+        private ThreadPoolTaskScheduler taskScheduler;
+
+        public List<ConsumerAutoscaler> getAutoscalers() {
+            return autoscalers;
+        }
+
+        @Override
+        public synchronized void start() {
+
+            if (autoscalers.isEmpty()) {
+                for (String listenerId : listenerIds) {
+                    autoscalers.add(new ConsumerAutoscaler(
+                            (SimpleMessageListenerContainer) registry.getListenerContainer(listenerId),
+                            amqpAdmin, meterRegistry, settings));
+                }
+            }
+            taskScheduler = new ThreadPoolTaskScheduler();
+            taskScheduler.setThreadNamePrefix("consumer-autoscaler-");
+            taskScheduler.initialize();
+            autoscalers.forEach(autoscaler -> autoscaler.start(taskScheduler, interval));
+        }
+
+        @Override
+        public synchronized void stop() {
+
+            autoscalers.forEach(ConsumerAutoscaler::stop);
+            if (null != taskScheduler) {
+                taskScheduler.shutdown();
+                taskScheduler = null;
+            }
+        }
+
+        @Override
+        public synchronized boolean isRunning() {
+            return null != taskScheduler;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * The decision tests record the listener timer by hand and don't need a broker.
+ * The other needs a RabbitMQ server on localhost:5672 with default user guest:guest.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "rabbitmq.autoscaler.listener-ids = " + ConsumerAutoscalerTest.LISTENER_ID,
+        "rabbitmq.autoscaler.interval = 500ms",
+        "rabbitmq.autoscaler.scale-up-after = 1",
+        "rabbitmq.autoscaler.scale-up-drain-time = 2s",
+        "rabbitmq.autoscaler.max-consumers = 8"
+})
+@Import(ConsumerAutoscalerConfig.class)
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class ConsumerAutoscalerTest {
+
+    static final String LISTENER_ID = "autoscaled-listener";
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-consumer-autoscaler-test-queue";
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue messageQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        SlowReceiver slowReceiver() {
+            return new SlowReceiver();
+        }
+    }
+
+    static class SlowReceiver {
+
+        static volatile CountDownLatch latch = new CountDownLatch(0);
+
+        @RabbitListener(id = LISTENER_ID, queues = QUEUE_NAME)
+        void receive(String message) throws InterruptedException {
+
+            TimeUnit.MILLISECONDS.sleep(10);
+            latch.countDown();
+        }
+    }
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ConsumerAutoscalerConfig.ConsumerAutoscalers consumerAutoscalers;
+
+    private static SimpleMessageListenerContainer container(String listenerId) {
+
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(mock(ConnectionFactory.class));
+        container.setListenerId(listenerId);
+        container.setQueueNames("autoscaled-queue");
+        return container;
+    }
+
+    /**
+     * Same as the timer recorded by the listener container
+     */
+    private static Timer listenerTimer(MeterRegistry meterRegistry, String listenerId) {
+
+        return Timer.builder(ConsumerAutoscaler.LISTENER_TIMER)
+                    .tags("listener.id", listenerId, "queue", "autoscaled-queue",
+                            "result", "success", "exception", "none")
+                    .register(meterRegistry);
+    }
+
+    /**
+     * Record 100 deliveries of 10ms, so the ack rate is 100/s in a 1 second evaluation
+     */
+    private static void ack100(Timer timer) {
+
+        for (int i = 0; i < 100; i++) {
+            timer.record(Duration.ofMillis(10));
+        }
+    }
+
+    private static int concurrentConsumersOf(SimpleMessageListenerContainer container) {
+        return (int) ReflectionTestUtils.getField(container, "concurrentConsumers");
+    }
+
+    private static int maxConcurrentConsumersOf(SimpleMessageListenerContainer container) {
+        return (int) ReflectionTestUtils.getField(container, "maxConcurrentConsumers");
+    }
+
+    @Test
+    @DisplayName("Given a backlog draining slower than scale up drain time, when evaluate, " +
+                 "then scale up after 2 evaluations in a row up to max consumers, and set prefetch by latency")
+    void givenBacklog_whenEvaluate_thenScaleUpWithHysteresisUpToMax() {
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SimpleMessageListenerContainer container = container("scale-up");
+        ConsumerAutoscaler autoscaler = new ConsumerAutoscaler(container, null, meterRegistry,
+                new ConsumerAutoscaler.Settings());
+        Timer timer = listenerTimer(meterRegistry, "scale-up");
+        assertThat(autoscaler.getConsumers()).isEqualTo(1);
+
+        // 10k backlog at 100/s is 100s to drain
+        ack100(timer);
+        autoscaler.evaluate(10_000, SECOND);
+        assertThat(autoscaler.getAckRate()).isEqualTo(100);
+        assertThat(autoscaler.getLatencyMillis()).isEqualTo(10);
+        assertThat(autoscaler.getConsumers()).as("Not yet, hysteresis").isEqualTo(1);
+        // 1 second of 10ms work
+        assertThat(autoscaler.getPrefetch()).isEqualTo(100);
+
+        int[] expectedConsumers = {2, 4, 8, 16, 16};
+        for (int expected : expectedConsumers) {
+            ack100(timer);
+            autoscaler.evaluate(10_000, SECOND);
+            ack100(timer);
+            autoscaler.evaluate(10_000, SECOND);
+            assertThat(autoscaler.getConsumers()).isEqualTo(expected);
+        }
+        assertThat(concurrentConsumersOf(container)).isEqualTo(16);
+        assertThat(maxConcurrentConsumersOf(container)).isEqualTo(16);
+        assertThat(ReflectionTestUtils.getField(container, "prefetchCount")).isEqualTo(100);
+
+        assertThat(meterRegistry.get("rabbitmq.autoscaler.decisions").tag("action", "scale_up").counter().count())
+                .isEqualTo(4);
+        assertThat(meterRegistry.get("rabbitmq.autoscaler.consumers").tag("listener.id", "scale-up").gauge().value())
+                .isEqualTo(16);
+    }
+
+    @Test
+    @DisplayName("Given consumers scaled up, when a short lull, a moderate backlog and then an empty queue, " +
+                 "then only the empty queue for 3 evaluations in a row scales down by one")
+    void givenScaledUp_whenLullAndModerateBacklogAndEmptyQueue_thenScaleDownWithHysteresis() {
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        SimpleMessageListenerContainer container = container("scale-down");
+        ConsumerAutoscaler autoscaler = new ConsumerAutoscaler(container, null, meterRegistry,
+                new ConsumerAutoscaler.Settings());
+        Timer timer = listenerTimer(meterRegistry, "scale-down");
+        for (int i = 0; i < 4; i++) {
+            ack100(timer);
+            autoscaler.evaluate(10_000, SECOND);
+        }
+        assertThat(autoscaler.getConsumers()).isEqualTo(4);
+
+        // a lull of 2 evaluations, then 300 backlog at 100/s is 3s to drain, between scale down and scale up
+        ack100(timer);
+        autoscaler.evaluate(0, SECOND);
+        ack100(timer);
+        autoscaler.evaluate(0, SECOND);
+        ack100(timer);
+        autoscaler.evaluate(300, SECOND);
+        assertThat(autoscaler.getConsumers()).isEqualTo(4);
+
+        for (int i = 0; i < 3; i++) {
+            ack100(timer);
+            autoscaler.evaluate(0, SECOND);
+        }
+        assertThat(autoscaler.getConsumers()).isEqualTo(3);
+        assertThat(concurrentConsumersOf(container)).isEqualTo(3);
+        assertThat(maxConcurrentConsumersOf(container)).isEqualTo(6);
+
+        // down to min consumers 1 and no lower
+        for (int i = 0; i < 12; i++) {
+            ack100(timer);
+            autoscaler.evaluate(0, SECOND);
+        }
+        assertThat(autoscaler.getConsumers()).isEqualTo(1);
+        assertThat(meterRegistry.get("rabbitmq.autoscaler.decisions").tag("action", "scale_down").counter().count())
+                .isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Given a burst of 3000 messages to a slow listener, when autoscaler runs, " +
+                 "then consumers scale up and the burst drains")
+    void givenBurst_whenAutoscalerRuns_thenConsumersScaleUpAndBurstDrains() throws InterruptedException {
+
+        ConsumerAutoscaler autoscaler = consumerAutoscalers.getAutoscalers().get(0);
+        SlowReceiver.latch = new CountDownLatch(3_000);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3_000; i++) {
+            rabbitTemplate.convertAndSend(QUEUE_NAME, "message " + i);
+        }
+
+        int maxConsumers = 1;
+        while (!SlowReceiver.latch.await(500, TimeUnit.MILLISECONDS)) {
+            maxConsumers = Math.max(maxConsumers, autoscaler.getConsumers());
+            assertThat(System.currentTimeMillis() - start).isLessThan(60_000);
+        }
+        log.info("Drain 3000 messages of 10ms in {}ms, max consumers {}, prefetch {}",
+                System.currentTimeMillis() - start, maxConsumers, autoscaler.getPrefetch());
+        assertThat(maxConsumers).isGreaterThan(1);
+    }
+}
@@ -0,0 +1,30 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link DeadLetterQueueManager} replaying in batches of {@code rabbitmq.dlq.batch-size} messages (default 100),
+ * waiting {@code rabbitmq.dlq.confirm-timeout} (default 10s) for the confirms of a batch.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class DeadLetterQueueConfig {
+
+    @Bean
+    DeadLetterQueueManager deadLetterQueueManager(
+            CachingConnectionFactory connectionFactory,
+            @Value("${rabbitmq.dlq.batch-size:100}") int batchSize,
+            @Value("${rabbitmq.dlq.confirm-timeout:10s}") Duration confirmTimeout)
+            throws IOException, TimeoutException {
+
+        return DeadLetterQueueManager.open(connectionFactory.getRabbitConnectionFactory(), batchSize, confirmTimeout);
+    }
+}
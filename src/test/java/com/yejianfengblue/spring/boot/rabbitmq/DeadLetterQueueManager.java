@@ -0,0 +1,304 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Analyze and replay a dead letter queue, e.g. {@code DlxTest}'s, by the most recent {@code x-death} header of each
+ * message, on a dedicated connection.
+ * <p>
+ * {@link #analyze(String, int)} counts the messages by the reason, the source queue and the first routing key of the
+ * most recent death. It reads by a consumer without ack, and requeues all by closing its channel at the end, so the
+ * queue is not changed, and only the counts are kept in memory. The messages read are unacked until then, so the
+ * limit bounds them.
+ * <p>
+ * {@link #replay(String, Predicate, double)} streams the messages which are in the queue when it starts, by a
+ * consumer of prefetch {@code batchSize}. A message matching the filter is republished to the exchange and the
+ * routing key it was published to before its most recent death, at most {@code messagesPerSecond}, so the consumers
+ * are not flooded; any other message, or one without {@code x-death}, is republished to the tail of the dead letter
+ * queue. Both are published on a confirm channel, and a batch is acked from the dead letter queue only after all its
+ * publishes are confirmed, else the batch is requeued. So a message is never lost, but may be replayed twice. The
+ * headers are kept, so the {@code x-death} history of a replayed message goes on if it dies again.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class DeadLetterQueueManager implements AutoCloseable {
+
+    private final Connection connection;
+
+    private final int batchSize;
+
+    private final Duration confirmTimeout;
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    /**
+     * Open a dedicated connection
+     *
+     * @param rabbitConnectionFactory e.g. {@code CachingConnectionFactory.getRabbitConnectionFactory()}
+     * @param batchSize               messages confirmed and acked together in replay, and the consumer prefetch
+     * @param confirmTimeout          to wait for the confirms of a batch
+     */
+    public static DeadLetterQueueManager open(ConnectionFactory rabbitConnectionFactory,
+                                              int batchSize,
+                                              Duration confirmTimeout) throws IOException, TimeoutException {
+
+        return new DeadLetterQueueManager(rabbitConnectionFactory.newConnection("dead-letter-queue-manager"),
+                batchSize, confirmTimeout);
+    }
+
+    DeadLetterQueueManager(Connection connection, int batchSize, Duration confirmTimeout) {
+
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be larger than 0");
+        }
+        this.connection = connection;
+        this.batchSize = batchSize;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    /**
+     * Count up to limit messages of the queue, of those in the queue now, without changing it
+     */
+    public Report analyze(String queue, int limit) throws IOException, InterruptedException {
+
+        Channel channel = connection.createChannel();
+        try {
+            Map<Death, Long> counts = new HashMap<>();
+            long total = 0;
+            long withoutDeath = 0;
+            int remaining = Math.min(limit, channel.queueDeclarePassive(queue).getMessageCount());
+            // prefetch is an unsigned short, beyond it the broker may push more, which are requeued as well
+            channel.basicQos(remaining <= 0xFFFF ? remaining : 0);
+            BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+            if (remaining > 0) {
+                channel.basicConsume(queue, false, (tag, delivery) -> deliveries.add(delivery), tag -> { });
+            }
+            while (total < remaining) {
+                Delivery delivery = deliveries.poll(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                if (null == delivery) {
+                    // consumed by another consumer
+                    break;
+                }
+                Death death = Death.of(messagePropertiesConverter.toMessageProperties(
+                        delivery.getProperties(), delivery.getEnvelope(), "UTF-8"));
+                if (null == death) {
+                    withoutDeath++;
+                } else {
+                    counts.merge(death, 1L, Long::sum);
+                }
+                total++;
+            }
+
+            Map<Death, Long> sortedCounts = new LinkedHashMap<>();
+            counts.entrySet().stream()
+                  .sorted(Map.Entry.<Death, Long>comparingByValue().reversed())
+                  .forEach(entry -> sortedCounts.put(entry.getKey(), entry.getValue()));
+            return new Report(total, withoutDeath, sortedCounts);
+        } finally {
+            // requeue all unacked, without a consumer to deliver them to again
+            close(channel);
+        }
+    }
+
+    /**
+     * Replay the messages matching the filter, of those in the queue now
+     *
+     * @param filter            e.g. by {@link Death#of(MessageProperties)}, or by the message body
+     * @param messagesPerSecond of the replayed messages
+     */
+    public ReplayResult replay(String queue, Predicate<Message> filter, double messagesPerSecond)
+            throws IOException, InterruptedException {
+
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("Messages per second must be positive");
+        }
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+        long replayed = 0;
+        long skipped = 0;
+        long failed = 0;
+
+        Channel consumeChannel = connection.createChannel();
+        Channel publishChannel = connection.createChannel();
+        try {
+            publishChannel.confirmSelect();
+            int remaining = consumeChannel.queueDeclarePassive(queue).getMessageCount();
+            consumeChannel.basicQos(batchSize);
+            BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+            String consumerTag = consumeChannel.basicConsume(queue, false,
+                    (tag, delivery) -> deliveries.add(delivery), tag -> { });
+
+            long nextNanos = System.nanoTime();
+            while (remaining > 0) {
+                Delivery first = deliveries.poll(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    // consumed by another consumer
+                    break;
+                }
+                List<Delivery> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                deliveries.drainTo(batch, Math.min(batchSize, remaining) - 1);
+
+                int replayedInBatch = 0;
+                for (Delivery delivery : batch) {
+                    MessageProperties messageProperties = messagePropertiesConverter.toMessageProperties(
+                            delivery.getProperties(), delivery.getEnvelope(), "UTF-8");
+                    Death death = Death.of(messageProperties);
+                    if (null != death && filter.test(new Message(delivery.getBody(), messageProperties))) {
+                        nextNanos = pace(nextNanos, intervalNanos);
+                        publishChannel.basicPublish(death.getExchange(), death.getRoutingKey(),
+                                delivery.getProperties(), delivery.getBody());
+                        replayedInBatch++;
+                    } else {
+                        publishChannel.basicPublish("", queue, delivery.getProperties(), delivery.getBody());
+                    }
+                }
+
+                long lastDeliveryTag = batch.get(batch.size() - 1).getEnvelope().getDeliveryTag();
+                if (waitForConfirms(publishChannel)) {
+                    consumeChannel.basicAck(lastDeliveryTag, true);
+                    replayed += replayedInBatch;
+                    skipped += batch.size() - replayedInBatch;
+                } else {
+                    consumeChannel.basicNack(lastDeliveryTag, true, true);
+                    failed += batch.size();
+                }
+                remaining -= batch.size();
+            }
+            consumeChannel.basicCancel(consumerTag);
+        } finally {
+            close(publishChannel);
+            close(consumeChannel);
+        }
+
+        ReplayResult result = new ReplayResult(replayed, skipped, failed);
+        log.info("Replay dead letter queue {}, {}", queue, result);
+        return result;
+    }
+
+    /**
+     * Sleep until the next publish time, and return the one after. A publish behind time, e.g. by a sleep longer than
+     * asked or the wait for confirms, catches up by at most a batch.
+     */
+    private long pace(long nextNanos, long intervalNanos) throws InterruptedException {
+
+        long now = System.nanoTime();
+        if (nextNanos > now) {
+            TimeUnit.NANOSECONDS.sleep(nextNanos - now);
+        }
+        return Math.max(nextNanos, now - intervalNanos * batchSize) + intervalNanos;
+    }
+
+    private boolean waitForConfirms(Channel channel) throws InterruptedException {
+
+        try {
+            return channel.waitForConfirms(confirmTimeout.toMillis());
+        } catch (TimeoutException e) {
+            log.warn("Replay batch is not confirmed in {}", confirmTimeout);
+            return false;
+        }
+    }
+
+    private static void close(Channel channel) {
+
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException | ShutdownSignalException e) {
+            log.warn("Fail to close channel cleanly", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        connection.abort();
+    }
+
+    /**
+     * The most recent death of a message
+     */
+    @Value
+    public static class Death {
+
+        String reason;
+
+        String queue;
+
+        String exchange;
+
+        String routingKey;
+
+        /**
+         * @return null if the message has no {@code x-death} header
+         */
+        public static Death of(MessageProperties messageProperties) {
+
+            List<Map<String, ?>> deaths = messageProperties.getXDeathHeader();
+            if (null == deaths || deaths.isEmpty()) {
+                return null;
+            }
+            Map<String, ?> death = deaths.get(0);
+            List<?> routingKeys = (List<?>) death.get("routing-keys");
+            return new Death(String.valueOf(death.get("reason")),
+                    String.valueOf(death.get("queue")),
+                    String.valueOf(death.get("exchange")),
+                    (null == routingKeys || routingKeys.isEmpty()) ? "" : String.valueOf(routingKeys.get(0)));
+        }
+    }
+
+    @Value
+    public static class Report {
+
+        long total;
+
+        long withoutDeath;
+
+        /**
+         * Most first
+         */
+        Map<Death, Long> counts;
+    }
+
+    @Value
+    public static class ReplayResult {
+
+        /**
+         * Republished to the original exchange
+         */
+        long replayed;
+
+        /**
+         * Not matching the filter, republished to the dead letter queue
+         */
+        long skipped;
+
+        /**
+         * Requeued because the publishes of the batch are not all confirmed
+         */
+        long failed;
+    }
+}
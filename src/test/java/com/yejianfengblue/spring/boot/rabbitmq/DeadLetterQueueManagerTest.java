@@ -0,0 +1,204 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.GetResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.ExchangeBuilder;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Need a RabbitMQ server on localhost:5672 with default user guest:guest, or run with
+ * {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+@Import(DeadLetterQueueConfig.class)
+class DeadLetterQueueManagerTest {
+
+    private static final String EXCHANGE_NAME = "spring-boot-study-rabbitmq-dlq-manager-test-exchange";
+
+    private static final String ORDER_QUEUE_NAME = "spring-boot-study-rabbitmq-dlq-manager-test-order-queue";
+
+    private static final String PAYMENT_QUEUE_NAME = "spring-boot-study-rabbitmq-dlq-manager-test-payment-queue";
+
+    private static final String DLQ_NAME = "spring-boot-study-rabbitmq-dlq-manager-test-queue.dlq";
+
+    private static final int ORDERS = 10_000;
+
+    private static final int PAYMENTS = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private DeadLetterQueueManager deadLetterQueueManager;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    private static Queue sourceQueue(String name, boolean dropAll) {
+
+        QueueBuilder builder = QueueBuilder.durable(name)
+                .deadLetterExchange("")  // use default exchange as dead letter exchange
+                .deadLetterRoutingKey(DLQ_NAME)
+                .expires(300_000);  // queue expires after 5min
+        if (dropAll) {
+            builder.maxLength(0);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Dead letter {@link #ORDERS} orders from the order queue by max length, and {@link #PAYMENTS} payments from the
+     * payment queue by reject, then, as after the incident, replace the source queues by recovered queues bound by the
+     * same routing keys
+     */
+    @BeforeEach
+    void deadLetterOrdersAndPayments() {
+
+        for (String queue : new String[]{ORDER_QUEUE_NAME, PAYMENT_QUEUE_NAME, DLQ_NAME,
+                                         ORDER_QUEUE_NAME + ".recovered", PAYMENT_QUEUE_NAME + ".recovered"}) {
+            amqpAdmin.deleteQueue(queue);
+        }
+        DirectExchange exchange = ExchangeBuilder.directExchange(EXCHANGE_NAME).autoDelete().build();
+        amqpAdmin.declareExchange(exchange);
+        amqpAdmin.declareQueue(QueueBuilder.durable(DLQ_NAME).expires(300_000).build());
+        Queue orderQueue = sourceQueue(ORDER_QUEUE_NAME, true);
+        Queue paymentQueue = sourceQueue(PAYMENT_QUEUE_NAME, false);
+        amqpAdmin.declareQueue(orderQueue);
+        amqpAdmin.declareQueue(paymentQueue);
+        amqpAdmin.declareBinding(BindingBuilder.bind(orderQueue).to(exchange).with("order"));
+        amqpAdmin.declareBinding(BindingBuilder.bind(paymentQueue).to(exchange).with("payment"));
+
+        for (int i = 0; i < ORDERS; i++) {
+            rabbitTemplate.convertAndSend(EXCHANGE_NAME, "order", "Order " + i);
+        }
+        for (int i = 0; i < PAYMENTS; i++) {
+            rabbitTemplate.convertAndSend(EXCHANGE_NAME, "payment", "Payment " + i);
+        }
+        rabbitTemplate.execute(channel -> {
+            for (int i = 0; i < PAYMENTS; i++) {
+                GetResponse response = null;
+                while (null == response) {
+                    response = channel.basicGet(PAYMENT_QUEUE_NAME, false);
+                }
+                channel.basicReject(response.getEnvelope().getDeliveryTag(), false);
+            }
+            return null;
+        });
+
+        Queue recoveredOrderQueue = QueueBuilder.durable(ORDER_QUEUE_NAME + ".recovered").expires(300_000).build();
+        Queue recoveredPaymentQueue = QueueBuilder.durable(PAYMENT_QUEUE_NAME + ".recovered").expires(300_000).build();
+        amqpAdmin.declareQueue(recoveredOrderQueue);
+        amqpAdmin.declareQueue(recoveredPaymentQueue);
+        amqpAdmin.declareBinding(BindingBuilder.bind(recoveredOrderQueue).to(exchange).with("order"));
+        amqpAdmin.declareBinding(BindingBuilder.bind(recoveredPaymentQueue).to(exchange).with("payment"));
+        amqpAdmin.deleteQueue(ORDER_QUEUE_NAME);
+        amqpAdmin.deleteQueue(PAYMENT_QUEUE_NAME);
+
+        awaitMessageCount(DLQ_NAME, ORDERS + PAYMENTS);
+    }
+
+    private int messageCount(String queue) {
+        return (int) amqpAdmin.getQueueProperties(queue).get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+    }
+
+    private void awaitMessageCount(String queue, int expected) {
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (messageCount(queue) != expected && System.nanoTime() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        assertThat(messageCount(queue)).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Given dead letters by max length and by reject, when analyze, " +
+                 "then counted by reason, queue and routing key, and the queue not changed")
+    void givenDeadLettersByMaxLengthAndReject_whenAnalyze_thenCountedAndQueueNotChanged() throws Exception {
+
+        long start = System.nanoTime();
+        DeadLetterQueueManager.Report report = deadLetterQueueManager.analyze(DLQ_NAME, Integer.MAX_VALUE);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        log.info("Analyze {} dead letters in {}ms, {}", report.getTotal(), millis, report);
+        assertThat(report.getTotal()).isEqualTo(ORDERS + PAYMENTS);
+        assertThat(report.getWithoutDeath()).isZero();
+        assertThat(report.getCounts()).containsExactly(
+                Map.entry(new DeadLetterQueueManager.Death("maxlen", ORDER_QUEUE_NAME, EXCHANGE_NAME, "order"),
+                        (long) ORDERS),
+                Map.entry(new DeadLetterQueueManager.Death("rejected", PAYMENT_QUEUE_NAME, EXCHANGE_NAME, "payment"),
+                        (long) PAYMENTS));
+        assertThat(messageCount(DLQ_NAME)).isEqualTo(ORDERS + PAYMENTS);
+
+        assertThat(deadLetterQueueManager.analyze(DLQ_NAME, 10).getTotal()).isEqualTo(10);
+        assertThat(messageCount(DLQ_NAME)).isEqualTo(ORDERS + PAYMENTS);
+    }
+
+    @Test
+    @DisplayName("Given dead letters, when replay rejected only, then payments to the original exchange " +
+                 "and orders kept in the dead letter queue")
+    void givenDeadLetters_whenReplayRejectedOnly_thenPaymentsReplayedAndOrdersKept() throws Exception {
+
+        DeadLetterQueueManager.ReplayResult result = deadLetterQueueManager.replay(DLQ_NAME,
+                message -> "rejected".equals(
+                        DeadLetterQueueManager.Death.of(message.getMessageProperties()).getReason()),
+                1_000);
+
+        assertThat(result).isEqualTo(new DeadLetterQueueManager.ReplayResult(PAYMENTS, ORDERS, 0));
+        assertThat(messageCount(PAYMENT_QUEUE_NAME + ".recovered")).isEqualTo(PAYMENTS);
+        assertThat(messageCount(ORDER_QUEUE_NAME + ".recovered")).isZero();
+        assertThat(deadLetterQueueManager.analyze(DLQ_NAME, Integer.MAX_VALUE).getCounts()).containsOnlyKeys(
+                new DeadLetterQueueManager.Death("maxlen", ORDER_QUEUE_NAME, EXCHANGE_NAME, "order"));
+        assertThat(messageCount(DLQ_NAME)).isEqualTo(ORDERS);
+    }
+
+    @Test
+    @DisplayName("Given dead letters, when replay all at 5000 per second, then all replayed at the rate limit")
+    void givenDeadLetters_whenReplayAllAtRateLimit_thenAllReplayedAtRateLimit() throws Exception {
+
+        double messagesPerSecond = 5_000;
+
+        long start = System.nanoTime();
+        DeadLetterQueueManager.ReplayResult result =
+                deadLetterQueueManager.replay(DLQ_NAME, message -> true, messagesPerSecond);
+        long nanos = System.nanoTime() - start;
+
+        double rate = (ORDERS + PAYMENTS) * 1e9 / nanos;
+        log.info("Replay {} dead letters in {}ms, {} messages per second",
+                result.getReplayed(), TimeUnit.NANOSECONDS.toMillis(nanos), Math.round(rate));
+        assertThat(result).isEqualTo(new DeadLetterQueueManager.ReplayResult(ORDERS + PAYMENTS, 0, 0));
+        assertThat(rate).isLessThan(messagesPerSecond * 1.05);
+        assertThat(messageCount(DLQ_NAME)).isZero();
+        assertThat(messageCount(ORDER_QUEUE_NAME + ".recovered")).isEqualTo(ORDERS);
+        assertThat(messageCount(PAYMENT_QUEUE_NAME + ".recovered")).isEqualTo(PAYMENTS);
+    }
+}
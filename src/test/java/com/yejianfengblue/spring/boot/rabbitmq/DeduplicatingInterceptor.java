@@ -0,0 +1,173 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.amqp.core.Message;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A listener container advice which skips a message whose message id was processed recently, so a redelivered or
+ * republished message is acked without calling the listener again.
+ * <p>
+ * A message id is recorded only after the listener returns, so a message whose listener throws is processed again
+ * when redelivered. The ids are kept in
+ * <ul>
+ *     <li>an exact LRU of the last {@code lruSize} ids, for the redeliveries which usually come soon</li>
+ *     <li>a {@link RotatingBloomFilter} of the last {@code expectedMessages} to {@code 2 * expectedMessages} ids, of
+ *     fixed size</li>
+ *     <li>optionally a {@link ProcessedMessageStore}, consulted only when the bloom filter says "maybe" but the LRU
+ *     doesn't have the id, and used to warm up the LRU and the bloom filter on start</li>
+ * </ul>
+ * So a new message costs a bloom filter miss, and a duplicate costs an LRU hit, both O(1) without allocation.
+ * Without a store, only the LRU decides a duplicate, a bloom filter hit which is not in the LRU is processed and
+ * counted as a probable duplicate, so a false positive never skips a new message.
+ * <p>
+ * A skipped duplicate is acked by the container, so the container must not use {@code AcknowledgeMode.MANUAL},
+ * see {@link DeduplicationConfig}.
+ * <p>
+ * Only a single message listener is deduplicated; a batch is passed through. Two copies consumed at the same time by
+ * concurrent consumers may both be processed, so consume a queue by one consumer, or shard it by the message key
+ * with {@link ShardedQueues}, if that matters.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class DeduplicatingInterceptor implements MethodInterceptor {
+
+    private final RotatingBloomFilter bloomFilter;
+
+    private final Map<String, Boolean> lru;
+
+    private final ProcessedMessageStore store;
+
+    private long duplicates;
+
+    private long probableDuplicates;
+
+    private long storeLookups;
+
+    private long processed;
+
+    /**
+     * @param expectedMessages         ids per bloom filter generation
+     * @param falsePositiveProbability of a bloom filter generation
+     * @param lruSize                  ids in the exact LRU
+     * @param store                    the persistent fallback, nullable
+     */
+    public DeduplicatingInterceptor(int expectedMessages, double falsePositiveProbability, int lruSize,
+                                    ProcessedMessageStore store) {
+
+        this.bloomFilter = new RotatingBloomFilter(expectedMessages, falsePositiveProbability);
+        this.lru = new LinkedHashMap<>(lruSize * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > lruSize;
+            }
+        };
+        this.store = store;
+        if (null != store) {
+            List<String> recent = store.findRecent(expectedMessages);
+            // oldest first, so the most recent stay in the LRU
+            for (int i = recent.size() - 1; i >= 0; i--) {
+                remember(recent.get(i));
+            }
+            log.info("Warm up {} processed message ids from {}", recent.size(), store.getClass().getSimpleName());
+        }
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+
+        // ContainerDelegate.invokeListener(Channel channel, Object data)
+        Object data = invocation.getArguments()[1];
+        if (!(data instanceof Message)) {
+            return invocation.proceed();
+        }
+        Message message = (Message) data;
+        String messageId = message.getMessageProperties().getMessageId();
+        if (null == messageId) {
+            return invocation.proceed();
+        }
+        if (isDuplicate(messageId)) {
+            log.debug("Skip duplicate message {}, redelivered = {}", messageId,
+                    message.getMessageProperties().isRedelivered());
+            return null;
+        }
+        Object result = invocation.proceed();
+        markProcessed(messageId);
+        return result;
+    }
+
+    public boolean isDuplicate(String messageId) {
+
+        synchronized (this) {
+            if (lru.containsKey(messageId)) {
+                duplicates++;
+                return true;
+            }
+            if (!bloomFilter.mightContain(RotatingBloomFilter.hash(messageId))) {
+                return false;
+            }
+            if (null == store) {
+                // maybe a false positive, and nothing to tell, so process it
+                probableDuplicates++;
+                return false;
+            }
+            storeLookups++;
+        }
+        boolean duplicate = store.contains(messageId);
+        if (duplicate) {
+            synchronized (this) {
+                duplicates++;
+            }
+        }
+        return duplicate;
+    }
+
+    public void markProcessed(String messageId) {
+
+        synchronized (this) {
+            remember(messageId);
+            processed++;
+        }
+        if (null != store) {
+            store.add(messageId);
+        }
+    }
+
+    private void remember(String messageId) {
+
+        lru.put(messageId, Boolean.TRUE);
+        bloomFilter.put(RotatingBloomFilter.hash(messageId));
+    }
+
+    /**
+     * @return duplicates found in the LRU or the store
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return bloom filter hits not in the LRU, without a store, which are processed as they may be false positives
+     */
+    public synchronized long getProbableDuplicates() {
+        return probableDuplicates;
+    }
+
+    public synchronized long getStoreLookups() {
+        return storeLookups;
+    }
+
+    public synchronized long getProcessed() {
+        return processed;
+    }
+
+    public long getBloomFilterSizeInBytes() {
+        return bloomFilter.getSizeInBytes();
+    }
+}
@@ -0,0 +1,68 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link DeduplicatingInterceptor} of a bloom filter of {@code rabbitmq.deduplication.expected-messages} ids per
+ * generation (default 1M) at {@code rabbitmq.deduplication.false-positive-probability} (default 1e-6), about 3.6MB
+ * per generation, and an LRU of {@code rabbitmq.deduplication.lru-size} ids (default 10k), with the
+ * {@link ProcessedMessageStore} bean as the persistent fallback if there is one.
+ * <p>
+ * And a listener container factory {@code deduplicatingRabbitListenerContainerFactory} for
+ * {@code @RabbitListener(containerFactory = "deduplicatingRabbitListenerContainerFactory")}, which runs the
+ * interceptor before the advice chain of Spring Boot, e.g. the retry interceptor, so a duplicate isn't retried.
+ * The factory rejects a listener of {@code AcknowledgeMode.MANUAL}, by the properties or by the
+ * {@code @RabbitListener(ackMode)}, because a skipped duplicate never reaches the listener to ack it.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class DeduplicationConfig {
+
+    @Bean
+    DeduplicatingInterceptor deduplicatingInterceptor(
+            @Value("${rabbitmq.deduplication.expected-messages:1000000}") int expectedMessages,
+            @Value("${rabbitmq.deduplication.false-positive-probability:1e-6}") double falsePositiveProbability,
+            @Value("${rabbitmq.deduplication.lru-size:10000}") int lruSize,
+            ObjectProvider<ProcessedMessageStore> store) {
+
+        return new DeduplicatingInterceptor(expectedMessages, falsePositiveProbability, lruSize,
+                store.getIfAvailable());
+    }
+
+    @Bean
+    SimpleRabbitListenerContainerFactory deduplicatingRabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            DeduplicatingInterceptor deduplicatingInterceptor) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        List<Advice> adviceChain = new ArrayList<>();
+        adviceChain.add(deduplicatingInterceptor);
+        if (null != factory.getAdviceChain()) {
+            adviceChain.addAll(Arrays.asList(factory.getAdviceChain()));
+        }
+        factory.setAdviceChain(adviceChain.toArray(new Advice[0]));
+        // applied after the ack mode of the endpoint
+        factory.setContainerCustomizer(container -> {
+            if (AcknowledgeMode.MANUAL == container.getAcknowledgeMode()) {
+                throw new IllegalStateException("Deduplicating listener container " + container.getListenerId() +
+                                                " can't use AcknowledgeMode.MANUAL, a skipped duplicate is not acked");
+            }
+        });
+        return factory;
+    }
+}
@@ -0,0 +1,243 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The filter and store tests don't need a broker, the store is on the H2 test database.
+ * The listener test needs a RabbitMQ server on localhost:5672 with default user guest:guest,
+ * or run with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "logging.level.org.springframework.amqp.rabbit.listener.ConditionalRejectingErrorHandler = ERROR"
+})
+@EntityScan(basePackageClasses = ProcessedMessage.class)
+@Import(DeduplicationConfig.class)
+class DeduplicationTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-deduplication-test-queue";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue orderQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+
+        @Bean
+        OrderReceiver orderReceiver() {
+            return new OrderReceiver();
+        }
+    }
+
+    /**
+     * Fail the first delivery of "order-7", so it's requeued
+     */
+    static class OrderReceiver {
+
+        static volatile CountDownLatch latch = new CountDownLatch(0);
+
+        static final Map<String, AtomicInteger> processed = new ConcurrentHashMap<>();
+
+        static final AtomicInteger failures = new AtomicInteger();
+
+        @RabbitListener(queues = QUEUE_NAME, containerFactory = "deduplicatingRabbitListenerContainerFactory")
+        void receive(Message message) {
+
+            String messageId = message.getMessageProperties().getMessageId();
+            if ("order-7".equals(messageId) && 0 == failures.getAndIncrement()) {
+                throw new IllegalStateException("Fail the first delivery of " + messageId);
+            }
+            processed.computeIfAbsent(messageId, id -> new AtomicInteger()).incrementAndGet();
+            latch.countDown();
+        }
+    }
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private DeduplicatingInterceptor deduplicatingInterceptor;
+
+    @Autowired
+    private SimpleRabbitListenerContainerFactory deduplicatingRabbitListenerContainerFactory;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    @DisplayName("Given bloom filter of 1M per generation, when put 5M keys, then same size, recent 1M all found " +
+                 "and false positive rate about the configured")
+    void givenBloomFilterOf1M_whenPut5MKeys_thenSameSizeRecentFoundAndFalsePositiveAsConfigured() {
+
+        RotatingBloomFilter bloomFilter = new RotatingBloomFilter(1_000_000, 1e-3);
+        long size = bloomFilter.getSizeInBytes();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5_000_000; i++) {
+            bloomFilter.put(RotatingBloomFilter.hash("message-" + i));
+        }
+        long nanosPerPut = (System.nanoTime() - start) / 5_000_000;
+
+        for (int i = 4_000_000; i < 5_000_000; i++) {
+            assertThat(bloomFilter.mightContain(RotatingBloomFilter.hash("message-" + i))).isTrue();
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            if (bloomFilter.mightContain(RotatingBloomFilter.hash("new-message-" + i))) {
+                falsePositives++;
+            }
+        }
+
+        log.info("Bloom filter of {} bytes, {} hashes, {}ns per put, {} false positives in 1M",
+                size, bloomFilter.getHashCount(), nanosPerPut, falsePositives);
+        assertThat(bloomFilter.getSizeInBytes()).isEqualTo(size);
+        // two generations, each at most 1e-3
+        assertThat(falsePositives).isLessThan(3_000);
+    }
+
+    @Test
+    @DisplayName("Given interceptor without store, when check 2M unique ids and then recent ones, " +
+                 "then unique processed, recent in LRU skipped in O(1) and older only counted as probable")
+    void givenInterceptorWithoutStore_whenCheck2MUniqueIdsAndRecent_thenUniqueProcessedAndRecentSkipped() {
+
+        DeduplicatingInterceptor interceptor = new DeduplicatingInterceptor(1_000_000, 1e-6, 10_000, null);
+        int messageCount = 2_000_000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            String messageId = "message-" + i;
+            if (!interceptor.isDuplicate(messageId)) {
+                interceptor.markProcessed(messageId);
+            }
+        }
+        long nanosPerMessage = (System.nanoTime() - start) / messageCount;
+
+        // redeliveries of the last 10k are in the LRU, older ones only in the bloom filter, which may be wrong
+        for (int i = messageCount - 20_000; i < messageCount; i++) {
+            assertThat(interceptor.isDuplicate("message-" + i)).isEqualTo(i >= messageCount - 10_000);
+        }
+
+        log.info("{} unique messages at {}ns per message, bloom filter {} bytes, {} probable duplicates",
+                messageCount, nanosPerMessage, interceptor.getBloomFilterSizeInBytes(),
+                interceptor.getProbableDuplicates());
+        assertThat(interceptor.getDuplicates()).isEqualTo(10_000);
+        // the other 10k, plus false positives of the unique ids at about 2e-6
+        assertThat(interceptor.getProbableDuplicates()).isBetween(10_000L, 10_020L);
+        // no unique id is skipped by a false positive
+        assertThat(interceptor.getProcessed()).isEqualTo(messageCount);
+    }
+
+    @Test
+    @DisplayName("Given JPA store, when restart and check processed and new ids, " +
+                 "then processed are duplicates and bloom filter false positives resolved by the store")
+    void givenJpaStore_whenRestartAndCheck_thenProcessedDuplicatesAndFalsePositivesResolved() {
+
+        JpaProcessedMessageStore store = new JpaProcessedMessageStore(entityManager, transactionTemplate);
+        DeduplicatingInterceptor before = new DeduplicatingInterceptor(1_000, 1e-6, 100, store);
+        for (int i = 0; i < 100; i++) {
+            before.markProcessed("jpa-message-" + i);
+        }
+
+        // a tiny LRU and a bloom filter of 50% false positives after restart, so the store decides
+        DeduplicatingInterceptor after = new DeduplicatingInterceptor(100, 0.5, 1, store);
+        for (int i = 0; i < 100; i++) {
+            assertThat(after.isDuplicate("jpa-message-" + i)).isTrue();
+        }
+        int newMessages = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!after.isDuplicate("jpa-new-message-" + i)) {
+                newMessages++;
+            }
+        }
+
+        assertThat(newMessages).isEqualTo(100);
+        assertThat(after.getProbableDuplicates()).isZero();
+        assertThat(after.getStoreLookups()).isPositive().isLessThan(200);
+    }
+
+    @Test
+    @DisplayName("Given 100 orders published twice and the first delivery of one fails, " +
+                 "when consume, then each order processed once and the copies skipped")
+    void given100OrdersPublishedTwice_whenConsume_thenEachProcessedOnce() throws InterruptedException {
+
+        OrderReceiver.processed.clear();
+        OrderReceiver.failures.set(0);
+        OrderReceiver.latch = new CountDownLatch(100);
+        long duplicatesBefore = deduplicatingInterceptor.getDuplicates();
+
+        for (int copy = 0; copy < 2; copy++) {
+            for (int i = 0; i < 100; i++) {
+                String messageId = "order-" + i;
+                rabbitTemplate.convertAndSend("", QUEUE_NAME, "Order " + i, message -> {
+                    message.getMessageProperties().setMessageId(messageId);
+                    return message;
+                });
+            }
+        }
+
+        assertThat(OrderReceiver.latch.await(30, TimeUnit.SECONDS)).isTrue();
+        // wait for the copies to be skipped
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (deduplicatingInterceptor.getDuplicates() - duplicatesBefore < 100 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+
+        assertThat(OrderReceiver.processed).hasSize(100);
+        assertThat(OrderReceiver.processed.values()).allMatch(count -> 1 == count.get());
+        assertThat(OrderReceiver.failures.get()).isEqualTo(2);
+        assertThat(deduplicatingInterceptor.getDuplicates() - duplicatesBefore).isEqualTo(100);
+    }
+
+    @Test
+    @DisplayName("When create a MANUAL ack listener container by the deduplicating factory, then rejected")
+    void whenCreateManualAckContainerByDeduplicatingFactory_thenRejected() {
+
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setId("manual-ack-deduplicating-listener");
+        endpoint.setQueueNames(QUEUE_NAME);
+        endpoint.setMessageListener(message -> {});
+        endpoint.setAckMode(AcknowledgeMode.MANUAL);
+
+        assertThatThrownBy(() -> deduplicatingRabbitListenerContainerFactory.createListenerContainer(endpoint))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("AcknowledgeMode.MANUAL");
+    }
+}
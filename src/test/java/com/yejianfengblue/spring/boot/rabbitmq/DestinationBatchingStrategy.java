@@ -0,0 +1,91 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.batch.BatchingStrategy;
+import org.springframework.amqp.rabbit.batch.MessageBatch;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A {@link BatchingStrategy} which keeps one {@link SimpleBatchingStrategy} batch per exchange and routing key.
+ * <p>
+ * {@link SimpleBatchingStrategy} has only one batch, and rejects a message to another exchange or routing key with
+ * {@code IllegalArgumentException} while the batch is not released, so a template can't interleave destinations.
+ * Here a batch is released when its count or size limit is reached, and all the batches are released when the
+ * earliest one times out. The batch format is the same as {@link SimpleBatchingStrategy}, so any listener container
+ * can de-batch it.
+ * <p>
+ * Not thread-safe, {@code BatchingRabbitTemplate} serializes the calls.
+ *
+ * @author yejianfengblue
+ */
+public class DestinationBatchingStrategy implements BatchingStrategy {
+
+    private final int batchSize;
+
+    private final int bufferLimit;
+
+    private final long timeout;
+
+    private final Map<String, SimpleBatchingStrategy> batches = new LinkedHashMap<>();
+
+    private final SimpleBatchingStrategy deBatcher = new SimpleBatchingStrategy(0, 0, 0L);
+
+    /**
+     * @param batchSize   max number of messages in a batch
+     * @param bufferLimit max bytes of a batch
+     * @param timeout     max milliseconds a message waits in a batch
+     */
+    public DestinationBatchingStrategy(int batchSize, int bufferLimit, long timeout) {
+
+        this.batchSize = batchSize;
+        this.bufferLimit = bufferLimit;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public MessageBatch addToBatch(String exchange, String routingKey, Message message) {
+
+        return batches.computeIfAbsent(exchange + '\u0000' + routingKey,
+                destination -> new SimpleBatchingStrategy(batchSize, bufferLimit, timeout))
+                      .addToBatch(exchange, routingKey, message);
+    }
+
+    @Override
+    public Date nextRelease() {
+
+        Date nextRelease = null;
+        for (SimpleBatchingStrategy batch : batches.values()) {
+            Date batchRelease = batch.nextRelease();
+            if (null != batchRelease && (null == nextRelease || batchRelease.before(nextRelease))) {
+                nextRelease = batchRelease;
+            }
+        }
+        return nextRelease;
+    }
+
+    @Override
+    public Collection<MessageBatch> releaseBatches() {
+
+        List<MessageBatch> released = new ArrayList<>();
+        for (SimpleBatchingStrategy batch : batches.values()) {
+            released.addAll(batch.releaseBatches());
+        }
+        // the destinations are created again on demand, so an idle destination doesn't stay
+        batches.clear();
+        return released;
+    }
+
+    @Override
+    public boolean canDebatch(MessageProperties properties) {
+        return deBatcher.canDebatch(properties);
+    }
+
+    @Override
+    public void deBatch(Message message, Consumer<Message> fragmentConsumer) {
+        deBatcher.deBatch(message, fragmentConsumer);
+    }
+}
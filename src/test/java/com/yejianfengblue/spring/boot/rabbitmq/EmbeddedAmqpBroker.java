@@ -0,0 +1,1141 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.AMQImpl;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process AMQP 0-9-1 broker, a stand-in for RabbitMQ in tests and benchmarks which can't reach a real server.
+ * <p>
+ * It listens on a loopback TCP port and speaks the wire protocol with the frame and method codec of the RabbitMQ
+ * Java client, so the application code, Spring AMQP and the client library all run unchanged, only the host and
+ * port differ. One virtual host "/" is supported, and any username and password are accepted.
+ * <p>
+ * Supported:
+ * <ul>
+ *     <li>the default exchange, direct, topic and fanout exchanges, and the predeclared amq.direct, amq.topic and
+ *     amq.fanout</li>
+ *     <li>durable, exclusive, auto-delete and server-named queues, queue expiry (x-expires), and x-max-length with
+ *     drop-head</li>
+ *     <li>per-queue (x-message-ttl) and per-message (expiration) TTL, expired at the head of the queue as RabbitMQ
+ *     does</li>
+ *     <li>dead lettering (x-dead-letter-exchange, x-dead-letter-routing-key) on reject, expiry and max length, with
+ *     the x-death header</li>
+ *     <li>publisher confirms, mandatory returns, consumer prefetch, ack, nack, reject, recover, basic.get, and
+ *     requeue of unacked messages when a channel closes</li>
+ *     <li>direct reply-to, a no-ack consumer of the pseudo queue amq.rabbitmq.reply-to, whose channel's
+ *     publishes have the reply-to property rewritten to its address</li>
+ * </ul>
+ * Not supported: transactions, exchange to exchange bindings, headers exchanges, priorities, persistence and
+ * flow control. Nothing survives {@link #close()}.
+ * <p>
+ * All state is guarded by the broker monitor, which keeps the semantics simple and the ordering strict, at the
+ * cost of scaling to a single core. Benchmarks on it compare client code, they don't predict RabbitMQ numbers.
+ * <p>
+ * The frames of a delivery, a confirm or a return are written to the socket under the broker monitor as well, so a
+ * client which stops reading stalls the whole broker once its socket buffer is full. The heartbeats are written on
+ * the one timer thread which also expires queues and messages, so a heartbeat blocked on such a socket delays those
+ * too. The RabbitMQ Java client always reads on its own thread, so this is fine for tests, but not for slow or
+ * untrusted clients.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class EmbeddedAmqpBroker implements Closeable {
+
+    static final String VHOST = "/";
+
+    static final String DIRECT_REPLY_TO = "amq.rabbitmq.reply-to";
+
+    private static EmbeddedAmqpBroker shared;
+
+    private final ServerSocket serverSocket;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final Set<EmbeddedAmqpConnection> connections = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final Map<String, Exchange> exchanges = new HashMap<>();
+
+    private final Map<String, MessageQueue> queues = new HashMap<>();
+
+    /**
+     * The pseudo queue of direct reply-to, which holds no message
+     */
+    private final MessageQueue directReplyTo = new MessageQueue(DIRECT_REPLY_TO, false, false, null, Map.of());
+
+    /**
+     * The direct reply-to consumers by reply-to address
+     */
+    private final Map<String, QueueConsumer> replyConsumers = new HashMap<>();
+
+    private volatile boolean closed;
+
+    private EmbeddedAmqpBroker(ServerSocket serverSocket) {
+
+        this.serverSocket = serverSocket;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "embedded-amqp-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        for (String name : List.of("", "amq.direct")) {
+            exchanges.put(name, new Exchange(name, "direct", true, false, Map.of()));
+        }
+        exchanges.put("amq.topic", new Exchange("amq.topic", "topic", true, false, Map.of()));
+        exchanges.put("amq.fanout", new Exchange("amq.fanout", "fanout", true, false, Map.of()));
+    }
+
+    /**
+     * Start a broker on the loopback address
+     *
+     * @param port 0 for an ephemeral port, see {@link #getPort()}
+     */
+    public static EmbeddedAmqpBroker start(int port) throws IOException {
+
+        EmbeddedAmqpBroker broker =
+                new EmbeddedAmqpBroker(new ServerSocket(port, 50, InetAddress.getLoopbackAddress()));
+        Thread acceptor = new Thread(broker::accept, "embedded-amqp-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Embedded AMQP broker listening on {}", broker.serverSocket.getLocalSocketAddress());
+        return broker;
+    }
+
+    /**
+     * The broker shared by all application contexts of this JVM, started on an ephemeral port on first use and never
+     * closed, like a real broker outlives the cached test contexts which connect to it.
+     */
+    public static synchronized EmbeddedAmqpBroker shared() {
+
+        if (null == shared) {
+            try {
+                shared = start(0);
+            } catch (IOException e) {
+                throw new IllegalStateException("Fail to start embedded AMQP broker", e);
+            }
+        }
+        return shared;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized Set<String> getQueueNames() {
+        return new TreeSet<>(queues.keySet());
+    }
+
+    /**
+     * @return the number of ready messages, excluding the unacked ones, or -1 if the queue doesn't exist
+     */
+    public synchronized int getMessageCount(String queueName) {
+
+        MessageQueue queue = queues.get(queueName);
+        return (null != queue) ? queue.messages.size() : -1;
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.warn("Fail to close server socket", e);
+        }
+        connections.forEach(EmbeddedAmqpConnection::close);
+        timer.shutdownNow();
+    }
+
+    private void accept() {
+
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                EmbeddedAmqpConnection connection = new EmbeddedAmqpConnection(this, socket,
+                        "embedded-amqp-connection-" + connectionCount.incrementAndGet());
+                connections.add(connection);
+                Thread thread = new Thread(connection, connection.getName());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Fail to accept connection", e);
+                }
+            }
+        }
+    }
+
+    ScheduledThreadPoolExecutor getTimer() {
+        return timer;
+    }
+
+    /**
+     * Called by a connection when its socket is gone, to release its channels and exclusive queues
+     */
+    synchronized void release(EmbeddedAmqpConnection connection) {
+
+        connections.remove(connection);
+        for (EmbeddedAmqpConnection.ServerChannel channel : connection.getChannels()) {
+            release(channel);
+        }
+        List<MessageQueue> exclusiveQueues = new ArrayList<>();
+        for (MessageQueue queue : queues.values()) {
+            if (queue.owner == connection) {
+                exclusiveQueues.add(queue);
+            }
+        }
+        exclusiveQueues.forEach(this::delete);
+    }
+
+    /**
+     * Cancel the consumers of a closed channel and requeue its unacked messages
+     */
+    synchronized void release(EmbeddedAmqpConnection.ServerChannel channel) {
+
+        for (QueueConsumer consumer : new ArrayList<>(channel.consumers.values())) {
+            cancel(consumer);
+        }
+        channel.consumers.clear();
+        List<Unacked> unacked = new ArrayList<>(channel.unacked.values());
+        channel.unacked.clear();
+        requeue(unacked);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // exchanges and queues
+
+    synchronized void declareExchange(AMQP.Exchange.Declare declare) {
+
+        String name = declare.getExchange();
+        Exchange exchange = exchanges.get(name);
+        if (declare.getPassive()) {
+            if (null == exchange) {
+                throw notFound("exchange", name);
+            }
+            return;
+        }
+        if (null == exchange) {
+            if (!List.of("direct", "topic", "fanout").contains(declare.getType())) {
+                throw new ChannelError(503, "COMMAND_INVALID - unknown exchange type '" + declare.getType() + "'");
+            }
+            if (name.startsWith("amq.")) {
+                throw new ChannelError(403, "ACCESS_REFUSED - exchange name '" + name + "' contains reserved prefix "
+                                            + "'amq.*'");
+            }
+            exchanges.put(name, new Exchange(name, declare.getType(), declare.getDurable(), declare.getAutoDelete(),
+                    declare.getArguments()));
+            return;
+        }
+        checkEquivalent("exchange", name, "type", declare.getType(), exchange.type);
+        checkEquivalent("exchange", name, "durable", declare.getDurable(), exchange.durable);
+        checkEquivalent("exchange", name, "auto_delete", declare.getAutoDelete(), exchange.autoDelete);
+    }
+
+    synchronized void deleteExchange(String name, boolean ifUnused) {
+
+        Exchange exchange = exchanges.get(name);
+        if (null == exchange) {
+            return;
+        }
+        if (name.isEmpty() || name.startsWith("amq.")) {
+            throw new ChannelError(403, "ACCESS_REFUSED - operation not permitted on " + describe("exchange", name));
+        }
+        if (ifUnused && !exchange.bindings.isEmpty()) {
+            throw new ChannelError(406, "PRECONDITION_FAILED - " + describe("exchange", name) + " in use");
+        }
+        exchanges.remove(name);
+    }
+
+    /**
+     * @return the declared queue, which has a generated name if the declared name is empty
+     */
+    synchronized MessageQueue declareQueue(EmbeddedAmqpConnection connection, AMQP.Queue.Declare declare) {
+
+        String name = declare.getQueue();
+        MessageQueue queue = queues.get(name);
+        if (declare.getPassive()) {
+            if (DIRECT_REPLY_TO.equals(name)) {
+                return directReplyTo;
+            }
+            if (null == queue) {
+                throw notFound("queue", name);
+            }
+            checkExclusive(connection, queue);
+            return queue;
+        }
+        if (null == queue) {
+            if (name.isEmpty()) {
+                name = "amq.gen-" + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+            } else if (name.startsWith("amq.")) {
+                throw new ChannelError(403, "ACCESS_REFUSED - queue name '" + name + "' contains reserved prefix "
+                                            + "'amq.*'");
+            }
+            queue = new MessageQueue(name, declare.getDurable(), declare.getAutoDelete(),
+                    declare.getExclusive() ? connection : null, declare.getArguments());
+            queues.put(name, queue);
+            touch(queue);
+            return queue;
+        }
+        checkExclusive(connection, queue);
+        checkEquivalent("queue", name, "durable", declare.getDurable(), queue.durable);
+        checkEquivalent("queue", name, "auto_delete", declare.getAutoDelete(), queue.autoDelete);
+        Set<String> argumentNames = new TreeSet<>(queue.arguments.keySet());
+        argumentNames.addAll(declare.getArguments().keySet());
+        for (String argumentName : argumentNames) {
+            checkEquivalent("queue", name, argumentName, declare.getArguments().get(argumentName),
+                    queue.arguments.get(argumentName));
+        }
+        touch(queue);
+        return queue;
+    }
+
+    synchronized int purgeQueue(EmbeddedAmqpConnection connection, String name) {
+
+        MessageQueue queue = existingQueue(connection, name);
+        int count = queue.messages.size();
+        queue.messages.clear();
+        return count;
+    }
+
+    synchronized int deleteQueue(EmbeddedAmqpConnection connection, String name, boolean ifUnused, boolean ifEmpty) {
+
+        MessageQueue queue = queues.get(name);
+        if (null == queue) {
+            return 0;
+        }
+        checkExclusive(connection, queue);
+        if (ifUnused && !queue.consumers.isEmpty()) {
+            throw new ChannelError(406, "PRECONDITION_FAILED - " + describe("queue", name) + " in use");
+        }
+        if (ifEmpty && !queue.messages.isEmpty()) {
+            throw new ChannelError(406, "PRECONDITION_FAILED - " + describe("queue", name) + " not empty");
+        }
+        int count = queue.messages.size();
+        delete(queue);
+        return count;
+    }
+
+    synchronized void bindQueue(EmbeddedAmqpConnection connection, String queueName, String exchangeName,
+                                String routingKey, Map<String, Object> arguments) {
+
+        MessageQueue queue = existingQueue(connection, queueName);
+        Exchange exchange = exchanges.get(exchangeName);
+        if (null == exchange) {
+            throw notFound("exchange", exchangeName);
+        }
+        if (exchangeName.isEmpty()) {
+            throw new ChannelError(403, "ACCESS_REFUSED - operation not permitted on the default exchange");
+        }
+        Binding binding = new Binding(queue, routingKey, arguments);
+        if (!exchange.bindings.contains(binding)) {
+            exchange.bindings.add(binding);
+        }
+    }
+
+    synchronized void unbindQueue(EmbeddedAmqpConnection connection, String queueName, String exchangeName,
+                                  String routingKey) {
+
+        MessageQueue queue = existingQueue(connection, queueName);
+        Exchange exchange = exchanges.get(exchangeName);
+        if (null == exchange) {
+            throw notFound("exchange", exchangeName);
+        }
+        exchange.bindings.removeIf(binding -> binding.queue == queue && binding.routingKey.equals(routingKey));
+        autoDelete(exchange);
+    }
+
+    private MessageQueue existingQueue(EmbeddedAmqpConnection connection, String name) {
+
+        MessageQueue queue = queues.get(name);
+        if (null == queue) {
+            throw notFound("queue", name);
+        }
+        checkExclusive(connection, queue);
+        return queue;
+    }
+
+    private void delete(MessageQueue queue) {
+
+        queues.remove(queue.name);
+        queue.messages.clear();
+        for (QueueConsumer consumer : new ArrayList<>(queue.consumers)) {
+            queue.consumers.remove(consumer);
+            consumer.channel.consumers.remove(consumer.tag);
+            consumer.channel.send(new AMQImpl.Basic.Cancel(consumer.tag, true));
+        }
+        for (Exchange exchange : new ArrayList<>(exchanges.values())) {
+            if (exchange.bindings.removeIf(binding -> binding.queue == queue)) {
+                autoDelete(exchange);
+            }
+        }
+        log.debug("Deleted queue '{}'", queue.name);
+    }
+
+    private void autoDelete(Exchange exchange) {
+
+        if (exchange.autoDelete && exchange.bindings.isEmpty()) {
+            exchanges.remove(exchange.name);
+        }
+    }
+
+    /**
+     * Restart the x-expires countdown of the queue
+     */
+    private void touch(MessageQueue queue) {
+
+        queue.lastUsed = System.currentTimeMillis();
+        if (queue.expires > 0 && !queue.expiryScheduled) {
+            queue.expiryScheduled = true;
+            timer.schedule(() -> expireQueue(queue), queue.expires, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void expireQueue(MessageQueue queue) {
+
+        queue.expiryScheduled = false;
+        if (queues.get(queue.name) != queue) {
+            return;
+        }
+        long unusedFor = System.currentTimeMillis() - queue.lastUsed;
+        if (queue.consumers.isEmpty() && unusedFor >= queue.expires) {
+            delete(queue);
+        } else {
+            queue.expiryScheduled = true;
+            timer.schedule(() -> expireQueue(queue), Math.max(1, queue.expires - unusedFor), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void checkExclusive(EmbeddedAmqpConnection connection, MessageQueue queue) {
+
+        if (null != queue.owner && queue.owner != connection) {
+            throw new ChannelError(405, "RESOURCE_LOCKED - cannot obtain exclusive access to locked "
+                                        + describe("queue", queue.name));
+        }
+    }
+
+    private static void checkEquivalent(String kind, String name, String argumentName, Object received,
+                                        Object current) {
+
+        if (!Objects.equals(String.valueOf(received), String.valueOf(current))) {
+            throw new ChannelError(406, "PRECONDITION_FAILED - inequivalent arg '" + argumentName + "' for "
+                                        + describe(kind, name) + ": received '" + received + "' but current is '"
+                                        + current + "'");
+        }
+    }
+
+    private static ChannelError notFound(String kind, String name) {
+        return new ChannelError(404, "NOT_FOUND - no " + describe(kind, name));
+    }
+
+    private static String describe(String kind, String name) {
+        return kind + " '" + name + "' in vhost '" + VHOST + "'";
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // publish and route
+
+    /**
+     * Route and enqueue a message, return it if mandatory and unroutable, and confirm it if the channel is in
+     * confirm mode
+     */
+    synchronized void publish(EmbeddedAmqpConnection.ServerChannel channel, String exchangeName, String routingKey,
+                              boolean mandatory, AMQP.BasicProperties properties, byte[] body) {
+
+        Exchange exchange = exchanges.get(exchangeName);
+        if (null == exchange) {
+            throw notFound("exchange", exchangeName);
+        }
+        if (null != properties && DIRECT_REPLY_TO.equals(properties.getReplyTo())) {
+            QueueConsumer replyConsumer = channel.consumers.values().stream()
+                                                 .filter(consumer -> null != consumer.replyTo)
+                                                 .findFirst()
+                                                 .orElseThrow(() -> new ChannelError(406,
+                                                         "PRECONDITION_FAILED - fast reply consumer does not exist"));
+            properties = properties.builder().replyTo(replyConsumer.replyTo).build();
+        }
+        if (exchange.name.isEmpty() && routingKey.startsWith(DIRECT_REPLY_TO + ".")) {
+            reply(channel, routingKey, mandatory, properties, body);
+            return;
+        }
+        Set<MessageQueue> destinations = route(exchange, routingKey);
+        if (destinations.isEmpty() && mandatory) {
+            channel.send(new AMQImpl.Basic.Return(312, "NO_ROUTE", exchangeName, routingKey), properties, body);
+        }
+        long now = System.currentTimeMillis();
+        for (MessageQueue queue : destinations) {
+            enqueue(queue, new Message(exchangeName, routingKey, properties, body), now);
+        }
+        if (channel.confirm) {
+            channel.send(new AMQImpl.Basic.Ack(++channel.publishSequence, false));
+        }
+    }
+
+    /**
+     * Deliver a reply straight to the direct reply-to consumer of the address, or drop it if the consumer is gone
+     */
+    private void reply(EmbeddedAmqpConnection.ServerChannel channel, String replyTo, boolean mandatory,
+                       AMQP.BasicProperties properties, byte[] body) {
+
+        QueueConsumer replyConsumer = replyConsumers.get(replyTo);
+        if (null != replyConsumer && !replyConsumer.channel.closing) {
+            EmbeddedAmqpConnection.ServerChannel replyChannel = replyConsumer.channel;
+            replyChannel.send(new AMQImpl.Basic.Deliver(replyConsumer.tag, ++replyChannel.deliveryTag, false, "",
+                    replyTo), properties, body);
+        } else if (mandatory) {
+            channel.send(new AMQImpl.Basic.Return(312, "NO_ROUTE", "", replyTo), properties, body);
+        }
+        if (channel.confirm) {
+            channel.send(new AMQImpl.Basic.Ack(++channel.publishSequence, false));
+        }
+    }
+
+    private Set<MessageQueue> route(Exchange exchange, String routingKey) {
+
+        if (exchange.name.isEmpty()) {
+            MessageQueue queue = queues.get(routingKey);
+            return (null != queue) ? Set.of(queue) : Set.of();
+        }
+        Set<MessageQueue> destinations = new LinkedHashSet<>();
+        for (Binding binding : exchange.bindings) {
+            boolean matches;
+            switch (exchange.type) {
+                case "fanout":
+                    matches = true;
+                    break;
+                case "topic":
+                    matches = topicMatches(binding.routingKey, routingKey);
+                    break;
+                default:
+                    matches = binding.routingKey.equals(routingKey);
+            }
+            if (matches) {
+                destinations.add(binding.queue);
+            }
+        }
+        return destinations;
+    }
+
+    /**
+     * AMQP topic matching, where "*" matches exactly one word and "#" matches zero or more words
+     */
+    static boolean topicMatches(String pattern, String routingKey) {
+        return topicMatches(pattern.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+    }
+
+    private static boolean topicMatches(String[] pattern, int patternIndex, String[] words, int wordIndex) {
+
+        if (patternIndex == pattern.length) {
+            return wordIndex == words.length;
+        }
+        if ("#".equals(pattern[patternIndex])) {
+            return topicMatches(pattern, patternIndex + 1, words, wordIndex)
+                   || (wordIndex < words.length && topicMatches(pattern, patternIndex, words, wordIndex + 1));
+        }
+        if (wordIndex == words.length) {
+            return false;
+        }
+        return ("*".equals(pattern[patternIndex]) || pattern[patternIndex].equals(words[wordIndex]))
+               && topicMatches(pattern, patternIndex + 1, words, wordIndex + 1);
+    }
+
+    private void enqueue(MessageQueue queue, Message message, long now) {
+
+        long ttl = queue.messageTtl;
+        String expiration = message.properties.getExpiration();
+        if (null != expiration) {
+            try {
+                long messageTtl = Long.parseLong(expiration);
+                ttl = (ttl < 0) ? messageTtl : Math.min(ttl, messageTtl);
+            } catch (NumberFormatException e) {
+                log.warn("Ignore invalid expiration '{}'", expiration);
+            }
+        }
+        message.expiresAt = (ttl < 0) ? Long.MAX_VALUE : now + ttl;
+        if (queue.maxLength >= 0 && queue.messages.size() >= queue.maxLength) {
+            Message dropped = queue.messages.pollFirst();
+            if (null != dropped) {
+                deadLetter(queue, dropped, "maxlen", now);
+            }
+        }
+        if (0 == queue.maxLength) {
+            deadLetter(queue, message, "maxlen", now);
+            return;
+        }
+        queue.messages.addLast(message);
+        dispatch(queue);
+    }
+
+    private void scheduleSweep(MessageQueue queue, long at) {
+
+        if (queue.sweepAt > 0 && queue.sweepAt <= at) {
+            return;
+        }
+        queue.sweepAt = at;
+        timer.schedule(() -> sweep(queue, at), Math.max(0, at + 1 - System.currentTimeMillis()),
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sweep(MessageQueue queue, long at) {
+
+        if (queue.sweepAt != at || queues.get(queue.name) != queue) {
+            return;
+        }
+        queue.sweepAt = 0;
+        dispatch(queue);
+    }
+
+    /**
+     * Dead letter the expired messages at the head, then deliver to the ready consumers in round-robin
+     */
+    private void dispatch(MessageQueue queue) {
+
+        long now = System.currentTimeMillis();
+        while (!queue.messages.isEmpty()) {
+            Message head = queue.messages.peekFirst();
+            if (now > head.expiresAt) {
+                queue.messages.pollFirst();
+                deadLetter(queue, head, "expired", now);
+                continue;
+            }
+            QueueConsumer consumer = queue.nextReadyConsumer();
+            if (null == consumer) {
+                break;
+            }
+            queue.messages.pollFirst();
+            deliver(consumer, queue, head);
+        }
+        Message head = queue.messages.peekFirst();
+        if (null != head && head.expiresAt != Long.MAX_VALUE) {
+            scheduleSweep(queue, head.expiresAt);
+        }
+    }
+
+    private void deliver(QueueConsumer consumer, MessageQueue queue, Message message) {
+
+        EmbeddedAmqpConnection.ServerChannel channel = consumer.channel;
+        long deliveryTag = ++channel.deliveryTag;
+        if (!consumer.noAck) {
+            channel.unacked.put(deliveryTag, new Unacked(deliveryTag, queue, message, consumer));
+            consumer.unacked++;
+        }
+        channel.send(new AMQImpl.Basic.Deliver(consumer.tag, deliveryTag, message.redelivered, message.exchange,
+                message.routingKey), message.properties, message.body);
+    }
+
+    /**
+     * Republish to the dead letter exchange of the queue with the x-death header, or drop if the queue has no dead
+     * letter exchange or the exchange doesn't exist
+     */
+    @SuppressWarnings("unchecked")
+    private void deadLetter(MessageQueue queue, Message message, String reason, long now) {
+
+        if (null == queue.deadLetterExchange) {
+            return;
+        }
+        Exchange exchange = exchanges.get(queue.deadLetterExchange);
+        if (null == exchange) {
+            log.debug("Drop dead letter from queue '{}', dead letter exchange '{}' doesn't exist",
+                    queue.name, queue.deadLetterExchange);
+            return;
+        }
+
+        AMQP.BasicProperties properties = message.properties;
+        Map<String, Object> headers = new HashMap<>();
+        if (null != properties.getHeaders()) {
+            headers.putAll(properties.getHeaders());
+        }
+        List<Object> deaths = new ArrayList<>();
+        Map<String, Object> death = null;
+        if (headers.get("x-death") instanceof List) {
+            for (Object previous : (List<Object>) headers.get("x-death")) {
+                Map<String, Object> previousDeath = (Map<String, Object>) previous;
+                if (null == death
+                    && queue.name.equals(String.valueOf(previousDeath.get("queue")))
+                    && reason.equals(String.valueOf(previousDeath.get("reason")))) {
+                    death = new LinkedHashMap<>(previousDeath);
+                } else {
+                    deaths.add(previous);
+                }
+            }
+        }
+        if (null == death) {
+            death = new LinkedHashMap<>();
+            death.put("count", 0L);
+            death.put("reason", reason);
+            death.put("queue", queue.name);
+            death.put("exchange", message.exchange);
+            death.put("routing-keys", List.of(message.routingKey));
+            if (null != properties.getExpiration()) {
+                death.put("original-expiration", properties.getExpiration());
+            }
+        }
+        death.put("count", ((Number) death.get("count")).longValue() + 1);
+        death.put("time", new Date(now / 1000 * 1000));
+        deaths.add(0, death);
+        headers.put("x-death", deaths);
+        headers.putIfAbsent("x-first-death-reason", reason);
+        headers.putIfAbsent("x-first-death-queue", queue.name);
+        headers.putIfAbsent("x-first-death-exchange", message.exchange);
+
+        String routingKey = (null != queue.deadLetterRoutingKey) ? queue.deadLetterRoutingKey : message.routingKey;
+        Message deadLetter = new Message(exchange.name, routingKey,
+                properties.builder().headers(headers).expiration(null).build(), message.body);
+        for (MessageQueue destination : route(exchange, routingKey)) {
+            enqueue(destination, deadLetter.copy(), now);
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // consume and acknowledge
+
+    /**
+     * Register a consumer, send consume-ok unless no-wait, and then deliver, so consume-ok is always before the
+     * first delivery
+     */
+    synchronized void consume(EmbeddedAmqpConnection.ServerChannel channel, AMQP.Basic.Consume consume) {
+
+        if (DIRECT_REPLY_TO.equals(consume.getQueue())) {
+            consumeReplies(channel, consume);
+            return;
+        }
+        MessageQueue queue = existingQueue(channel.getConnection(), consume.getQueue());
+        if (queue.exclusiveConsumer || (consume.getExclusive() && !queue.consumers.isEmpty())) {
+            throw new ChannelError(403, "ACCESS_REFUSED - " + describe("queue", queue.name) + " in exclusive use");
+        }
+        String tag = consume.getConsumerTag().isEmpty()
+                     ? "amq.ctag-" + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36)
+                     : consume.getConsumerTag();
+        if (channel.consumers.containsKey(tag)) {
+            throw new ChannelError(530, "NOT_ALLOWED - attempt to reuse consumer tag '" + tag + "'");
+        }
+        QueueConsumer consumer = new QueueConsumer(channel, tag, queue, consume.getNoAck(), channel.prefetchCount);
+        channel.consumers.put(tag, consumer);
+        queue.consumers.add(consumer);
+        queue.exclusiveConsumer = consume.getExclusive();
+        queue.hadConsumers = true;
+        touch(queue);
+        if (!consume.getNowait()) {
+            channel.send(new AMQImpl.Basic.ConsumeOk(tag));
+        }
+        dispatch(queue);
+    }
+
+    /**
+     * Register the direct reply-to consumer of a channel, at most one per channel and only no-ack, as RabbitMQ
+     */
+    private void consumeReplies(EmbeddedAmqpConnection.ServerChannel channel, AMQP.Basic.Consume consume) {
+
+        if (!consume.getNoAck()) {
+            throw new ChannelError(406, "PRECONDITION_FAILED - reply consumer cannot acknowledge");
+        }
+        if (channel.consumers.values().stream().anyMatch(consumer -> null != consumer.replyTo)) {
+            throw new ChannelError(406, "PRECONDITION_FAILED - reply consumer already set");
+        }
+        String tag = consume.getConsumerTag().isEmpty()
+                     ? "amq.ctag-" + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36)
+                     : consume.getConsumerTag();
+        if (channel.consumers.containsKey(tag)) {
+            throw new ChannelError(530, "NOT_ALLOWED - attempt to reuse consumer tag '" + tag + "'");
+        }
+        QueueConsumer consumer = new QueueConsumer(channel, tag, directReplyTo, true, 0);
+        consumer.replyTo = DIRECT_REPLY_TO + "." + Long.toString(ThreadLocalRandom.current().nextLong()
+                                                                 & Long.MAX_VALUE, 36);
+        channel.consumers.put(tag, consumer);
+        replyConsumers.put(consumer.replyTo, consumer);
+        if (!consume.getNowait()) {
+            channel.send(new AMQImpl.Basic.ConsumeOk(tag));
+        }
+    }
+
+    synchronized void cancel(EmbeddedAmqpConnection.ServerChannel channel, String consumerTag) {
+
+        QueueConsumer consumer = channel.consumers.remove(consumerTag);
+        if (null != consumer) {
+            cancel(consumer);
+        }
+    }
+
+    private void cancel(QueueConsumer consumer) {
+
+        if (null != consumer.replyTo) {
+            replyConsumers.remove(consumer.replyTo);
+            return;
+        }
+        MessageQueue queue = consumer.queue;
+        queue.consumers.remove(consumer);
+        if (queue.consumers.isEmpty()) {
+            queue.exclusiveConsumer = false;
+            touch(queue);
+            if (queue.autoDelete && queue.hadConsumers && queues.get(queue.name) == queue) {
+                delete(queue);
+            }
+        }
+    }
+
+    /**
+     * @return true if a message is sent with get-ok, false if get-empty should be sent
+     */
+    synchronized boolean get(EmbeddedAmqpConnection.ServerChannel channel, String queueName, boolean noAck) {
+
+        MessageQueue queue = existingQueue(channel.getConnection(), queueName);
+        touch(queue);
+        long now = System.currentTimeMillis();
+        Message message;
+        while (null != (message = queue.messages.pollFirst()) && now > message.expiresAt) {
+            deadLetter(queue, message, "expired", now);
+        }
+        if (null == message) {
+            return false;
+        }
+        long deliveryTag = ++channel.deliveryTag;
+        if (!noAck) {
+            channel.unacked.put(deliveryTag, new Unacked(deliveryTag, queue, message, null));
+        }
+        channel.send(new AMQImpl.Basic.GetOk(deliveryTag, message.redelivered, message.exchange, message.routingKey,
+                queue.messages.size()), message.properties, message.body);
+        return true;
+    }
+
+    synchronized void ack(EmbeddedAmqpConnection.ServerChannel channel, long deliveryTag, boolean multiple) {
+        settle(take(channel, deliveryTag, multiple));
+    }
+
+    synchronized void reject(EmbeddedAmqpConnection.ServerChannel channel, long deliveryTag, boolean multiple,
+                             boolean requeue) {
+
+        List<Unacked> rejected = take(channel, deliveryTag, multiple);
+        if (requeue) {
+            requeue(rejected);
+        } else {
+            long now = System.currentTimeMillis();
+            for (Unacked unacked : rejected) {
+                deadLetter(unacked.queue, unacked.message, "rejected", now);
+            }
+            settle(rejected);
+        }
+    }
+
+    synchronized void recover(EmbeddedAmqpConnection.ServerChannel channel) {
+
+        List<Unacked> unacked = new ArrayList<>(channel.unacked.values());
+        channel.unacked.clear();
+        requeue(unacked);
+    }
+
+    private static List<Unacked> take(EmbeddedAmqpConnection.ServerChannel channel, long deliveryTag,
+                                      boolean multiple) {
+
+        List<Unacked> taken = new ArrayList<>();
+        if (multiple) {
+            NavigableMap<Long, Unacked> head = (0 == deliveryTag)
+                                               ? channel.unacked
+                                               : channel.unacked.headMap(deliveryTag, true);
+            taken.addAll(head.values());
+            head.clear();
+        } else {
+            Unacked unacked = channel.unacked.remove(deliveryTag);
+            if (null == unacked) {
+                throw new ChannelError(406, "PRECONDITION_FAILED - unknown delivery tag " + deliveryTag);
+            }
+            taken.add(unacked);
+        }
+        return taken;
+    }
+
+    /**
+     * Release the prefetch credit of the settled messages and deliver more
+     */
+    private void settle(List<Unacked> settled) {
+
+        Set<MessageQueue> affected = new LinkedHashSet<>();
+        for (Unacked unacked : settled) {
+            if (null != unacked.consumer) {
+                unacked.consumer.unacked--;
+            }
+            affected.add(unacked.queue);
+        }
+        for (MessageQueue queue : affected) {
+            if (queues.get(queue.name) == queue) {
+                dispatch(queue);
+            }
+        }
+    }
+
+    /**
+     * Put the messages back to the head of their queues in the original order, marked redelivered
+     */
+    private void requeue(List<Unacked> requeued) {
+
+        for (int i = requeued.size() - 1; i >= 0; i--) {
+            Unacked unacked = requeued.get(i);
+            unacked.message.redelivered = true;
+            unacked.queue.messages.addFirst(unacked.message);
+        }
+        settle(requeued);
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // state
+
+    /**
+     * A channel-level error, which closes the channel with the reply code and text
+     */
+    static class ChannelError extends RuntimeException {
+
+        final int replyCode;
+
+        ChannelError(int replyCode, String replyText) {
+
+            super(replyText);
+            this.replyCode = replyCode;
+        }
+    }
+
+    static class Exchange {
+
+        final String name;
+
+        final String type;
+
+        final boolean durable;
+
+        final boolean autoDelete;
+
+        final Map<String, Object> arguments;
+
+        final List<Binding> bindings = new ArrayList<>();
+
+        Exchange(String name, String type, boolean durable, boolean autoDelete, Map<String, Object> arguments) {
+
+            this.name = name;
+            this.type = type;
+            this.durable = durable;
+            this.autoDelete = autoDelete;
+            this.arguments = (null != arguments) ? arguments : Map.of();
+        }
+    }
+
+    static class Binding {
+
+        final MessageQueue queue;
+
+        final String routingKey;
+
+        final Map<String, Object> arguments;
+
+        Binding(MessageQueue queue, String routingKey, Map<String, Object> arguments) {
+
+            this.queue = queue;
+            this.routingKey = routingKey;
+            this.arguments = (null != arguments) ? arguments : Map.of();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Binding)) {
+                return false;
+            }
+            Binding binding = (Binding) o;
+            return queue == binding.queue && routingKey.equals(binding.routingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(queue.name, routingKey);
+        }
+    }
+
+    static class MessageQueue {
+
+        final String name;
+
+        final boolean durable;
+
+        final boolean autoDelete;
+
+        final EmbeddedAmqpConnection owner;
+
+        final Map<String, Object> arguments;
+
+        final long messageTtl;
+
+        final long expires;
+
+        final long maxLength;
+
+        final String deadLetterExchange;
+
+        final String deadLetterRoutingKey;
+
+        final Deque<Message> messages = new ArrayDeque<>();
+
+        final List<QueueConsumer> consumers = new ArrayList<>();
+
+        int nextConsumer;
+
+        boolean exclusiveConsumer;
+
+        boolean hadConsumers;
+
+        long lastUsed;
+
+        boolean expiryScheduled;
+
+        long sweepAt;
+
+        MessageQueue(String name, boolean durable, boolean autoDelete, EmbeddedAmqpConnection owner,
+                     Map<String, Object> arguments) {
+
+            this.name = name;
+            this.durable = durable;
+            this.autoDelete = autoDelete;
+            this.owner = owner;
+            this.arguments = (null != arguments) ? arguments : Map.of();
+            this.messageTtl = longArgument("x-message-ttl");
+            this.expires = longArgument("x-expires");
+            this.maxLength = longArgument("x-max-length");
+            this.deadLetterExchange = stringArgument("x-dead-letter-exchange");
+            this.deadLetterRoutingKey = stringArgument("x-dead-letter-routing-key");
+        }
+
+        private long longArgument(String argumentName) {
+
+            Object value = arguments.get(argumentName);
+            return (value instanceof Number) ? ((Number) value).longValue() : -1;
+        }
+
+        private String stringArgument(String argumentName) {
+
+            Object value = arguments.get(argumentName);
+            return (null != value) ? value.toString() : null;
+        }
+
+        /**
+         * @return the next consumer in round-robin which has prefetch credit, or null if none
+         */
+        QueueConsumer nextReadyConsumer() {
+
+            for (int i = 0; i < consumers.size(); i++) {
+                QueueConsumer consumer = consumers.get((nextConsumer + i) % consumers.size());
+                if (consumer.isReady()) {
+                    nextConsumer = (nextConsumer + i + 1) % consumers.size();
+                    return consumer;
+                }
+            }
+            return null;
+        }
+    }
+
+    static class QueueConsumer {
+
+        final EmbeddedAmqpConnection.ServerChannel channel;
+
+        final String tag;
+
+        final MessageQueue queue;
+
+        final boolean noAck;
+
+        final int prefetchCount;
+
+        int unacked;
+
+        /**
+         * The reply-to address of a direct reply-to consumer, null for a queue consumer
+         */
+        String replyTo;
+
+        QueueConsumer(EmbeddedAmqpConnection.ServerChannel channel, String tag, MessageQueue queue, boolean noAck,
+                      int prefetchCount) {
+
+            this.channel = channel;
+            this.tag = tag;
+            this.queue = queue;
+            this.noAck = noAck;
+            this.prefetchCount = prefetchCount;
+        }
+
+        boolean isReady() {
+
+            if (channel.closing) {
+                return false;
+            }
+            if (noAck) {
+                return true;
+            }
+            return (0 == prefetchCount || unacked < prefetchCount)
+                   && (0 == channel.globalPrefetchCount || channel.unacked.size() < channel.globalPrefetchCount);
+        }
+    }
+
+    static class Message {
+
+        final String exchange;
+
+        final String routingKey;
+
+        final AMQP.BasicProperties properties;
+
+        final byte[] body;
+
+        boolean redelivered;
+
+        long expiresAt = Long.MAX_VALUE;
+
+        Message(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.body = body;
+        }
+
+        Message copy() {
+            return new Message(exchange, routingKey, properties, body);
+        }
+    }
+
+    static class Unacked {
+
+        final long deliveryTag;
+
+        final MessageQueue queue;
+
+        final Message message;
+
+        /**
+         * null for basic.get
+         */
+        final QueueConsumer consumer;
+
+        Unacked(long deliveryTag, MessageQueue queue, Message message, QueueConsumer consumer) {
+
+            this.deliveryTag = deliveryTag;
+            this.queue = queue;
+            this.message = message;
+            this.consumer = consumer;
+        }
+    }
+}
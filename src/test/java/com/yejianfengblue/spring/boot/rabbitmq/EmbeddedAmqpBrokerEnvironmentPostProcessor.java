@@ -0,0 +1,43 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.Profiles;
+
+import java.util.Map;
+
+/**
+ * With profile {@value #PROFILE} active, point {@code spring.rabbitmq.host} and {@code spring.rabbitmq.port} to
+ * {@link EmbeddedAmqpBroker#shared()}, overriding any other property source, so the RabbitMQ tests run without a
+ * server, e.g. {@code mvn test -Pembedded-broker}.
+ * <p>
+ * Runs after the config files are loaded, so the profile can be activated by {@code spring.profiles.active} in any
+ * form, or by {@code @ActiveProfiles}.
+ *
+ * @author yejianfengblue
+ */
+public class EmbeddedAmqpBrokerEnvironmentPostProcessor implements EnvironmentPostProcessor, Ordered {
+
+    public static final String PROFILE = "embedded-broker";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+
+        if (!environment.acceptsProfiles(Profiles.of(PROFILE))) {
+            return;
+        }
+        EmbeddedAmqpBroker broker = EmbeddedAmqpBroker.shared();
+        environment.getPropertySources().addFirst(new MapPropertySource("embeddedAmqpBroker", Map.of(
+                "spring.rabbitmq.host", "localhost",
+                "spring.rabbitmq.port", broker.getPort(),
+                "spring.rabbitmq.addresses", "")));
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+}
@@ -0,0 +1,233 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.GetResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs on {@link EmbeddedAmqpBroker} only, no RabbitMQ server is needed.
+ * The whole rabbitmq test suite can run on it with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = "spring.rabbitmq.publisher-confirm-type = correlated")
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+@ActiveProfiles(EmbeddedAmqpBrokerEnvironmentPostProcessor.PROFILE)
+class EmbeddedAmqpBrokerTest {
+
+    private static final String PREFIX = "spring-boot-study-rabbitmq-embedded-broker-test-";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private CachingConnectionFactory connectionFactory;
+
+    @Autowired
+    private RabbitProperties rabbitProperties;
+
+    private Queue queue(String name) {
+
+        Queue queue = QueueBuilder.durable(PREFIX + name).expires(300_000).build();
+        amqpAdmin.declareQueue(queue);
+        amqpAdmin.purgeQueue(queue.getName(), false);
+        return queue;
+    }
+
+    private String receiveBody(Queue queue) {
+
+        Message message = rabbitTemplate.receive(queue.getName(), 1_000);
+        return (null != message) ? new String(message.getBody()) : null;
+    }
+
+    @Test
+    @DisplayName("Given profile embedded-broker, when context starts, then connect to the shared embedded broker")
+    void givenEmbeddedBrokerProfile_whenContextStarts_thenConnectToSharedEmbeddedBroker() {
+
+        assertThat(rabbitProperties.getPort()).isEqualTo(EmbeddedAmqpBroker.shared().getPort());
+        assertThat(connectionFactory.createConnection().isOpen()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given direct, topic and fanout exchanges, when publish, then route by exchange type")
+    void givenDirectTopicAndFanoutExchanges_whenPublish_thenRouteByExchangeType() {
+
+        Queue orders = queue("orders");
+        Queue audit = queue("audit");
+        Queue europe = queue("europe");
+        DirectExchange direct = new DirectExchange(PREFIX + "direct", false, true);
+        TopicExchange topic = new TopicExchange(PREFIX + "topic", false, true);
+        FanoutExchange fanout = new FanoutExchange(PREFIX + "fanout", false, true);
+        for (Exchange exchange : List.of(direct, topic, fanout)) {
+            amqpAdmin.declareExchange(exchange);
+        }
+        amqpAdmin.declareBinding(BindingBuilder.bind(orders).to(direct).with("order"));
+        amqpAdmin.declareBinding(BindingBuilder.bind(europe).to(topic).with("*.eu.#"));
+        amqpAdmin.declareBinding(BindingBuilder.bind(orders).to(fanout));
+        amqpAdmin.declareBinding(BindingBuilder.bind(audit).to(fanout));
+
+        rabbitTemplate.convertAndSend(direct.getName(), "order", "direct order");
+        rabbitTemplate.convertAndSend(direct.getName(), "payment", "direct payment");
+        rabbitTemplate.convertAndSend(topic.getName(), "order.eu.fr.paris", "topic paris");
+        rabbitTemplate.convertAndSend(topic.getName(), "order.eu", "topic eu");
+        rabbitTemplate.convertAndSend(topic.getName(), "order.us.ny", "topic ny");
+        rabbitTemplate.convertAndSend(fanout.getName(), "ignored", "fanout");
+
+        assertThat(receiveBody(orders)).isEqualTo("direct order");
+        assertThat(receiveBody(orders)).isEqualTo("fanout");
+        assertThat(receiveBody(orders)).isNull();
+        assertThat(receiveBody(audit)).isEqualTo("fanout");
+        assertThat(receiveBody(europe)).isEqualTo("topic paris");
+        assertThat(receiveBody(europe)).isEqualTo("topic eu");
+        assertThat(receiveBody(europe)).isNull();
+
+        assertThat(EmbeddedAmqpBroker.topicMatches("#", "")).isTrue();
+        assertThat(EmbeddedAmqpBroker.topicMatches("a.#.z", "a.z")).isTrue();
+        assertThat(EmbeddedAmqpBroker.topicMatches("a.*.z", "a.z")).isFalse();
+        assertThat(EmbeddedAmqpBroker.topicMatches("a.*.z", "a.b.z")).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given queue with message TTL and DLX, when messages expire or are rejected, " +
+                 "then dead lettered with x-death reason")
+    @SuppressWarnings("unchecked")
+    void givenQueueWithTtlAndDlx_whenExpireOrReject_thenDeadLetteredWithXDeath() throws InterruptedException {
+
+        Queue deadLetterQueue = queue("ttl.dlq");
+        Queue ttlQueue = QueueBuilder.durable(PREFIX + "ttl")
+                                     .ttl(200)
+                                     .deadLetterExchange("")
+                                     .deadLetterRoutingKey(deadLetterQueue.getName())
+                                     .expires(300_000)
+                                     .build();
+        amqpAdmin.declareQueue(ttlQueue);
+
+        rabbitTemplate.convertAndSend("", ttlQueue.getName(), "expired by queue ttl");
+        rabbitTemplate.convertAndSend("", ttlQueue.getName(), "expired by message ttl", message -> {
+            message.getMessageProperties().setExpiration("50");
+            return message;
+        });
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        Message expired = rabbitTemplate.receive(deadLetterQueue.getName(), 1_000);
+        assertThat(expired).isNotNull();
+        assertThat(new String(expired.getBody())).isEqualTo("expired by queue ttl");
+        Map<String, ?> death = expired.getMessageProperties().getXDeathHeader().get(0);
+        assertThat(death.get("reason")).isEqualTo("expired");
+        assertThat(death.get("queue")).isEqualTo(ttlQueue.getName());
+        assertThat(death.get("count")).isEqualTo(1L);
+        assertThat((List<String>) death.get("routing-keys")).containsExactly(ttlQueue.getName());
+        assertThat(receiveBody(deadLetterQueue)).isEqualTo("expired by message ttl");
+
+        rabbitTemplate.convertAndSend("", ttlQueue.getName(), "rejected");
+        rabbitTemplate.execute(channel -> {
+            GetResponse response = channel.basicGet(ttlQueue.getName(), false);
+            channel.basicReject(response.getEnvelope().getDeliveryTag(), true);
+            GetResponse redelivered = channel.basicGet(ttlQueue.getName(), false);
+            assertThat(redelivered.getEnvelope().isRedeliver()).isTrue();
+            channel.basicNack(redelivered.getEnvelope().getDeliveryTag(), false, false);
+            return null;
+        });
+        Message rejected = rabbitTemplate.receive(deadLetterQueue.getName(), 1_000);
+        assertThat(rejected).isNotNull();
+        assertThat(rejected.getMessageProperties().getXDeathHeader().get(0).get("reason")).isEqualTo("rejected");
+    }
+
+    @Test
+    @DisplayName("Given publisher confirms, when publish unroutable mandatory and to non-existent exchange, " +
+                 "then returned and acked, and nacked with NOT_FOUND")
+    void givenPublisherConfirms_whenPublishUnroutableAndToNonExistentExchange_thenReturnedAndNacked()
+            throws Exception {
+
+        RabbitTemplate mandatoryTemplate = new RabbitTemplate(connectionFactory);
+        mandatoryTemplate.setMandatory(true);
+
+        CorrelationData unroutable = new CorrelationData("unroutable");
+        mandatoryTemplate.convertAndSend("", PREFIX + "non-existent-queue", "hello", unroutable);
+        assertThat(unroutable.getFuture().get(10, TimeUnit.SECONDS).isAck()).isTrue();
+        assertThat(unroutable.getReturnedMessage()).isNotNull();
+        assertThat(unroutable.getReturnedMessage().getBody()).isEqualTo("hello".getBytes());
+
+        CorrelationData noExchange = new CorrelationData("no-exchange");
+        mandatoryTemplate.convertAndSend(PREFIX + "non-existent-exchange", "", "hello", noExchange);
+        CorrelationData.Confirm confirm = noExchange.getFuture().get(10, TimeUnit.SECONDS);
+        assertThat(confirm.isAck()).isFalse();
+        assertThat(confirm.getReason()).contains("reply-code=404", "NOT_FOUND - no exchange '" + PREFIX
+                                                                   + "non-existent-exchange' in vhost '/'");
+    }
+
+    @Test
+    @DisplayName("Given 20k messages, when pipelined publish and 4 consumers with prefetch 250, " +
+                 "then all consumed and report throughput and latency")
+    void given20kMessages_whenPipelinedPublishAnd4Consumers_thenReportThroughputAndLatency() throws Exception {
+
+        int messageCount = 20_000;
+        Queue queue = queue("benchmark");
+        long[] latencies = new long[messageCount];
+        CountDownLatch consumed = new CountDownLatch(messageCount);
+
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+        container.setQueueNames(queue.getName());
+        container.setConcurrentConsumers(4);
+        container.setPrefetchCount(250);
+        container.setMessageListener(message -> {
+            ByteBuffer body = ByteBuffer.wrap(message.getBody());
+            int index = body.getInt();
+            latencies[index] = System.nanoTime() - body.getLong();
+            consumed.countDown();
+        });
+        container.start();
+        try (PipelinedPublisher publisher = PipelinedPublisher.open(connectionFactory.getRabbitConnectionFactory(),
+                rabbitTemplate.getMessageConverter(), PipelinedPublisher.DEFAULT_MAX_IN_FLIGHT)) {
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> confirms = new ArrayList<>(messageCount);
+            for (int i = 0; i < messageCount; i++) {
+                byte[] body = ByteBuffer.allocate(128).putInt(i).putLong(System.nanoTime()).array();
+                confirms.add(publisher.publish("", queue.getName(), body));
+            }
+            CompletableFuture.allOf(confirms.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+            double publishRate = messageCount * 1e9 / (System.nanoTime() - start);
+            assertThat(consumed.await(60, TimeUnit.SECONDS)).isTrue();
+            double endToEndRate = messageCount * 1e9 / (System.nanoTime() - start);
+
+            Arrays.sort(latencies);
+            log.info("{} messages of 128 bytes: confirmed publish = {} msg/s, end to end = {} msg/s, " +
+                     "latency p50 = {}us, p99 = {}us, max = {}us",
+                    messageCount, Math.round(publishRate), Math.round(endToEndRate),
+                    latencies[messageCount / 2] / 1_000, latencies[messageCount * 99 / 100] / 1_000,
+                    latencies[messageCount - 1] / 1_000);
+        } finally {
+            container.stop();
+        }
+        assertThat(EmbeddedAmqpBroker.shared().getMessageCount(queue.getName())).isZero();
+    }
+}
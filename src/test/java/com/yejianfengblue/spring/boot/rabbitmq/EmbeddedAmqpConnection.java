@@ -0,0 +1,492 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.AMQContentHeader;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.LongStringHelper;
+import com.rabbitmq.client.impl.Method;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One client connection of {@link EmbeddedAmqpBroker}: the handshake, the frame loop, and the channel methods,
+ * which are delegated to the broker.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+class EmbeddedAmqpConnection implements Runnable {
+
+    private static final byte[] PROTOCOL_HEADER = {'A', 'M', 'Q', 'P', 0, 0, 9, 1};
+
+    private static final int CHANNEL_MAX = 2047;
+
+    private static final int FRAME_MAX = 131_072;
+
+    private static final int HEARTBEAT_SECONDS = 60;
+
+    private final EmbeddedAmqpBroker broker;
+
+    private final Socket socket;
+
+    private final String name;
+
+    private final DataInputStream in;
+
+    private final DataOutputStream out;
+
+    private final Map<Integer, ServerChannel> channels = new ConcurrentHashMap<>();
+
+    private int frameMax = FRAME_MAX;
+
+    private ScheduledFuture<?> heartbeat;
+
+    private volatile boolean closed;
+
+    EmbeddedAmqpConnection(EmbeddedAmqpBroker broker, Socket socket, String name) throws IOException {
+
+        this.broker = broker;
+        this.socket = socket;
+        this.name = name;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Collection<ServerChannel> getChannels() {
+        return channels.values();
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            if (handshake()) {
+                log.debug("{} opened from {}", name, socket.getRemoteSocketAddress());
+                while (!closed) {
+                    Frame frame = Frame.readFrom(in);
+                    if (null != frame) {
+                        handle(frame);
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("{} closed by client without connection.close", name);
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("{} I/O error", name, e);
+            }
+        } catch (RuntimeException e) {
+            log.error("{} failed", name, e);
+        } finally {
+            close();
+            broker.release(this);
+            log.debug("{} closed", name);
+        }
+    }
+
+    void close() {
+
+        closed = true;
+        if (null != heartbeat) {
+            heartbeat.cancel(false);
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("{} fail to close socket", name, e);
+        }
+    }
+
+    private boolean handshake() throws IOException {
+
+        byte[] header = new byte[PROTOCOL_HEADER.length];
+        in.readFully(header);
+        if (!Arrays.equals(PROTOCOL_HEADER, header)) {
+            synchronized (this) {
+                out.write(PROTOCOL_HEADER);
+                out.flush();
+            }
+            return false;
+        }
+
+        Map<String, Object> capabilities = new HashMap<>();
+        capabilities.put("publisher_confirms", true);
+        capabilities.put("basic.nack", true);
+        capabilities.put("consumer_cancel_notify", true);
+        capabilities.put("per_consumer_qos", true);
+        capabilities.put("authentication_failure_close", true);
+        capabilities.put("exchange_exchange_bindings", false);
+        Map<String, Object> serverProperties = new HashMap<>();
+        serverProperties.put("product", "EmbeddedAmqpBroker");
+        serverProperties.put("version", "0.9.1");
+        serverProperties.put("platform", "Java");
+        serverProperties.put("capabilities", capabilities);
+        send(0, new AMQImpl.Connection.Start(0, 9, serverProperties, LongStringHelper.asLongString("PLAIN AMQPLAIN"),
+                LongStringHelper.asLongString("en_US")));
+        expect(AMQP.Connection.StartOk.class);
+
+        send(0, new AMQImpl.Connection.Tune(CHANNEL_MAX, FRAME_MAX, HEARTBEAT_SECONDS));
+        AMQP.Connection.TuneOk tuneOk = expect(AMQP.Connection.TuneOk.class);
+        if (tuneOk.getFrameMax() > 0) {
+            frameMax = tuneOk.getFrameMax();
+        }
+        if (tuneOk.getHeartbeat() > 0) {
+            long period = Math.max(1, tuneOk.getHeartbeat() * 1000L / 2);
+            heartbeat = broker.getTimer().scheduleAtFixedRate(() -> send(new Frame(AMQP.FRAME_HEARTBEAT, 0)),
+                    period, period, TimeUnit.MILLISECONDS);
+        }
+
+        expect(AMQP.Connection.Open.class);
+        send(0, new AMQImpl.Connection.OpenOk(""));
+        return true;
+    }
+
+    private <T> T expect(Class<T> methodType) throws IOException {
+
+        while (true) {
+            Frame frame = Frame.readFrom(in);
+            if (null == frame || AMQP.FRAME_HEARTBEAT == frame.type) {
+                continue;
+            }
+            Method method = AMQImpl.readMethodFrom(frame.getInputStream());
+            if (!methodType.isInstance(method)) {
+                throw new IOException("Expect " + methodType.getSimpleName() + " but receive " + method);
+            }
+            return methodType.cast(method);
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // frames
+
+    private void handle(Frame frame) throws IOException {
+
+        switch (frame.type) {
+            case AMQP.FRAME_HEARTBEAT:
+                return;
+            case AMQP.FRAME_METHOD:
+                Method method = AMQImpl.readMethodFrom(frame.getInputStream());
+                if (0 == frame.channel) {
+                    handleConnectionMethod(method);
+                } else {
+                    handleChannelMethod(frame.channel, method);
+                }
+                return;
+            case AMQP.FRAME_HEADER:
+                ServerChannel channel = channels.get(frame.channel);
+                if (null != channel && !channel.closing) {
+                    channel.contentHeader(AMQImpl.readContentHeaderFrom(frame.getInputStream()));
+                }
+                return;
+            case AMQP.FRAME_BODY:
+                channel = channels.get(frame.channel);
+                if (null != channel && !channel.closing) {
+                    channel.contentBody(frame.getPayload());
+                }
+                return;
+            default:
+                throw new IOException("Unknown frame type " + frame.type);
+        }
+    }
+
+    private void handleConnectionMethod(Method method) {
+
+        if (method instanceof AMQP.Connection.Close) {
+            send(0, new AMQImpl.Connection.CloseOk());
+            closed = true;
+        } else if (method instanceof AMQP.Connection.CloseOk) {
+            closed = true;
+        }
+    }
+
+    private void handleChannelMethod(int channelNumber, Method method) {
+
+        ServerChannel channel = channels.get(channelNumber);
+        if (method instanceof AMQP.Channel.Open) {
+            channels.put(channelNumber, new ServerChannel(channelNumber));
+            send(channelNumber, new AMQImpl.Channel.OpenOk(LongStringHelper.asLongString("")));
+            return;
+        }
+        if (null == channel) {
+            send(0, new AMQImpl.Connection.Close(504, "CHANNEL_ERROR - expected 'channel.open'",
+                    method.protocolClassId(), method.protocolMethodId()));
+            return;
+        }
+        if (method instanceof AMQP.Channel.Close) {
+            channel.closing = true;
+            broker.release(channel);
+            channels.remove(channelNumber);
+            send(channelNumber, new AMQImpl.Channel.CloseOk());
+            return;
+        }
+        if (method instanceof AMQP.Channel.CloseOk) {
+            channels.remove(channelNumber);
+            return;
+        }
+        if (channel.closing) {
+            // drop everything but close-ok after the server closes the channel
+            return;
+        }
+        try {
+            channel.handle(method);
+        } catch (EmbeddedAmqpBroker.ChannelError e) {
+            log.debug("{} channel {} error {} on {}", name, channelNumber, e.getMessage(), method.protocolMethodName());
+            channel.closing = true;
+            broker.release(channel);
+            send(channelNumber, new AMQImpl.Channel.Close(e.replyCode, e.getMessage(), method.protocolClassId(),
+                    method.protocolMethodId()));
+        }
+    }
+
+    void send(int channelNumber, Method method) {
+        send(channelNumber, method, null, null);
+    }
+
+    /**
+     * Write a method, with the content header and body frames if the properties aren't null. It blocks while the
+     * socket buffer is full, often with the broker monitor held, see {@link EmbeddedAmqpBroker}.
+     */
+    synchronized void send(int channelNumber, Method method, AMQP.BasicProperties properties, byte[] body) {
+
+        if (closed && !(method instanceof AMQP.Connection.CloseOk)) {
+            return;
+        }
+        try {
+            method.toFrame(channelNumber).writeTo(out);
+            if (null != properties) {
+                properties.toFrame(channelNumber, body.length).writeTo(out);
+                int maxBodyFrameSize = frameMax - 8;
+                for (int offset = 0; offset < body.length; offset += maxBodyFrameSize) {
+                    Frame.fromBodyFragment(channelNumber, body, offset,
+                            Math.min(maxBodyFrameSize, body.length - offset)).writeTo(out);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            log.debug("{} fail to send {}", name, method.protocolMethodName(), e);
+            close();
+        }
+    }
+
+    /**
+     * Write a heartbeat, on the broker timer thread
+     */
+    private synchronized void send(Frame frame) {
+
+        try {
+            frame.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            log.debug("{} fail to send heartbeat", name, e);
+            close();
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------------------
+    // channel
+
+    /**
+     * Channel state, guarded by the broker monitor except the content assembly which only the connection thread
+     * touches
+     */
+    class ServerChannel {
+
+        final int number;
+
+        final Map<String, EmbeddedAmqpBroker.QueueConsumer> consumers = new LinkedHashMap<>();
+
+        final NavigableMap<Long, EmbeddedAmqpBroker.Unacked> unacked = new TreeMap<>();
+
+        int prefetchCount;
+
+        int globalPrefetchCount;
+
+        boolean confirm;
+
+        long publishSequence;
+
+        long deliveryTag;
+
+        volatile boolean closing;
+
+        private AMQP.Basic.Publish publish;
+
+        private AMQP.BasicProperties properties;
+
+        private byte[] body;
+
+        private int bodyReceived;
+
+        ServerChannel(int number) {
+            this.number = number;
+        }
+
+        EmbeddedAmqpConnection getConnection() {
+            return EmbeddedAmqpConnection.this;
+        }
+
+        void send(Method method) {
+            EmbeddedAmqpConnection.this.send(number, method);
+        }
+
+        void send(Method method, AMQP.BasicProperties properties, byte[] body) {
+            EmbeddedAmqpConnection.this.send(number, method, properties, body);
+        }
+
+        void handle(Method method) {
+
+            if (method instanceof AMQP.Basic.Publish) {
+                publish = (AMQP.Basic.Publish) method;
+                if (publish.getImmediate()) {
+                    throw new EmbeddedAmqpBroker.ChannelError(540, "NOT_IMPLEMENTED - immediate=true");
+                }
+            } else if (method instanceof AMQP.Basic.Ack) {
+                AMQP.Basic.Ack ack = (AMQP.Basic.Ack) method;
+                broker.ack(this, ack.getDeliveryTag(), ack.getMultiple());
+            } else if (method instanceof AMQP.Basic.Nack) {
+                AMQP.Basic.Nack nack = (AMQP.Basic.Nack) method;
+                broker.reject(this, nack.getDeliveryTag(), nack.getMultiple(), nack.getRequeue());
+            } else if (method instanceof AMQP.Basic.Reject) {
+                AMQP.Basic.Reject reject = (AMQP.Basic.Reject) method;
+                broker.reject(this, reject.getDeliveryTag(), false, reject.getRequeue());
+            } else if (method instanceof AMQP.Basic.Qos) {
+                AMQP.Basic.Qos qos = (AMQP.Basic.Qos) method;
+                synchronized (broker) {
+                    if (qos.getGlobal()) {
+                        globalPrefetchCount = qos.getPrefetchCount();
+                    } else {
+                        prefetchCount = qos.getPrefetchCount();
+                    }
+                }
+                send(new AMQImpl.Basic.QosOk());
+            } else if (method instanceof AMQP.Basic.Consume) {
+                broker.consume(this, (AMQP.Basic.Consume) method);
+            } else if (method instanceof AMQP.Basic.Cancel) {
+                AMQP.Basic.Cancel cancel = (AMQP.Basic.Cancel) method;
+                broker.cancel(this, cancel.getConsumerTag());
+                if (!cancel.getNowait()) {
+                    send(new AMQImpl.Basic.CancelOk(cancel.getConsumerTag()));
+                }
+            } else if (method instanceof AMQP.Basic.Get) {
+                AMQP.Basic.Get get = (AMQP.Basic.Get) method;
+                if (!broker.get(this, get.getQueue(), get.getNoAck())) {
+                    send(new AMQImpl.Basic.GetEmpty(""));
+                }
+            } else if (method instanceof AMQP.Basic.Recover) {
+                broker.recover(this);
+                send(new AMQImpl.Basic.RecoverOk());
+            } else if (method instanceof AMQP.Confirm.Select) {
+                synchronized (broker) {
+                    confirm = true;
+                }
+                if (!((AMQP.Confirm.Select) method).getNowait()) {
+                    send(new AMQImpl.Confirm.SelectOk());
+                }
+            } else if (method instanceof AMQP.Exchange.Declare) {
+                AMQP.Exchange.Declare declare = (AMQP.Exchange.Declare) method;
+                broker.declareExchange(declare);
+                if (!declare.getNowait()) {
+                    send(new AMQImpl.Exchange.DeclareOk());
+                }
+            } else if (method instanceof AMQP.Exchange.Delete) {
+                AMQP.Exchange.Delete delete = (AMQP.Exchange.Delete) method;
+                broker.deleteExchange(delete.getExchange(), delete.getIfUnused());
+                if (!delete.getNowait()) {
+                    send(new AMQImpl.Exchange.DeleteOk());
+                }
+            } else if (method instanceof AMQP.Queue.Declare) {
+                AMQP.Queue.Declare declare = (AMQP.Queue.Declare) method;
+                // reply inside the broker monitor so the counts are consistent with the declaration
+                synchronized (broker) {
+                    EmbeddedAmqpBroker.MessageQueue queue = broker.declareQueue(EmbeddedAmqpConnection.this, declare);
+                    if (!declare.getNowait()) {
+                        send(new AMQImpl.Queue.DeclareOk(queue.name, queue.messages.size(), queue.consumers.size()));
+                    }
+                }
+            } else if (method instanceof AMQP.Queue.Bind) {
+                AMQP.Queue.Bind bind = (AMQP.Queue.Bind) method;
+                broker.bindQueue(EmbeddedAmqpConnection.this, bind.getQueue(), bind.getExchange(),
+                        bind.getRoutingKey(), bind.getArguments());
+                if (!bind.getNowait()) {
+                    send(new AMQImpl.Queue.BindOk());
+                }
+            } else if (method instanceof AMQP.Queue.Unbind) {
+                AMQP.Queue.Unbind unbind = (AMQP.Queue.Unbind) method;
+                broker.unbindQueue(EmbeddedAmqpConnection.this, unbind.getQueue(), unbind.getExchange(),
+                        unbind.getRoutingKey());
+                send(new AMQImpl.Queue.UnbindOk());
+            } else if (method instanceof AMQP.Queue.Purge) {
+                AMQP.Queue.Purge purge = (AMQP.Queue.Purge) method;
+                int count = broker.purgeQueue(EmbeddedAmqpConnection.this, purge.getQueue());
+                if (!purge.getNowait()) {
+                    send(new AMQImpl.Queue.PurgeOk(count));
+                }
+            } else if (method instanceof AMQP.Queue.Delete) {
+                AMQP.Queue.Delete delete = (AMQP.Queue.Delete) method;
+                int count = broker.deleteQueue(EmbeddedAmqpConnection.this, delete.getQueue(), delete.getIfUnused(),
+                        delete.getIfEmpty());
+                if (!delete.getNowait()) {
+                    send(new AMQImpl.Queue.DeleteOk(count));
+                }
+            } else if (method instanceof AMQP.Channel.Flow) {
+                send(new AMQImpl.Channel.FlowOk(((AMQP.Channel.Flow) method).getActive()));
+            } else {
+                throw new EmbeddedAmqpBroker.ChannelError(540, "NOT_IMPLEMENTED - " + method.protocolMethodName());
+            }
+        }
+
+        void contentHeader(AMQContentHeader header) {
+
+            if (null == publish) {
+                return;
+            }
+            properties = (AMQP.BasicProperties) header;
+            body = new byte[Math.toIntExact(header.getBodySize())];
+            bodyReceived = 0;
+            if (0 == body.length) {
+                published();
+            }
+        }
+
+        void contentBody(byte[] fragment) {
+
+            if (null == body) {
+                return;
+            }
+            System.arraycopy(fragment, 0, body, bodyReceived, fragment.length);
+            bodyReceived += fragment.length;
+            if (bodyReceived >= body.length) {
+                published();
+            }
+        }
+
+        private void published() {
+
+            AMQP.Basic.Publish completed = publish;
+            publish = null;
+            byte[] completedBody = body;
+            body = null;
+            try {
+                broker.publish(this, completed.getExchange(), completed.getRoutingKey(), completed.getMandatory(),
+                        properties, completedBody);
+            } catch (EmbeddedAmqpBroker.ChannelError e) {
+                log.debug("{} channel {} error {} on publish", name, number, e.getMessage());
+                closing = true;
+                broker.release(this);
+                send(new AMQImpl.Channel.Close(e.replyCode, e.getMessage(), completed.protocolClassId(),
+                        completed.protocolMethodId()));
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel for many short timeouts which are mostly cancelled, e.g. the reply timeouts of RPC requests,
+ * where a {@code ScheduledThreadPoolExecutor} pays O(log n) on a shared heap for every schedule and cancel.
+ * <p>
+ * The wheel is {@code ticksPerWheel} buckets of {@code tickDuration}. A timeout goes to the bucket of its deadline
+ * tick modulo the wheel size, with the number of full rotations to wait, so schedule and cancel are O(1). Schedule
+ * and cancel only enqueue, and the worker thread moves the new timeouts into and the cancelled ones out of the
+ * buckets on each tick, so the callers don't contend on the wheel. The precision is a tick: a timeout fires at the
+ * end of the tick of its deadline, up to one tick late.
+ * <p>
+ * The tasks run on the worker thread, so they must be short, e.g. complete a future exceptionally.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class HashedTimerWheel implements AutoCloseable {
+
+    private final long tickNanos;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pending = new AtomicLong();
+
+    private final long startNanos = System.nanoTime();
+
+    private final Thread worker;
+
+    private volatile boolean closed;
+
+    /**
+     * Ticks passed, accessed by the worker only
+     */
+    private long tick;
+
+    /**
+     * @param ticksPerWheel rounded up to a power of 2
+     */
+    public HashedTimerWheel(String name, Duration tickDuration, int ticksPerWheel) {
+
+        if (tickDuration.toNanos() < 1_000_000) {
+            throw new IllegalArgumentException("Tick duration must be at least 1ms");
+        }
+        if (ticksPerWheel < 1 || ticksPerWheel > 1 << 20) {
+            throw new IllegalArgumentException("Ticks per wheel must be between 1 and 2^20");
+        }
+        this.tickNanos = tickDuration.toNanos();
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.wheel = new Bucket[Math.max(1, size)];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheel.length - 1;
+        this.worker = new Thread(this::work, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Run the task after the delay, unless the returned timeout is cancelled before
+     */
+    public Timeout schedule(Runnable task, Duration delay) {
+
+        if (closed) {
+            throw new IllegalStateException("Timer wheel is closed");
+        }
+        long deadline = System.nanoTime() - startNanos + Math.max(0, delay.toNanos());
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return the timeouts neither fired nor cancelled
+     */
+    public long getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stop the worker, the pending timeouts never fire
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+
+        while (!closed) {
+            long sleepNanos = tickNanos * (tick + 1) - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            removeCancelled();
+            addScheduled();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+
+        Timeout timeout;
+        while (null != (timeout = cancelled.poll())) {
+            if (null != timeout.bucket) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void addScheduled() {
+
+        Timeout timeout;
+        while (null != (timeout = scheduled.poll())) {
+            if (Timeout.SCHEDULED != timeout.state.get()) {
+                continue;
+            }
+            long deadlineTick = timeout.deadlineNanos / tickNanos;
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.length;
+            // a deadline already passed goes to the current tick
+            wheel[(int) (Math.max(deadlineTick, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket) {
+
+        Timeout timeout = bucket.head;
+        while (null != timeout) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    public static final class Timeout {
+
+        private static final int SCHEDULED = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private final HashedTimerWheel timerWheel;
+
+        private final Runnable task;
+
+        private final long deadlineNanos;
+
+        private final AtomicInteger state = new AtomicInteger(SCHEDULED);
+
+        // accessed by the worker only
+
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(HashedTimerWheel timerWheel, Runnable task, long deadlineNanos) {
+
+            this.timerWheel = timerWheel;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return true if cancelled, false if already fired or cancelled
+         */
+        public boolean cancel() {
+
+            if (!state.compareAndSet(SCHEDULED, CANCELLED)) {
+                return false;
+            }
+            timerWheel.pending.decrementAndGet();
+            timerWheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isExpired() {
+            return EXPIRED == state.get();
+        }
+
+        public boolean isCancelled() {
+            return CANCELLED == state.get();
+        }
+
+        private void expire() {
+
+            if (!state.compareAndSet(SCHEDULED, EXPIRED)) {
+                return;
+            }
+            timerWheel.pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.warn("Timeout task fails", e);
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, accessed by the worker only
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (null == tail) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+
+            if (null == timeout.prev) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (null == timeout.next) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
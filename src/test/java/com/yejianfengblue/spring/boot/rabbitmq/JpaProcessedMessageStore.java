@@ -0,0 +1,54 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A {@link ProcessedMessageStore} of {@link ProcessedMessage} rows, keyed by the message id.
+ *
+ * @author yejianfengblue
+ */
+public class JpaProcessedMessageStore implements ProcessedMessageStore {
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public JpaProcessedMessageStore(EntityManager entityManager, TransactionTemplate transactionTemplate) {
+
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @Override
+    public boolean contains(String messageId) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(
+                status -> null != entityManager.find(ProcessedMessage.class, messageId)));
+    }
+
+    @Override
+    public void add(String messageId) {
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                if (null == entityManager.find(ProcessedMessage.class, messageId)) {
+                    entityManager.persist(new ProcessedMessage(messageId, Instant.now()));
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // added by another consumer at the same time
+        }
+    }
+
+    @Override
+    public List<String> findRecent(int limit) {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("select p.messageId from ProcessedMessage p order by p.processedAt desc", String.class)
+                .setMaxResults(limit)
+                .getResultList());
+    }
+}
@@ -0,0 +1,71 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.MessagePropertiesBuilder;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.SerializationUtils;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Send a message by inserting it into the {@link OutboxMessage} table in the current transaction, instead of
+ * publishing it by {@code RabbitTemplate}. So the message is published, by {@link OutboxRelay}, if and only if the
+ * entity changes of the same transaction are committed: no lost message when the publish fails after the commit, and
+ * no phantom message when the transaction rolls back after the publish.
+ * <p>
+ * The exchange, the routing key, the body and all the message properties, including the headers, e.g. the
+ * {@code __TypeId__} of the message converter, are kept, the properties by Java serialization. A message without a
+ * message id is given a random one, so a consumer can deduplicate the copies published again when a confirm is lost,
+ * e.g. by {@link DeduplicatingInterceptor}.
+ *
+ * @author yejianfengblue
+ */
+public class Outbox {
+
+    private final EntityManager entityManager;
+
+    private final MessageConverter messageConverter;
+
+    public Outbox(EntityManager entityManager, MessageConverter messageConverter) {
+
+        this.entityManager = entityManager;
+        this.messageConverter = messageConverter;
+    }
+
+    /**
+     * @throws IllegalTransactionStateException if there is no transaction
+     */
+    public void convertAndSend(String exchange, String routingKey, Object payload) {
+        send(exchange, routingKey, messageConverter.toMessage(payload, new MessageProperties()));
+    }
+
+    /**
+     * @throws IllegalTransactionStateException if there is no transaction
+     */
+    public void send(String exchange, String routingKey, Message message) {
+
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalTransactionStateException("Outbox send must be in a transaction");
+        }
+        // a copy, so the given message is not changed by the message id
+        MessageProperties messageProperties = MessagePropertiesBuilder
+                .fromClonedProperties(message.getMessageProperties())
+                .build();
+        if (null == messageProperties.getMessageId()) {
+            messageProperties.setMessageId(UUID.randomUUID().toString());
+        }
+        OutboxMessage outboxMessage = new OutboxMessage();
+        outboxMessage.setExchange(exchange);
+        outboxMessage.setRoutingKey(routingKey);
+        outboxMessage.setMessageId(messageProperties.getMessageId());
+        outboxMessage.setMessageProperties(SerializationUtils.serialize(messageProperties));
+        outboxMessage.setBody(message.getBody());
+        outboxMessage.setCreatedAt(Instant.now());
+        entityManager.persist(outboxMessage);
+    }
+}
@@ -0,0 +1,98 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+
+/**
+ * An {@link Outbox} with the message converter of the {@link RabbitTemplate}, and an {@link OutboxRelay} of batches
+ * of {@code rabbitmq.outbox.batch-size} rows (default 500), waiting {@code rabbitmq.outbox.confirm-timeout} (default
+ * 10s) for the confirms of a batch, and polling every {@code rabbitmq.outbox.poll-interval} (default 1s) after the
+ * outbox is drained, unless {@code rabbitmq.outbox.auto-startup} is false.
+ * <p>
+ * The relay needs {@code spring.rabbitmq.publisher-confirm-type = correlated}, and the {@link OutboxMessage} entity
+ * scanned, e.g. by {@code @EntityScan(basePackageClasses = OutboxMessage.class)}.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class OutboxConfig {
+
+    @Bean
+    Outbox outbox(EntityManager entityManager, RabbitTemplate rabbitTemplate) {
+        return new Outbox(entityManager, rabbitTemplate.getMessageConverter());
+    }
+
+    @Bean
+    OutboxRelay outboxRelay(EntityManager entityManager,
+                            TransactionTemplate transactionTemplate,
+                            RabbitTemplate rabbitTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${rabbitmq.outbox.batch-size:500}") int batchSize,
+                            @Value("${rabbitmq.outbox.confirm-timeout:10s}") Duration confirmTimeout) {
+
+        return new OutboxRelay(entityManager, transactionTemplate, rabbitTemplate, batchSize, confirmTimeout,
+                meterRegistry);
+    }
+
+    @Bean
+    OutboxRelayScheduler outboxRelayScheduler(OutboxRelay outboxRelay,
+                                              @Value("${rabbitmq.outbox.poll-interval:1s}") Duration pollInterval,
+                                              @Value("${rabbitmq.outbox.auto-startup:true}") boolean autoStartup) {
+
+        return new OutboxRelayScheduler(outboxRelay, pollInterval, autoStartup);
+    }
+
+    /**
+     * Schedule the relay while running
+     */
+    @RequiredArgsConstructor
+    public static class OutboxRelayScheduler implements SmartLifecycle {
+
+        private final OutboxRelay outboxRelay;
+
+        private final Duration pollInterval;
+
+        private final boolean autoStartup;
+
+        private ThreadPoolTaskScheduler taskScheduler;
+
+        @Override
+        public synchronized void start() {
+
+            taskScheduler = new ThreadPoolTaskScheduler();
+            taskScheduler.setThreadNamePrefix("outbox-relay-");
+            taskScheduler.initialize();
+            outboxRelay.start(taskScheduler, pollInterval);
+        }
+
+        @Override
+        public synchronized void stop() {
+
+            outboxRelay.stop();
+            if (null != taskScheduler) {
+                taskScheduler.shutdown();
+                taskScheduler = null;
+            }
+        }
+
+        @Override
+        public synchronized boolean isRunning() {
+            return null != taskScheduler;
+        }
+
+        @Override
+        public boolean isAutoStartup() {
+            return autoStartup;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import java.time.Instant;
+
+/**
+ * A message of {@link Outbox} waiting for {@link OutboxRelay} to publish it. The id is the order of publishing.
+ *
+ * @author yejianfengblue
+ */
+@Entity
+@Data
+@NoArgsConstructor
+public class OutboxMessage {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    private String exchange;
+
+    private String routingKey;
+
+    private String messageId;
+
+    /**
+     * The Java-serialized {@code MessageProperties}, with the message id
+     */
+    @Lob
+    private byte[] messageProperties;
+
+    @Lob
+    private byte[] body;
+
+    private Instant createdAt;
+}
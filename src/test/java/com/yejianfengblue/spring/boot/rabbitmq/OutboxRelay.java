@@ -0,0 +1,245 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.LockOptions;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.SerializationUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publish the {@link OutboxMessage} rows of {@link Outbox} in batches, and delete the rows confirmed by the broker.
+ * <p>
+ * A batch is the oldest {@code batchSize} rows selected {@code FOR UPDATE SKIP LOCKED}, so relays of several
+ * instances take different batches instead of waiting for each other. The rows are published with correlated
+ * publisher confirms, all confirms of the batch are awaited up to {@code confirmTimeout}, and the acked rows are
+ * deleted by one bulk delete, in the same transaction which holds the row locks. A nacked, unconfirmed or failed
+ * row stays, and is published again by a later batch, so a message is published at least once; the consumer can
+ * deduplicate by the message id. A message returned as unroutable is acked, so its row is deleted.
+ * <p>
+ * {@code SKIP LOCKED} is by the Hibernate dialect, e.g. PostgreSQL, MySQL 8 and Oracle. A dialect without it, e.g.
+ * H2, selects {@code FOR UPDATE}, which is still correct, but a second relay waits for the first batch.
+ * <p>
+ * Meters
+ * <ul>
+ *     <li>{@code rabbitmq.outbox.published}, the rows published and confirmed</li>
+ *     <li>{@code rabbitmq.outbox.failed}, the rows nacked, unconfirmed in time or failed to publish</li>
+ *     <li>{@code rabbitmq.outbox.lag}, the time from insertion to confirm of a row</li>
+ *     <li>{@code rabbitmq.outbox.oldest.age}, the age of the oldest row not published yet, queried when the meter is
+ *     read, so it keeps growing if the relay is stuck or stopped</li>
+ *     <li>{@code rabbitmq.outbox.relay}, the time to relay a batch</li>
+ * </ul>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class OutboxRelay implements Runnable {
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final int batchSize;
+
+    private final Duration confirmTimeout;
+
+    private final Counter published;
+
+    private final Counter failed;
+
+    private final Timer lag;
+
+    private final Timer relayTimer;
+
+    private ScheduledFuture<?> schedule;
+
+    /**
+     * @param rabbitTemplate of a connection factory with correlated publisher confirms
+     */
+    public OutboxRelay(EntityManager entityManager,
+                       TransactionTemplate transactionTemplate,
+                       RabbitTemplate rabbitTemplate,
+                       int batchSize,
+                       Duration confirmTimeout,
+                       MeterRegistry meterRegistry) {
+
+        if (!rabbitTemplate.getConnectionFactory().isPublisherConfirms()) {
+            throw new IllegalArgumentException("Outbox relay needs correlated publisher confirms");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be larger than 0");
+        }
+        this.entityManager = entityManager;
+        this.transactionTemplate = transactionTemplate;
+        this.rabbitTemplate = rabbitTemplate;
+        this.batchSize = batchSize;
+        this.confirmTimeout = confirmTimeout;
+        this.published = Counter.builder("rabbitmq.outbox.published").register(meterRegistry);
+        this.failed = Counter.builder("rabbitmq.outbox.failed").register(meterRegistry);
+        this.lag = Timer.builder("rabbitmq.outbox.lag").register(meterRegistry);
+        this.relayTimer = Timer.builder("rabbitmq.outbox.relay").register(meterRegistry);
+        TimeGauge.builder("rabbitmq.outbox.oldest.age", this, TimeUnit.MILLISECONDS, OutboxRelay::oldestAgeMillis)
+                 .register(meterRegistry);
+    }
+
+    /**
+     * @return 0 if the outbox is empty
+     */
+    private double oldestAgeMillis() {
+
+        try {
+            List<Instant> oldest = transactionTemplate.execute(status -> entityManager
+                    .createQuery("select o.createdAt from OutboxMessage o order by o.id", Instant.class)
+                    .setMaxResults(1)
+                    .getResultList());
+            return (null == oldest || oldest.isEmpty())
+                   ? 0
+                   : Duration.between(oldest.get(0), Instant.now()).toMillis();
+        } catch (RuntimeException e) {
+            log.debug("Fail to query the oldest outbox message", e);
+            return Double.NaN;
+        }
+    }
+
+    public synchronized void start(TaskScheduler taskScheduler, Duration interval) {
+
+        if (null == schedule) {
+            schedule = taskScheduler.scheduleWithFixedDelay(this, interval);
+        }
+    }
+
+    public synchronized void stop() {
+
+        if (null != schedule) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    /**
+     * Relay batches until the outbox is drained, or a batch is not all confirmed
+     */
+    @Override
+    public void run() {
+
+        try {
+            while (relay() == batchSize) {
+                // a full batch, there may be more
+            }
+        } catch (RuntimeException e) {
+            // keep scheduled
+            log.error("Fail to relay outbox", e);
+        }
+    }
+
+    /**
+     * Relay one batch
+     *
+     * @return the rows published and confirmed, which are deleted
+     */
+    public int relay() {
+
+        long start = System.nanoTime();
+        try {
+            Integer acked = transactionTemplate.execute(status -> relayBatch());
+            return null == acked ? 0 : acked;
+        } finally {
+            relayTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private int relayBatch() {
+
+        List<OutboxMessage> batch = entityManager
+                .createQuery("select o from OutboxMessage o order by o.id", OutboxMessage.class)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                .setMaxResults(batchSize)
+                .getResultList();
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        List<CorrelationData> confirms = new ArrayList<>(batch.size());
+        for (OutboxMessage outboxMessage : batch) {
+            CorrelationData correlationData = new CorrelationData(String.valueOf(outboxMessage.getId()));
+            try {
+                rabbitTemplate.send(outboxMessage.getExchange(), outboxMessage.getRoutingKey(),
+                        toMessage(outboxMessage), correlationData);
+                confirms.add(correlationData);
+            } catch (AmqpException e) {
+                log.warn("Fail to publish outbox message {}", outboxMessage.getId(), e);
+                confirms.add(null);
+            }
+        }
+
+        long deadline = System.nanoTime() + confirmTimeout.toNanos();
+        List<Long> acked = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxMessage outboxMessage = batch.get(i);
+            if (null != confirms.get(i) && isAcked(outboxMessage, confirms.get(i), deadline)) {
+                acked.add(outboxMessage.getId());
+                lag.record(Duration.between(outboxMessage.getCreatedAt(), Instant.now()));
+            }
+        }
+        failed.increment(batch.size() - acked.size());
+
+        if (!acked.isEmpty()) {
+            entityManager.createQuery("delete from OutboxMessage o where o.id in :ids")
+                         .setParameter("ids", acked)
+                         .executeUpdate();
+            published.increment(acked.size());
+        }
+        return acked.size();
+    }
+
+    private boolean isAcked(OutboxMessage outboxMessage, CorrelationData correlationData, long deadline) {
+
+        try {
+            CorrelationData.Confirm confirm = correlationData.getFuture()
+                                                             .get(Math.max(0, deadline - System.nanoTime()),
+                                                                     TimeUnit.NANOSECONDS);
+            if (!confirm.isAck()) {
+                log.warn("Outbox message {} is nacked, {}", outboxMessage.getId(), confirm.getReason());
+            }
+            return confirm.isAck();
+        } catch (TimeoutException e) {
+            log.warn("Outbox message {} is not confirmed in {}", outboxMessage.getId(), confirmTimeout);
+            return false;
+        } catch (ExecutionException e) {
+            log.warn("Fail to confirm outbox message {}", outboxMessage.getId(), e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Message toMessage(OutboxMessage outboxMessage) {
+
+        MessageProperties messageProperties =
+                (MessageProperties) SerializationUtils.deserialize(outboxMessage.getMessageProperties());
+        return new Message(outboxMessage.getBody(), messageProperties);
+    }
+}
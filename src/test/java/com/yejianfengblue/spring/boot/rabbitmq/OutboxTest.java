@@ -0,0 +1,277 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The outbox is on the H2 test database. Need a RabbitMQ server on localhost:5672 with default user guest:guest,
+ * or run with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.rabbitmq.publisher-confirm-type = correlated",
+        "rabbitmq.outbox.auto-startup = false",
+        "rabbitmq.outbox.poll-interval = 100ms"
+})
+@EntityScan(basePackageClasses = OutboxMessage.class)
+@Import(OutboxConfig.class)
+class OutboxTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-outbox-test-queue";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue orderQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+    }
+
+    @Entity
+    @Table(name = "outbox_test_order")
+    @Data
+    @NoArgsConstructor
+    static class Order {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String item;
+
+        Order(String item) {
+            this.item = item;
+        }
+    }
+
+    @Autowired
+    private Outbox outbox;
+
+    @Autowired
+    private OutboxRelay outboxRelay;
+
+    @Autowired
+    private OutboxConfig.OutboxRelayScheduler outboxRelayScheduler;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void clearOutboxAndQueue() {
+
+        transactionTemplate.executeWithoutResult(status ->
+                entityManager.createQuery("delete from OutboxMessage").executeUpdate());
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+    }
+
+    private long outboxSize() {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("select count(o) from OutboxMessage o", Long.class)
+                .getSingleResult());
+    }
+
+    private int queueMessageCount() {
+        return (int) amqpAdmin.getQueueProperties(QUEUE_NAME).get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+    }
+
+    private double count(String meterName) {
+        return meterRegistry.get(meterName).counter().count();
+    }
+
+    @Test
+    @DisplayName("Given an order committed and an order rolled back, when relay, " +
+                 "then only the committed order's message published")
+    void givenOrderCommittedAndOrderRolledBack_whenRelay_thenOnlyCommittedPublished() {
+
+        transactionTemplate.executeWithoutResult(status -> {
+            entityManager.persist(new Order("apple"));
+            outbox.convertAndSend("", QUEUE_NAME, "apple ordered");
+        });
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> {
+            entityManager.persist(new Order("banana"));
+            outbox.convertAndSend("", QUEUE_NAME, "banana ordered");
+            throw new IllegalStateException("Out of banana");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(outboxSize()).isEqualTo(1);
+        assertThat(outboxRelay.relay()).isEqualTo(1);
+
+        assertThat(outboxSize()).isZero();
+        Message message = rabbitTemplate.receive(QUEUE_NAME, 10_000);
+        assertThat(message).isNotNull();
+        assertThat(new String(message.getBody())).isEqualTo("apple ordered");
+        assertThat(message.getMessageProperties().getMessageId()).isNotNull();
+        assertThat(rabbitTemplate.receive(QUEUE_NAME)).isNull();
+    }
+
+    @Test
+    @DisplayName("When send outside transaction, then throw IllegalTransactionStateException")
+    void whenSendOutsideTransaction_thenThrowIllegalTransactionStateException() {
+
+        assertThatThrownBy(() -> outbox.convertAndSend("", QUEUE_NAME, "no transaction"))
+                .isInstanceOf(IllegalTransactionStateException.class);
+    }
+
+    @Test
+    @DisplayName("Given 10k messages in outbox, when relay, then published in batches and rows deleted")
+    void given10kMessagesInOutbox_whenRelay_thenPublishedInBatchesAndRowsDeleted() {
+
+        int messageCount = 10_000;
+        for (int t = 0; t < 10; t++) {
+            int transaction = t;
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int i = 0; i < messageCount / 10; i++) {
+                    outbox.convertAndSend("", QUEUE_NAME, "Message " + transaction + "-" + i);
+                }
+            });
+        }
+        double publishedBefore = count("rabbitmq.outbox.published");
+
+        long start = System.nanoTime();
+        int batches = 0;
+        int relayed;
+        while ((relayed = outboxRelay.relay()) > 0) {
+            batches++;
+            assertThat(relayed).isLessThanOrEqualTo(500);
+        }
+        long nanos = System.nanoTime() - start;
+
+        log.info("Relay {} messages in {} batches, {} messages per second, lag mean {}ms max {}ms",
+                messageCount, batches, messageCount * 1_000_000_000L / nanos,
+                Math.round(meterRegistry.get("rabbitmq.outbox.lag").timer().mean(TimeUnit.MILLISECONDS)),
+                Math.round(meterRegistry.get("rabbitmq.outbox.lag").timer().max(TimeUnit.MILLISECONDS)));
+        assertThat(batches).isEqualTo(20);
+        assertThat(outboxSize()).isZero();
+        assertThat(count("rabbitmq.outbox.published") - publishedBefore).isEqualTo(messageCount);
+        assertThat(queueMessageCount()).isEqualTo(messageCount);
+    }
+
+    @Test
+    @DisplayName("Given a message to non-existent exchange, when relay, then it's nacked and kept, the others deleted")
+    void givenMessageToNonExistentExchange_whenRelay_thenNackedAndKept() {
+
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < 10; i++) {
+                outbox.convertAndSend("", QUEUE_NAME, "Message " + i);
+            }
+            outbox.convertAndSend("non-existent-exchange", "non-existent-routing-key", "Lost");
+        });
+        double failedBefore = count("rabbitmq.outbox.failed");
+
+        assertThat(outboxRelay.relay()).isEqualTo(10);
+
+        List<OutboxMessage> kept = transactionTemplate.execute(status -> entityManager
+                .createQuery("select o from OutboxMessage o", OutboxMessage.class)
+                .getResultList());
+        assertThat(kept).hasSize(1);
+        assertThat(kept.get(0).getExchange()).isEqualTo("non-existent-exchange");
+        assertThat(count("rabbitmq.outbox.failed") - failedBefore).isEqualTo(1);
+        assertThat(queueMessageCount()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("Given relay scheduled, when send in transaction, then published without explicit relay")
+    void givenRelayScheduled_whenSendInTransaction_thenPublished() {
+
+        outboxRelayScheduler.start();
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    outbox.convertAndSend("", QUEUE_NAME, "scheduled"));
+
+            Message message = rabbitTemplate.receive(QUEUE_NAME, 10_000);
+            assertThat(message).isNotNull();
+            assertThat(new String(message.getBody())).isEqualTo("scheduled");
+        } finally {
+            outboxRelayScheduler.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Given a message with headers and properties in outbox, when relay, then published with all of them, " +
+                 "and the oldest row age is reported until then")
+    void givenMessageWithHeadersAndProperties_whenRelay_thenPublishedWithAll() throws InterruptedException {
+
+        Jackson2JsonMessageConverter messageConverter = new Jackson2JsonMessageConverter();
+        transactionTemplate.executeWithoutResult(status -> {
+            Message message = messageConverter.toMessage(new ArrayList<>(List.of("apple", "banana")),
+                    new MessageProperties());
+            message.getMessageProperties().setHeader("tenant", "fruit-shop");
+            message.getMessageProperties().setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT);
+            message.getMessageProperties().setPriority(5);
+            message.getMessageProperties().setExpiration("60000");
+            message.getMessageProperties().setCorrelationId("order-42");
+            outbox.send("", QUEUE_NAME, message);
+        });
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(meterRegistry.get("rabbitmq.outbox.oldest.age").timeGauge().value(TimeUnit.MILLISECONDS))
+                .isGreaterThanOrEqualTo(100);
+
+        assertThat(outboxRelay.relay()).isEqualTo(1);
+        assertThat(meterRegistry.get("rabbitmq.outbox.oldest.age").timeGauge().value()).isZero();
+
+        Message message = rabbitTemplate.receive(QUEUE_NAME, 10_000);
+        assertThat(message).isNotNull();
+        MessageProperties properties = message.getMessageProperties();
+        assertThat(properties.getMessageId()).isNotNull();
+        assertThat(properties.getHeaders()).containsEntry("tenant", "fruit-shop")
+                                           .containsKey("__TypeId__");
+        assertThat(properties.getReceivedDeliveryMode()).isEqualTo(MessageDeliveryMode.NON_PERSISTENT);
+        assertThat(properties.getPriority()).isEqualTo(5);
+        assertThat(properties.getExpiration()).isEqualTo("60000");
+        assertThat(properties.getCorrelationId()).isEqualTo("order-42");
+        assertThat(messageConverter.fromMessage(message)).isEqualTo(List.of("apple", "banana"));
+    }
+}
@@ -0,0 +1,203 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ShutdownSignalException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publish on a dedicated confirm channel without waiting for each publisher confirm.
+ * <p>
+ * {@code RabbitTemplate} with correlated confirms is usually used as send-and-wait, so every message pays a full
+ * round trip. This publisher pipelines the sends and keeps the outstanding confirms in a
+ * {@link ConcurrentSkipListMap} by delivery tag. The broker confirms in delivery tag order, and an ack or nack
+ * with {@code multiple = true} confirms all the delivery tags up to and including the given one, which is a
+ * {@link ConcurrentSkipListMap#headMap(Object, boolean)} of the outstanding confirms.
+ * <p>
+ * At most {@code maxInFlight} messages are unconfirmed. A publish blocks when the window is full, which applies
+ * back-pressure on the caller instead of buffering without limit.
+ * <p>
+ * The channel is not thread-safe, so the sends are serialized, but a caller doesn't wait for the broker.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class PipelinedPublisher implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1_000;
+
+    private final Connection connection;
+
+    private final Channel channel;
+
+    private final MessageConverter messageConverter;
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> outstandingConfirms =
+            new ConcurrentSkipListMap<>();
+
+    private final Semaphore window;
+
+    private final int maxInFlight;
+
+    private final Object sendLock = new Object();
+
+    /**
+     * Open a dedicated connection and confirm channel
+     *
+     * @param rabbitConnectionFactory e.g. {@code CachingConnectionFactory.getRabbitConnectionFactory()}
+     */
+    public static PipelinedPublisher open(ConnectionFactory rabbitConnectionFactory,
+                                          MessageConverter messageConverter,
+                                          int maxInFlight) throws IOException, TimeoutException {
+
+        Connection connection = rabbitConnectionFactory.newConnection("pipelined-publisher");
+        try {
+            return new PipelinedPublisher(connection, connection.createChannel(), messageConverter, maxInFlight);
+        } catch (IOException | RuntimeException e) {
+            connection.abort();
+            throw e;
+        }
+    }
+
+    PipelinedPublisher(Connection connection, Channel channel, MessageConverter messageConverter, int maxInFlight)
+            throws IOException {
+
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in-flight must be larger than 0");
+        }
+        this.connection = connection;
+        this.channel = channel;
+        this.messageConverter = messageConverter;
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+
+        channel.confirmSelect();
+        channel.addConfirmListener(
+                (deliveryTag, multiple) -> confirm(deliveryTag, multiple, null),
+                (deliveryTag, multiple) -> confirm(deliveryTag, multiple,
+                        new AmqpException("Broker nack delivery tag " + deliveryTag)));
+        channel.addShutdownListener(this::failOutstanding);
+    }
+
+    /**
+     * Publish without waiting for the confirm, blocking only while {@code maxInFlight} messages are unconfirmed
+     *
+     * @return completed when the broker acks, or completed exceptionally when the broker nacks or the channel is
+     * closed
+     */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, Object payload)
+            throws InterruptedException {
+
+        MessageProperties messageProperties = new MessageProperties();
+        Message message = messageConverter.toMessage(payload, messageProperties);
+        AMQP.BasicProperties basicProperties =
+                messagePropertiesConverter.fromMessageProperties(messageProperties, "UTF-8");
+
+        CompletableFuture<Void> confirm = new CompletableFuture<>();
+        window.acquire();
+        synchronized (sendLock) {
+            long deliveryTag = channel.getNextPublishSeqNo();
+            outstandingConfirms.put(deliveryTag, confirm);
+            try {
+                channel.basicPublish(exchange, routingKey, basicProperties, message.getBody());
+            } catch (IOException | RuntimeException e) {
+                if (null != outstandingConfirms.remove(deliveryTag)) {
+                    window.release();
+                }
+                confirm.completeExceptionally(new AmqpIOException(new IOException("Fail to publish", e)));
+            }
+        }
+        return confirm;
+    }
+
+    private void confirm(long deliveryTag, boolean multiple, AmqpException nack) {
+
+        if (multiple) {
+            ConcurrentNavigableMap<Long, CompletableFuture<Void>> confirmed =
+                    outstandingConfirms.headMap(deliveryTag, true);
+            for (Map.Entry<Long, CompletableFuture<Void>> entry : confirmed.entrySet()) {
+                // removed by this thread, not by a concurrent shutdown
+                if (confirmed.remove(entry.getKey(), entry.getValue())) {
+                    complete(entry.getValue(), nack);
+                }
+            }
+        } else {
+            CompletableFuture<Void> confirm = outstandingConfirms.remove(deliveryTag);
+            if (null != confirm) {
+                complete(confirm, nack);
+            }
+        }
+    }
+
+    private void complete(CompletableFuture<Void> confirm, AmqpException nack) {
+
+        window.release();
+        if (null == nack) {
+            confirm.complete(null);
+        } else {
+            confirm.completeExceptionally(nack);
+        }
+    }
+
+    private void failOutstanding(ShutdownSignalException cause) {
+
+        if (!outstandingConfirms.isEmpty()) {
+            log.warn("Channel closed with {} unconfirmed messages: {}", outstandingConfirms.size(), cause.getMessage());
+        }
+        Map.Entry<Long, CompletableFuture<Void>> entry;
+        while (null != (entry = outstandingConfirms.pollFirstEntry())) {
+            window.release();
+            entry.getValue().completeExceptionally(new AmqpIOException(new IOException("Channel closed", cause)));
+        }
+    }
+
+    /**
+     * @return the number of unconfirmed messages
+     */
+    public int getInFlight() {
+        return maxInFlight - window.availablePermits();
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            if (channel.isOpen()) {
+                // wait for the outstanding confirms
+                channel.waitForConfirms(10_000);
+                channel.close();
+            }
+        } catch (IOException | TimeoutException | ShutdownSignalException e) {
+            log.warn("Fail to close channel cleanly", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (null != connection) {
+                connection.abort();
+            }
+        }
+    }
+}
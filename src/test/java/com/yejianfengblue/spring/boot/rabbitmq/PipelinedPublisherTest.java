@@ -0,0 +1,244 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The tests with a mock channel don't need a broker.
+ * The others need a RabbitMQ server on localhost:5672 with default user guest:guest.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.rabbitmq.publisher-confirm-type = correlated"
+})
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class PipelinedPublisherTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-pipelined-publisher-test-queue";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private CachingConnectionFactory connectionFactory;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue messageQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+    }
+
+    /**
+     * A mock confirm channel whose delivery tag starts from 1 and increases per publish
+     */
+    private static Channel mockChannel() throws Exception {
+
+        Channel channel = mock(Channel.class);
+        AtomicLong nextPublishSeqNo = new AtomicLong(1);
+        when(channel.getNextPublishSeqNo()).thenAnswer(invocation -> nextPublishSeqNo.get());
+        doAnswer(invocation -> nextPublishSeqNo.getAndIncrement())
+                .when(channel).basicPublish(anyString(), anyString(), any(), any(byte[].class));
+        when(channel.isOpen()).thenReturn(true);
+        return channel;
+    }
+
+    private static ConfirmListener confirmListenerOf(Channel channel) {
+
+        ArgumentCaptor<com.rabbitmq.client.ConfirmCallback> ackCallback =
+                ArgumentCaptor.forClass(com.rabbitmq.client.ConfirmCallback.class);
+        ArgumentCaptor<com.rabbitmq.client.ConfirmCallback> nackCallback =
+                ArgumentCaptor.forClass(com.rabbitmq.client.ConfirmCallback.class);
+        verify(channel).addConfirmListener(ackCallback.capture(), nackCallback.capture());
+        return new ConfirmListener() {
+
+            @Override
+            public void handleAck(long deliveryTag, boolean multiple) throws java.io.IOException {
+                ackCallback.getValue().handle(deliveryTag, multiple);
+            }
+
+            @Override
+            public void handleNack(long deliveryTag, boolean multiple) throws java.io.IOException {
+                nackCallback.getValue().handle(deliveryTag, multiple);
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Given 5 outstanding confirms, when single ack, multiple ack and nack, " +
+                 "then only the confirmed futures complete accordingly")
+    void givenOutstandingConfirms_whenSingleAndMultipleAckAndNack_thenConfirmedFuturesComplete() throws Exception {
+
+        Channel channel = mockChannel();
+        PipelinedPublisher publisher = new PipelinedPublisher(mock(Connection.class), channel,
+                new SimpleMessageConverter(), 10);
+        verify(channel).confirmSelect();
+        ConfirmListener confirmListener = confirmListenerOf(channel);
+
+        List<CompletableFuture<Void>> confirms = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            confirms.add(publisher.publish("", QUEUE_NAME, "message " + i));
+        }
+        assertThat(publisher.getInFlight()).isEqualTo(5);
+
+        // delivery tag 2 only
+        confirmListener.handleAck(2, false);
+        assertThat(confirms).extracting(CompletableFuture::isDone).containsExactly(false, true, false, false, false);
+
+        // delivery tags up to 3, which are 1 and 3
+        confirmListener.handleAck(3, true);
+        assertThat(confirms).extracting(CompletableFuture::isDone).containsExactly(true, true, true, false, false);
+        assertThat(publisher.getInFlight()).isEqualTo(2);
+
+        confirmListener.handleNack(5, true);
+        assertThat(confirms.get(3)).isCompletedExceptionally();
+        assertThatThrownBy(() -> confirms.get(4).join()).hasCauseInstanceOf(AmqpException.class)
+                                                        .hasMessageContaining("nack delivery tag 5");
+        assertThat(publisher.getInFlight()).isZero();
+    }
+
+    @Test
+    @DisplayName("Given max in-flight 2 reached, when publish, then block until a confirm arrives")
+    void givenMaxInFlightReached_whenPublish_thenBlockUntilConfirm() throws Exception {
+
+        Channel channel = mockChannel();
+        PipelinedPublisher publisher = new PipelinedPublisher(mock(Connection.class), channel,
+                new SimpleMessageConverter(), 2);
+        ConfirmListener confirmListener = confirmListenerOf(channel);
+
+        publisher.publish("", QUEUE_NAME, "1");
+        publisher.publish("", QUEUE_NAME, "2");
+        CompletableFuture<CompletableFuture<Void>> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return publisher.publish("", QUEUE_NAME, "3");
+            } catch (InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        });
+
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertThat(third).isNotDone();
+        verify(channel, times(2)).basicPublish(anyString(), anyString(), any(), any(byte[].class));
+
+        confirmListener.handleAck(1, false);
+        assertThat(third.get(5, TimeUnit.SECONDS)).isNotDone();
+        assertThat(publisher.getInFlight()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Given 10k messages, when pipelined publish, then all confirmed and in queue")
+    void given10kMessages_whenPipelinedPublish_thenAllConfirmedAndInQueue() throws Exception {
+
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+        List<CompletableFuture<Void>> confirms = new ArrayList<>();
+        try (PipelinedPublisher publisher = PipelinedPublisher.open(connectionFactory.getRabbitConnectionFactory(),
+                rabbitTemplate.getMessageConverter(), PipelinedPublisher.DEFAULT_MAX_IN_FLIGHT)) {
+            for (int i = 0; i < 10_000; i++) {
+                confirms.add(publisher.publish("", QUEUE_NAME, "message " + i));
+            }
+            CompletableFuture.allOf(confirms.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            assertThat(publisher.getInFlight()).isZero();
+        }
+        assertThat(amqpAdmin.getQueueProperties(QUEUE_NAME).get(RabbitAdmin.QUEUE_MESSAGE_COUNT)).isEqualTo(10_000);
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+    }
+
+    @Test
+    @DisplayName("Given non-existent exchange, when pipelined publish, then the channel is closed by broker " +
+                 "and the outstanding confirm fails")
+    void givenNonExistentExchange_whenPipelinedPublish_thenConfirmFails() throws Exception {
+
+        try (PipelinedPublisher publisher = PipelinedPublisher.open(connectionFactory.getRabbitConnectionFactory(),
+                rabbitTemplate.getMessageConverter(), 10)) {
+            CompletableFuture<Void> confirm = publisher.publish("non-existent-exchange", "", "hello");
+            Throwable thrown = catchThrowable(() -> confirm.get(10, TimeUnit.SECONDS));
+
+            // the channel close fails the outstanding confirm, with the shutdown signal as the cause
+            assertThat(thrown).isInstanceOf(ExecutionException.class)
+                              .hasCauseInstanceOf(AmqpIOException.class);
+            assertThat(thrown.getCause().getCause().getCause()).isInstanceOf(ShutdownSignalException.class);
+            ShutdownSignalException shutdown = (ShutdownSignalException) thrown.getCause().getCause().getCause();
+            assertThat(shutdown.isHardError()).isFalse();
+            assertThat(((AMQP.Channel.Close) shutdown.getReason()).getReplyCode()).isEqualTo(AMQP.NOT_FOUND);
+            assertThat(publisher.isOpen()).isFalse();
+            assertThat(publisher.getInFlight()).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("Given 5k messages, when send and wait for each confirm versus pipelined publish, " +
+                 "then compare messages per second")
+    void given5kMessages_whenSendAndWaitVersusPipelined_thenCompareThroughput() throws Exception {
+
+        int messageCount = 5_000;
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            CorrelationData correlationData = new CorrelationData(UUID.randomUUID().toString());
+            rabbitTemplate.convertAndSend("", QUEUE_NAME, "message " + i, correlationData);
+            assertThat(correlationData.getFuture().get(10, TimeUnit.SECONDS).isAck()).isTrue();
+        }
+        double sendAndWaitRate = messageCount * 1e9 / (System.nanoTime() - start);
+
+        start = System.nanoTime();
+        try (PipelinedPublisher publisher = PipelinedPublisher.open(connectionFactory.getRabbitConnectionFactory(),
+                rabbitTemplate.getMessageConverter(), PipelinedPublisher.DEFAULT_MAX_IN_FLIGHT)) {
+            List<CompletableFuture<Void>> confirms = new ArrayList<>(messageCount);
+            for (int i = 0; i < messageCount; i++) {
+                confirms.add(publisher.publish("", QUEUE_NAME, "message " + i));
+            }
+            CompletableFuture.allOf(confirms.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        }
+        double pipelinedRate = messageCount * 1e9 / (System.nanoTime() - start);
+
+        log.info("Publish {} confirmed messages: send and wait = {} msg/s, pipelined = {} msg/s",
+                messageCount, Math.round(sendAndWaitRate), Math.round(pipelinedRate));
+        assertThat(pipelinedRate).isGreaterThan(sendAndWaitRate);
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+    }
+}
@@ -0,0 +1,30 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * A processed message id of {@link JpaProcessedMessageStore}. Delete the old rows by {@code processedAt} to keep
+ * the table bounded.
+ *
+ * @author yejianfengblue
+ */
+@Entity
+@Table(indexes = @Index(columnList = "processedAt"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProcessedMessage {
+
+    @Id
+    private String messageId;
+
+    private Instant processedAt;
+}
@@ -0,0 +1,21 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import java.util.List;
+
+/**
+ * A persistent record of the processed message ids for {@link DeduplicatingInterceptor}, which survives a restart
+ * and resolves the ids the in-memory filter is not sure about.
+ *
+ * @author yejianfengblue
+ */
+public interface ProcessedMessageStore {
+
+    boolean contains(String messageId);
+
+    void add(String messageId);
+
+    /**
+     * @return up to limit most recently processed message ids, to warm up the in-memory filter on start
+     */
+    List<String> findRecent(int limit);
+}
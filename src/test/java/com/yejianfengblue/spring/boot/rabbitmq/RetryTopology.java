@@ -0,0 +1,210 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.retry.RepublishMessageRecoverer;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delayed retry of a work queue through tiered delay queues, instead of requeue in a tight loop.
+ * <pre>
+ *                   listener fails, attempt n
+ * work queue  ------------------------------------&gt;  &lt;queue&gt;.retry.&lt;delay n&gt;ms
+ *     ^                                                     |
+ *     |  message TTL expires, dead letter by the queue name |
+ *     +-----------------------------------------------------+
+ *
+ * work queue  ----- attempt max attempts fails -----&gt;  &lt;queue&gt;.parking-lot
+ * </pre>
+ * A delay queue has no consumer. Its message TTL is the delay, and its dead letter exchange is the default exchange
+ * with the work queue name as dead letter routing key, same as {@code DlxTest}, so an expired message goes back to the
+ * work queue. Each delay is a queue of its own, because a queue expires messages only from its head, and one
+ * message TTL per queue keeps the head the earliest to expire.
+ * <p>
+ * The attempts are counted in header {@link #X_RETRY_ATTEMPT}. Attempt n goes to delay n, and the last delay is
+ * reused when there are more attempts than delays. The failed message of the last attempt goes to the parking lot,
+ * with the exception headers of {@link RepublishMessageRecoverer}, for a person or a tool to look at.
+ * <p>
+ * Declare by one builder, and use the {@link #recoverer(AmqpTemplate)} as the message recoverer of a stateless retry,
+ * e.g. a {@link MessageRecoverer} bean with {@code spring.rabbitmq.listener.simple.retry.enabled = true} and
+ * {@code spring.rabbitmq.listener.simple.retry.max-attempts = 1}, so Spring Boot uses it for the listeners.
+ * <pre>
+ * RetryTopology.forQueue("orders")
+ *              .delays(Duration.ofSeconds(1), Duration.ofSeconds(10), Duration.ofSeconds(60))
+ *              .maxAttempts(5)
+ *              .build();
+ * </pre>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class RetryTopology {
+
+    public static final String X_RETRY_ATTEMPT = "x-retry-attempt";
+
+    private final String queue;
+
+    private final List<Duration> delays;
+
+    private final int maxAttempts;
+
+    private final Duration expires;
+
+    private RetryTopology(Builder builder) {
+
+        this.queue = builder.queue;
+        this.delays = List.copyOf(builder.delays);
+        this.maxAttempts = builder.maxAttempts;
+        this.expires = builder.expires;
+    }
+
+    public static Builder forQueue(String queue) {
+        return new Builder(queue);
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public String getParkingLot() {
+        return queue + ".parking-lot";
+    }
+
+    public String getDelayQueue(Duration delay) {
+        return queue + ".retry." + delay.toMillis() + "ms";
+    }
+
+    /**
+     * @param attempt the failed attempt, from 1
+     * @return the delay queue of the attempt, or the parking lot if no more attempt
+     */
+    public String routeOf(int attempt) {
+
+        if (attempt >= maxAttempts) {
+            return getParkingLot();
+        }
+        return getDelayQueue(delays.get(Math.min(attempt, delays.size()) - 1));
+    }
+
+    /**
+     * The work queue, the delay queues and the parking lot
+     */
+    public Declarables declarables() {
+
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(withExpires(QueueBuilder.durable(queue)).build());
+        for (Duration delay : delays) {
+            declarables.add(withExpires(QueueBuilder.durable(getDelayQueue(delay)))
+                    .ttl((int) delay.toMillis())
+                    .deadLetterExchange("")  // use default exchange as dead letter exchange
+                    .deadLetterRoutingKey(queue)  // back to the work queue
+                    .build());
+        }
+        declarables.add(withExpires(QueueBuilder.durable(getParkingLot())).build());
+        return new Declarables(declarables);
+    }
+
+    private QueueBuilder withExpires(QueueBuilder queueBuilder) {
+        return (null != expires) ? queueBuilder.expires((int) expires.toMillis()) : queueBuilder;
+    }
+
+    /**
+     * @return a recoverer which sends a failed message of the work queue to the delay queue of its attempt, or to the
+     * parking lot after the max attempts
+     */
+    public MessageRecoverer recoverer(AmqpTemplate amqpTemplate) {
+
+        return (message, cause) -> {
+
+            MessageProperties properties = message.getMessageProperties();
+            if (!queue.equals(properties.getConsumerQueue())) {
+                throw new AmqpRejectAndDontRequeueException("No retry topology for queue " +
+                                                             properties.getConsumerQueue(), cause);
+            }
+            Object attemptHeader = properties.getHeaders().get(X_RETRY_ATTEMPT);
+            int attempt = (attemptHeader instanceof Number) ? ((Number) attemptHeader).intValue() + 1 : 1;
+            properties.setHeader(X_RETRY_ATTEMPT, attempt);
+            if (null == properties.getDeliveryMode()) {
+                properties.setDeliveryMode(properties.getReceivedDeliveryMode());
+            }
+
+            String route = routeOf(attempt);
+            if (route.equals(getParkingLot())) {
+                Throwable rootCause = (null != cause.getCause()) ? cause.getCause() : cause;
+                StringWriter stackTrace = new StringWriter();
+                rootCause.printStackTrace(new PrintWriter(stackTrace));
+                properties.setHeader(RepublishMessageRecoverer.X_EXCEPTION_MESSAGE, rootCause.getMessage());
+                properties.setHeader(RepublishMessageRecoverer.X_EXCEPTION_STACKTRACE, stackTrace.toString());
+                properties.setHeader(RepublishMessageRecoverer.X_ORIGINAL_EXCHANGE, properties.getReceivedExchange());
+                properties.setHeader(RepublishMessageRecoverer.X_ORIGINAL_ROUTING_KEY,
+                        properties.getReceivedRoutingKey());
+                log.warn("Park message of {} after {} attempts: {}", queue, attempt, rootCause.getMessage());
+            } else {
+                log.info("Retry message of {} by {} after attempt {}", queue, route, attempt);
+            }
+            amqpTemplate.send("", route, message);
+        };
+    }
+
+    public static class Builder {
+
+        private final String queue;
+
+        private final List<Duration> delays = new ArrayList<>();
+
+        private int maxAttempts = 4;
+
+        private Duration expires;
+
+        private Builder(String queue) {
+            this.queue = queue;
+        }
+
+        public Builder delays(Duration... delays) {
+
+            this.delays.clear();
+            this.delays.addAll(Arrays.asList(delays));
+            return this;
+        }
+
+        /**
+         * @param maxAttempts attempts including the first delivery, default 4, i.e. 3 retries
+         */
+        public Builder maxAttempts(int maxAttempts) {
+
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Expire all the queues after unused for the duration, for test queues
+         */
+        public Builder expires(Duration expires) {
+
+            this.expires = expires;
+            return this;
+        }
+
+        public RetryTopology build() {
+
+            if (delays.isEmpty()) {
+                throw new IllegalArgumentException("At least one delay is required");
+            }
+            if (delays.stream().anyMatch(delay -> delay.isNegative() || delay.isZero())) {
+                throw new IllegalArgumentException("Delay must be positive");
+            }
+            if (maxAttempts < 2) {
+                throw new IllegalArgumentException("Max attempts must be at least 2");
+            }
+            return new RetryTopology(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import java.util.Arrays;
+
+/**
+ * A bloom filter of the recently added keys in two generations of {@code long[]} bit arrays, so the memory stays
+ * flat however many keys are added.
+ * <p>
+ * Keys are added to the current generation. When it holds {@code expectedInsertions} keys, it becomes the previous
+ * generation, and the old previous generation is cleared and reused as the current one. A key is remembered for at
+ * least {@code expectedInsertions} and at most {@code 2 * expectedInsertions} insertions, and a lookup checks both
+ * generations, so the false positive probability is at most about twice the configured probability.
+ * <p>
+ * The k bit indexes of a key are {@code h1 + i * h2} from the two halves of a 64-bit hash, so a lookup is k random
+ * reads and no allocation. Not thread-safe.
+ *
+ * @author yejianfengblue
+ */
+public class RotatingBloomFilter {
+
+    private final int expectedInsertions;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private long[] current;
+
+    private long[] previous;
+
+    private int currentInsertions;
+
+    /**
+     * @param expectedInsertions        keys per generation
+     * @param falsePositiveProbability of one generation when it holds {@code expectedInsertions} keys
+     */
+    public RotatingBloomFilter(int expectedInsertions, double falsePositiveProbability) {
+
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("Expected insertions must be positive");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1");
+        }
+        this.expectedInsertions = expectedInsertions;
+        // optimal m = -n ln p / (ln 2)^2 and k = m / n ln 2
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability)
+                                     / (Math.log(2) * Math.log(2)));
+        int words = Math.toIntExact((bits + 63) / 64);
+        this.bitCount = words * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        this.current = new long[words];
+        this.previous = new long[words];
+    }
+
+    /**
+     * A 64-bit hash of the characters, FNV-1a then the SplitMix64 finalizer, without encoding the key to bytes
+     */
+    public static long hash(CharSequence key) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    public boolean mightContain(long hash) {
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    public void put(long hash) {
+
+        if (contains(current, hash)) {
+            return;
+        }
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            current[(int) (index >>> 6)] |= 1L << index;
+        }
+        if (++currentInsertions >= expectedInsertions) {
+            long[] cleared = previous;
+            Arrays.fill(cleared, 0L);
+            previous = current;
+            current = cleared;
+            currentInsertions = 0;
+        }
+    }
+
+    private boolean contains(long[] bits, long hash) {
+
+        long h1 = hash;
+        long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if (0 == (bits[(int) (index >>> 6)] & (1L << index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return the bytes of both generations, fixed at construction
+     */
+    public long getSizeInBytes() {
+        return 2 * bitCount / 8;
+    }
+}
@@ -0,0 +1,48 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+
+/**
+ * Publish messages of a key to the shard queue of the key in {@link ShardedQueues}, with the key in header
+ * {@link ShardedQueues#X_SHARD_KEY}. Messages of the same key are published to the same shard in the publish order.
+ *
+ * @author yejianfengblue
+ */
+public class ShardedPublisher {
+
+    private final AmqpTemplate amqpTemplate;
+
+    private final ShardedQueues shardedQueues;
+
+    public ShardedPublisher(AmqpTemplate amqpTemplate, ShardedQueues shardedQueues) {
+
+        this.amqpTemplate = amqpTemplate;
+        this.shardedQueues = shardedQueues;
+    }
+
+    /**
+     * @return the shard the message is published to
+     */
+    public int convertAndSend(String key, Object payload) {
+
+        int shard = shardedQueues.shardOf(key);
+        amqpTemplate.convertAndSend(shardedQueues.getExchange(), shardedQueues.routingKeyOf(shard), payload,
+                message -> {
+                    message.getMessageProperties().setHeader(ShardedQueues.X_SHARD_KEY, key);
+                    return message;
+                });
+        return shard;
+    }
+
+    /**
+     * @return the shard the message is published to
+     */
+    public int send(String key, Message message) {
+
+        int shard = shardedQueues.shardOf(key);
+        message.getMessageProperties().setHeader(ShardedQueues.X_SHARD_KEY, key);
+        amqpTemplate.send(shardedQueues.getExchange(), shardedQueues.routingKeyOf(shard), message);
+        return shard;
+    }
+}
@@ -0,0 +1,205 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A queue split into N shard queues, where all messages of a key, e.g. an account id, go to the same shard, so
+ * one consumer per shard keeps the order per key while the shards are consumed in parallel.
+ * <pre>
+ *                                     routing key "0"
+ *                                +---------------------&gt;  &lt;name&gt;.shard-0  ---&gt;  1 consumer
+ * publisher  ---&gt;  &lt;name&gt;.sharding  ...
+ *  shard of key                  |    routing key "N-1"
+ *                                +---------------------&gt;  &lt;name&gt;.shard-N-1  ---&gt;  1 consumer
+ * </pre>
+ * The publisher picks the shard by the jump consistent hash of the key, so when the shard count changes from N to
+ * N + 1, only 1 / (N + 1) of the keys move to another shard, the same as a consistent hash exchange, but with a
+ * plain direct exchange and without the broker plugin. Keys in flight while the shard count changes may be
+ * consumed out of order, so drain the queues before resharding.
+ * <p>
+ * The shard queues are single active consumer queues, so when several application instances consume the shards,
+ * the broker delivers a shard to one consumer at a time, and fails over to another instance.
+ * <pre>
+ * ShardedQueues orders = ShardedQueues.forName("orders").shards(8).build();
+ * </pre>
+ *
+ * @author yejianfengblue
+ */
+public class ShardedQueues {
+
+    /**
+     * The header of the key a message is sharded by
+     */
+    public static final String X_SHARD_KEY = "x-shard-key";
+
+    private final String name;
+
+    private final int shards;
+
+    private final Duration expires;
+
+    private ShardedQueues(Builder builder) {
+
+        this.name = builder.name;
+        this.shards = builder.shards;
+        this.expires = builder.expires;
+    }
+
+    public static Builder forName(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public String getExchange() {
+        return name + ".sharding";
+    }
+
+    public String getQueue(int shard) {
+        return name + ".shard-" + shard;
+    }
+
+    public List<String> getQueueNames() {
+        return IntStream.range(0, shards).mapToObj(this::getQueue).collect(Collectors.toList());
+    }
+
+    public String routingKeyOf(int shard) {
+        return String.valueOf(shard);
+    }
+
+    /**
+     * @return the shard of the key, from 0 to shards - 1
+     */
+    public int shardOf(String key) {
+        return jumpConsistentHash(hash(key), shards);
+    }
+
+    /**
+     * FNV-1a of the UTF-8 bytes, then the SplitMix64 finalizer to spread keys which differ in the last characters
+     */
+    static long hash(String key) {
+
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Jump consistent hash of Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm"
+     */
+    static int jumpConsistentHash(long key, int buckets) {
+
+        long bucket = -1;
+        long jump = 0;
+        while (jump < buckets) {
+            bucket = jump;
+            key = key * 2862933555777941757L + 1;
+            jump = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    /**
+     * The sharding exchange, and the shard queues bound to it by the shard number
+     */
+    public Declarables declarables() {
+
+        DirectExchange exchange = new DirectExchange(getExchange(), true, null != expires);
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(exchange);
+        for (int shard = 0; shard < shards; shard++) {
+            QueueBuilder queueBuilder = QueueBuilder.durable(getQueue(shard)).singleActiveConsumer();
+            Queue queue = ((null != expires) ? queueBuilder.expires((int) expires.toMillis()) : queueBuilder).build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(routingKeyOf(shard)));
+        }
+        return new Declarables(declarables);
+    }
+
+    /**
+     * @return an endpoint per shard queue, with id {@code <queue>-listener}, all calling the listener
+     */
+    public List<SimpleRabbitListenerEndpoint> endpoints(MessageListener messageListener) {
+
+        List<SimpleRabbitListenerEndpoint> endpoints = new ArrayList<>(shards);
+        for (String queue : getQueueNames()) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId(queue + "-listener");
+            endpoint.setQueueNames(queue);
+            endpoint.setMessageListener(messageListener);
+            endpoints.add(endpoint);
+        }
+        return endpoints;
+    }
+
+    /**
+     * Register a container per shard queue, for a {@code RabbitListenerConfigurer}. Use a single consumer container
+     * factory, e.g. {@code shardRabbitListenerContainerFactory} of {@link ShardingConfig}, to keep the order per key.
+     */
+    public void registerListeners(RabbitListenerEndpointRegistrar registrar,
+                                  RabbitListenerContainerFactory<?> containerFactory,
+                                  MessageListener messageListener) {
+
+        endpoints(messageListener).forEach(endpoint -> registrar.registerEndpoint(endpoint, containerFactory));
+    }
+
+    public static class Builder {
+
+        private final String name;
+
+        private int shards = 4;
+
+        private Duration expires;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param shards the number of shard queues, default 4
+         */
+        public Builder shards(int shards) {
+
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Expire the queues after unused for the duration, and auto delete the exchange, for test queues
+         */
+        public Builder expires(Duration expires) {
+
+            this.expires = expires;
+            return this;
+        }
+
+        public ShardedQueues build() {
+
+            if (shards < 1) {
+                throw new IllegalArgumentException("At least one shard is required");
+            }
+            return new ShardedQueues(this);
+        }
+    }
+}
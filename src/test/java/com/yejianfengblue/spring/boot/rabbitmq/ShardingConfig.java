@@ -0,0 +1,66 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+
+/**
+ * {@link ShardedQueues} named {@code rabbitmq.sharding.name} of {@code rabbitmq.sharding.shards} shards (default 4),
+ * expiring after unused for {@code rabbitmq.sharding.expires} milliseconds (default never), declared by
+ * {@code RabbitAdmin}, and a {@link ShardedPublisher} to them.
+ * <p>
+ * And a listener container factory {@code shardRabbitListenerContainerFactory} of exactly one consumer per
+ * container, so a container per shard, e.g. registered by {@link ShardedQueues#registerListeners}, consumes a shard
+ * in order on one thread. The prefetch is {@code rabbitmq.sharding.prefetch} (default 250), as the one consumer
+ * processes the prefetched messages in delivery order. But a requeued message comes back after the messages already
+ * prefetched, as {@code RequeueOrderTest} shows, so retry a failed message in the listener thread, e.g. by
+ * {@code spring.rabbitmq.listener.simple.retry.enabled = true}, or use prefetch 1, to keep the order on failure.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class ShardingConfig {
+
+    @Bean
+    ShardedQueues shardedQueues(@Value("${rabbitmq.sharding.name}") String name,
+                                @Value("${rabbitmq.sharding.shards:4}") int shards,
+                                @Value("${rabbitmq.sharding.expires:0}") long expires) {
+
+        ShardedQueues.Builder builder = ShardedQueues.forName(name).shards(shards);
+        if (expires > 0) {
+            builder.expires(Duration.ofMillis(expires));
+        }
+        return builder.build();
+    }
+
+    @Bean
+    Declarables shardedQueuesDeclarables(ShardedQueues shardedQueues) {
+        return shardedQueues.declarables();
+    }
+
+    @Bean
+    ShardedPublisher shardedPublisher(RabbitTemplate rabbitTemplate, ShardedQueues shardedQueues) {
+        return new ShardedPublisher(rabbitTemplate, shardedQueues);
+    }
+
+    @Bean
+    SimpleRabbitListenerContainerFactory shardRabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${rabbitmq.sharding.prefetch:250}") int prefetch) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setConcurrentConsumers(1);
+        factory.setMaxConcurrentConsumers(1);
+        factory.setPrefetchCount(prefetch);
+        return factory;
+    }
+}
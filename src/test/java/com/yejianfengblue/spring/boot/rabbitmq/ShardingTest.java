@@ -0,0 +1,222 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The hash tests don't need a broker.
+ * The others need a RabbitMQ server on localhost:5672 with default user guest:guest,
+ * or run with {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "rabbitmq.sharding.name = spring-boot-study-rabbitmq-sharding-test-queue",
+        "rabbitmq.sharding.shards = 4",
+        "rabbitmq.sharding.expires = 300000"  // queue expires after 5min
+})
+@Import(ShardingConfig.class)
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class ShardingTest {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig implements RabbitListenerConfigurer {
+
+        @Autowired
+        private ShardedQueues shardedQueues;
+
+        @Autowired
+        private SimpleRabbitListenerContainerFactory shardRabbitListenerContainerFactory;
+
+        @Override
+        public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+            shardedQueues.registerListeners(registrar, shardRabbitListenerContainerFactory, new AccountReceiver());
+        }
+    }
+
+    /**
+     * Record the sequence numbers and the consumer threads of each account
+     */
+    static class AccountReceiver implements MessageListener {
+
+        static volatile CountDownLatch latch = new CountDownLatch(0);
+
+        static final Map<String, List<Integer>> sequences = new ConcurrentHashMap<>();
+
+        static final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+
+        @Override
+        public void onMessage(Message message) {
+
+            String account = message.getMessageProperties().getHeader(ShardedQueues.X_SHARD_KEY);
+            int sequence = Integer.parseInt(new String(message.getBody()));
+            sequences.computeIfAbsent(account, key -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+            threads.computeIfAbsent(account, key -> ConcurrentHashMap.newKeySet())
+                   .add(Thread.currentThread().getName());
+            latch.countDown();
+        }
+    }
+
+    @Autowired
+    private ShardedQueues shardedQueues;
+
+    @Autowired
+    private ShardedPublisher shardedPublisher;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private SimpleRabbitListenerContainerFactory shardRabbitListenerContainerFactory;
+
+    @Test
+    @DisplayName("Given 100k keys, when shard to 8, then balanced, and when reshard to 9, then only about 1/9 move")
+    void given100kKeys_whenShardTo8AndReshardTo9_thenBalancedAndMinimalMove() {
+
+        ShardedQueues eight = ShardedQueues.forName("eight").shards(8).build();
+        ShardedQueues nine = ShardedQueues.forName("nine").shards(9).build();
+        int keyCount = 100_000;
+        int[] counts = new int[8];
+        int moved = 0;
+        for (int i = 0; i < keyCount; i++) {
+            String key = "account-" + i;
+            int shard = eight.shardOf(key);
+            assertThat(eight.shardOf(key)).isEqualTo(shard);
+            counts[shard]++;
+            int reshard = nine.shardOf(key);
+            if (reshard != shard) {
+                // a key moves only to the new shard
+                assertThat(reshard).isEqualTo(8);
+                moved++;
+            }
+        }
+
+        log.info("100k keys over 8 shards: {}, {} moved to the 9th shard", counts, moved);
+        for (int count : counts) {
+            assertThat(count).isBetween(keyCount / 8 * 95 / 100, keyCount / 8 * 105 / 100);
+        }
+        assertThat(moved).isBetween(keyCount / 9 * 95 / 100, keyCount / 9 * 105 / 100);
+    }
+
+    @Test
+    @DisplayName("Given 4 shards, when publish 100 messages of each of 20 accounts interleaved, " +
+                 "then each account consumed in order on one thread, and shards on different threads")
+    void given4Shards_whenPublishInterleavedAccounts_thenOrderedPerAccountOnOneThread() throws InterruptedException {
+
+        AccountReceiver.sequences.clear();
+        AccountReceiver.threads.clear();
+        AccountReceiver.latch = new CountDownLatch(20 * 100);
+        Set<Integer> usedShards = new HashSet<>();
+
+        for (int sequence = 0; sequence < 100; sequence++) {
+            for (int account = 0; account < 20; account++) {
+                usedShards.add(shardedPublisher.convertAndSend("account-" + account, String.valueOf(sequence)));
+            }
+        }
+
+        assertThat(AccountReceiver.latch.await(30, TimeUnit.SECONDS)).isTrue();
+        List<Integer> expected = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        for (int account = 0; account < 20; account++) {
+            assertThat(AccountReceiver.sequences.get("account-" + account)).isEqualTo(expected);
+            assertThat(AccountReceiver.threads.get("account-" + account)).hasSize(1);
+        }
+        Set<String> allThreads = AccountReceiver.threads.values().stream()
+                                                        .flatMap(Set::stream)
+                                                        .collect(Collectors.toSet());
+        assertThat(allThreads).hasSize(usedShards.size());
+        assertThat(usedShards).hasSize(shardedQueues.getShards());
+    }
+
+    @Test
+    @DisplayName("Given 2ms work per message, when consume 400 messages by 1 shard versus 4 shards, " +
+                 "then throughput scales with the shards")
+    void given2msWork_whenConsumeBy1ShardVersus4Shards_thenThroughputScales() throws InterruptedException {
+
+        double[] rates = new double[2];
+        int[] shardCounts = {1, 4};
+        for (int s = 0; s < shardCounts.length; s++) {
+
+            ShardedQueues queues = ShardedQueues.forName(shardedQueues.getName() + "-" + shardCounts[s])
+                                                .shards(shardCounts[s])
+                                                .expires(Duration.ofMinutes(5))
+                                                .build();
+            declare(queues.declarables());
+            int messageCount = 400;
+            CountDownLatch consumed = new CountDownLatch(messageCount);
+            List<MessageListenerContainer> containers = queues.endpoints(message -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                consumed.countDown();
+            }).stream().map(shardRabbitListenerContainerFactory::createListenerContainer).collect(Collectors.toList());
+
+            ShardedPublisher publisher = new ShardedPublisher(rabbitTemplate, queues);
+            for (int i = 0; i < messageCount; i++) {
+                publisher.convertAndSend("account-" + (i % 40), String.valueOf(i));
+            }
+            long start = System.nanoTime();
+            containers.forEach(MessageListenerContainer::start);
+            try {
+                assertThat(consumed.await(30, TimeUnit.SECONDS)).isTrue();
+                rates[s] = messageCount * 1e9 / (System.nanoTime() - start);
+            } finally {
+                containers.forEach(MessageListenerContainer::stop);
+            }
+        }
+
+        log.info("Consume 400 messages of 2ms work: 1 shard = {} msg/s, 4 shards = {} msg/s",
+                Math.round(rates[0]), Math.round(rates[1]));
+        assertThat(rates[1]).isGreaterThan(rates[0] * 2);
+    }
+
+    private void declare(Declarables declarables) {
+
+        for (Declarable declarable : declarables.getDeclarables()) {
+            if (declarable instanceof Exchange) {
+                amqpAdmin.declareExchange((Exchange) declarable);
+            } else if (declarable instanceof Queue) {
+                amqpAdmin.declareQueue((Queue) declarable);
+                amqpAdmin.purgeQueue(((Queue) declarable).getName(), false);
+            } else {
+                amqpAdmin.declareBinding((Binding) declarable);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpIOException;
+import org.springframework.amqp.AmqpResourceNotAvailableException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publish on a fixed set of channels of a dedicated connection, where each publishing thread sticks to one channel,
+ * instead of checking a channel out of the {@code CachingConnectionFactory} cache and back in for every send.
+ * <p>
+ * The channels are the stripes of a pool. A thread is assigned a stripe round robin on its first publish and keeps
+ * it, so with at least as many stripes as publishing threads, every thread has a channel of its own and never
+ * waits; with fewer stripes, the threads sharing a stripe take turns by the stripe lock, and the other stripes are
+ * not affected. A stripe opens its channel on first use, and again after the channel is closed, e.g. by a channel
+ * error. The send doesn't wait for a publisher confirm, the same as {@code RabbitTemplate} without confirms.
+ * <p>
+ * Meters, all tagged by {@code name}:
+ * <ul>
+ *     <li>{@code rabbitmq.publisher.channel.created}, the channels opened</li>
+ *     <li>{@code rabbitmq.publisher.channel.acquire}, tagged by {@code result}, {@code hit} if the stripe was free,
+ *     {@code miss} if the thread had to wait for it</li>
+ *     <li>{@code rabbitmq.publisher.channel.wait}, the time waited for a stripe on a miss</li>
+ *     <li>{@code rabbitmq.publisher.channel.stripes}</li>
+ * </ul>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class StripedChannelPublisher implements AutoCloseable {
+
+    private final Connection connection;
+
+    private final Stripe[] stripes;
+
+    private final MessageConverter messageConverter;
+
+    private final MessagePropertiesConverter messagePropertiesConverter = new DefaultMessagePropertiesConverter();
+
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    private final ThreadLocal<Stripe> threadStripe;
+
+    private final Counter channelsCreated;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Timer waitTimer;
+
+    /**
+     * Open a dedicated connection, the channels are opened on first use
+     *
+     * @param rabbitConnectionFactory e.g. {@code CachingConnectionFactory.getRabbitConnectionFactory()}
+     */
+    public static StripedChannelPublisher open(ConnectionFactory rabbitConnectionFactory,
+                                               MessageConverter messageConverter,
+                                               int stripes,
+                                               MeterRegistry meterRegistry,
+                                               String name) throws IOException, TimeoutException {
+
+        return new StripedChannelPublisher(rabbitConnectionFactory.newConnection(name), messageConverter, stripes,
+                meterRegistry, name);
+    }
+
+    StripedChannelPublisher(Connection connection,
+                            MessageConverter messageConverter,
+                            int stripes,
+                            MeterRegistry meterRegistry,
+                            String name) {
+
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripes must be larger than 0");
+        }
+        this.connection = connection;
+        this.messageConverter = messageConverter;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.threadStripe = ThreadLocal.withInitial(
+                () -> this.stripes[Math.floorMod(nextStripe.getAndIncrement(), stripes)]);
+
+        this.channelsCreated = Counter.builder("rabbitmq.publisher.channel.created")
+                                      .tag("name", name)
+                                      .register(meterRegistry);
+        this.hits = Counter.builder("rabbitmq.publisher.channel.acquire")
+                           .tag("name", name)
+                           .tag("result", "hit")
+                           .register(meterRegistry);
+        this.misses = Counter.builder("rabbitmq.publisher.channel.acquire")
+                             .tag("name", name)
+                             .tag("result", "miss")
+                             .register(meterRegistry);
+        this.waitTimer = Timer.builder("rabbitmq.publisher.channel.wait")
+                              .tag("name", name)
+                              .register(meterRegistry);
+        Gauge.builder("rabbitmq.publisher.channel.stripes", this.stripes, array -> array.length)
+             .tag("name", name)
+             .register(meterRegistry);
+    }
+
+    public void convertAndSend(String exchange, String routingKey, Object payload) {
+        send(exchange, routingKey, messageConverter.toMessage(payload, new MessageProperties()));
+    }
+
+    public void send(String exchange, String routingKey, Message message) {
+
+        AMQP.BasicProperties basicProperties =
+                messagePropertiesConverter.fromMessageProperties(message.getMessageProperties(), "UTF-8");
+        Stripe stripe = threadStripe.get();
+        if (stripe.lock.tryLock()) {
+            hits.increment();
+        } else {
+            long start = System.nanoTime();
+            stripe.lock.lock();
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            misses.increment();
+        }
+        try {
+            stripe.channel().basicPublish(exchange, routingKey, basicProperties, message.getBody());
+        } catch (IOException e) {
+            throw new AmqpIOException(e);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    @Override
+    public void close() {
+
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                if (null != stripe.channel && stripe.channel.isOpen()) {
+                    stripe.channel.close();
+                }
+            } catch (IOException | TimeoutException e) {
+                log.warn("Fail to close channel cleanly", e);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        connection.abort();
+    }
+
+    private class Stripe {
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        Channel channel;
+
+        /**
+         * Called with the lock held
+         */
+        Channel channel() throws IOException {
+
+            if (null == channel || !channel.isOpen()) {
+                channel = connection.createChannel();
+                if (null == channel) {
+                    throw new AmqpResourceNotAvailableException("The channelMax limit is reached");
+                }
+                channelsCreated.increment();
+            }
+            return channel;
+        }
+    }
+}
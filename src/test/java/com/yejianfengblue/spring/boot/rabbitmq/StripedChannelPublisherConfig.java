@@ -0,0 +1,35 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link StripedChannelPublisher} named {@code rabbitmq.publisher.name} (default {@code striped-publisher}) of
+ * {@code rabbitmq.publisher.stripes} channels (default the number of processors), with the message converter of the
+ * {@link RabbitTemplate}. Size the stripes to the publishing threads for a channel per thread.
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class StripedChannelPublisherConfig {
+
+    @Bean
+    StripedChannelPublisher stripedChannelPublisher(
+            CachingConnectionFactory connectionFactory,
+            RabbitTemplate rabbitTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${rabbitmq.publisher.name:striped-publisher}") String name,
+            @Value("${rabbitmq.publisher.stripes:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+                    int stripes) throws IOException, TimeoutException {
+
+        return StripedChannelPublisher.open(connectionFactory.getRabbitConnectionFactory(),
+                rabbitTemplate.getMessageConverter(), stripes, meterRegistry, name);
+    }
+}
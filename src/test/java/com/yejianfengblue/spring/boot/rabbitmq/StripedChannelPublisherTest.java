@@ -0,0 +1,192 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Need a RabbitMQ server on localhost:5672 with default user guest:guest, or run with
+ * {@code mvn test -Pembedded-broker}.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "rabbitmq.publisher.stripes = 4"
+})
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+@Import(StripedChannelPublisherConfig.class)
+class StripedChannelPublisherTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-striped-channel-publisher-test-queue";
+
+    private static final int THREADS = 64;
+
+    private static final int MESSAGES_PER_THREAD = 500;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private CachingConnectionFactory connectionFactory;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private StripedChannelPublisher stripedChannelPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Queue messageQueue() {
+            return QueueBuilder.durable(QUEUE_NAME)
+                    .expires(300_000)  // queue expires after 5min
+                    .build();
+        }
+    }
+
+    /**
+     * Publish {@link #MESSAGES_PER_THREAD} messages from each of {@link #THREADS} threads
+     *
+     * @return messages per second
+     */
+    private long publishConcurrently(Consumer<String> send) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        send.accept("Message " + thread + "-" + i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            long nanos = System.nanoTime() - start;
+            return TimeUnit.SECONDS.toNanos(1) * THREADS * MESSAGES_PER_THREAD / nanos;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertQueueMessageCountAndPurge(int expected) throws InterruptedException {
+
+        // the sends are not confirmed, wait for the broker to enqueue them
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int messageCount = 0;
+        while (messageCount < expected && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+            messageCount = (int) amqpAdmin.getQueueProperties(QUEUE_NAME).get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+        }
+        assertThat(messageCount).isEqualTo(expected);
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+    }
+
+    private static double count(MeterRegistry meterRegistry, String meterName, String name, String... tags) {
+        return meterRegistry.get(meterName).tag("name", name).tags(tags).counter().count();
+    }
+
+    @Test
+    @DisplayName("Given 64 threads, when publish by RabbitTemplate and by a striped publisher of 64 and 8 stripes, " +
+                 "then all published and the striped publisher opens a channel per stripe only")
+    void given64Threads_whenPublishByTemplateAndStripedPublisher_thenAllPublishedAndChannelPerStripe()
+            throws Exception {
+
+        int total = THREADS * MESSAGES_PER_THREAD;
+        // declare the queue by the admin, the publisher's own connection doesn't
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+
+        // a connection factory of its own, so its channel cache starts empty
+        CachingConnectionFactory templateConnectionFactory =
+                new CachingConnectionFactory(connectionFactory.getRabbitConnectionFactory());
+        AtomicInteger templateChannelsCreated = new AtomicInteger();
+        templateConnectionFactory.addChannelListener(
+                (channel, transactional) -> templateChannelsCreated.incrementAndGet());
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(templateConnectionFactory);
+        try {
+            long templateRate = publishConcurrently(body -> rabbitTemplate.convertAndSend("", QUEUE_NAME, body));
+            log.info("RabbitTemplate, {} messages per second, {} channels created for a cache of {}",
+                    templateRate, templateChannelsCreated.get(), templateConnectionFactory.getChannelCacheSize());
+        } finally {
+            templateConnectionFactory.destroy();
+        }
+        assertQueueMessageCountAndPurge(total);
+
+        for (int stripes : new int[]{THREADS, 8}) {
+
+            MeterRegistry registry = new SimpleMeterRegistry();
+            String name = "striped-" + stripes;
+            try (StripedChannelPublisher publisher = StripedChannelPublisher.open(
+                    connectionFactory.getRabbitConnectionFactory(), new SimpleMessageConverter(),
+                    stripes, registry, name)) {
+
+                long rate = publishConcurrently(body -> publisher.convertAndSend("", QUEUE_NAME, body));
+                double created = count(registry, "rabbitmq.publisher.channel.created", name);
+                double hits = count(registry, "rabbitmq.publisher.channel.acquire", name, "result", "hit");
+                double misses = count(registry, "rabbitmq.publisher.channel.acquire", name, "result", "miss");
+                log.info("{} stripes, {} messages per second, {} channels created, hit rate {}, " +
+                         "max wait {}ms", stripes, rate, created, hits / (hits + misses),
+                        registry.get("rabbitmq.publisher.channel.wait").timer().max(TimeUnit.MILLISECONDS));
+
+                assertThat(created).isEqualTo(stripes);
+                assertThat(hits + misses).isEqualTo(total);
+                if (THREADS == stripes) {
+                    assertThat(misses).isZero();
+                }
+            }
+            assertQueueMessageCountAndPurge(total);
+        }
+    }
+
+    @Test
+    @DisplayName("Given striped publisher bean, when publish, then metered by the configured stripes")
+    void givenStripedPublisherBean_whenPublish_thenMeteredByConfiguredStripes() throws InterruptedException {
+
+        // declare the queue by the admin, the publisher's own connection doesn't
+        amqpAdmin.purgeQueue(QUEUE_NAME, false);
+        stripedChannelPublisher.convertAndSend("", QUEUE_NAME, "Hello");
+
+        assertThat(stripedChannelPublisher.getStripes()).isEqualTo(4);
+        assertThat(meterRegistry.get("rabbitmq.publisher.channel.stripes").tag("name", "striped-publisher")
+                                .gauge().value()).isEqualTo(4);
+        assertThat(count(meterRegistry, "rabbitmq.publisher.channel.acquire", "striped-publisher",
+                "result", "hit")).isPositive();
+        assertQueueMessageCountAndPurge(1);
+    }
+}
@@ -0,0 +1,180 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.retry.RepublishMessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * The recoverer tests use a mock template and don't need a broker.
+ * The other needs a RabbitMQ server on localhost:5672 with default user guest:guest.
+ * Monitor the delay queues from RabbitMQ management UI, should see the poison message moving through them.
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "spring.rabbitmq.listener.simple.retry.enabled = true",
+        // no local retry, every failure goes to the retry topology
+        "spring.rabbitmq.listener.simple.retry.max-attempts = 1"
+})
+@EnableAutoConfiguration(exclude = DataSourceAutoConfiguration.class)
+class TieredRetryTest {
+
+    private static final String QUEUE_NAME = "spring-boot-study-rabbitmq-tiered-retry-test-queue";
+
+    private static final RetryTopology RETRY_TOPOLOGY = RetryTopology.forQueue(QUEUE_NAME)
+                                                                     .delays(Duration.ofMillis(200),
+                                                                             Duration.ofMillis(500))
+                                                                     .maxAttempts(4)
+                                                                     .expires(Duration.ofMinutes(5))
+                                                                     .build();
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @TestConfiguration
+    static class RabbitmqConfig {
+
+        @Bean
+        Declarables retryDeclarables() {
+            return RETRY_TOPOLOGY.declarables();
+        }
+
+        @Bean
+        MessageRecoverer retryTopologyRecoverer(RabbitTemplate rabbitTemplate) {
+            return RETRY_TOPOLOGY.recoverer(rabbitTemplate);
+        }
+
+        @Bean
+        PoisonReceiver poisonReceiver() {
+            return new PoisonReceiver();
+        }
+    }
+
+    static class PoisonReceiver {
+
+        private final Logger log = LoggerFactory.getLogger(getClass());
+
+        static final AtomicInteger attempts = new AtomicInteger();
+
+        @RabbitListener(queues = QUEUE_NAME)
+        void receive(String message) {
+
+            log.info("{} - Receive '{}', but throw exception to simulate poison message",
+                    attempts.incrementAndGet(), message);
+            throw new IllegalStateException("Poison message");
+        }
+    }
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    private static Message consumedMessage(String consumerQueue) {
+
+        MessageProperties properties = new MessageProperties();
+        properties.setConsumerQueue(consumerQueue);
+        properties.setReceivedExchange("");
+        properties.setReceivedRoutingKey(consumerQueue);
+        properties.setReceivedDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        return new Message("hello".getBytes(), properties);
+    }
+
+    @Test
+    @DisplayName("Given 3 delays and max attempts 5, when recover 5 failures of one message, " +
+                 "then route to delay 1, 2, 3, 3 and then parking lot with attempt and exception headers")
+    void given3DelaysAndMaxAttempts5_whenRecover5Failures_thenRouteThroughDelaysToParkingLot() {
+
+        RetryTopology retryTopology = RetryTopology.forQueue("orders")
+                                                   .delays(Duration.ofSeconds(1), Duration.ofSeconds(10),
+                                                           Duration.ofSeconds(60))
+                                                   .maxAttempts(5)
+                                                   .build();
+        AmqpTemplate amqpTemplate = mock(AmqpTemplate.class);
+        MessageRecoverer recoverer = retryTopology.recoverer(amqpTemplate);
+
+        Message message = consumedMessage("orders");
+        for (int i = 0; i < 5; i++) {
+            recoverer.recover(message, new ListenerExecutionFailedException("Listener threw exception",
+                    new IllegalStateException("Poison message"), message));
+        }
+
+        ArgumentCaptor<String> routes = ArgumentCaptor.forClass(String.class);
+        verify(amqpTemplate, times(5)).send(eq(""), routes.capture(), eq(message));
+        assertThat(routes.getAllValues()).containsExactly("orders.retry.1000ms", "orders.retry.10000ms",
+                "orders.retry.60000ms", "orders.retry.60000ms", "orders.parking-lot");
+
+        MessageProperties properties = message.getMessageProperties();
+        assertThat(properties.getHeaders()).containsEntry(RetryTopology.X_RETRY_ATTEMPT, 5)
+                                           .containsEntry(RepublishMessageRecoverer.X_EXCEPTION_MESSAGE,
+                                                   "Poison message")
+                                           .containsEntry(RepublishMessageRecoverer.X_ORIGINAL_ROUTING_KEY,
+                                                   "orders");
+        assertThat(properties.getDeliveryMode()).isEqualTo(MessageDeliveryMode.PERSISTENT);
+
+        assertThatThrownBy(() -> recoverer.recover(consumedMessage("payments"), new RuntimeException()))
+                .isInstanceOf(AmqpRejectAndDontRequeueException.class);
+    }
+
+    @Test
+    @DisplayName("Given builder, when declarables, then work queue, delay queues dead lettering back to work queue " +
+                 "and parking lot")
+    void givenBuilder_whenDeclarables_thenDelayQueuesDeadLetterBackToWorkQueue() {
+
+        RetryTopology retryTopology = RetryTopology.forQueue("orders")
+                                                   .delays(Duration.ofSeconds(1), Duration.ofSeconds(10))
+                                                   .build();
+        List<Queue> queues = retryTopology.declarables().getDeclarablesByType(Queue.class);
+        assertThat(queues).extracting(Queue::getName)
+                          .containsExactly("orders", "orders.retry.1000ms", "orders.retry.10000ms",
+                                  "orders.parking-lot");
+        assertThat(queues.get(2).getArguments()).containsEntry("x-message-ttl", 10_000)
+                                                .containsEntry("x-dead-letter-exchange", "")
+                                                .containsEntry("x-dead-letter-routing-key", "orders");
+        assertThat(queues.stream().filter(Queue::isDurable).collect(Collectors.toList())).hasSize(4);
+        assertThatThrownBy(() -> RetryTopology.forQueue("orders").build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Given a poison message, when listener always throws, then the message is retried after " +
+                 "200ms, 500ms and 500ms, and then parked")
+    void givenPoisonMessage_whenListenerAlwaysThrows_thenRetriedWithDelaysAndParked() {
+
+        PoisonReceiver.attempts.set(0);
+        long start = System.currentTimeMillis();
+        rabbitTemplate.convertAndSend(QUEUE_NAME, "poison");
+
+        Message parked = rabbitTemplate.receive(RETRY_TOPOLOGY.getParkingLot(), 10_000);
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("Parked after {} attempts in {}ms", PoisonReceiver.attempts.get(), elapsed);
+
+        assertThat(parked).isNotNull();
+        assertThat(new String(parked.getBody())).isEqualTo("poison");
+        assertThat(parked.getMessageProperties().getHeaders()).containsEntry(RetryTopology.X_RETRY_ATTEMPT, 4);
+        assertThat(PoisonReceiver.attempts.get()).isEqualTo(4);
+        assertThat(elapsed).isGreaterThanOrEqualTo(1_200);
+    }
+}
@@ -0,0 +1,79 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageListener;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Dispatch the messages of one queue to sub-handlers by the topic pattern of the received routing key, e.g. a
+ * queue bound with "#" to a topic exchange, so the application doesn't need one queue and one listener per pattern.
+ * <p>
+ * Use as a {@link MessageListener}, or call {@link #dispatch(Message)} from a {@code @RabbitListener} method which
+ * takes {@link Message}. {@link #accepts(String)} is a local pre-filter to skip the payload conversion of
+ * messages which no handler wants.
+ * <p>
+ * Every matching handler is invoked in bind order. A message matching no handler goes to the fallback, which
+ * ignores it by default.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class TopicDispatcher implements MessageListener {
+
+    private final TopicMatcher<Consumer<Message>> matcher;
+
+    private Consumer<Message> fallback = message ->
+            log.debug("No handler for routing key '{}'", message.getMessageProperties().getReceivedRoutingKey());
+
+    public TopicDispatcher() {
+        this(TopicMatcher.DEFAULT_CACHE_SIZE);
+    }
+
+    public TopicDispatcher(int cacheSize) {
+        this.matcher = new TopicMatcher<>(cacheSize);
+    }
+
+    public TopicDispatcher on(String pattern, Consumer<Message> handler) {
+
+        matcher.bind(pattern, handler);
+        return this;
+    }
+
+    public TopicDispatcher otherwise(Consumer<Message> fallback) {
+
+        this.fallback = fallback;
+        return this;
+    }
+
+    public boolean accepts(String routingKey) {
+        return matcher.matches(routingKey);
+    }
+
+    /**
+     * @return the number of handlers invoked, 0 if the fallback is invoked
+     */
+    public int dispatch(Message message) {
+
+        List<Consumer<Message>> handlers = matcher.match(message.getMessageProperties().getReceivedRoutingKey());
+        if (handlers.isEmpty()) {
+            fallback.accept(message);
+            return 0;
+        }
+        for (int i = 0; i < handlers.size(); i++) {
+            handlers.get(i).accept(message);
+        }
+        return handlers.size();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        dispatch(message);
+    }
+
+    TopicMatcher<Consumer<Message>> getMatcher() {
+        return matcher;
+    }
+}
@@ -0,0 +1,167 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import java.util.*;
+
+/**
+ * Match a routing key against AMQP topic patterns, where words are separated by "." and "*" matches exactly one
+ * word and "#" matches zero or more words, the same as a topic exchange.
+ * <p>
+ * The patterns are compiled into a trie of words, with a "*" child and a "#" child per node, so a lookup walks the
+ * words of the routing key once instead of testing every pattern. The result of a routing key is cached in an LRU
+ * of {@code cacheSize} entries, and a cache hit returns the same immutable list without allocating.
+ * <p>
+ * Thread-safe. Lookups and binds are serialized on the matcher, which is cheap for a cache hit; bind clears the
+ * cache, so bind everything at startup.
+ *
+ * @param <T> the bound value, e.g. a handler
+ * @author yejianfengblue
+ */
+public class TopicMatcher<T> {
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final Node<T> root = new Node<>();
+
+    private final LinkedHashMap<String, List<T>> cache;
+
+    private int bindingCount;
+
+    private long hits;
+
+    private long misses;
+
+    public TopicMatcher() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public TopicMatcher(int cacheSize) {
+
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.cache = new LinkedHashMap<>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<T>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Bind a value to a topic pattern. A value bound to several matching patterns is matched once.
+     */
+    public synchronized TopicMatcher<T> bind(String pattern, T value) {
+
+        Node<T> node = root;
+        for (String word : pattern.split("\\.", -1)) {
+            node = node.child(word);
+        }
+        node.bindings.add(new Bound<>(bindingCount++, value));
+        cache.clear();
+        return this;
+    }
+
+    /**
+     * @return the values bound to the patterns matching the routing key, in bind order, empty if none
+     */
+    public synchronized List<T> match(String routingKey) {
+
+        List<T> values = cache.get(routingKey);
+        if (null != values) {
+            hits++;
+            return values;
+        }
+        misses++;
+        values = compute(routingKey);
+        cache.put(routingKey, values);
+        return values;
+    }
+
+    public boolean matches(String routingKey) {
+        return !match(routingKey).isEmpty();
+    }
+
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    private List<T> compute(String routingKey) {
+
+        SortedSet<Bound<T>> matched = new TreeSet<>();
+        collect(root, routingKey.split("\\.", -1), 0, matched);
+        if (matched.isEmpty()) {
+            return List.of();
+        }
+        Set<T> values = new LinkedHashSet<>();
+        for (Bound<T> bound : matched) {
+            values.add(bound.value);
+        }
+        return List.copyOf(values);
+    }
+
+    private static <T> void collect(Node<T> node, String[] words, int index, SortedSet<Bound<T>> matched) {
+
+        if (null != node.hash) {
+            // "#" matches the remaining words from zero to all
+            for (int next = index; next <= words.length; next++) {
+                collect(node.hash, words, next, matched);
+            }
+        }
+        if (index == words.length) {
+            matched.addAll(node.bindings);
+            return;
+        }
+        Node<T> child = node.children.get(words[index]);
+        if (null != child) {
+            collect(child, words, index + 1, matched);
+        }
+        if (null != node.star) {
+            collect(node.star, words, index + 1, matched);
+        }
+    }
+
+    private static class Node<T> {
+
+        final Map<String, Node<T>> children = new HashMap<>();
+
+        Node<T> star;
+
+        Node<T> hash;
+
+        final List<Bound<T>> bindings = new ArrayList<>();
+
+        Node<T> child(String word) {
+
+            switch (word) {
+                case "*":
+                    return (null != star) ? star : (star = new Node<>());
+                case "#":
+                    return (null != hash) ? hash : (hash = new Node<>());
+                default:
+                    return children.computeIfAbsent(word, w -> new Node<>());
+            }
+        }
+    }
+
+    private static class Bound<T> implements Comparable<Bound<T>> {
+
+        final int order;
+
+        final T value;
+
+        Bound(int order, T value) {
+
+            this.order = order;
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Bound<T> other) {
+            return Integer.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.yejianfengblue.spring.boot.rabbitmq;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author yejianfengblue
+ */
+class TopicMatcherTest {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private static final String[] MONSTER_CARD_ROUTING_KEYS = {
+            "normal.dark.spellcaster",
+            "normal.dark.dragon",
+            "normal.light.spellcaster",
+            "normal.light.dragon",
+            "effect.dark.spellcaster",
+            "effect.dark.dragon",
+            "effect.light.spellcaster",
+            "effect.light.dragon",
+    };
+
+    private static Message message(String routingKey) {
+
+        MessageProperties properties = new MessageProperties();
+        properties.setReceivedRoutingKey(routingKey);
+        return new Message(routingKey.getBytes(), properties);
+    }
+
+    @Test
+    @DisplayName("Given the bindings of TopicExchangeTest, when match monster card routing keys, " +
+                 "then same as the topic exchange")
+    void givenTopicExchangeTestBindings_whenMatch_thenSameAsTopicExchange() {
+
+        TopicMatcher<String> matcher = new TopicMatcher<String>()
+                .bind("*.dark.*", "dark")
+                .bind("*.light.dragon", "light dragon")
+                .bind("#.dragon", "dragon")
+                .bind("effect.#", "effect");
+
+        assertThat(matcher.match("normal.dark.spellcaster")).containsExactly("dark");
+        assertThat(matcher.match("normal.light.spellcaster")).isEmpty();
+        assertThat(matcher.match("normal.light.dragon")).containsExactly("light dragon", "dragon");
+        assertThat(matcher.match("effect.dark.dragon")).containsExactly("dark", "dragon", "effect");
+        assertThat(matcher.match("dragon")).containsExactly("dragon");
+        assertThat(matcher.match("effect")).containsExactly("effect");
+        assertThat(matcher.matches("normal.dark")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given random patterns, when match random routing keys, then same as pattern by pattern matching")
+    void givenRandomPatterns_whenMatchRandomRoutingKeys_thenSameAsPatternByPattern() {
+
+        Random random = new Random(42);
+        String[] patternWords = {"a", "b", "c", "*", "#"};
+        String[] keyWords = {"a", "b", "c"};
+        List<String> patterns = new ArrayList<>();
+        TopicMatcher<String> matcher = new TopicMatcher<>(64);
+        for (int i = 0; i < 200; i++) {
+            String pattern = randomWords(random, patternWords);
+            patterns.add(pattern);
+            matcher.bind(pattern, pattern);
+        }
+
+        for (int i = 0; i < 2_000; i++) {
+            String routingKey = randomWords(random, keyWords);
+            List<String> expected = patterns.stream()
+                                            .filter(pattern -> EmbeddedAmqpBroker.topicMatches(pattern, routingKey))
+                                            .distinct()
+                                            .collect(Collectors.toList());
+            assertThat(matcher.match(routingKey)).as(routingKey).isEqualTo(expected);
+        }
+    }
+
+    private static String randomWords(Random random, String[] words) {
+
+        int length = 1 + random.nextInt(4);
+        List<String> picked = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            picked.add(words[random.nextInt(words.length)]);
+        }
+        return String.join(".", picked);
+    }
+
+    @Test
+    @DisplayName("Given cache size 2, when match 3 routing keys, then hit returns same list and eldest is evicted")
+    void givenCacheSize2_whenMatch3RoutingKeys_thenHitReturnsSameListAndEldestEvicted() {
+
+        TopicMatcher<String> matcher = new TopicMatcher<String>(2).bind("#", "all");
+
+        List<String> first = matcher.match("a");
+        assertThat(matcher.match("a")).isSameAs(first);
+        matcher.match("b");
+        matcher.match("a");
+        matcher.match("c");
+        assertThat(matcher.getCacheHits()).isEqualTo(2);
+        assertThat(matcher.getCacheMisses()).isEqualTo(3);
+
+        // "b" is the least recently used, "a" is kept
+        matcher.match("a");
+        matcher.match("b");
+        assertThat(matcher.getCacheHits()).isEqualTo(3);
+        assertThat(matcher.getCacheMisses()).isEqualTo(4);
+
+        matcher.bind("a", "a");
+        assertThat(matcher.match("a")).containsExactly("all", "a");
+    }
+
+    @Test
+    @DisplayName("Given warm cache, when match 100k times, then no allocation")
+    void givenWarmCache_whenMatch100kTimes_thenNoAllocation() {
+
+        TopicMatcher<String> matcher = new TopicMatcher<String>()
+                .bind("*.dark.*", "dark")
+                .bind("*.light.dragon", "light dragon");
+        int matched = 0;
+        for (int i = 0; i < 100_000; i++) {
+            matched += matcher.match(MONSTER_CARD_ROUTING_KEYS[i % 8]).size();
+        }
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            matched += matcher.match(MONSTER_CARD_ROUTING_KEYS[i % 8]).size();
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        log.info("100k cached matches allocated {} bytes", allocated);
+
+        assertThat(matched).isEqualTo(2 * 75_000);
+        // only the measurement itself, far less than 1 byte per match
+        assertThat(allocated).isLessThan(10_000);
+    }
+
+    @Test
+    @DisplayName("Given 100 patterns, when match 1M routing keys with regex scan versus trie with cache, " +
+                 "then compare matches per second")
+    void given100Patterns_whenMatch1MWithRegexScanVersusTrie_thenCompareThroughput() {
+
+        Random random = new Random(7);
+        String[] words = {"order", "payment", "refund", "eu", "us", "asia", "created", "updated", "failed", "vip"};
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            patterns.add(words[random.nextInt(10)] + (random.nextBoolean() ? ".*." : ".#.")
+                         + words[random.nextInt(10)]);
+        }
+        String[] routingKeys = new String[500];
+        for (int i = 0; i < routingKeys.length; i++) {
+            routingKeys[i] = words[random.nextInt(10)] + "." + words[random.nextInt(10)] + "."
+                             + words[random.nextInt(10)];
+        }
+
+        List<Pattern> regexes = patterns.stream()
+                                        .map(pattern -> Pattern.compile(pattern.replace(".", "\\.")
+                                                                               .replace("*", "[^.]+")
+                                                                               .replace("\\.#\\.", "(\\..+)?\\.")))
+                                        .collect(Collectors.toList());
+        TopicMatcher<Integer> matcher = new TopicMatcher<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            // distinct values, so duplicate patterns count twice like the regex scan
+            matcher.bind(patterns.get(i), i);
+        }
+
+        long regexMatches = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000_000; i++) {
+            String routingKey = routingKeys[i % routingKeys.length];
+            for (Pattern regex : regexes) {
+                if (regex.matcher(routingKey).matches()) {
+                    regexMatches++;
+                }
+            }
+        }
+        double regexRate = 1e6 * 1e9 / (System.nanoTime() - start);
+
+        long trieMatches = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < 1_000_000; i++) {
+            trieMatches += matcher.match(routingKeys[i % routingKeys.length]).size();
+        }
+        double trieRate = 1e6 * 1e9 / (System.nanoTime() - start);
+
+        log.info("Match 1M routing keys against 100 patterns: regex scan = {} /s, trie with cache = {} /s",
+                Math.round(regexRate), Math.round(trieRate));
+        assertThat(trieMatches).isEqualTo(regexMatches);
+    }
+
+    @Test
+    @DisplayName("Given dispatcher with sub-handlers, when dispatch, then matching handlers are invoked in order " +
+                 "and unmatched goes to fallback")
+    void givenDispatcher_whenDispatch_thenMatchingHandlersInvokedAndUnmatchedToFallback() {
+
+        List<String> invoked = new ArrayList<>();
+        TopicDispatcher dispatcher = new TopicDispatcher()
+                .on("*.dark.*", message -> invoked.add("dark " + new String(message.getBody())))
+                .on("*.*.dragon", message -> invoked.add("dragon " + new String(message.getBody())))
+                .otherwise(message -> invoked.add("fallback " + new String(message.getBody())));
+
+        assertThat(dispatcher.dispatch(message("effect.dark.dragon"))).isEqualTo(2);
+        assertThat(dispatcher.dispatch(message("normal.light.spellcaster"))).isZero();
+        dispatcher.onMessage(message("normal.light.dragon"));
+
+        assertThat(invoked).containsExactly("dark effect.dark.dragon", "dragon effect.dark.dragon",
+                "fallback normal.light.spellcaster", "dragon normal.light.dragon");
+        assertThat(dispatcher.accepts("normal.dark.spellcaster")).isTrue();
+        assertThat(dispatcher.accepts("normal.light.spellcaster")).isFalse();
+    }
+}
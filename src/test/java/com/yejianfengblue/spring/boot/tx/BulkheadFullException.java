@@ -0,0 +1,19 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import org.springframework.transaction.CannotCreateTransactionException;
+
+/**
+ * Thrown when no transaction permit is available from {@link TransactionBulkhead} within the acquire timeout
+ *
+ * @author yejianfengblue
+ */
+public class BulkheadFullException extends CannotCreateTransactionException {
+
+    public BulkheadFullException(String msg) {
+        super(msg);
+    }
+
+    public BulkheadFullException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,65 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * A {@link TransactionTemplate} which acquires a permit of the service class from {@link TransactionBulkhead}
+ * before begin a new transaction, and releases the permit after the transaction completes.
+ * <p>
+ * Participating in an existing transaction of the current thread borrows no extra connection, so no permit is
+ * acquired, unless propagation is {@code REQUIRES_NEW}. Neither is a permit acquired for {@code SUPPORTS},
+ * {@code NOT_SUPPORTED} and {@code NEVER}, which run without a transaction when there is no existing one, and hold
+ * no connection for it.
+ *
+ * @author yejianfengblue
+ */
+public class BulkheadTransactionTemplate extends TransactionTemplate {
+
+    private final TransactionBulkhead bulkhead;
+
+    private final Class<?> serviceClass;
+
+    public BulkheadTransactionTemplate(PlatformTransactionManager transactionManager,
+                                       TransactionBulkhead bulkhead,
+                                       Class<?> serviceClass) {
+
+        super(transactionManager);
+        this.bulkhead = bulkhead;
+        this.serviceClass = serviceClass;
+    }
+
+    @Override
+    @Nullable
+    public <T> T execute(TransactionCallback<T> action) throws TransactionException {
+
+        boolean needPermit;
+        switch (getPropagationBehavior()) {
+            case TransactionDefinition.PROPAGATION_REQUIRES_NEW:
+                needPermit = true;
+                break;
+            case TransactionDefinition.PROPAGATION_REQUIRED:
+            case TransactionDefinition.PROPAGATION_NESTED:
+            case TransactionDefinition.PROPAGATION_MANDATORY:
+                needPermit = !TransactionSynchronizationManager.isActualTransactionActive();
+                break;
+            default:
+                needPermit = false;
+        }
+        if (!needPermit) {
+            return super.execute(action);
+        }
+
+        bulkhead.acquire(serviceClass);
+        try {
+            return super.execute(action);
+        } finally {
+            bulkhead.release(serviceClass);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Use the auto-configured Hikari pool, not {@link ProxyTestDataSourceConfig}, so the bulkhead is sized from the pool
+ *
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = "spring.datasource.hikari.maximum-pool-size = 4")
+@Slf4j
+class BulkheadTransactionTemplateTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // meters are tagged by service class and shared by the registry across tests, so each test uses its own
+    // service class
+    static class AccountService {}
+
+    static class AuditService {}
+
+    static class PaymentService {}
+
+    static class ReportService {}
+
+    static class LedgerService {}
+
+    @Test
+    @DisplayName("Bulkhead is sized from Hikari maximumPoolSize and share")
+    void bulkheadIsSizedFromHikariPool() {
+
+        assertThat(TransactionBulkhead.maximumPoolSize(dataSource)).isEqualTo(4);
+        assertThat(TransactionBulkhead.sizedFromPool(dataSource, 0.5, Duration.ofSeconds(1), meterRegistry)
+                                      .getPermitsPerService())
+                .isEqualTo(2);
+        assertThat(TransactionBulkhead.sizedFromPool(dataSource, 0.1, Duration.ofSeconds(1), meterRegistry)
+                                      .getPermitsPerService())
+                .isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Given 2 permits, when 6 threads run transactions concurrently, then at most 2 transactions are open")
+    @SneakyThrows
+    void givenTwoPermits_whenSixConcurrentTransactions_thenAtMostTwoAreOpen() {
+
+        TransactionBulkhead bulkhead = TransactionBulkhead.sizedFromPool(
+                dataSource, 0.5, Duration.ofSeconds(10), meterRegistry);
+        BulkheadTransactionTemplate transactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, PaymentService.class);
+
+        AtomicInteger concurrent = new AtomicInteger(0);
+        AtomicInteger maxConcurrent = new AtomicInteger(0);
+        AtomicInteger maxQueueDepth = new AtomicInteger(0);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(6);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(executorService.submit(() ->
+                    transactionTemplate.executeWithoutResult(transactionStatus -> {
+
+                        maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                        maxQueueDepth.accumulateAndGet(bulkhead.queueDepth(PaymentService.class), Math::max);
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(200);
+                        } catch (InterruptedException e) {
+                            e.printStackTrace();
+                        }
+                        concurrent.decrementAndGet();
+                    })));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        assertThat(maxConcurrent.get()).isEqualTo(2);
+        assertThat(maxQueueDepth.get()).isPositive();
+        assertThat(meterRegistry.get("tx.bulkhead.wait")
+                                .tag("service", PaymentService.class.getName())
+                                .timer()
+                                .count())
+                .isGreaterThanOrEqualTo(6);
+        assertThat(meterRegistry.get("tx.bulkhead.available")
+                                .tag("service", PaymentService.class.getName())
+                                .gauge()
+                                .value())
+                .isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Given all permits held, when acquire timeout, then BulkheadFullException, and other service is not affected")
+    @SneakyThrows
+    void givenAllPermitsHeld_whenAcquireTimeout_thenBulkheadFullException() {
+
+        TransactionBulkhead bulkhead = new TransactionBulkhead(1, Duration.ofMillis(200), meterRegistry);
+        BulkheadTransactionTemplate accountTransactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, AccountService.class);
+        BulkheadTransactionTemplate auditTransactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, AuditService.class);
+
+        CountDownLatch permitHeld = new CountDownLatch(1);
+        CountDownLatch canRelease = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<?> holder = executorService.submit(() ->
+                accountTransactionTemplate.executeWithoutResult(transactionStatus -> {
+                    permitHeld.countDown();
+                    try {
+                        canRelease.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }));
+        permitHeld.await();
+
+        try {
+            assertThatThrownBy(() -> accountTransactionTemplate.executeWithoutResult(transactionStatus -> {}))
+                    .isInstanceOf(BulkheadFullException.class);
+            assertThat(meterRegistry.get("tx.bulkhead.rejected")
+                                    .tag("service", AccountService.class.getName())
+                                    .counter()
+                                    .count())
+                    .isEqualTo(1);
+
+            // another service class has its own permits
+            String audit = auditTransactionTemplate.execute(transactionStatus -> "audit");
+            assertThat(audit).isEqualTo("audit");
+        } finally {
+            canRelease.countDown();
+            holder.get(10, TimeUnit.SECONDS);
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Given 1 permit, when nested transaction participates in outer one, then no extra permit is needed")
+    void givenOnePermit_whenNestedTransactionParticipate_thenNoExtraPermit() {
+
+        TransactionBulkhead bulkhead = new TransactionBulkhead(1, Duration.ofMillis(200), meterRegistry);
+        BulkheadTransactionTemplate transactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, ReportService.class);
+
+        String result = transactionTemplate.execute(outer ->
+                transactionTemplate.execute(inner -> "nested"));
+        assertThat(result).isEqualTo("nested");
+
+        // REQUIRES_NEW borrows another connection, so it needs another permit
+        BulkheadTransactionTemplate requiresNewTransactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, ReportService.class);
+        requiresNewTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(outer ->
+                requiresNewTransactionTemplate.executeWithoutResult(inner -> {})))
+                .isInstanceOf(BulkheadFullException.class);
+    }
+
+    @Test
+    @DisplayName("Given 1 permit held by outer transaction, when NOT_SUPPORTED suspends it and SUPPORTS and NEVER " +
+                 "run without transaction, then no permit is needed")
+    void givenOnePermitHeld_whenNonTransactionalPropagation_thenNoPermit() {
+
+        TransactionBulkhead bulkhead = new TransactionBulkhead(1, Duration.ofMillis(200), meterRegistry);
+        BulkheadTransactionTemplate transactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, LedgerService.class);
+        BulkheadTransactionTemplate notSupportedTransactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, LedgerService.class);
+        notSupportedTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+        BulkheadTransactionTemplate supportsTransactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, LedgerService.class);
+        supportsTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_SUPPORTS);
+        BulkheadTransactionTemplate neverTransactionTemplate =
+                new BulkheadTransactionTemplate(transactionManager, bulkhead, LedgerService.class);
+        neverTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_NEVER);
+
+        String result = transactionTemplate.execute(outer ->
+                notSupportedTransactionTemplate.execute(suspended ->
+                        supportsTransactionTemplate.execute(supports ->
+                                neverTransactionTemplate.execute(never -> "non-transactional"))));
+
+        // with a permit needed, the inner ones would fail by BulkheadFullException after 200ms
+        assertThat(result).isEqualTo("non-transactional");
+    }
+}
@@ -0,0 +1,32 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.time.Duration;
+
+/**
+ * Published by {@link TimedTransactionManager} when a transaction is open longer than the threshold
+ *
+ * @author yejianfengblue
+ */
+@Getter
+public class LongTransactionEvent extends ApplicationEvent {
+
+    private final TimedTransactionManager.OpenTransaction openTransaction;
+
+    private final Duration age;
+
+    private final StackTraceElement[] ownerStackTrace;
+
+    LongTransactionEvent(Object source,
+                         TimedTransactionManager.OpenTransaction openTransaction,
+                         Duration age,
+                         StackTraceElement[] ownerStackTrace) {
+
+        super(source);
+        this.openTransaction = openTransaction;
+        this.age = age;
+        this.ownerStackTrace = ownerStackTrace;
+    }
+}
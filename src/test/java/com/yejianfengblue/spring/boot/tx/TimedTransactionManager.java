@@ -0,0 +1,299 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A {@link PlatformTransactionManager} decorator which times the begin, flush, commit and rollback phase of every
+ * new transaction, tagged by transaction name.
+ * <p>
+ * The flush is timed by a before-commit {@link TransactionSynchronization} of the lowest precedence, so it runs inside
+ * the commit phase, after the other before-commit synchronizations, the same as the flush on commit, and a flush
+ * failure is rolled back by the delegate like any other commit failure. So the flush timer is nested inside the
+ * commit timer, and the commit phase includes the flush.
+ * <p>
+ * For {@code @Transactional} method, the transaction name is the fully-qualified method name, so each
+ * {@code @Transactional} method gets its own histogram. For {@code TransactionTemplate} without name, the name is
+ * {@link #UNNAMED}.
+ * <p>
+ * Open transactions are tracked in a concurrent registry, and a watchdog thread logs the current stack trace of the
+ * owner thread, and publishes a {@link LongTransactionEvent}, for every transaction which is open longer than the
+ * threshold. Each long transaction is reported once. The stack trace where the transaction was begun is logged too
+ * if {@code captureBeginStackTrace}, which captures it on every begin, so it's off by default.
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class TimedTransactionManager implements PlatformTransactionManager, DisposableBean {
+
+    public static final String PHASE_TIMER_NAME = "tx.phase";
+
+    public static final String DURATION_TIMER_NAME = "tx.duration";
+
+    public static final String UNNAMED = "unnamed";
+
+    private final PlatformTransactionManager delegate;
+
+    private final MeterRegistry meterRegistry;
+
+    @Nullable
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final Duration longTransactionThreshold;
+
+    private final boolean captureBeginStackTrace;
+
+    private final Map<TransactionStatus, OpenTransaction> openTransactions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService watchdog;
+
+    public TimedTransactionManager(PlatformTransactionManager delegate,
+                                   MeterRegistry meterRegistry,
+                                   @Nullable ApplicationEventPublisher eventPublisher,
+                                   Duration longTransactionThreshold,
+                                   Duration watchdogInterval,
+                                   boolean captureBeginStackTrace) {
+
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+        this.eventPublisher = eventPublisher;
+        this.longTransactionThreshold = longTransactionThreshold;
+        this.captureBeginStackTrace = captureBeginStackTrace;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tx-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog.scheduleWithFixedDelay(this::checkLongTransactions,
+                watchdogInterval.toMillis(), watchdogInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public PlatformTransactionManager getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Snapshot of the transactions which are begun but not yet committed or rolled back
+     */
+    public Collection<OpenTransaction> getOpenTransactions() {
+        return Collections.unmodifiableCollection(openTransactions.values());
+    }
+
+    @Override
+    public TransactionStatus getTransaction(@Nullable TransactionDefinition definition) throws TransactionException {
+
+        String name = nameOf(definition);
+        long start = System.nanoTime();
+        TransactionStatus status = delegate.getTransaction(definition);
+        long end = System.nanoTime();
+
+        // participating in an existing transaction is not a new transaction, only time the outermost one
+        if (status.isNewTransaction()) {
+            phaseTimer(name, "begin").record(end - start, TimeUnit.NANOSECONDS);
+            openTransactions.put(status, new OpenTransaction(name, Thread.currentThread(), start,
+                    captureBeginStackTrace ? new Throwable("Transaction '" + name + "' begun here") : null));
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new FlushTimingSynchronization(name, status));
+            }
+        }
+        return status;
+    }
+
+    @Override
+    public void commit(TransactionStatus status) throws TransactionException {
+
+        OpenTransaction openTransaction = openTransactions.get(status);
+        if (null == openTransaction) {
+            delegate.commit(status);
+            return;
+        }
+
+        try {
+            timePhase(openTransaction.getName(), "commit", () -> {
+                delegate.commit(status);
+                return null;
+            });
+        } finally {
+            complete(status, openTransaction);
+        }
+    }
+
+    @Override
+    public void rollback(TransactionStatus status) throws TransactionException {
+
+        OpenTransaction openTransaction = openTransactions.get(status);
+        if (null == openTransaction) {
+            delegate.rollback(status);
+            return;
+        }
+
+        try {
+            timePhase(openTransaction.getName(), "rollback", () -> {
+                delegate.rollback(status);
+                return null;
+            });
+        } finally {
+            complete(status, openTransaction);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        watchdog.shutdownNow();
+    }
+
+    private void complete(TransactionStatus status, OpenTransaction openTransaction) {
+
+        openTransactions.remove(status);
+        Timer.builder(DURATION_TIMER_NAME)
+             .tag("name", openTransaction.getName())
+             .publishPercentileHistogram()
+             .register(meterRegistry)
+             .record(System.nanoTime() - openTransaction.getStartNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void timePhase(String name, String phase, Supplier<Void> action) {
+
+        long start = System.nanoTime();
+        try {
+            action.get();
+        } finally {
+            phaseTimer(name, phase).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer phaseTimer(String name, String phase) {
+
+        return Timer.builder(PHASE_TIMER_NAME)
+                    .tag("name", name)
+                    .tag("phase", phase)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+    }
+
+    void checkLongTransactions() {
+
+        long now = System.nanoTime();
+        for (OpenTransaction openTransaction : openTransactions.values()) {
+
+            Duration age = Duration.ofNanos(now - openTransaction.getStartNanos());
+            if (age.compareTo(longTransactionThreshold) > 0 && openTransaction.markReported()) {
+
+                StackTraceElement[] ownerStackTrace = openTransaction.getOwner().getStackTrace();
+                log.warn("Transaction '{}' on thread '{}' is open for {}ms, longer than threshold {}ms. Current stack:{}",
+                        openTransaction.getName(),
+                        openTransaction.getOwner().getName(),
+                        age.toMillis(),
+                        longTransactionThreshold.toMillis(),
+                        format(ownerStackTrace),
+                        openTransaction.getBeginStackTrace());
+
+                if (null != eventPublisher) {
+                    eventPublisher.publishEvent(new LongTransactionEvent(this, openTransaction, age, ownerStackTrace));
+                }
+            }
+        }
+    }
+
+    private static String nameOf(@Nullable TransactionDefinition definition) {
+
+        return (null == definition || null == definition.getName()) ? UNNAMED : definition.getName();
+    }
+
+    private static String format(StackTraceElement[] stackTrace) {
+
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement element : stackTrace) {
+            sb.append(System.lineSeparator()).append("\tat ").append(element);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Flush explicitly in before commit, so the flush of the persistence context has its own timer, nested inside the
+     * commit timer
+     */
+    private class FlushTimingSynchronization extends TransactionSynchronizationAdapter {
+
+        private final String name;
+
+        private final TransactionStatus status;
+
+        FlushTimingSynchronization(String name, TransactionStatus status) {
+
+            this.name = name;
+            this.status = status;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+
+            if (!readOnly) {
+                timePhase(name, "flush", () -> {
+                    status.flush();
+                    return null;
+                });
+            }
+        }
+    }
+
+    @Getter
+    public static class OpenTransaction {
+
+        private final String name;
+
+        private final Thread owner;
+
+        private final long startNanos;
+
+        /**
+         * Where the transaction was begun, logged as the cause of the long transaction warning, null if not captured
+         */
+        @Nullable
+        private final Throwable beginStackTrace;
+
+        private volatile boolean reported = false;
+
+        OpenTransaction(String name, Thread owner, long startNanos, @Nullable Throwable beginStackTrace) {
+
+            this.name = name;
+            this.owner = owner;
+            this.startNanos = startNanos;
+            this.beginStackTrace = beginStackTrace;
+        }
+
+        /**
+         * @return true if this call marks the transaction reported, false if it was already reported
+         */
+        private synchronized boolean markReported() {
+
+            if (reported) {
+                return false;
+            }
+            reported = true;
+            return true;
+        }
+    }
+}
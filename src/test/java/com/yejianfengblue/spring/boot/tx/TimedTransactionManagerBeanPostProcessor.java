@@ -0,0 +1,56 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+
+/**
+ * Decorate every {@link PlatformTransactionManager} bean with {@link TimedTransactionManager}
+ *
+ * @author yejianfengblue
+ */
+public class TimedTransactionManagerBeanPostProcessor implements BeanPostProcessor {
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final Duration longTransactionThreshold;
+
+    private final Duration watchdogInterval;
+
+    private final boolean captureBeginStackTrace;
+
+    public TimedTransactionManagerBeanPostProcessor(ObjectProvider<MeterRegistry> meterRegistry,
+                                                    ApplicationEventPublisher eventPublisher,
+                                                    Duration longTransactionThreshold,
+                                                    Duration watchdogInterval,
+                                                    boolean captureBeginStackTrace) {
+
+        this.meterRegistry = meterRegistry;
+        this.eventPublisher = eventPublisher;
+        this.longTransactionThreshold = longTransactionThreshold;
+        this.watchdogInterval = watchdogInterval;
+        this.captureBeginStackTrace = captureBeginStackTrace;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+        if (bean instanceof PlatformTransactionManager && !(bean instanceof TimedTransactionManager)) {
+            // MeterRegistry is resolved on the first transaction manager, not on creating this BeanPostProcessor,
+            // which would initialize it too early to be post-processed itself
+            return new TimedTransactionManager((PlatformTransactionManager) bean,
+                    meterRegistry.getObject(),
+                    eventPublisher,
+                    longTransactionThreshold,
+                    watchdogInterval,
+                    captureBeginStackTrace);
+        }
+        return bean;
+    }
+}
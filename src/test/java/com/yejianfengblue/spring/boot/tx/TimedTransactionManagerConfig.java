@@ -0,0 +1,37 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+
+/**
+ * Time transaction phases and watch long transactions.
+ * <ul>
+ * <li>{@code tx.timing.long-transaction-threshold} default 10s
+ * <li>{@code tx.timing.watchdog-interval} default 1s
+ * <li>{@code tx.timing.capture-begin-stack-trace} default false, capture where each transaction is begun, to log it
+ * for a long transaction
+ * </ul>
+ *
+ * @author yejianfengblue
+ */
+@TestConfiguration
+public class TimedTransactionManagerConfig {
+
+    @Bean
+    static TimedTransactionManagerBeanPostProcessor timedTransactionManagerBeanPostProcessor(
+            ObjectProvider<MeterRegistry> meterRegistry,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${tx.timing.long-transaction-threshold:10s}") Duration longTransactionThreshold,
+            @Value("${tx.timing.watchdog-interval:1s}") Duration watchdogInterval,
+            @Value("${tx.timing.capture-begin-stack-trace:false}") boolean captureBeginStackTrace) {
+
+        return new TimedTransactionManagerBeanPostProcessor(meterRegistry, eventPublisher,
+                longTransactionThreshold, watchdogInterval, captureBeginStackTrace);
+    }
+}
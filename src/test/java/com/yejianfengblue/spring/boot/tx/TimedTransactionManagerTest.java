@@ -0,0 +1,252 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author yejianfengblue
+ */
+@SpringBootTest(properties = {
+        "tx.timing.long-transaction-threshold = 500ms",
+        "tx.timing.watchdog-interval = 100ms",
+        "tx.timing.capture-begin-stack-trace = true"
+})
+@EntityScan(basePackageClasses = TimedTransactionManagerTest.class)
+@Import({ProxyTestDataSourceConfig.class, TimedTransactionManagerConfig.class})
+@Slf4j
+class TimedTransactionManagerTest {
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private LongTransactionEventCollector longTransactionEventCollector;
+
+    @Entity
+    @Data
+    @NoArgsConstructor
+    @EqualsAndHashCode(onlyExplicitlyIncluded = true)
+    static class Account {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        @EqualsAndHashCode.Include
+        @Column(unique = true)
+        private String accountName;
+
+        Account(String accountName) {
+            this.accountName = accountName;
+        }
+    }
+
+    static class AccountService {
+
+        @Autowired
+        private EntityManager entityManager;
+
+        @Transactional
+        public void create(String accountName) {
+            entityManager.persist(new Account(accountName));
+        }
+
+        @Transactional
+        public void createThenFail(String accountName) {
+            entityManager.persist(new Account(accountName));
+            throw new IllegalStateException("Throw exception to simulate rollback");
+        }
+    }
+
+    static class LongTransactionEventCollector {
+
+        private final List<LongTransactionEvent> events = new CopyOnWriteArrayList<>();
+
+        @EventListener
+        void on(LongTransactionEvent event) {
+            events.add(event);
+        }
+    }
+
+    @TestConfiguration
+    static class Config {
+
+        @Bean
+        AccountService accountService() {
+            return new AccountService();
+        }
+
+        @Bean
+        LongTransactionEventCollector longTransactionEventCollector() {
+            return new LongTransactionEventCollector();
+        }
+    }
+
+    @Test
+    @DisplayName("Transaction manager bean is decorated by TimedTransactionManager")
+    void transactionManagerIsDecorated() {
+
+        assertThat(transactionManager).isInstanceOf(TimedTransactionManager.class);
+    }
+
+    @Test
+    @DisplayName("When @Transactional method commits, then begin, flush and commit are timed by method name")
+    void whenTransactionalMethodCommit_thenPhasesAreTimedByMethodName() {
+
+        accountService.create("commit");
+
+        String name = AccountService.class.getName() + ".create";
+        assertThat(phaseTimer(name, "begin").count()).isEqualTo(1);
+        assertThat(phaseTimer(name, "flush").count()).isEqualTo(1);
+        assertThat(phaseTimer(name, "commit").count()).isEqualTo(1);
+        assertThat(meterRegistry.get(TimedTransactionManager.DURATION_TIMER_NAME)
+                                .tag("name", name)
+                                .timer()
+                                .count())
+                .isEqualTo(1);
+        assertThat(((TimedTransactionManager) transactionManager).getOpenTransactions()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("When @Transactional method throws, then rollback is timed and no commit")
+    void whenTransactionalMethodThrow_thenRollbackIsTimed() {
+
+        assertThatThrownBy(() -> accountService.createThenFail("rollback"))
+                .isInstanceOf(IllegalStateException.class);
+
+        String name = AccountService.class.getName() + ".createThenFail";
+        assertThat(phaseTimer(name, "rollback").count()).isEqualTo(1);
+        assertThat(meterRegistry.find(TimedTransactionManager.PHASE_TIMER_NAME)
+                                .tags("name", name, "phase", "commit")
+                                .timer())
+                .isNull();
+        assertThat(((TimedTransactionManager) transactionManager).getOpenTransactions()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("When flush fails on commit, then flush is timed, the transaction is rolled back and " +
+                 "nothing is left bound to the thread")
+    void whenFlushFailsOnCommit_thenRolledBackAndNothingLeftBound() {
+
+        TransactionTemplate namedTransactionTemplate = new TransactionTemplate(transactionManager);
+        namedTransactionTemplate.setName("flush-failure");
+
+        // the second insert violates the unique account name on flush
+        assertThatThrownBy(() -> namedTransactionTemplate.executeWithoutResult(transactionStatus -> {
+            entityManager.persist(new Account("duplicate"));
+            entityManager.persist(new Account("duplicate"));
+        })).isInstanceOf(DataIntegrityViolationException.class);
+
+        assertThat(phaseTimer("flush-failure", "flush").count()).isEqualTo(1);
+        assertThat(phaseTimer("flush-failure", "commit").count()).isEqualTo(1);
+        assertThat(TransactionSynchronizationManager.isSynchronizationActive()).isFalse();
+        assertThat(TransactionSynchronizationManager.getResourceMap()).isEmpty();
+        assertThat(((TimedTransactionManager) transactionManager).getOpenTransactions()).isEmpty();
+        Long duplicates = transactionTemplate.execute(transactionStatus ->
+                entityManager.createQuery("select count(a) from TimedTransactionManagerTest$Account a " +
+                                          "where a.accountName = 'duplicate'", Long.class)
+                             .getSingleResult());
+        assertThat(duplicates).isZero();
+    }
+
+    @Test
+    @DisplayName("When transaction is open longer than threshold, then LongTransactionEvent is published once")
+    @SneakyThrows
+    void whenTransactionOpenLongerThanThreshold_thenLongTransactionEventIsPublished() {
+
+        TransactionTemplate namedTransactionTemplate = new TransactionTemplate(transactionManager);
+        namedTransactionTemplate.setName("long-transaction");
+
+        namedTransactionTemplate.executeWithoutResult(transactionStatus -> {
+
+            entityManager.persist(new Account("long"));
+            try {
+                TimeUnit.MILLISECONDS.sleep(1_500);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        assertThat(longTransactionEventCollector.events)
+                .filteredOn(event -> "long-transaction".equals(event.getOpenTransaction().getName()))
+                .hasSize(1)
+                .first()
+                .satisfies(event -> {
+                    assertThat(event.getAge().toMillis()).isGreaterThan(500);
+                    assertThat(event.getOpenTransaction().getOwner()).isEqualTo(Thread.currentThread());
+                    assertThat(event.getOwnerStackTrace()).isNotEmpty();
+                    assertThat(event.getOpenTransaction().getBeginStackTrace()).isNotNull();
+                });
+    }
+
+    @Test
+    @DisplayName("Given transaction template without name, then timed as unnamed")
+    void givenTransactionTemplateWithoutName_thenTimedAsUnnamed() {
+
+        long before = meterRegistry.find(TimedTransactionManager.DURATION_TIMER_NAME)
+                                   .tag("name", TimedTransactionManager.UNNAMED)
+                                   .timers()
+                                   .stream()
+                                   .mapToLong(Timer::count)
+                                   .sum();
+
+        transactionTemplate.executeWithoutResult(transactionStatus ->
+                entityManager.persist(new Account("unnamed")));
+
+        assertThat(meterRegistry.get(TimedTransactionManager.DURATION_TIMER_NAME)
+                                .tag("name", TimedTransactionManager.UNNAMED)
+                                .timer()
+                                .count())
+                .isEqualTo(before + 1);
+    }
+
+    private Timer phaseTimer(String name, String phase) {
+
+        return meterRegistry.get(TimedTransactionManager.PHASE_TIMER_NAME)
+                            .tags("name", name, "phase", phase)
+                            .timer();
+    }
+}
@@ -0,0 +1,155 @@
+package com.yejianfengblue.spring.boot.tx;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Limit concurrent transactions per service class, so one busy service can't drain the connection pool and stall
+ * all the others.
+ * <p>
+ * Each service class gets its own fair {@link Semaphore} of {@code ceil(maximumPoolSize * share)} permits.
+ * Callers queue up to the acquire timeout, and then get {@link BulkheadFullException}.
+ * <p>
+ * Metrics, tagged by service class:
+ * <ul>
+ * <li>{@code tx.bulkhead.queue.depth} number of threads waiting for a permit
+ * <li>{@code tx.bulkhead.available} available permits
+ * <li>{@code tx.bulkhead.wait} time spent waiting for a permit
+ * <li>{@code tx.bulkhead.rejected} number of acquire timeouts
+ * </ul>
+ *
+ * @author yejianfengblue
+ */
+@Slf4j
+public class TransactionBulkhead {
+
+    /**
+     * Hikari default maximumPoolSize
+     */
+    static final int DEFAULT_POOL_SIZE = 10;
+
+    private final int permitsPerService;
+
+    private final Duration acquireTimeout;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Class<?>, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+    public TransactionBulkhead(int permitsPerService, Duration acquireTimeout, MeterRegistry meterRegistry) {
+
+        if (permitsPerService < 1) {
+            throw new IllegalArgumentException("permitsPerService must be positive");
+        }
+        this.permitsPerService = permitsPerService;
+        this.acquireTimeout = acquireTimeout;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Size the bulkhead from the Hikari pool behind the given data source
+     *
+     * @param share  the share of the pool one service class can hold, in (0, 1]
+     */
+    public static TransactionBulkhead sizedFromPool(DataSource dataSource,
+                                                    double share,
+                                                    Duration acquireTimeout,
+                                                    MeterRegistry meterRegistry) {
+
+        if (share <= 0 || share > 1) {
+            throw new IllegalArgumentException("share must be in (0, 1]");
+        }
+        int poolSize = maximumPoolSize(dataSource);
+        int permits = Math.max(1, (int) Math.ceil(poolSize * share));
+        log.info("Pool size = {}, share = {}, permits per service = {}", poolSize, share, permits);
+        return new TransactionBulkhead(permits, acquireTimeout, meterRegistry);
+    }
+
+    static int maximumPoolSize(DataSource dataSource) {
+
+        if (dataSource instanceof HikariDataSource) {
+            return ((HikariDataSource) dataSource).getMaximumPoolSize();
+        }
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            }
+        } catch (SQLException e) {
+            log.warn("Fail to unwrap HikariDataSource", e);
+        }
+        log.warn("Data source is not Hikari, assume pool size {}", DEFAULT_POOL_SIZE);
+        return DEFAULT_POOL_SIZE;
+    }
+
+    public int getPermitsPerService() {
+        return permitsPerService;
+    }
+
+    /**
+     * Wait up to the acquire timeout for a permit of the given service class
+     *
+     * @throws BulkheadFullException  if timeout or interrupted
+     */
+    void acquire(Class<?> serviceClass) {
+
+        Semaphore semaphore = semaphoreOf(serviceClass);
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkheadFullException("Interrupted while waiting for transaction permit of " +
+                                            serviceClass.getName(), e);
+        } finally {
+            Timer.builder("tx.bulkhead.wait")
+                 .tag("service", serviceClass.getName())
+                 .publishPercentileHistogram()
+                 .register(meterRegistry)
+                 .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            Counter.builder("tx.bulkhead.rejected")
+                   .tag("service", serviceClass.getName())
+                   .register(meterRegistry)
+                   .increment();
+            throw new BulkheadFullException("No transaction permit of " + serviceClass.getName() +
+                                            " available within " + acquireTimeout.toMillis() + "ms");
+        }
+    }
+
+    void release(Class<?> serviceClass) {
+        semaphoreOf(serviceClass).release();
+    }
+
+    int queueDepth(Class<?> serviceClass) {
+        return semaphoreOf(serviceClass).getQueueLength();
+    }
+
+    private Semaphore semaphoreOf(Class<?> serviceClass) {
+
+        return semaphores.computeIfAbsent(serviceClass, clazz -> {
+
+            Semaphore semaphore = new Semaphore(permitsPerService, true);
+            Gauge.builder("tx.bulkhead.queue.depth", semaphore, Semaphore::getQueueLength)
+                 .tag("service", clazz.getName())
+                 .register(meterRegistry);
+            Gauge.builder("tx.bulkhead.available", semaphore, Semaphore::availablePermits)
+                 .tag("service", clazz.getName())
+                 .register(meterRegistry);
+            return semaphore;
+        });
+    }
+}